@@ -174,7 +174,7 @@ final class MapGoogleController extends MapController<MapView, MapGoogleControll
         imageFile = new ImageFile(tdlib, avatar);
         imageFile.setSwOnly(true);
         imageFile.setSize(ChatView.getDefaultAvatarCacheSize());
-        synchronized (ImageCache.getReferenceCounters()) {
+        synchronized (ImageCache.getReferenceLock()) {
           Bitmap avatarBitmap = ImageCache.instance().getBitmap(imageFile);
           if (U.isValidBitmap(avatarBitmap)) {
             drawAvatar(c, avatarBitmap);
@@ -84,7 +84,6 @@ import androidx.core.os.EnvironmentCompat;
 import androidx.exifinterface.media.ExifInterface;
 import androidx.media3.common.PlaybackException;
 import androidx.media3.datasource.FileDataSource;
-import androidx.media3.exoplayer.DefaultLoadControl;
 import androidx.media3.exoplayer.DefaultRenderersFactory;
 import androidx.media3.exoplayer.ExoPlaybackException;
 import androidx.media3.exoplayer.ExoPlayer;
@@ -112,6 +111,7 @@ import org.thunderdog.challegram.loader.ImageLoader;
 import org.thunderdog.challegram.loader.ImageReader;
 import org.thunderdog.challegram.loader.ImageStrictCache;
 import org.thunderdog.challegram.mediaview.data.MediaItem;
+import org.thunderdog.challegram.player.PlayerLoadControl;
 import org.thunderdog.challegram.telegram.Tdlib;
 import org.thunderdog.challegram.telegram.TdlibDataSource;
 import org.thunderdog.challegram.telegram.TdlibDelegate;
@@ -713,17 +713,20 @@ public class U {
     return app_installed;
   }
 
-  public static ExoPlayer newExoPlayer (Context context, boolean preferExtensions) {
+  public static ExoPlayer newExoPlayer (Context context, boolean preferExtensions, @PlayerLoadControl.Profile int loadControlProfile) {
     // new AdaptiveVideoTrackSelection.Factory(new DefaultBandwidthMeter())
     // DefaultRenderersFactory.EXTENSION_RENDERER_MODE_PREFER
     // DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON
     final int extensionMode = preferExtensions || org.thunderdog.challegram.unsorted.Settings.instance().getNewSetting(org.thunderdog.challegram.unsorted.Settings.SETTING_FLAG_FORCE_EXO_PLAYER_EXTENSIONS) ? DefaultRenderersFactory.EXTENSION_RENDERER_MODE_PREFER : DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON;
     final RenderersFactory renderersFactory = new DefaultRenderersFactory(context).setExtensionRendererMode(extensionMode);
     final MediaSourceFactory mediaSourceFactory = new DefaultMediaSourceFactory(context, new DefaultExtractorsFactory().setConstantBitrateSeekingEnabled(true));
-    return new ExoPlayer.Builder(context, renderersFactory, mediaSourceFactory)
+    final PlayerLoadControl.Tracker loadControlTracker = PlayerLoadControl.newTracker(loadControlProfile);
+    final ExoPlayer player = new ExoPlayer.Builder(context, renderersFactory, mediaSourceFactory)
       .setTrackSelector(new DefaultTrackSelector(context))
-      .setLoadControl(new DefaultLoadControl())
+      .setLoadControl(loadControlTracker.loadControl)
       .build();
+    player.addAnalyticsListener(loadControlTracker);
+    return player;
   }
 
   public static boolean isUnsupportedFormat (PlaybackException e) {
@@ -0,0 +1,124 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:12
+ */
+package org.thunderdog.challegram.component.chat;
+
+import org.thunderdog.challegram.Log;
+
+/**
+ * Picks limits and preload distances for history requests made by {@link MessagesLoader}.
+ *
+ * Sizes are derived from three signals: how long TDLib takes to answer, how much of the answers
+ * came from the local database, and how fast the user scrolls. Fast flings get bigger chunks that are
+ * requested earlier, so the list doesn't run into the edge of the loaded window while a request is in flight.
+ * Slow readers on metered networks get smaller chunks, as most of the fetched messages would never be seen.
+ *
+ * Response statistics are reported from the TDLib thread, everything else happens on the UI thread.
+ */
+class MessagesChunkSizer {
+  private static final int MAX_CHUNK_SIZE = 100; // Maximum limit accepted by TDLib
+  private static final int MAX_PRELOAD_COUNT = 60;
+
+  private static final long LOCAL_LATENCY_MS = 40; // Faster responses are most likely served from the local database
+  private static final float LATENCY_SMOOTHING = .3f;
+  private static final float LOCAL_RATIO_SMOOTHING = .25f;
+
+  private static final float SLOW_VELOCITY = 2f; // Items per second, roughly reading speed
+  private static final float CHUNK_HEADROOM = 2f; // Chunk should last for this many round trips
+  private static final float PRELOAD_HEADROOM = 1.5f;
+
+  private float latencyMs = -1; // Unknown until the first response
+  private float localRatio = -1;
+  private float velocity; // Items per second, positive when moving towards older messages
+
+  // Latency & cache
+
+  synchronized void onResponseReceived (long elapsedMs, int requestedCount, int receivedCount, boolean onlyLocal) {
+    final float localSample;
+    if (onlyLocal) {
+      localSample = requestedCount > 0 ? Math.min(1f, (float) receivedCount / (float) requestedCount) : 0f;
+    } else {
+      localSample = elapsedMs <= LOCAL_LATENCY_MS ? 1f : 0f;
+      // Local-only requests never hit the network, so they don't tell anything about its latency
+      latencyMs = latencyMs < 0 ? elapsedMs : latencyMs + (elapsedMs - latencyMs) * LATENCY_SMOOTHING;
+    }
+    localRatio = localRatio < 0 ? localSample : localRatio + (localSample - localRatio) * LOCAL_RATIO_SMOOTHING;
+  }
+
+  // Scroll
+
+  void onScrollVelocityChanged (float itemsPerSecond) {
+    velocity = itemsPerSecond; // Already smoothed by MessagesPrefetcher
+  }
+
+  void onScrollIdle () {
+    velocity = 0;
+  }
+
+  void reset () {
+    synchronized (this) {
+      localRatio = -1;
+    }
+    velocity = 0;
+  }
+
+  // Sizing
+
+  private synchronized float expectedLatencyMs () {
+    if (latencyMs < 0) {
+      return -1;
+    }
+    // Responses coming from the database mostly don't pay the network round trip
+    float remoteShare = localRatio < 0 ? 1f : 1f - localRatio;
+    return Math.max(LOCAL_LATENCY_MS, latencyMs * remoteShare);
+  }
+
+  private synchronized boolean isMostlyLocal () {
+    return localRatio >= .5f;
+  }
+
+  private float directionalVelocity (boolean towardsTop) {
+    float velocity = this.velocity;
+    return towardsTop ? Math.max(0, velocity) : Math.max(0, -velocity);
+  }
+
+  int getChunkSize (boolean towardsTop, int defaultSize, int minSize, boolean isMetered) {
+    final float latencyMs = expectedLatencyMs();
+    final float velocity = directionalVelocity(towardsTop);
+    int size = defaultSize;
+    if (latencyMs >= 0) {
+      int consumedCount = (int) Math.ceil(velocity * latencyMs / 1000f * CHUNK_HEADROOM);
+      if (consumedCount > size) {
+        size = consumedCount;
+      } else if (isMetered && velocity < SLOW_VELOCITY && !isMostlyLocal()) {
+        size = minSize;
+      }
+    }
+    size = Math.max(minSize, Math.min(MAX_CHUNK_SIZE, size));
+    if (size != defaultSize && Log.isEnabled(Log.TAG_MESSAGES_LOADER)) {
+      Log.i(Log.TAG_MESSAGES_LOADER, "Adjusted chunk size %d -> %d, towardsTop:%b velocity:%.1f/s latency:%.0fms metered:%b", defaultSize, size, towardsTop, velocity, latencyMs, isMetered);
+    }
+    return size;
+  }
+
+  int getPreloadCount (boolean towardsTop, int defaultCount) {
+    final float latencyMs = expectedLatencyMs();
+    if (latencyMs < 0) {
+      return defaultCount;
+    }
+    final float velocity = directionalVelocity(towardsTop);
+    int consumedCount = (int) Math.ceil(velocity * latencyMs / 1000f * PRELOAD_HEADROOM);
+    return Math.min(MAX_PRELOAD_COUNT, defaultCount + consumedCount);
+  }
+}
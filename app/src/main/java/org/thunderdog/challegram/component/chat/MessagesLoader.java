@@ -31,7 +31,9 @@ import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.R;
 import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.Background;
+import org.thunderdog.challegram.core.BaseThread;
 import org.thunderdog.challegram.core.Lang;
+import org.thunderdog.challegram.core.WatchDog;
 import org.thunderdog.challegram.data.ChatEventUtil;
 import org.thunderdog.challegram.data.TD;
 import org.thunderdog.challegram.data.TGMessage;
@@ -111,8 +113,9 @@ public class MessagesLoader implements Client.ResultHandler {
 
   private CancellableResultHandler sponsoredResultHandler;
   private final MessagesSearchManagerMiddleware searchManagerMiddleware;
+  private final MessagesChunkSizer chunkSizer = new MessagesChunkSizer();
 
-  private long contextId;
+  private volatile long contextId;
 
   private boolean canShowSponsoredMessage (long chatId) {
     return tdlib.isChannel(chatId) && !manager.controller().isInForceTouchMode() && !manager.controller().inPreviewMode() && !manager.controller().areScheduledOnly() && !manager.controller().arePinnedMessages();
@@ -231,7 +234,7 @@ public class MessagesLoader implements Client.ResultHandler {
   private TdApi.Message[] mergeChunk;
   private int mergeMode;
 
-  private Client.ResultHandler newHandler (final boolean allowMoreTop, final boolean allowMoreBottom, boolean needFindUnread) {
+  private Client.ResultHandler newHandler (final boolean allowMoreTop, final boolean allowMoreBottom, boolean needFindUnread, final int requestedLimit, final boolean requestedLocal) {
     final long currentContextId = contextId;
     if (DEBUG_HANDLER) {
       Log.w("lastHandler = [new instance], error: %b", Log.generateException(1), lastHandler != null);
@@ -313,6 +316,10 @@ public class MessagesLoader implements Client.ResultHandler {
           }
         }
 
+        if (object.getConstructor() != TdApi.Error.CONSTRUCTOR) {
+          chunkSizer.onResponseReceived(ms, requestedLimit, messages.length, requestedLocal);
+        }
+
         boolean needMoreTop = allowMoreTop;
         boolean needMoreBottom = allowMoreBottom;
         TdApi.Message[] mergingChunk = mergeChunk;
@@ -521,9 +528,17 @@ public class MessagesLoader implements Client.ResultHandler {
           lastHandler = null;
         }
 
-        processMessages(currentContextId,
-          messages, knownTotalCount, nextSearchOffset, nextSearchFromMessageId,
-          needFindUnread && object.getConstructor() == TdApi.Messages.CONSTRUCTOR, missingAlbums);
+        // Parsing and layout may take a while for big chunks, so don't hold TDLib thread
+        final TdApi.Message[] receivedMessages = messages;
+        final boolean needFindUnreadFinal = needFindUnread && object.getConstructor() == TdApi.Messages.CONSTRUCTOR;
+        final List<List<TdApi.Message>> missingAlbumsFinal = missingAlbums;
+        process(() -> {
+          if (!isCancelled(currentContextId, "queue")) {
+            processMessages(currentContextId,
+              receivedMessages, knownTotalCount, nextSearchOffset, nextSearchFromMessageId,
+              needFindUnreadFinal, missingAlbumsFinal);
+          }
+        });
       }
     };
   }
@@ -535,6 +550,7 @@ public class MessagesLoader implements Client.ResultHandler {
     knownTotalMessageCount = -1;
 
     foundUnreadAtLeastOnce = false;
+    chunkSizer.reset();
 
     canLoadTop = false;
     canLoadBottom = false;
@@ -1142,12 +1158,12 @@ public class MessagesLoader implements Client.ResultHandler {
           break;
       }
 
+      lastRequestTime = SystemClock.elapsedRealtime();
       if (Log.isEnabled(Log.TAG_MESSAGES_LOADER)) {
-        lastRequestTime = SystemClock.elapsedRealtime();
         Log.i(Log.TAG_MESSAGES_LOADER, "allowMoreTop:%b, allowMoreBottom:%b. Invoking %s, onlyLocal:%b", allowMoreTop, allowMoreBottom, function, loadingLocal);
       }
 
-      Client.ResultHandler handler = newHandler(allowMoreTop, allowMoreBottom, (mode != MODE_MORE_TOP && mode != MODE_MORE_BOTTOM) || !foundUnreadAtLeastOnce);
+      Client.ResultHandler handler = newHandler(allowMoreTop, allowMoreBottom, (mode != MODE_MORE_TOP && mode != MODE_MORE_BOTTOM) || !foundUnreadAtLeastOnce, limit, loadingLocal);
       //noinspection SwitchIntDef
       switch (function.getConstructor()) {
         case TdApi.SearchSecretMessages.CONSTRUCTOR: {
@@ -1171,7 +1187,36 @@ public class MessagesLoader implements Client.ResultHandler {
   }
 
   public boolean loadMore (boolean fromTop) {
-    return loadMore(fromTop, fromTop ? CHUNK_SIZE_BIG : CHUNK_SIZE_BOTTOM, false);
+    final int count;
+    if (specialMode == SPECIAL_MODE_NONE && !hasSearchFilter()) {
+      boolean isMetered = isMeteredNetwork();
+      count = fromTop ?
+        chunkSizer.getChunkSize(true, CHUNK_SIZE_BIG, CHUNK_SIZE_SMALL, isMetered) :
+        chunkSizer.getChunkSize(false, CHUNK_SIZE_BOTTOM, CHUNK_SIZE_SMALL, isMetered);
+    } else {
+      count = fromTop ? CHUNK_SIZE_BIG : CHUNK_SIZE_BOTTOM;
+    }
+    return loadMore(fromTop, count, false);
+  }
+
+  private boolean isMeteredNetwork () {
+    WatchDog watchDog = tdlib.context().watchDog();
+    return watchDog.isMobile() || watchDog.isRoaming() || watchDog.isSystemDataSaverEnabled();
+  }
+
+  public int getPreloadCount (boolean fromTop, int defaultCount) {
+    if (specialMode != SPECIAL_MODE_NONE || hasSearchFilter()) {
+      return defaultCount;
+    }
+    return chunkSizer.getPreloadCount(fromTop, defaultCount);
+  }
+
+  public void onScrollVelocityChanged (float itemsPerSecond) {
+    chunkSizer.onScrollVelocityChanged(itemsPerSecond);
+  }
+
+  public void onScrollIdle () {
+    chunkSizer.onScrollIdle();
   }
 
   private boolean loadMore (boolean fromTop, int count, boolean onlyLocal) {
@@ -1196,7 +1241,8 @@ public class MessagesLoader implements Client.ResultHandler {
 
         // Parameter limit must be greater than -offset
         // -offset
-        load(startBottom, CHUNK_BOTTOM_OFFSET, count, MODE_MORE_BOTTOM, onlyLocal, false, true);
+        final int offset = CHUNK_BOTTOM_OFFSET - (count - CHUNK_SIZE_BOTTOM);
+        load(startBottom, offset, count, MODE_MORE_BOTTOM, onlyLocal, false, true);
         return true;
       }
     }
@@ -1275,25 +1321,70 @@ public class MessagesLoader implements Client.ResultHandler {
     return array;
   }
 
-  private long measuredStartTime;
-  private long measuredTotalMs;
-  private int stepsCount;
+  // Processing pipeline: parse & group -> merge -> layout -> publish
+
+  private static final class ProcessingThreadHolder {
+    private static final BaseThread INSTANCE = new BaseThread("MessagesLoaderThread");
+  }
+
+  // All message layout happens on the processing thread, and everything it publishes reaches the UI thread in posting order.
+  // Message updates received on TDLib thread while there are unpublished tasks go through the same queue,
+  // otherwise they could be applied before the messages they are meant for are published
+
+  private int processingTaskCount;
 
-  private void startMeasureStep () {
-    measuredStartTime = SystemClock.uptimeMillis();
+  private void process (Runnable task) {
+    synchronized (lock) {
+      processingTaskCount++;
+    }
+    ProcessingThreadHolder.INSTANCE.post(() -> {
+      try {
+        task.run();
+      } finally {
+        synchronized (lock) {
+          processingTaskCount--;
+        }
+      }
+    }, 0);
   }
 
-  private void endMeasureStep (TGMessage result, long messageId, int size) {
-    long ms = SystemClock.uptimeMillis() - measuredStartTime;
-    Log.i(Log.TAG_MESSAGES_LOADER, "message_id=%d (size: %d) took %dms (%s)", messageId, size, ms, result != null ? result.getClass().getName() : "combination");
-    measuredTotalMs += ms;
-    stepsCount++;
+  /**
+   * Posts message update to the UI thread, or, when there are unpublished processing tasks, right after them.
+   *
+   * Must be called on TDLib thread.
+   */
+  public void postUpdate (Runnable act) {
+    synchronized (lock) {
+      if (processingTaskCount == 0) {
+        tdlib.ui().post(act);
+        return;
+      }
+    }
+    process(() -> tdlib.ui().post(act));
+  }
+
+  /**
+   * Lays out messages on the processing thread and then posts message update to the UI thread.
+   *
+   * Must be called on TDLib thread.
+   */
+  public void postLayoutUpdate (List<TGMessage> messages, Runnable act) {
+    process(() -> {
+      for (TGMessage message : messages) {
+        message.prepareLayout();
+      }
+      tdlib.ui().post(act);
+    });
   }
 
-  private void completeMeasure () {
-    Log.i(Log.TAG_MESSAGES_LOADER, "processed %d steps in %dms (average %dms per step)", stepsCount, measuredTotalMs, stepsCount == 0 ? -1 : (measuredTotalMs / stepsCount));
-    measuredTotalMs = 0;
-    stepsCount = 0;
+  private boolean isCancelled (long currentContextId, String stage) {
+    if (contextId != currentContextId) {
+      if (Log.isEnabled(Log.TAG_MESSAGES_LOADER)) {
+        Log.i(Log.TAG_MESSAGES_LOADER, "Cancelling messages processing at %s stage, because contextId has changed", stage);
+      }
+      return true;
+    }
+    return false;
   }
 
   private void processMessages (final long currentContextId, TdApi.Message[] messages, int knownTotalMessageCount,
@@ -1337,6 +1428,7 @@ public class MessagesLoader implements Client.ResultHandler {
     TGMessage scrollItem = null;
 
     final boolean needMeasureSpeed = Log.isEnabled(Log.TAG_MESSAGES_LOADER) && Log.checkLogLevel(Log.LEVEL_INFO);
+    final long parseStartTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
 
     final TGMessage bottomMessage = manager.getAdapter().getBottomMessage();
     final long startBottom = bottomMessage != null ? bottomMessage.getBiggestId() : 0;
@@ -1351,9 +1443,6 @@ public class MessagesLoader implements Client.ResultHandler {
 
     final List<TdApi.Message> combineWithMessages = new ArrayList<>();
 
-    if (needMeasureSpeed) {
-      startMeasureStep();
-    }
     if (messages.length > 0) {
       switch (loadingMode) {
         case MODE_MORE_BOTTOM: {
@@ -1380,10 +1469,6 @@ public class MessagesLoader implements Client.ResultHandler {
         }
       }
     }
-    if (needMeasureSpeed) {
-      endMeasureStep(null, 0, 0);
-    }
-
     if (!combineWithMessages.isEmpty()) {
       final boolean bottom = loadingMode == MODE_MORE_BOTTOM;
       UI.post(() -> {
@@ -1400,9 +1485,14 @@ public class MessagesLoader implements Client.ResultHandler {
     boolean unreadFound = !needFindUnread;
     TGMessage unreadBadged = null;
 
+    // Stage 1: parse messages, oldest first, combining albums and other groupped messages
+
+    final List<TGMessage> parsed = new ArrayList<>(maxIndex - minIndex + 1);
+    int scrollParsedIndex = -1;
+
     for (int j = maxIndex; j >= minIndex; j--) {
-      if (needMeasureSpeed) {
-        startMeasureStep();
+      if (isCancelled(currentContextId, "parse")) {
+        return;
       }
       boolean containsScrollingMessage = false;
       try {
@@ -1428,11 +1518,24 @@ public class MessagesLoader implements Client.ResultHandler {
         }
       } catch (Throwable t) {
         Log.critical("Couldn't parse message", t);
-        if (needMeasureSpeed) {
-          endMeasureStep(null, 0, -1);
-        }
         continue;
       }
+      if (cur == null) {
+        continue;
+      }
+      if (containsScrollingMessage) {
+        scrollParsedIndex = parsed.size();
+      }
+      parsed.add(cur);
+    }
+
+    final long mergeStartTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
+
+    // Stage 2: unread state and merging with neighbours.
+    // Done for the whole chunk before layout, so that changes mergeWith makes to the previous message don't cause extra layouts
+
+    for (int i = 0; i < parsed.size(); i++) {
+      cur = parsed.get(i);
 
       if (!isChannel) {
         if (cur.isOutgoing()) {
@@ -1469,25 +1572,37 @@ public class MessagesLoader implements Client.ResultHandler {
         id = cur.getChatId();
       }
 
-      cur.mergeWith(top, j == minIndex);
-      cur.prepareLayout();
+      cur.mergeWith(top, i == parsed.size() - 1);
 
-      items.add(0, cur);
+      items.add(cur);
 
-      if (containsScrollingMessage) {
+      if (i == scrollParsedIndex) {
         scrollItemIndex = items.size();
         scrollItem = cur;
       }
 
       top = cur;
+    }
+    Collections.reverse(items); // Newest first
 
-      if (needMeasureSpeed) {
-        endMeasureStep(cur, cur.getId(), cur.getMessageCount());
+    if (isCancelled(currentContextId, "merge")) {
+      return;
+    }
+
+    final long layoutStartTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
+
+    // Stage 3: layout at the current recycler width, so that the main thread only has to bind views
+
+    for (TGMessage item : items) {
+      if (isCancelled(currentContextId, "layout")) {
+        return;
       }
+      item.prepareLayout();
     }
 
+    final long layoutEndTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
     if (needMeasureSpeed) {
-      completeMeasure();
+      Log.i(Log.TAG_MESSAGES_LOADER, "Processed %d messages into %d items: parse %dms, merge %dms, layout %dms", messages.length, items.size(), mergeStartTime - parseStartTime, layoutStartTime - mergeStartTime, layoutEndTime - layoutStartTime);
     }
 
     if (unreadFound && lookForInbox) {
@@ -1647,10 +1762,15 @@ public class MessagesLoader implements Client.ResultHandler {
     final TGMessage scrollItemView = scrollItem;
     boolean unreadFoundFinal = unreadFound;
 
+    // Stage 4: publish
+
+    final long publishStartTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
     UI.post(() -> {
       if (contextId != currentContextId || getChatId() != chatId) {
+        isCancelled(currentContextId, "publish");
         return;
       }
+      final long displayStartTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
 
       setKnownTotalMessageCount(knownTotalMessageCount);
       lastSearchNextOffset = nextSearchOffset;
@@ -1678,6 +1798,10 @@ public class MessagesLoader implements Client.ResultHandler {
       final int chunkSize = scrollItemIndexFinal == -1 ? CHUNK_SIZE_SMALL : CHUNK_SIZE_SEARCH;
       boolean willTryAgain = (loadingMode == MODE_INITIAL || loadingMode == MODE_REPEAT_INITIAL) && items.size() < chunkSize && items.size() > 0;
       manager.displayMessages(items, loadingMode, scrollPosition, scrollItemView, scrollMessageId, scrollHighlightMode, willTryAgain && loadingLocal, canLoadTop);
+      if (needMeasureSpeed) {
+        long now = SystemClock.uptimeMillis();
+        Log.i(Log.TAG_MESSAGES_LOADER, "Published %d items: waited for main thread %dms, display %dms", items.size(), displayStartTime - publishStartTime, now - displayStartTime);
+      }
 
       synchronized (lock) {
         isLoading = false;
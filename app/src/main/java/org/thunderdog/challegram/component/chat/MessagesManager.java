@@ -94,6 +94,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
   private final MessagesSearchManagerMiddleware searchMiddleware;
 
   private final MessagesLoader loader;
+  private final MessagesPrefetcher prefetcher;
 
   private String eventLogQuery;
   private long[] eventLogUserIds;
@@ -113,6 +114,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
     this.tdlib = controller.tdlib();
     this.searchMiddleware = new MessagesSearchManagerMiddleware(tdlib);
     this.loader = new MessagesLoader(this, searchMiddleware);
+    this.prefetcher = new MessagesPrefetcher(this);
     this.listener = new RecyclerView.OnScrollListener() {
       @Override
       public void onScrollStateChanged (RecyclerView recyclerView, int newState) {
@@ -132,6 +134,8 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
         }
         if (newState == RecyclerView.SCROLL_STATE_IDLE) {
           saveScrollPosition();
+          prefetcher.onScrollIdle();
+          loader.onScrollIdle();
         }
         ((MessagesRecyclerView) recyclerView).setIsScrolling(newState != RecyclerView.SCROLL_STATE_IDLE);
       }
@@ -139,6 +143,10 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       @Override
       public void onScrolled (RecyclerView recyclerView, int dx, int dy) {
         viewMessages(true);
+        if (isScrolling) {
+          prefetcher.onScrolled(manager, dy);
+          loader.onScrollVelocityChanged(prefetcher.getItemVelocity());
+        }
         if (dy == 0) {
           saveScrollPosition();
           ((MessagesRecyclerView) recyclerView).showDateForcely();
@@ -286,7 +294,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
         } else {
           checkVisibleContentProtection(first, last);
         }
-        if (isFocused && !(first - BOTTOM_PRELOAD_COUNT <= 0 && loader.loadMore(false)) && last + TOP_PRELOAD_COUNT >= adapter.getItemCount()) {
+        if (isFocused && !(first - loader.getPreloadCount(false, BOTTOM_PRELOAD_COUNT) <= 0 && loader.loadMore(false)) && last + loader.getPreloadCount(true, TOP_PRELOAD_COUNT) >= adapter.getItemCount()) {
           loader.loadMore(true);
         }
         checkMessageThreadUnreadCounter(first);
@@ -544,6 +552,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       }
       tdlib.closeChat(chatId, context, true);
     }
+    prefetcher.destroy();
     loader.reuse();
     messageViewer = null;
     adapter.clear(true);
@@ -1633,7 +1642,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
 
   @Override
   public void onMessageSendAcknowledged (final long chatId, final long messageId) {
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         int index = adapter.indexOfMessageContainer(messageId);
         if (index != -1 && adapter.getMessage(index).onMessageSendAcknowledged(messageId)) {
@@ -2987,15 +2996,14 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
   }
 
   private void showMessage (final long chatId, final TGMessage message) {
-    message.prepareLayout();
-    tdlib.ui().post(() -> {
+    loader.postLayoutUpdate(Collections.singletonList(message), () -> {
       if (loader.getChatId() == chatId) {
         updateNewMessage(message);
       }
     });
   }
 
-  public List<TGMessage> parseMessages (List<TdApi.Message> messages) {
+  public void parseMessages (List<TdApi.Message> messages, RunnableData<List<TGMessage>> after) {
     final List<TGMessage> parsedMessages = new ArrayList<>(messages.size());
     final TdApi.Chat chat = tdlib.chatStrict(messages.get(0).chatId);
     final ThreadInfo messageThread = loader.getMessageThread();
@@ -3006,16 +3014,14 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
         if (cur.combineWith(message, true)) {
           continue;
         }
-        cur.prepareLayout();
         parsedMessages.add(cur);
       }
       cur = TGMessage.valueOf(this, message, chat, messageThread, chatAdmins);
     }
     if (cur != null) {
-      cur.prepareLayout();
       parsedMessages.add(cur);
     }
-    return parsedMessages;
+    loader.postLayoutUpdate(parsedMessages, () -> after.runWithData(parsedMessages));
   }
 
   /*@Override
@@ -3044,7 +3050,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.set(sentMessageIndex, message);
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == message.chatId) {
         updateMessageSendSucceeded(message, oldMessageId);
       }
@@ -3058,7 +3064,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.set(sentMessageIndex, message);
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == message.chatId) {
         updateMessageSendFailed(message, oldMessageId);
       }
@@ -3072,7 +3078,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.get(sentMessageIndex).content = newContent;
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageContent(chatId, messageId, newContent);
       }
@@ -3088,7 +3094,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       msg.replyMarkup = replyMarkup;
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageEdited(messageId, editDate, replyMarkup);
       }
@@ -3102,7 +3108,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       TD.setMessageOpened(sentMessages.get(sentMessageIndex));
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageOpened(messageId);
       }
@@ -3116,7 +3122,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.get(sentMessageIndex).unreadReactions = unreadReactions;
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageUnreadReactions(messageId, unreadReactions);
       }
@@ -3130,7 +3136,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.get(sentMessageIndex).interactionInfo = interactionInfo;
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageInteractionInfo(messageId, interactionInfo);
       }
@@ -3144,7 +3150,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.get(sentMessageIndex).isPinned = isPinned;
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageIsPinned(messageId, isPinned);
       }
@@ -3158,7 +3164,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       sentMessages.get(sentMessageIndex).containsUnreadMention = false;
       return;
     }
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessageMentionRead(messageId);
       }
@@ -3167,7 +3173,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
 
   @Override
   public void onMessagesDeleted (final long chatId, final long[] messageIds) {
-    tdlib.ui().post(() -> {
+    loader.postUpdate(() -> {
       if (loader.getChatId() == chatId) {
         updateMessagesDeleted(chatId, messageIds);
       }
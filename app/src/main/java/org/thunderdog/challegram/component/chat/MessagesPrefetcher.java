@@ -0,0 +1,267 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 11:04
+ */
+package org.thunderdog.challegram.component.chat;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.data.TGMessage;
+import org.thunderdog.challegram.loader.ComplexReceiver;
+import org.thunderdog.challegram.loader.DoubleImageReceiver;
+import org.thunderdog.challegram.loader.ImageDecodeScheduler;
+import org.thunderdog.challegram.loader.ImageReceiver;
+import org.thunderdog.challegram.loader.gif.GifReceiver;
+
+import java.util.ArrayList;
+
+/**
+ * Warms media of messages that are about to become visible.
+ *
+ * Each prefetched message is bound to a view-less set of receivers, which starts TDLib download,
+ * decodes the image into {@link org.thunderdog.challegram.loader.ImageCache} and prepares the first GIF frame.
+ * Once the message is bound to a real {@link MessageView}, or the user scrolls the other way, receivers are cleared.
+ */
+class MessagesPrefetcher {
+  private static final int MIN_PREFETCH_COUNT = 2;
+  private static final int MAX_PREFETCH_COUNT = 10;
+  private static final long PREFETCH_HORIZON_MS = 400;
+  private static final float VELOCITY_SMOOTHING = .35f;
+
+  private static class Slot {
+    final DoubleImageReceiver previewReceiver;
+    final ImageReceiver contentReceiver;
+    final GifReceiver gifReceiver;
+    final ComplexReceiver complexReceiver;
+
+    TGMessage message;
+
+    Slot () {
+      this.previewReceiver = new DoubleImageReceiver(null, 0);
+      this.contentReceiver = new ImageReceiver(null, 0);
+      this.gifReceiver = new GifReceiver(null);
+      this.complexReceiver = new ComplexReceiver();
+      this.previewReceiver.setDecodePriority(ImageDecodeScheduler.PRIORITY_PREFETCH);
+      this.contentReceiver.setDecodePriority(ImageDecodeScheduler.PRIORITY_PREFETCH);
+      this.complexReceiver.setDecodePriority(ImageDecodeScheduler.PRIORITY_PREFETCH);
+    }
+
+    void bind (TGMessage message, int width) {
+      this.message = message;
+      message.buildLayout(width);
+      if (message.needComplexReceiver()) {
+        message.requestMediaContent(complexReceiver, false, -1);
+      } else if (message.needGifReceiver()) {
+        message.requestPreview(previewReceiver);
+        message.requestGif(gifReceiver);
+      } else if (message.needImageReceiver()) {
+        message.requestPreview(previewReceiver);
+        message.requestImage(contentReceiver);
+      }
+    }
+
+    boolean isReady () {
+      if (message == null) {
+        return false;
+      }
+      if (message.needComplexReceiver()) {
+        return false; // Unknown, content is split across multiple receivers
+      } else if (message.needGifReceiver()) {
+        return !gifReceiver.needPlaceholder();
+      } else if (message.needImageReceiver()) {
+        return !contentReceiver.needPlaceholder();
+      }
+      return false;
+    }
+
+    boolean hasMedia () {
+      return message != null && (message.needComplexReceiver() || message.needGifReceiver() || message.needImageReceiver());
+    }
+
+    void clear () {
+      message = null;
+      previewReceiver.clear();
+      contentReceiver.clear();
+      gifReceiver.clear();
+      complexReceiver.clear();
+    }
+  }
+
+  private final MessagesManager manager;
+  private final ArrayList<Slot> activeSlots = new ArrayList<>(MAX_PREFETCH_COUNT);
+  private final ArrayList<Slot> freeSlots = new ArrayList<>(MAX_PREFETCH_COUNT);
+
+  private float velocity; // px/ms, positive when moving towards higher adapter positions
+  private long lastScrollTime;
+  private int lastDirection;
+  private int lastFirst = -1, lastLast = -1;
+  private int averageItemHeight;
+
+  private long readyCount, notReadyCount, cancelledCount;
+
+  MessagesPrefetcher (MessagesManager manager) {
+    this.manager = manager;
+  }
+
+  void onScrolled (LinearLayoutManager layoutManager, int dy) {
+    if (dy == 0) {
+      return;
+    }
+    int delta = layoutManager.getReverseLayout() ? -dy : dy;
+    long now = SystemClock.uptimeMillis();
+    long elapsed = lastScrollTime != 0 ? Math.max(1, now - lastScrollTime) : 16;
+    lastScrollTime = now;
+    float instantVelocity = (float) delta / (float) elapsed;
+    if (lastDirection != 0 && (instantVelocity > 0) != (lastDirection > 0)) {
+      velocity = instantVelocity;
+    } else {
+      velocity = velocity + (instantVelocity - velocity) * VELOCITY_SMOOTHING;
+    }
+    int direction = delta > 0 ? 1 : -1;
+    if (direction != lastDirection) {
+      lastDirection = direction;
+      cancelAll();
+    }
+    update(layoutManager);
+  }
+
+  /**
+   * @return Scroll velocity in items per second, positive when moving towards higher adapter positions
+   */
+  float getItemVelocity () {
+    return averageItemHeight > 0 ? velocity * 1000f / averageItemHeight : 0f;
+  }
+
+  void onScrollIdle () {
+    velocity = 0;
+    lastScrollTime = 0;
+  }
+
+  private void update (LinearLayoutManager layoutManager) {
+    final int first = layoutManager.findFirstVisibleItemPosition();
+    final int last = layoutManager.findLastVisibleItemPosition();
+    if (first == -1 || last == -1 || (first == lastFirst && last == lastLast)) {
+      return;
+    }
+    lastFirst = first;
+    lastLast = last;
+
+    final MessagesAdapter adapter = manager.getAdapter();
+    final int visibleCount = last - first + 1;
+    final int averageHeight = averageItemHeight = Math.max(1, layoutManager.getHeight() / visibleCount);
+    final int predictedCount = (int) (Math.abs(velocity) * PREFETCH_HORIZON_MS / averageHeight);
+    final int count = Math.max(MIN_PREFETCH_COUNT, Math.min(MAX_PREFETCH_COUNT, predictedCount));
+
+    final int startPosition, endPosition;
+    if (lastDirection > 0) {
+      startPosition = last + 1;
+      endPosition = Math.min(adapter.getMessageCount() - 1, last + count);
+    } else {
+      startPosition = Math.max(0, first - count);
+      endPosition = first - 1;
+    }
+
+    // Release messages that became visible or fell out of the predicted range
+    for (int i = activeSlots.size() - 1; i >= 0; i--) {
+      Slot slot = activeSlots.get(i);
+      int position = indexOf(adapter, slot.message, Math.min(first, startPosition), Math.max(last, endPosition));
+      if (position >= first && position <= last) {
+        if (slot.hasMedia()) {
+          if (slot.isReady()) {
+            readyCount++;
+          } else {
+            notReadyCount++;
+          }
+        }
+      } else if (position >= startPosition && position <= endPosition) {
+        continue;
+      } else {
+        cancelledCount++;
+      }
+      release(i);
+    }
+
+    final int width = manager.getRecyclerWidth();
+    for (int position = startPosition; position <= endPosition && activeSlots.size() < MAX_PREFETCH_COUNT; position++) {
+      TGMessage message = adapter.getMessage(position);
+      if (message == null || isPrefetching(message)) {
+        continue;
+      }
+      if (!(message.needComplexReceiver() || message.needGifReceiver() || message.needImageReceiver())) {
+        continue;
+      }
+      Slot slot = freeSlots.isEmpty() ? new Slot() : freeSlots.remove(freeSlots.size() - 1);
+      slot.bind(message, width);
+      activeSlots.add(slot);
+    }
+  }
+
+  private static int indexOf (MessagesAdapter adapter, TGMessage message, int fromPosition, int toPosition) {
+    for (int position = fromPosition; position <= toPosition; position++) {
+      if (adapter.getMessage(position) == message) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isPrefetching (TGMessage message) {
+    for (Slot slot : activeSlots) {
+      if (slot.message == message) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void release (int index) {
+    Slot slot = activeSlots.remove(index);
+    slot.clear();
+    freeSlots.add(slot);
+  }
+
+  void cancelAll () {
+    for (int i = activeSlots.size() - 1; i >= 0; i--) {
+      cancelledCount++;
+      release(i);
+    }
+    lastFirst = lastLast = -1;
+  }
+
+  void destroy () {
+    cancelAll();
+    for (Slot slot : freeSlots) {
+      slot.previewReceiver.destroy();
+      slot.contentReceiver.destroy();
+      slot.gifReceiver.destroy();
+      slot.complexReceiver.performDestroy();
+    }
+    freeSlots.clear();
+    velocity = 0;
+    lastScrollTime = 0;
+    lastDirection = 0;
+    if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.i(Log.TAG_IMAGE_LOADER, "%s", this);
+    }
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    return "MessagesPrefetcher { ready = " + readyCount + ", notReady = " + notReadyCount + ", cancelled = " + cancelledCount + " }";
+  }
+}
@@ -52,6 +52,7 @@ import org.thunderdog.challegram.tool.Drawables;
 import org.thunderdog.challegram.tool.Paints;
 import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.tool.UI;
+import org.thunderdog.challegram.util.LayoutCache;
 import org.thunderdog.challegram.util.text.Text;
 import org.thunderdog.challegram.util.text.TextColorSet;
 import org.thunderdog.challegram.util.text.TextColorSets;
@@ -86,6 +87,7 @@ public class ReplyComponent implements Client.ResultHandler, Destroyable {
   private MediaPreview mediaPreview;
 
   private Text trimmedTitle, trimmedContent;
+  private Text latestContent; // trimmedContent might be not yet updated, when built on a background thread
 
   private ViewProvider viewProvider;
 
@@ -121,11 +123,68 @@ public class ReplyComponent implements Client.ResultHandler, Destroyable {
 
   public void layout (int maxWidth) {
     if (this.maxWidth != maxWidth && maxWidth > 0) {
+      final int prevMaxWidth = this.maxWidth;
+      final Text prevTitle = this.trimmedTitle, prevContent = this.latestContent;
+      final int prevContentVersion = this.contentVersion;
       this.maxWidth = maxWidth;
-      buildLayout();
+      RecentLayout recentLayout = null;
+      synchronized (recentLayoutsLock) {
+        if (prevMaxWidth > 0 && prevTitle != null && prevContent != null) {
+          if (recentLayouts == null) {
+            recentLayouts = new LayoutCache<>(MAX_RECENT_LAYOUT_COUNT);
+          }
+          recentLayouts.put(prevMaxWidth, new RecentLayout(prevTitle, prevContent, prevContentVersion, getContentTextSize()), layoutBuildTime, null);
+        }
+        if (recentLayouts != null) {
+          recentLayout = recentLayouts.take(maxWidth);
+          if (recentLayout != null && recentLayout.contentVersion == contentVersion && recentLayout.contentTextSize == getContentTextSize()) {
+            layoutBuildTime = recentLayouts.getTakenBuildTime();
+          } else {
+            recentLayout = null;
+          }
+        }
+      }
+      if (recentLayout != null) {
+        trimmedTitle = recentLayout.title;
+        setTrimmedContent(recentLayout.content);
+      } else {
+        final long startTime = System.nanoTime();
+        buildLayoutImpl();
+        layoutBuildTime = System.nanoTime() - startTime;
+      }
+    }
+  }
+
+  // Layouts for recent widths
+
+  private static final int MAX_RECENT_LAYOUT_COUNT = 3;
+
+  private static class RecentLayout {
+    private final Text title, content;
+    private final int contentVersion;
+    private final int contentTextSize;
+
+    public RecentLayout (Text title, Text content, int contentVersion, int contentTextSize) {
+      this.title = title;
+      this.content = content;
+      this.contentVersion = contentVersion;
+      this.contentTextSize = contentTextSize;
     }
   }
 
+  private int getContentTextSize () {
+    return getContentStyleProvider().getTextSizeInPixels();
+  }
+
+  private TextStyleProvider getContentStyleProvider () {
+    return isMessageComponent() ? TGMessage.getTextStyleProvider() : getTextStyleProvider();
+  }
+
+  private final Object recentLayoutsLock = new Object();
+  private LayoutCache<RecentLayout> recentLayouts;
+  private int contentVersion;
+  private long layoutBuildTime;
+
   public void setCurrentView (@Nullable View view) {
     setViewProvider(new SingleViewProvider(view));
   }
@@ -158,6 +217,16 @@ public class ReplyComponent implements Client.ResultHandler, Destroyable {
   }
 
   private void buildLayout () {
+    synchronized (recentLayoutsLock) {
+      contentVersion++;
+      if (recentLayouts != null) {
+        recentLayouts.clear(null);
+      }
+    }
+    buildLayoutImpl();
+  }
+
+  private void buildLayoutImpl () {
     if (maxWidth > 0) {
       buildTitle();
       buildContent();
@@ -224,7 +293,7 @@ public class ReplyComponent implements Client.ResultHandler, Destroyable {
     int width = getContentWidth(false);
 
     //noinspection UnsafeOptInUsageError
-    Text trimmedContent = new Text.Builder(content != null ? content.buildText(true) : Lang.getString(R.string.LoadingMessage), width, isMessageComponent() ? TGMessage.getTextStyleProvider() : getTextStyleProvider(), getContentColorSet())
+    Text trimmedContent = new Text.Builder(content != null ? content.buildText(true) : Lang.getString(R.string.LoadingMessage), width, getContentStyleProvider(), getContentColorSet())
       .singleLine()
       .textFlags(Text.FLAG_CUSTOM_LONG_PRESS)
       .ignoreNewLines().ignoreContinuousNewLines()
@@ -250,6 +319,11 @@ public class ReplyComponent implements Client.ResultHandler, Destroyable {
       .viewProvider(viewProvider)
       .build();
 
+    setTrimmedContent(trimmedContent);
+  }
+
+  private void setTrimmedContent (Text trimmedContent) {
+    this.latestContent = trimmedContent;
     if (Looper.myLooper() == Looper.getMainLooper()) {
       this.trimmedContent = trimmedContent;
     } else {
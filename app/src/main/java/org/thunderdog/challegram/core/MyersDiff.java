@@ -0,0 +1,222 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 18:05
+ */
+package org.thunderdog.challegram.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Character diff based on Eugene W. Myers' "An O(ND) Difference Algorithm and Its Variations".
+ *
+ * Works directly on {@link CharSequence} without creating substrings and returns a compact edit script:
+ * runs of {@link #EQUAL}, {@link #DELETE} and {@link #INSERT} operations, each packed into a single {@code int}.
+ * Common prefix and suffix are skipped before the search starts.
+ *
+ * When the inputs differ by more than {@code maxCost} inserted and deleted characters, search stops
+ * and the whole differing middle is reported as deleted and inserted. Such script is still valid,
+ * just not minimal, see {@link Script#isMinimal()}.
+ *
+ * {@link DiffMatchPatch} remains the reference implementation.
+ */
+public final class MyersDiff {
+  public static final int EQUAL = 0;
+  public static final int DELETE = 1;
+  public static final int INSERT = 2;
+
+  public static final int DEFAULT_MAX_COST = 256;
+
+  private static final int OPERATION_BITS = 2;
+  private static final int OPERATION_MASK = (1 << OPERATION_BITS) - 1;
+
+  public static final class Script {
+    private int[] runs;
+    private int size;
+    private boolean isMinimal = true;
+
+    private Script (int capacity) {
+      this.runs = new int[Math.max(4, capacity)];
+    }
+
+    public int size () {
+      return size;
+    }
+
+    public int getOperation (int index) {
+      return runs[index] & OPERATION_MASK;
+    }
+
+    public int getLength (int index) {
+      return runs[index] >>> OPERATION_BITS;
+    }
+
+    /**
+     * @return False, if search was stopped because of the cost limit
+     */
+    public boolean isMinimal () {
+      return isMinimal;
+    }
+
+    private void append (int operation, int length) {
+      if (length <= 0) {
+        return;
+      }
+      if (size > 0 && getOperation(size - 1) == operation) {
+        runs[size - 1] += length << OPERATION_BITS;
+        return;
+      }
+      if (size == runs.length) {
+        runs = Arrays.copyOf(runs, size << 1);
+      }
+      runs[size++] = (length << OPERATION_BITS) | operation;
+    }
+
+    private void appendReversed (Script script) {
+      for (int i = script.size - 1; i >= 0; i--) {
+        append(script.getOperation(i), script.getLength(i));
+      }
+    }
+
+    @NonNull
+    @Override
+    public String toString () {
+      StringBuilder b = new StringBuilder("Script {");
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          b.append(',');
+        }
+        b.append(' ');
+        switch (getOperation(i)) {
+          case EQUAL: b.append('='); break;
+          case DELETE: b.append('-'); break;
+          case INSERT: b.append('+'); break;
+        }
+        b.append(getLength(i));
+      }
+      return b.append(" }").toString();
+    }
+  }
+
+  private MyersDiff () { }
+
+  @NonNull
+  public static Script diff (@NonNull CharSequence source, @NonNull CharSequence target) {
+    return diff(source, target, DEFAULT_MAX_COST);
+  }
+
+  @NonNull
+  public static Script diff (@NonNull CharSequence source, @NonNull CharSequence target, int maxCost) {
+    final int sourceLength = source.length();
+    final int targetLength = target.length();
+
+    int prefixLength = 0;
+    final int minLength = Math.min(sourceLength, targetLength);
+    while (prefixLength < minLength && source.charAt(prefixLength) == target.charAt(prefixLength)) {
+      prefixLength++;
+    }
+    int suffixLength = 0;
+    while (suffixLength < minLength - prefixLength && source.charAt(sourceLength - suffixLength - 1) == target.charAt(targetLength - suffixLength - 1)) {
+      suffixLength++;
+    }
+
+    final int sourceEnd = sourceLength - suffixLength;
+    final int targetEnd = targetLength - suffixLength;
+    final int n = sourceEnd - prefixLength;
+    final int m = targetEnd - prefixLength;
+
+    Script script = new Script(n == 0 || m == 0 ? 4 : 8);
+    script.append(EQUAL, prefixLength);
+    if (n == 0 || m == 0) {
+      script.append(DELETE, n);
+      script.append(INSERT, m);
+    } else if (!compute(source, prefixLength, n, target, prefixLength, m, Math.max(1, maxCost), script)) {
+      script.isMinimal = false;
+      script.append(DELETE, n);
+      script.append(INSERT, m);
+    }
+    script.append(EQUAL, suffixLength);
+    return script;
+  }
+
+  /**
+   * Greedy forward search, remembering furthest reaching paths of every step to walk back the shortest one.
+   *
+   * @return False, if edit distance exceeds {@code maxCost}
+   */
+  private static boolean compute (CharSequence a, int aStart, int n, CharSequence b, int bStart, int m, int maxCost, Script out) {
+    final int maxD = Math.min(n + m, maxCost);
+    final int offset = maxD + 1;
+    final int[] v = new int[2 * maxD + 3];
+    int[] trace = new int[Math.min(64, (maxD + 1) * (maxD + 3))];
+    int traceSize = 0;
+
+    for (int d = 0; d <= maxD; d++) {
+      // Snapshot of k in [-d - 1, d + 1] before this step, stored at (d * (d + 2))
+      final int snapshotSize = 2 * d + 3;
+      if (traceSize + snapshotSize > trace.length) {
+        trace = Arrays.copyOf(trace, Math.max(trace.length << 1, traceSize + snapshotSize));
+      }
+      System.arraycopy(v, offset - d - 1, trace, traceSize, snapshotSize);
+      traceSize += snapshotSize;
+
+      for (int k = -d; k <= d; k += 2) {
+        int x;
+        if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+          x = v[offset + k + 1];
+        } else {
+          x = v[offset + k - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && a.charAt(aStart + x) == b.charAt(bStart + y)) {
+          x++;
+          y++;
+        }
+        v[offset + k] = x;
+        if (x >= n && y >= m) {
+          backtrack(trace, d, n, m, out);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void backtrack (int[] trace, int maxD, int n, int m, Script out) {
+    final Script reversed = new Script(maxD * 2 + 1);
+    int x = n, y = m;
+    for (int d = maxD; d >= 0; d--) {
+      final int snapshotStart = d * (d + 2); // Sum of (2 * i + 3) for i in [0, d)
+      final int base = snapshotStart + d + 1; // Index of k = 0
+      final int k = x - y;
+      final int prevK;
+      if (k == -d || (k != d && trace[base + k - 1] < trace[base + k + 1])) {
+        prevK = k + 1;
+      } else {
+        prevK = k - 1;
+      }
+      final int prevX = d > 0 ? trace[base + prevK] : 0;
+      final int prevY = d > 0 ? prevX - prevK : 0;
+      // Diagonal (snake) that follows the edit
+      int snakeStartX = d > 0 ? (prevK == k + 1 ? prevX : prevX + 1) : 0;
+      reversed.append(EQUAL, x - snakeStartX);
+      if (d > 0) {
+        reversed.append(prevK == k + 1 ? INSERT : DELETE, 1);
+      }
+      x = prevX;
+      y = prevY;
+    }
+    out.appendReversed(reversed);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 17:24
+ */
+package org.thunderdog.challegram.data;
+
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.core.Lang;
+import org.thunderdog.challegram.telegram.Tdlib;
+import org.thunderdog.challegram.unsorted.Settings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Keeps chat list previews built by {@link ContentPreview#getChatListPreview} across {@link TGChat} instances,
+ * so switching between chat folders, opening the archive or recreating the chat list doesn't rebuild them.
+ *
+ * Entries are keyed by account and chat, and are valid only for the same last message, content object,
+ * edit date, language pack and content restriction setting, which together act as the entry version.
+ *
+ * Only previews that depend on nothing but the message itself are kept: plain text and single media messages
+ * that are neither being sent or edited nor part of an album.
+ */
+final class ChatPreviewCache {
+  private static final int MAX_SIZE = 1000;
+
+  private static final class Key {
+    final int accountId;
+    final long chatId;
+
+    Key (int accountId, long chatId) {
+      this.accountId = accountId;
+      this.chatId = chatId;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      return obj instanceof Key && ((Key) obj).accountId == accountId && ((Key) obj).chatId == chatId;
+    }
+
+    @Override
+    public int hashCode () {
+      return 31 * accountId + (int) (chatId ^ (chatId >>> 32));
+    }
+  }
+
+  private static final class Entry {
+    final long messageId;
+    final TdApi.MessageContent content;
+    final int editDate;
+    final String languagePackId;
+    final boolean restrictContent;
+    final ContentPreview preview;
+
+    Entry (TdApi.Message message, String languagePackId, boolean restrictContent, ContentPreview preview) {
+      this.messageId = message.id;
+      this.content = message.content;
+      this.editDate = message.editDate;
+      this.languagePackId = languagePackId;
+      this.restrictContent = restrictContent;
+      this.preview = preview;
+    }
+
+    boolean isValid (TdApi.Message message, String languagePackId, boolean restrictContent) {
+      return this.messageId == message.id &&
+        this.content == message.content &&
+        this.editDate == message.editDate &&
+        this.restrictContent == restrictContent &&
+        StringUtils.equalsOrBothEmpty(this.languagePackId, languagePackId);
+    }
+  }
+
+  private static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry (Map.Entry<Key, Entry> eldest) {
+      return size() > MAX_SIZE;
+    }
+  };
+  private static long hitCount, missCount;
+
+  @Nullable
+  public static ContentPreview get (Tdlib tdlib, long chatId, TdApi.Message message) {
+    if (!isCacheable(tdlib, message)) {
+      return null;
+    }
+    final String languagePackId = Lang.packId();
+    final boolean restrictContent = Settings.instance().needRestrictContent();
+    synchronized (ChatPreviewCache.class) {
+      Entry entry = entries.get(new Key(tdlib.id(), chatId));
+      if (entry != null && entry.isValid(message, languagePackId, restrictContent)) {
+        hitCount++;
+        return entry.preview;
+      }
+      missCount++;
+      if (((hitCount + missCount) % 200) == 0 && Log.isEnabled(Log.TAG_SPEED_TEXT)) {
+        Log.i(Log.TAG_SPEED_TEXT, "Chat preview cache hit rate: %.1f%% (%d/%d), size: %d", (double) hitCount / (double) (hitCount + missCount) * 100.0, hitCount, hitCount + missCount, entries.size());
+      }
+    }
+    return null;
+  }
+
+  public static void put (Tdlib tdlib, long chatId, TdApi.Message message, ContentPreview preview) {
+    if (!isCacheable(tdlib, message) || preview.hasRefresher() || preview.relatedMessage != null || preview.getAlbum() != null) {
+      return;
+    }
+    final String languagePackId = Lang.packId();
+    final boolean restrictContent = Settings.instance().needRestrictContent();
+    synchronized (ChatPreviewCache.class) {
+      entries.put(new Key(tdlib.id(), chatId), new Entry(message, languagePackId, restrictContent, preview));
+    }
+  }
+
+  private static boolean isCacheable (Tdlib tdlib, TdApi.Message message) {
+    if (message.sendingState != null || message.mediaAlbumId != 0) {
+      return false;
+    }
+    if (message.isOutgoing && tdlib.getPendingFormattedText(message.chatId, message.id) != null) {
+      return false;
+    }
+    switch (message.content.getConstructor()) {
+      case TdApi.MessageText.CONSTRUCTOR:
+      case TdApi.MessagePhoto.CONSTRUCTOR:
+      case TdApi.MessageVideo.CONSTRUCTOR:
+      case TdApi.MessageAnimation.CONSTRUCTOR:
+      case TdApi.MessageDocument.CONSTRUCTOR:
+      case TdApi.MessageAudio.CONSTRUCTOR:
+      case TdApi.MessageVoiceNote.CONSTRUCTOR:
+      case TdApi.MessageVideoNote.CONSTRUCTOR:
+      case TdApi.MessageSticker.CONSTRUCTOR:
+        return true;
+    }
+    return false;
+  }
+}
@@ -33,6 +33,7 @@ import org.thunderdog.challegram.tool.Paints;
 import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.tool.Views;
 import org.thunderdog.challegram.util.DrawableProvider;
+import org.thunderdog.challegram.util.LayoutCache;
 
 import java.lang.ref.Reference;
 import java.util.ArrayList;
@@ -101,6 +102,7 @@ public class MosaicWrapper implements FactorAnimator.Target, ComplexReceiver.Key
     }
     sumAspectRatio += (float) wrapper.getContentWidth() / (float) wrapper.getContentHeight();
     built = false;
+    clearRecentLayouts();
   }
 
   public int removeItem (long messageId, int approximateIndex) {
@@ -123,6 +125,7 @@ public class MosaicWrapper implements FactorAnimator.Target, ComplexReceiver.Key
 
   public int removeItem (MediaWrapper wrapper, boolean animateChanges) {
     if (items.remove(wrapper)) {
+      clearRecentLayouts();
       sumAspectRatio -= (float) wrapper.getContentWidth() / (float) wrapper.getContentHeight();
       if (built) {
         built = false;
@@ -299,7 +302,129 @@ public class MosaicWrapper implements FactorAnimator.Target, ComplexReceiver.Key
   }
 
   public int build (final int layoutWidth, final int layoutHeight, final int minLayoutWidth, final int minLayoutHeight, int fitMode, final boolean animateChanges) {
-    return build(layoutWidth, layoutHeight, minLayoutWidth, minLayoutHeight, fitMode, animateChanges, false, 1f);
+    if (layoutWidth <= 0 || layoutHeight <= 0) {
+      return MOSAIC_NOT_CHANGED;
+    }
+    if (built && this.layoutWidth == layoutWidth && this.layoutHeight == layoutHeight && this.minLayoutWidth == minLayoutWidth && this.minLayoutHeight == minLayoutHeight && this.fitMode == fitMode) {
+      return MOSAIC_NOT_CHANGED;
+    }
+    if (recentLayouts != null && !recentLayouts.isEmpty()) {
+      MosaicLayout layout = recentLayouts.take(layoutWidth);
+      if (layout != null) {
+        if (layout.matches(this, layoutHeight, minLayoutWidth, minLayoutHeight, fitMode)) {
+          int result = applyLayout(layout, animateChanges);
+          rememberLayout(recentLayouts.getTakenBuildTime());
+          return result;
+        }
+        recentLayouts.clear(null);
+      }
+    }
+    final long startTime = System.nanoTime();
+    int result = build(layoutWidth, layoutHeight, minLayoutWidth, minLayoutHeight, fitMode, animateChanges, false, 1f);
+    rememberLayout(System.nanoTime() - startTime);
+    return result;
+  }
+
+  // Layouts for recent widths
+
+  private static final int MAX_RECENT_LAYOUT_COUNT = 3;
+  private LayoutCache<MosaicLayout> recentLayouts;
+
+  private static class MosaicLayout {
+    final int layoutWidth, layoutHeight, minLayoutWidth, minLayoutHeight, fitMode;
+    final int mosaicWidth, mosaicHeight;
+    final MediaWrapper[] targets;
+    final int[] geometry; // imageWidth, imageHeight, position, x, y, width, height for each item
+
+    MosaicLayout (MosaicWrapper context, int mosaicWidth, int mosaicHeight, MosaicItemInfo[] items) {
+      this.layoutWidth = context.layoutWidth;
+      this.layoutHeight = context.layoutHeight;
+      this.minLayoutWidth = context.minLayoutWidth;
+      this.minLayoutHeight = context.minLayoutHeight;
+      this.fitMode = context.fitMode;
+      this.mosaicWidth = mosaicWidth;
+      this.mosaicHeight = mosaicHeight;
+      this.targets = new MediaWrapper[items.length];
+      this.geometry = new int[items.length * 7];
+      int i = 0;
+      for (MosaicItemInfo item : items) {
+        targets[i] = item.target;
+        int offset = i * 7;
+        geometry[offset] = item.imageWidth;
+        geometry[offset + 1] = item.imageHeight;
+        geometry[offset + 2] = item.position;
+        geometry[offset + 3] = item.x;
+        geometry[offset + 4] = item.y;
+        geometry[offset + 5] = item.width;
+        geometry[offset + 6] = item.height;
+        i++;
+      }
+    }
+
+    boolean matches (MosaicWrapper context, int layoutHeight, int minLayoutWidth, int minLayoutHeight, int fitMode) {
+      if (this.layoutHeight != layoutHeight || this.minLayoutWidth != minLayoutWidth || this.minLayoutHeight != minLayoutHeight || this.fitMode != fitMode || context.items.size() != targets.length) {
+        return false;
+      }
+      int i = 0;
+      for (MediaWrapper item : context.items) {
+        if (targets[i] != item || geometry[i * 7] != item.getContentWidth() || geometry[i * 7 + 1] != item.getContentHeight()) {
+          return false;
+        }
+        i++;
+      }
+      return true;
+    }
+
+    MosaicItemInfo[] newItems (MosaicWrapper context) {
+      MosaicItemInfo[] items = new MosaicItemInfo[targets.length];
+      for (int i = 0; i < items.length; i++) {
+        int offset = i * 7;
+        int imageWidth = geometry[offset], imageHeight = geometry[offset + 1];
+        MosaicItemInfo item = new MosaicItemInfo(context, targets[i], i, imageWidth, imageHeight, (float) imageWidth / (float) imageHeight);
+        item.position = geometry[offset + 2];
+        item.x = geometry[offset + 3];
+        item.y = geometry[offset + 4];
+        item.width = geometry[offset + 5];
+        item.height = geometry[offset + 6];
+        items[i] = item;
+      }
+      return items;
+    }
+  }
+
+  private int applyLayout (MosaicLayout layout, boolean animateChanges) {
+    cancelTouch();
+    this.layoutWidth = layout.layoutWidth;
+    this.layoutHeight = layout.layoutHeight;
+    this.minLayoutWidth = layout.minLayoutWidth;
+    this.minLayoutHeight = layout.minLayoutHeight;
+    this.fitMode = layout.fitMode;
+    this.built = false;
+    return setMosaic(layout.mosaicWidth, layout.mosaicHeight, layout.newItems(this), fitMode, animateChanges, true);
+  }
+
+  private void rememberLayout (long buildTimeNanos) {
+    if (items.size() <= 1) {
+      return;
+    }
+    final MosaicLayout layout;
+    if (changeAnimator != null && changeAnimator.isAnimating() && toMosaicItems != null) {
+      layout = new MosaicLayout(this, toMosaicWidth, toMosaicHeight, toMosaicItems);
+    } else if (built && mosaicItems != null) {
+      layout = new MosaicLayout(this, mosaicWidth, mosaicHeight, mosaicItems);
+    } else {
+      return;
+    }
+    if (recentLayouts == null) {
+      recentLayouts = new LayoutCache<>(MAX_RECENT_LAYOUT_COUNT);
+    }
+    recentLayouts.put(layoutWidth, layout, buildTimeNanos, null);
+  }
+
+  private void clearRecentLayouts () {
+    if (recentLayouts != null) {
+      recentLayouts.clear(null);
+    }
   }
 
   private int build (final int layoutWidth, final int layoutHeight, final int minLayoutWidth, final int minLayoutHeight, int fitMode, final boolean animateChanges, boolean isRetry, float sizeScale) {
@@ -982,6 +1107,7 @@ public class MosaicWrapper implements FactorAnimator.Target, ComplexReceiver.Key
 
   public int rebuild () {
     built = false;
+    clearRecentLayouts();
     return build(layoutWidth, layoutHeight, minLayoutWidth, minLayoutHeight, fitMode, true);
   }
 
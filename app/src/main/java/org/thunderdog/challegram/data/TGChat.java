@@ -43,6 +43,7 @@ import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.util.EmojiStatusHelper;
+import org.thunderdog.challegram.util.LayoutCache;
 import org.thunderdog.challegram.util.ReactionsCounterDrawable;
 import org.thunderdog.challegram.util.ReactionsListAnimator;
 import org.thunderdog.challegram.util.text.Counter;
@@ -1168,6 +1169,22 @@ public class TGChat implements TdlibStatusManager.HelperTarget, ContentPreview.R
     this.textIconsPadding = textIconIds != null && textIconIds.size() > 0 ? Screen.dp(2f) + Screen.dp(18f) * textIconIds.size() : 0;
 
     if (avail > 0 && !StringUtils.isEmpty(text)) {
+      if (trimmedText != null && trimmedTextMaxWidth == avail && trimmedTextIconsPadding == textIconsPadding && trimmedTextSingleLine == isSingleLine()) {
+        layoutChatAction();
+        return;
+      }
+      Text recentText = takeRecentText(avail);
+      if (recentText != null) {
+        trimmedText = recentText;
+        trimmedTextMaxWidth = avail;
+        currentViews.invalidateContent(this);
+        layoutChatAction();
+        return;
+      }
+      final long buildStartTime = System.nanoTime();
+      trimmedTextMaxWidth = avail;
+      trimmedTextIconsPadding = textIconsPadding;
+      trimmedTextSingleLine = isSingleLine();
       trimmedText = new Text.Builder(text, avail, getTextStyleProvider(listMode), TextColorSets.Regular.LIGHT)
         .maxLineCount(isSingleLine() ? 1 : 2)
         .textFlags(Text.FLAG_ELLIPSIZE_NEWLINE)
@@ -1187,14 +1204,50 @@ public class TGChat implements TdlibStatusManager.HelperTarget, ContentPreview.R
         })
         .noClickable()
         .build();
+      trimmedTextBuildTime = System.nanoTime() - buildStartTime;
       currentViews.invalidateContent(this);
     } else {
+      retireTrimmedText();
       trimmedText = null;
     }
 
     layoutChatAction();
   }
 
+  // Texts recently built for other widths, e.g. before the counter or prefix width changed
+
+  private final LayoutCache<Text> recentTexts = new LayoutCache<>(2);
+  private int trimmedTextMaxWidth, trimmedTextIconsPadding;
+  private boolean trimmedTextSingleLine;
+  private long trimmedTextBuildTime;
+
+  private @Nullable Text takeRecentText (int maxWidth) {
+    if (trimmedTextIconsPadding != textIconsPadding || trimmedTextSingleLine != isSingleLine()) {
+      clearRecentTexts();
+      return null;
+    }
+    retireTrimmedText();
+    if (recentTexts.isEmpty()) {
+      return null;
+    }
+    Text text = recentTexts.take(maxWidth);
+    if (text != null) {
+      trimmedTextBuildTime = recentTexts.getTakenBuildTime();
+    }
+    return text;
+  }
+
+  private void retireTrimmedText () {
+    if (trimmedText != null && trimmedTextMaxWidth > 0) {
+      recentTexts.put(trimmedTextMaxWidth, trimmedText, trimmedTextBuildTime, null);
+    }
+  }
+
+  private void clearRecentTexts () {
+    recentTexts.clear(null);
+    trimmedTextMaxWidth = 0; // Current trimmedText stays visible until it's replaced
+  }
+
   private int textIconsPadding;
 
   private static TextStyleProvider getTextStyleProvider (int chatListMode) {
@@ -1273,6 +1326,7 @@ public class TGChat implements TdlibStatusManager.HelperTarget, ContentPreview.R
   }
 
   private void setTextValue (String text, TextEntity[] entities, boolean isTranslatable) {
+    clearRecentTexts();
     this.text = text;
     this.entities = entities != null && entities.length > 0 ? entities : null;;
     this.flags = BitwiseUtils.setFlag(this.flags, FLAG_CONTENT_STRING, isTranslatable);
@@ -1381,7 +1435,11 @@ public class TGChat implements TdlibStatusManager.HelperTarget, ContentPreview.R
     if (msg != null) {
       flags |= FLAG_MESSAGE;
       // No need to check tdlib.chatRestrictionReason, because it's already handled above
-      ContentPreview preview = ContentPreview.getChatListPreview(tdlib, msg.chatId, msg, false);
+      ContentPreview preview = ChatPreviewCache.get(tdlib, msg.chatId, msg);
+      if (preview == null) {
+        preview = ContentPreview.getChatListPreview(tdlib, msg.chatId, msg, false);
+        ChatPreviewCache.put(tdlib, msg.chatId, msg, preview);
+      }
       setContentPreview(preview);
       visibleMessage = msg;
     } else {
@@ -110,6 +110,7 @@ import org.thunderdog.challegram.ui.TranslationControllerV2;
 import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.util.EmojiStatusHelper;
 import org.thunderdog.challegram.util.LanguageDetector;
+import org.thunderdog.challegram.util.LayoutCache;
 import org.thunderdog.challegram.util.NonBubbleEmojiLayout;
 import org.thunderdog.challegram.util.ReactionsCounterDrawable;
 import org.thunderdog.challegram.util.TranslationCounterDrawable;
@@ -3234,9 +3235,133 @@ public abstract class TGMessage implements InvalidateContentProvider, TdlibDeleg
 
   private static final boolean APPLY_ACCENT_TO_FORWARDS = true;
 
+  // Name layouts for recent widths
+
+  private static final int MAX_RECENT_NAME_COUNT = 2;
+
+  private static class NameLayout {
+    private final Text text;
+    private final int maxWidth;
+    private final long buildTime;
+
+    private final @Nullable EmojiStatusHelper.EmojiStatusDrawable emojiStatus;
+
+    private final String authorName;
+    private final TdlibAccentColor accentColor;
+    private final boolean available, isPsa, hideName, coloredNames;
+    private final long viaBotUserId;
+    private final String viaBotUsername;
+    private final long emojiStatusKey;
+    private final int textSize;
+    private final String languagePackId;
+
+    public NameLayout (Text text, int maxWidth, long buildTime, @Nullable EmojiStatusHelper.EmojiStatusDrawable emojiStatus, String authorName, TdlibAccentColor accentColor, boolean available, boolean isPsa, boolean hideName, boolean coloredNames, long viaBotUserId, String viaBotUsername, long emojiStatusKey) {
+      this.text = text;
+      this.maxWidth = maxWidth;
+      this.buildTime = buildTime;
+      this.emojiStatus = emojiStatus;
+      this.authorName = authorName;
+      this.accentColor = accentColor;
+      this.available = available;
+      this.isPsa = isPsa;
+      this.hideName = hideName;
+      this.coloredNames = coloredNames;
+      this.viaBotUserId = viaBotUserId;
+      this.viaBotUsername = viaBotUsername;
+      this.emojiStatusKey = emojiStatusKey;
+      this.textSize = getNameStyleProvider().getTextSizeInPixels();
+      this.languagePackId = Lang.packId();
+    }
+
+    public boolean matches (String authorName, TdlibAccentColor accentColor, boolean available, boolean isPsa, boolean hideName, boolean coloredNames, long viaBotUserId, String viaBotUsername, long emojiStatusKey) {
+      return
+        StringUtils.equalsOrBothEmpty(this.authorName, authorName) &&
+        this.accentColor == accentColor &&
+        this.available == available &&
+        this.isPsa == isPsa &&
+        this.hideName == hideName &&
+        this.coloredNames == coloredNames &&
+        this.viaBotUserId == viaBotUserId &&
+        StringUtils.equalsOrBothEmpty(this.viaBotUsername, viaBotUsername) &&
+        this.emojiStatusKey == emojiStatusKey &&
+        this.textSize == getNameStyleProvider().getTextSizeInPixels() &&
+        StringUtils.equalsOrBothEmpty(this.languagePackId, Lang.packId());
+    }
+  }
+
+  private @Nullable NameLayout headerName, forwardName;
+  private @Nullable LayoutCache<NameLayout> recentHeaderNames, recentForwardNames;
+
+  private boolean needAuthorEmojiStatus (boolean hasBot, boolean isForward) {
+    return !(tdlib.isSelfChat(chat) && forwardInfo != null) && !hasBot && !isForward && sender.isUser();
+  }
+
+  /**
+   * @return Custom emoji id of author's emoji status, -1 when the default premium star is shown instead, 0 when nothing is shown.
+   */
+  private long getAuthorEmojiStatusKey (long viaBotUserId, boolean isForward) {
+    if (!needAuthorEmojiStatus(viaBotUserId != 0, isForward)) {
+      return 0;
+    }
+    TdApi.User user = tdlib.cache().user(sender.getUserId());
+    if (user == null) {
+      return 0;
+    }
+    return user.emojiStatus != null ? user.emojiStatus.customEmojiId : user.isPremium ? -1 : 0;
+  }
+
   private Text makeName (String authorName, TdlibAccentColor accentColor, boolean available, boolean isPsa, boolean hideName, long viaBotUserId, int maxWidth, boolean isForward) {
     if (maxWidth <= 0)
       return null;
+    final boolean coloredNames = needColoredNames();
+    final String viaBotUsername = viaBotUserId != 0 ? tdlib.cache().userUsername(viaBotUserId) : null;
+    final long emojiStatusKey = getAuthorEmojiStatusKey(viaBotUserId, isForward);
+    final NameLayout currentName = isForward ? forwardName : headerName;
+    if (currentName != null && currentName.maxWidth != maxWidth) {
+      // Width has changed: keep the current layout and check whether the new width was already used
+      LayoutCache<NameLayout> recentNames = isForward ? recentForwardNames : recentHeaderNames;
+      if (recentNames == null) {
+        recentNames = new LayoutCache<>(MAX_RECENT_NAME_COUNT);
+        if (isForward) {
+          recentForwardNames = recentNames;
+        } else {
+          recentHeaderNames = recentNames;
+        }
+      }
+      if (currentName.matches(authorName, accentColor, available, isPsa, hideName, coloredNames, viaBotUserId, viaBotUsername, emojiStatusKey)) {
+        recentNames.put(currentName.maxWidth, currentName, currentName.buildTime, null);
+        NameLayout recentName = recentNames.take(maxWidth);
+        if (recentName != null && recentName.matches(authorName, accentColor, available, isPsa, hideName, coloredNames, viaBotUserId, viaBotUsername, emojiStatusKey)) {
+          if (isForward) {
+            forwardName = recentName;
+          } else {
+            headerName = recentName;
+            hAuthorEmojiStatus = recentName.emojiStatus;
+          }
+          return recentName.text;
+        }
+      } else {
+        recentNames.clear(null);
+      }
+    } else if (currentName != null) {
+      // Same width, but something else has changed, e.g. emoji status
+      LayoutCache<NameLayout> recentNames = isForward ? recentForwardNames : recentHeaderNames;
+      if (recentNames != null) {
+        recentNames.clear(null);
+      }
+    }
+    final long startTime = System.nanoTime();
+    Text text = buildName(authorName, accentColor, available, isPsa, hideName, viaBotUserId, maxWidth, isForward);
+    NameLayout name = text != null ? new NameLayout(text, maxWidth, System.nanoTime() - startTime, isForward ? null : hAuthorEmojiStatus, authorName, accentColor, available, isPsa, hideName, coloredNames, viaBotUserId, viaBotUsername, emojiStatusKey) : null;
+    if (isForward) {
+      forwardName = name;
+    } else {
+      headerName = name;
+    }
+    return text;
+  }
+
+  private Text buildName (String authorName, TdlibAccentColor accentColor, boolean available, boolean isPsa, boolean hideName, long viaBotUserId, int maxWidth, boolean isForward) {
     boolean hasBot = viaBotUserId != 0;
     int textRes = isPsa ? (hasBot ? R.string.PsaFromXViaBot : R.string.PsaFromX) : (hasBot ? hideName ? R.string.message_viaBot : R.string.message_nameViaBot : 0);
     CharSequence text;
@@ -3287,7 +3412,7 @@ public abstract class TGMessage implements InvalidateContentProvider, TdlibDeleg
       colorTheme = getChatAuthorColorSet();
     }
 
-    if (!(tdlib.isSelfChat(chat) && forwardInfo != null) && !hasBot && !isForward && sender.isUser()) {
+    if (needAuthorEmojiStatus(hasBot, isForward)) {
       hAuthorEmojiStatus = EmojiStatusHelper.makeDrawable(null, tdlib, tdlib.cache().user(sender.getUserId()), colorTheme, (text1, specificMedia) -> invalidateEmojiStatusReceiver());
       hAuthorEmojiStatus.invalidateTextMedia();
       maxWidth -= hAuthorEmojiStatus.getWidth(Screen.dp(3));
@@ -75,7 +75,7 @@ public class Emoji {
     return instance;
   }
 
-  private final HashMap<String, EmojiInfo> rects;
+  private final EmojiTrie trie;
   private final ReferenceList<EmojiChangeListener> emojiChangeListeners = new ReferenceList<>();
 
   private final CountLimiter singleLimiter = newSingleLimiter();
@@ -134,15 +134,26 @@ public class Emoji {
     this.defaultTone = Settings.instance().getEmojiDefaultTone();
 
     int totalCount = EmojiData.getTotalDataCount();
-    this.rects = new HashMap<>(totalCount);
+    HashMap<String, EmojiInfo> rects = new HashMap<>(totalCount);
+    EmojiTrie.Builder trie = new EmojiTrie.Builder();
     for (int sectionIndex = 0; sectionIndex < EmojiData.data.length; sectionIndex++) {
       int count2 = (int) Math.ceil(EmojiData.data[sectionIndex].length / (float) EmojiCode.SPLIT_COUNT);
       for (int emojiIndex = 0; emojiIndex < EmojiData.data[sectionIndex].length; emojiIndex++) {
         int page = emojiIndex / count2;
         int position = emojiIndex - page * count2;
-        rects.put(EmojiData.data[sectionIndex][emojiIndex], new EmojiInfo(sectionIndex, page, position));
+        String code = EmojiData.data[sectionIndex][emojiIndex];
+        EmojiInfo info = new EmojiInfo(sectionIndex, page, position);
+        rects.put(code, info);
+        trie.put(code, info, true);
       }
     }
+    for (Map.Entry<String, String> alias : EmojiData.instance().getEmojiAliases().entrySet()) {
+      EmojiInfo info = rects.get(alias.getValue());
+      if (info != null) {
+        trie.put(alias.getKey(), info, false);
+      }
+    }
+    this.trie = trie.build();
   }
 
   public void changeEmojiPack (Settings.EmojiPack emojiPack) {
@@ -635,28 +646,11 @@ public class Emoji {
     return getEmojiInfo(code, true);
   }
 
-  public EmojiInfo getEmojiInfo (CharSequence codeCs, boolean allowRetry) {
-    if (StringUtils.isEmpty(codeCs)) {
+  public EmojiInfo getEmojiInfo (CharSequence code, boolean allowRetry) {
+    if (StringUtils.isEmpty(code)) {
       return null;
     }
-    String code = codeCs.toString();
-    EmojiInfo info = rects.get(code);
-    if (info == null) {
-      String newCode = EmojiData.instance().getEmojiAlias(code);
-      if (newCode != null) {
-        code = newCode;
-        info = rects.get(code);
-      }
-    }
-    if (info == null && allowRetry) {
-      char lastChar = code.charAt(code.length() - 1);
-      if (lastChar == '\u200D' || lastChar == '\uFE0F') {
-        return getEmojiInfo(code.subSequence(0, code.length() - 1), true);
-      }
-      if (code.length() == 3 && code.charAt(1) == '\uFE0F') {
-        return getEmojiInfo(Character.toString(code.charAt(0)) + code.charAt(2));
-      }
-    }
+    EmojiInfo info = findEmojiInfo(code, 0, code.length(), allowRetry);
     /*if (info == null) {
       CharSequence fixedEmoji = fixEmoji(code);
       if (!fixedEmoji.equals(code)) {
@@ -664,13 +658,32 @@ public class Emoji {
       }
     }*/
     if (info == null) {
-      Log.i("Warning. No drawable for emoji: %s", StringUtils.toUtfString(code));
+      Log.i("Warning. No drawable for emoji: %s", StringUtils.toUtfString(code.toString()));
       return null;
     }
 
     return info;
   }
 
+  @Nullable
+  private EmojiInfo findEmojiInfo (CharSequence code, int start, int end, boolean allowRetry) {
+    if (start >= end) {
+      return null;
+    }
+    EmojiInfo info = trie.find(code, start, end); // Includes aliases
+    if (info == null && allowRetry) {
+      char lastChar = code.charAt(end - 1);
+      if (lastChar == '\u200D' || lastChar == '\uFE0F') {
+        return findEmojiInfo(code, start, end - 1, true);
+      }
+      if (end - start == 3 && code.charAt(start + 1) == '\uFE0F') {
+        String fixedCode = Character.toString(code.charAt(start)) + code.charAt(start + 2);
+        return findEmojiInfo(fixedCode, 0, fixedCode.length(), true);
+      }
+    }
+    return info;
+  }
+
   @Nullable
   public EmojiSpan newSpan (CharSequence code, @Nullable EmojiInfo info) {
     if (StringUtils.isEmpty(code))
@@ -801,13 +814,12 @@ public class Emoji {
         } else if (startIndex != -1) {
           if (emojiCode.length() > 0) {
             // SAME CODE BEGIN
-            final String code = emojiCode.toString();
-            final EmojiInfo info = getEmojiInfo(code, false);
+            final EmojiInfo info = trie.find(emojiCode, 0, emojiCode.length());
             if (info != null) {
               if (callback != null) {
-                callback.onEmojiFound(cs, code, info, startIndex, startLength);
+                callback.onEmojiFound(cs, emojiCode.toString(), info, startIndex, startLength);
               } else if (startLength > 0) {
-                EmojiSpan span = newSpan(code, info);
+                EmojiSpan span = EmojiSpanImpl.newSpan(info);
                 if (spannable == null) {
                   spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
                 }
@@ -818,26 +830,24 @@ public class Emoji {
               if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
                 abort = true;
               }
-            } else if (code.length() > 1) {
+            } else if (emojiCode.length() > 1) {
+              final int codeLength = emojiCode.length();
               int componentAddIndex = 0;
-              for (int componentStartIndex = 0; componentStartIndex < code.length(); ) {
-                char componentStartCode = code.charAt(componentStartIndex);
+              for (int componentStartIndex = 0; componentStartIndex < codeLength; ) {
+                char componentStartCode = emojiCode.charAt(componentStartIndex);
                 if (componentStartCode == '\u200D' || componentStartCode == '\uFE0F') {
                   componentStartIndex++;
                   continue;
                 }
-                int componentLength = code.length() - componentStartIndex;
+                int componentLength = codeLength - componentStartIndex;
                 if (componentStartIndex == 0) {
                   componentLength--;
                 }
-                EmojiInfo componentInfo = null;
-                while (componentLength > 0 && componentInfo == null) {
-                  String componentCode = code.substring(componentStartIndex, componentStartIndex + componentLength);
-                  componentInfo = getEmojiInfo(componentCode, false);
-                  if (componentInfo == null) {
-                    componentLength--;
-                    continue;
-                  }
+                // Longest known emoji at componentStartIndex
+                final int componentCodeLength = componentLength > 0 ? trie.findLongestPrefix(emojiCode, componentStartIndex, componentStartIndex + componentLength) : 0;
+                final EmojiInfo componentInfo = componentCodeLength > 0 ? trie.find(emojiCode, componentStartIndex, componentStartIndex + componentCodeLength) : null;
+                if (componentInfo != null) {
+                  componentLength = componentCodeLength;
                   while (componentStartIndex + componentAddIndex + componentLength < startLength) {
                     char nextComponentChar = cs.charAt(startIndex + componentStartIndex + componentAddIndex + componentLength);
                     if (nextComponentChar == '\uFE0F') {
@@ -847,9 +857,9 @@ public class Emoji {
                     }
                   }
                   if (callback != null) {
-                    callback.onEmojiFound(cs, componentCode, componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
+                    callback.onEmojiFound(cs, emojiCode.substring(componentStartIndex, componentStartIndex + componentCodeLength), componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
                   } else {
-                    EmojiSpan span = newSpan(code, info);
+                    EmojiSpan span = EmojiSpanImpl.newSpan(componentInfo);
                     if (spannable == null) {
                       spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
                     }
@@ -859,10 +869,9 @@ public class Emoji {
                   if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
                     abort = true;
                   }
-                  componentStartIndex += componentCode.length();
-                  componentAddIndex += componentLength - componentCode.length();
-                }
-                if (componentInfo == null) {
+                  componentStartIndex += componentCodeLength;
+                  componentAddIndex += componentLength - componentCodeLength;
+                } else {
                   componentStartIndex++;
                 }
               }
@@ -941,13 +950,12 @@ public class Emoji {
         }
         if (doneEmoji) {
           // SAME CODE BEGIN
-          final String code = emojiCode.toString();
-          final EmojiInfo info = getEmojiInfo(code, false);
+          final EmojiInfo info = trie.find(emojiCode, 0, emojiCode.length());
           if (info != null) {
             if (callback != null) {
-              callback.onEmojiFound(cs, code, info, startIndex, startLength);
+              callback.onEmojiFound(cs, emojiCode.toString(), info, startIndex, startLength);
             } else if (startLength > 0) {
-              EmojiSpan span = newSpan(code, info);
+              EmojiSpan span = EmojiSpanImpl.newSpan(info);
               if (spannable == null) {
                 spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
               }
@@ -958,26 +966,24 @@ public class Emoji {
             if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
               abort = true;
             }
-          } else if (code.length() > 1) {
+          } else if (emojiCode.length() > 1) {
+            final int codeLength = emojiCode.length();
             int componentAddIndex = 0;
-            for (int componentStartIndex = 0; componentStartIndex < code.length(); ) {
-              char componentStartCode = code.charAt(componentStartIndex);
+            for (int componentStartIndex = 0; componentStartIndex < codeLength; ) {
+              char componentStartCode = emojiCode.charAt(componentStartIndex);
               if (componentStartCode == '\u200D' || componentStartCode == '\uFE0F') {
                 componentStartIndex++;
                 continue;
               }
-              int componentLength = code.length() - componentStartIndex;
+              int componentLength = codeLength - componentStartIndex;
               if (componentStartIndex == 0) {
                 componentLength--;
               }
-              EmojiInfo componentInfo = null;
-              while (componentLength > 0 && componentInfo == null) {
-                String componentCode = code.substring(componentStartIndex, componentStartIndex + componentLength);
-                componentInfo = getEmojiInfo(componentCode, false);
-                if (componentInfo == null) {
-                  componentLength--;
-                  continue;
-                }
+              // Longest known emoji at componentStartIndex
+              final int componentCodeLength = componentLength > 0 ? trie.findLongestPrefix(emojiCode, componentStartIndex, componentStartIndex + componentLength) : 0;
+              final EmojiInfo componentInfo = componentCodeLength > 0 ? trie.find(emojiCode, componentStartIndex, componentStartIndex + componentCodeLength) : null;
+              if (componentInfo != null) {
+                componentLength = componentCodeLength;
                 while (componentStartIndex + componentAddIndex + componentLength < startLength) {
                   char nextComponentChar = cs.charAt(startIndex + componentStartIndex + componentAddIndex + componentLength);
                   if (nextComponentChar == '\uFE0F') {
@@ -987,9 +993,9 @@ public class Emoji {
                   }
                 }
                 if (callback != null) {
-                  callback.onEmojiFound(cs, componentCode, componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
+                  callback.onEmojiFound(cs, emojiCode.substring(componentStartIndex, componentStartIndex + componentCodeLength), componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
                 } else {
-                  EmojiSpan span = newSpan(code, info);
+                  EmojiSpan span = EmojiSpanImpl.newSpan(componentInfo);
                   if (spannable == null) {
                     spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
                   }
@@ -999,10 +1005,9 @@ public class Emoji {
                 if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
                   abort = true;
                 }
-                componentStartIndex += componentCode.length();
-                componentAddIndex += componentLength - componentCode.length();
-              }
-              if (componentInfo == null) {
+                componentStartIndex += componentCodeLength;
+                componentAddIndex += componentLength - componentCodeLength;
+              } else {
                 componentStartIndex++;
               }
             }
@@ -1035,28 +1040,18 @@ public class Emoji {
       return false;
     if (alpha == 255)
       return draw(c, info, outRect);
-    EmojiBitmaps.Entry bitmap = bitmaps.getBitmap(info.section, info.page);
-    if (bitmap != null && bitmap.isLoaded()) {
-      Paint paint = Paints.getBitmapPaint();
-      paint.setAlpha(alpha);
-      bitmap.draw(c, info, outRect, paint);
-      paint.setAlpha(255);
-      return true;
-    } else {
-      return false;
-    }
+    Paint paint = Paints.getBitmapPaint();
+    paint.setAlpha(alpha);
+    boolean drawn = bitmaps.draw(c, info, outRect, paint);
+    paint.setAlpha(255);
+    return drawn;
   }
 
   public boolean draw (@NonNull Canvas c, @Nullable EmojiInfo info, Rect outRect) {
     if (info == null) {
       return false;
     }
-    EmojiBitmaps.Entry bitmap = bitmaps.getBitmap(info.section, info.page);
-    if (bitmap != null) {
-      return bitmap.draw(c, info, outRect, Paints.getBitmapPaint());
-    } else {
-      return false;
-    }
+    return bitmaps.draw(c, info, outRect, Paints.getBitmapPaint());
   }
 
   public static String parseCode (String code, String charset) {
@@ -16,10 +16,12 @@ package org.thunderdog.challegram.emoji;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.os.Build;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -31,65 +33,87 @@ import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.Media;
 import org.thunderdog.challegram.telegram.TGLegacyManager;
 import org.thunderdog.challegram.tool.EmojiCode;
-import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.tool.UI;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 
-import me.vkryl.core.lambda.Destroyable;
-
+/**
+ * Emoji sprite sheets, decoded in tiles of {@link #TILE_SPAN}×{@link #TILE_SPAN} emoji.
+ *
+ * A page is never decoded as a whole: only tiles containing emoji that are actually drawn are decoded,
+ * using {@link BitmapRegionDecoder}, and with the largest {@code inSampleSize} that still keeps emoji
+ * at least as large as they are drawn. Tiles are kept in LRU order within {@link #budgetBytes}.
+ * An already decoded tile one sample size step away is reused while it is close enough to the drawn size,
+ * so emoji that are being scaled by an animation don't get decoded again on every threshold crossing.
+ *
+ * Region decoders hold native memory outside of the tile budget, so at most {@link #MAX_OPEN_DECODER_COUNT}
+ * of them are kept open, and all of them are closed after {@link #DECODER_IDLE_TIMEOUT_MS} without decoding.
+ * All emoji drawing ({@code Text}, {@link EmojiSpan}, emoji keyboard) goes through {@link Emoji},
+ * so all of them share the same tiles.
+ *
+ * When region decoding isn't supported for a page, that page falls back to a single full-page tile.
+ *
+ * Tiles are accessed on UI thread only, decoding happens on {@link Media} thread.
+ */
 class EmojiBitmaps {
-  public static class Entry implements Destroyable {
-    public Bitmap bitmap;
-    public int inSampleSize;
+  private static final int TILE_SPAN = 4;
+  private static final int MAX_SAMPLE_SIZE = 4;
+  private static final int FULL_PAGE = 0xFFF;
+  private static final float MAX_UPSCALE = 1.25f;
 
-    private boolean isLoading;
+  private static final int MAX_OPEN_DECODER_COUNT = 2;
+  private static final int DECODER_IDLE_TIMEOUT_MS = 3000;
 
-    public Entry () { }
+  private static final long MIN_BUDGET_BYTES = 4 * 1024 * 1024;
+  private static final long MAX_BUDGET_BYTES = 16 * 1024 * 1024;
 
-    public void setBitmap (Bitmap bitmap, int inSampleSize) {
-      this.bitmap = bitmap;
-      this.inSampleSize = inSampleSize;
-    }
+  private static final class Tile {
+    final long key;
+    final int section, page, tileIndex;
+    final int requestedSampleSize;
 
-    public boolean isLoaded () {
-      return U.isValidBitmap(bitmap);
-    }
+    Bitmap bitmap;
+    int regionLeft, regionTop, sampleSize;
+    boolean isLoading, isFailed;
 
-    public boolean markAsLoading () {
-      synchronized (this) {
-        if (!isLoading) {
-          isLoading = true;
-          return true;
-        }
-      }
-      return false;
+    Tile (long key, int section, int page, int tileIndex, int requestedSampleSize) {
+      this.key = key;
+      this.section = section;
+      this.page = page;
+      this.tileIndex = tileIndex;
+      this.requestedSampleSize = requestedSampleSize;
     }
 
-    @Override
-    public void performDestroy () {
-      U.recycle(bitmap);
-      setBitmap(null, 0);
-      isLoading = false;
+    boolean isLoaded () {
+      return U.isValidBitmap(bitmap);
     }
 
-    public boolean draw (@NonNull Canvas c, EmojiInfo info, Rect outRect, Paint paint) {
-      if (isLoaded()) {
-        c.drawBitmap(bitmap, info.getRect(inSampleSize), outRect, paint);
-        return true;
-      }
-      return false;
+    int getByteCount () {
+      return bitmap != null ? bitmap.getRowBytes() * bitmap.getHeight() : 0;
     }
   }
 
   public final String identifier;
-  private final Entry[][] bitmaps = new Entry[5][EmojiCode.SPLIT_COUNT];
-  private boolean recycled;
-
   public final float scaleDp;
 
+  private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(32, .75f, true);
+  private final boolean[][] fullPageOnly = new boolean[5][EmojiCode.SPLIT_COUNT];
+  private final long budgetBytes;
+  private long usedBytes;
+  private volatile boolean recycled;
+
+  private final Rect srcRect = new Rect();
+
+  // Accessed on Media thread only
+  private final LinkedHashMap<Integer, BitmapRegionDecoder> decoders = new LinkedHashMap<>(MAX_OPEN_DECODER_COUNT + 1, .75f, true);
+  private long lastDecodeTime;
+  private boolean idleCheckScheduled;
+  private final Runnable idleCheck = this::closeIdleDecoders;
+
   public EmojiBitmaps (String identifier) {
     this.identifier = identifier;
     switch (identifier) {
@@ -97,97 +121,333 @@ class EmojiBitmaps {
       case "openmoji": scaleDp = -2f; break;
       default: scaleDp = 0f; break;
     }
+    this.budgetBytes = Math.max(MIN_BUDGET_BYTES, Math.min(MAX_BUDGET_BYTES, Runtime.getRuntime().maxMemory() / 16));
   }
 
-  private static Bitmap loadAsset (String filePath, boolean isAsset, int sampleSize) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && Config.MODERN_IMAGE_DECODER_ENABLED) {
-      try {
-        android.graphics.ImageDecoder.Source source;
-        if (isAsset) {
-          source = android.graphics.ImageDecoder.createSource(UI.getAppContext().getAssets(), filePath);
-        } else {
-          source = android.graphics.ImageDecoder.createSource(new File(filePath));
-        }
-        return android.graphics.ImageDecoder.decodeBitmap(source, new android.graphics.ImageDecoder.OnHeaderDecodedListener() {
-          @Override
-          public void onHeaderDecoded (@NonNull android.graphics.ImageDecoder decoder, @NonNull android.graphics.ImageDecoder.ImageInfo info, @NonNull android.graphics.ImageDecoder.Source source) {
-            if (sampleSize != 1)
-              decoder.setTargetSampleSize(sampleSize);
-            if (Config.FORCE_SOFTWARE_IMAGE_DECODER) {
-              decoder.setAllocator(android.graphics.ImageDecoder.ALLOCATOR_SOFTWARE);
-            }
+  // Geometry, in pixels of the original sprite sheet
+
+  private static int emojiSize () {
+    return (int) (30 * EmojiCode.SCALE);
+  }
+
+  private static int emojiPitch (int section, int page) {
+    return emojiSize() + (int) (EmojiCode.MARGINS[section][page] * EmojiCode.SCALE);
+  }
+
+  private static int tileIndex (EmojiInfo info) {
+    final int columnCount = EmojiCode.COLUMNS[info.section][info.page];
+    final int tilesPerRow = (columnCount + TILE_SPAN - 1) / TILE_SPAN;
+    final int x = info.position % columnCount;
+    final int y = info.position / columnCount;
+    return (y / TILE_SPAN) * tilesPerRow + (x / TILE_SPAN);
+  }
+
+  private static int sampleSizeFor (int drawSize) {
+    final int emojiSize = emojiSize();
+    int sampleSize = 1;
+    while (sampleSize < MAX_SAMPLE_SIZE && emojiSize / (sampleSize * 2) >= drawSize) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  private static long keyOf (int section, int page, int tileIndex, int sampleSize) {
+    return ((long) (section * EmojiCode.SPLIT_COUNT + page) << 16) | ((long) tileIndex << 4) | sampleSize;
+  }
+
+  // Drawing
+
+  public boolean draw (@NonNull Canvas c, @NonNull EmojiInfo info, Rect outRect, Paint paint) {
+    if (recycled) {
+      return false;
+    }
+    final boolean fullPage = fullPageOnly[info.section][info.page];
+    final int tileIndex = fullPage ? FULL_PAGE : tileIndex(info);
+    final int drawSize = Math.max(outRect.width(), outRect.height());
+    final int sampleSize = fullPage ? 1 : sampleSizeFor(drawSize);
+
+    Tile tile = fullPage ? null : findCloseTile(info.section, info.page, tileIndex, sampleSize, drawSize);
+    if (tile == null) {
+      tile = requestTile(info.section, info.page, tileIndex, sampleSize);
+    }
+    if (!tile.isLoaded()) {
+      // Draw the same tile decoded at a different density, while the right one is loading
+      tile = null;
+      for (int otherSampleSize = 1; otherSampleSize <= MAX_SAMPLE_SIZE && tile == null; otherSampleSize *= 2) {
+        if (otherSampleSize != sampleSize) {
+          Tile otherTile = tiles.get(keyOf(info.section, info.page, tileIndex, otherSampleSize));
+          if (otherTile != null && otherTile.isLoaded()) {
+            tile = otherTile;
           }
-        });
-      } catch (Throwable t) {
-        Log.e("Cannot load emoji bitmap (Pie)", t);
+        }
       }
-    } else {
-      try (InputStream is = isAsset ? UI.getAppContext().getAssets().open(filePath) : U.openInputStream(filePath)) {
-        BitmapFactory.Options opts = new BitmapFactory.Options();
-        opts.inJustDecodeBounds = false;
-        opts.inSampleSize = sampleSize;
-        return BitmapFactory.decodeStream(is, null, opts);
-      } catch (Throwable t) {
-        Log.e("Cannot load emoji bitmap", t);
+      if (tile == null) {
+        return false;
+      }
+    }
+
+    final int columnCount = EmojiCode.COLUMNS[info.section][info.page];
+    final int pitch = emojiPitch(info.section, info.page);
+    final int left = (info.position % columnCount) * pitch - tile.regionLeft;
+    final int top = (info.position / columnCount) * pitch - tile.regionTop;
+    final int size = emojiSize();
+    srcRect.set(
+      left / tile.sampleSize,
+      top / tile.sampleSize,
+      Math.min(tile.bitmap.getWidth(), (left + size) / tile.sampleSize),
+      Math.min(tile.bitmap.getHeight(), (top + size) / tile.sampleSize)
+    );
+    c.drawBitmap(tile.bitmap, srcRect, outRect, paint);
+    return true;
+  }
+
+  /**
+   * @return Loaded tile one step away from the {@code sampleSize}, that can be drawn instead without a visible quality loss
+   */
+  @Nullable
+  private Tile findCloseTile (int section, int page, int tileIndex, int sampleSize, int drawSize) {
+    Tile tile = tiles.get(keyOf(section, page, tileIndex, sampleSize));
+    if (tile != null && tile.isLoaded()) {
+      return tile;
+    }
+    if (sampleSize > 1) {
+      // Sharper than needed, e.g. while shrinking
+      tile = tiles.get(keyOf(section, page, tileIndex, sampleSize / 2));
+      if (tile != null && tile.isLoaded()) {
+        return tile;
+      }
+    }
+    if (sampleSize < MAX_SAMPLE_SIZE && emojiSize() / (sampleSize * 2) * MAX_UPSCALE >= drawSize) {
+      // Slightly blurrier than needed, e.g. while growing
+      tile = tiles.get(keyOf(section, page, tileIndex, sampleSize * 2));
+      if (tile != null && tile.isLoaded()) {
+        return tile;
       }
     }
     return null;
   }
 
-  static int calculateSampleSize () {
-    return Screen.density() <= 1.0f ? 2 : 1;
+  private Tile requestTile (int section, int page, int tileIndex, int sampleSize) {
+    final long key = keyOf(section, page, tileIndex, sampleSize);
+    Tile tile = tiles.get(key);
+    if (tile == null) {
+      tile = new Tile(key, section, page, tileIndex, sampleSize);
+      tiles.put(key, tile);
+    }
+    if (!tile.isLoaded() && !tile.isLoading && !tile.isFailed) {
+      tile.isLoading = true;
+      final Tile loadingTile = tile;
+      Media.instance().post(() -> loadTile(loadingTile));
+    }
+    return tile;
   }
 
-  @Nullable
-  public Entry getBitmap (int section, int page) {
-    return isReady(section, page) ? bitmaps[section][page] : null;
+  private void onTileLoaded (Tile tile, @Nullable Bitmap bitmap, int regionLeft, int regionTop, int sampleSize, boolean needFullPage) {
+    tile.isLoading = false;
+    if (recycled || tiles.get(tile.key) != tile) {
+      U.recycle(bitmap);
+      return;
+    }
+    if (needFullPage) {
+      fullPageOnly[tile.section][tile.page] = true;
+      Iterator<Tile> itr = tiles.values().iterator();
+      while (itr.hasNext()) {
+        Tile other = itr.next();
+        if (other.section == tile.section && other.page == tile.page && other.tileIndex != FULL_PAGE) {
+          usedBytes -= other.getByteCount();
+          itr.remove();
+        }
+      }
+    } else if (bitmap != null) {
+      tile.bitmap = bitmap;
+      tile.regionLeft = regionLeft;
+      tile.regionTop = regionTop;
+      tile.sampleSize = sampleSize;
+      usedBytes += tile.getByteCount();
+      trimToBudget(tile);
+    } else {
+      // Keep the entry, so a broken sheet isn't decoded again on every frame
+      tile.isFailed = true;
+    }
+    TGLegacyManager.instance().notifyEmojiChanged(false);
   }
 
-  private boolean isReady (int page1, int page2) {
-    if (recycled)
-      return false;
-    Entry bitmap = bitmaps[page1][page2];
-    if (bitmap == null) {
-      bitmap = new Entry();
-      bitmaps[page1][page2] = bitmap;
+  private void trimToBudget (Tile keepTile) {
+    if (usedBytes <= budgetBytes) {
+      return;
     }
-    if (!bitmap.isLoaded()) {
-      if (bitmap.markAsLoading()) {
-        Media.instance().post(() -> loadEmoji(page1, page2));
+    Iterator<Tile> itr = tiles.values().iterator();
+    while (itr.hasNext() && usedBytes > budgetBytes) {
+      Tile tile = itr.next();
+      if (tile == keepTile || tile.isLoading) {
+        continue;
       }
-      return false;
+      usedBytes -= tile.getByteCount();
+      // Not recycling explicitly: the bitmap may still be referenced by a recorded display list
+      tile.bitmap = null;
+      itr.remove();
+    }
+    if (Log.isEnabled(Log.TAG_EMOJI)) {
+      Log.v(Log.TAG_EMOJI, "Emoji tiles trimmed: %d tiles, %d KB of %d KB", tiles.size(), usedBytes / 1024, budgetBytes / 1024);
     }
-    return true;
   }
 
   public void recycle () {
     if (!recycled) {
       recycled = true;
-      for (Entry[] bitmaps : this.bitmaps) {
-        for (int i = 0; i < bitmaps.length; i++) {
-          Entry bitmap = bitmaps[i];
-          if (bitmap != null) {
-            bitmap.performDestroy();
-            bitmaps[i] = null;
-          }
-        }
+      for (Tile tile : tiles.values()) {
+        U.recycle(tile.bitmap);
+        tile.bitmap = null;
+      }
+      tiles.clear();
+      usedBytes = 0;
+      Media.instance().post(this::closeDecoders);
+    }
+  }
+
+  // Decoding
+
+  private String getFileSuffix (int section, int page) {
+    return String.format(Locale.US, "%d_%d.png", section, page);
+  }
+
+  private String getAssetPath (int section, int page) {
+    return String.format(Locale.US, "emoji/v%d_%s", (12 + BuildConfig.EMOJI_VERSION), getFileSuffix(section, page));
+  }
+
+  @Nullable
+  private File getPackFile (int section, int page) {
+    if (BuildConfig.EMOJI_BUILTIN_ID.equals(identifier)) {
+      return null;
+    }
+    return new File(new File(Emoji.getEmojiPackDirectory(), identifier), getFileSuffix(section, page));
+  }
+
+  @SuppressWarnings("deprecation")
+  @Nullable
+  private BitmapRegionDecoder getDecoder (int section, int page) {
+    final int key = section * EmojiCode.SPLIT_COUNT + page;
+    BitmapRegionDecoder decoder = decoders.get(key);
+    if (decoder != null) {
+      return decoder;
+    }
+    File file = getPackFile(section, page);
+    if (file != null && file.exists()) {
+      try (InputStream is = U.openInputStream(file.getPath())) {
+        decoder = BitmapRegionDecoder.newInstance(is, false);
+      } catch (Throwable t) {
+        Log.e(Log.TAG_EMOJI, "Cannot open emoji region decoder, file: %s", t, file);
+      }
+    }
+    if (decoder == null) {
+      try (InputStream is = UI.getAppContext().getAssets().open(getAssetPath(section, page))) {
+        decoder = BitmapRegionDecoder.newInstance(is, false);
+      } catch (Throwable t) {
+        Log.e(Log.TAG_EMOJI, "Cannot open emoji region decoder, section: %d, page: %d", t, section, page);
       }
     }
+    if (decoder != null) {
+      decoders.put(key, decoder);
+      if (decoders.size() > MAX_OPEN_DECODER_COUNT) {
+        Iterator<BitmapRegionDecoder> itr = decoders.values().iterator();
+        itr.next().recycle();
+        itr.remove();
+      }
+    }
+    return decoder;
   }
 
-  private void loadEmoji (int section, int page) {
-    String fileSuffix = String.format(Locale.US, "%d_%d.png", section, page);
+  private void closeDecoders () {
+    for (BitmapRegionDecoder decoder : decoders.values()) {
+      decoder.recycle();
+    }
+    decoders.clear();
+  }
 
-    int sampleSize = calculateSampleSize();
+  private void scheduleIdleCheck () {
+    lastDecodeTime = SystemClock.uptimeMillis();
+    if (!idleCheckScheduled) {
+      idleCheckScheduled = true;
+      Media.instance().post(idleCheck, DECODER_IDLE_TIMEOUT_MS);
+    }
+  }
+
+  private void closeIdleDecoders () {
+    idleCheckScheduled = false;
+    if (decoders.isEmpty()) {
+      return;
+    }
+    final long idleTime = SystemClock.uptimeMillis() - lastDecodeTime;
+    if (idleTime >= DECODER_IDLE_TIMEOUT_MS) {
+      if (Log.isEnabled(Log.TAG_EMOJI)) {
+        Log.v(Log.TAG_EMOJI, "Closing %d idle emoji region decoders", decoders.size());
+      }
+      closeDecoders();
+    } else {
+      idleCheckScheduled = true;
+      Media.instance().post(idleCheck, (int) (DECODER_IDLE_TIMEOUT_MS - idleTime));
+    }
+  }
+
+  private void loadTile (Tile tile) {
+    if (recycled) {
+      UI.post(() -> onTileLoaded(tile, null, 0, 0, 0, false));
+      return;
+    }
+    if (tile.tileIndex == FULL_PAGE) {
+      loadFullPage(tile);
+      return;
+    }
+    final BitmapRegionDecoder decoder = getDecoder(tile.section, tile.page);
+    if (decoder == null) {
+      UI.post(() -> onTileLoaded(tile, null, 0, 0, 0, true));
+      return;
+    }
+    final int columnCount = EmojiCode.COLUMNS[tile.section][tile.page];
+    final int tilesPerRow = (columnCount + TILE_SPAN - 1) / TILE_SPAN;
+    final int tileSize = TILE_SPAN * emojiPitch(tile.section, tile.page);
+    final int regionLeft = (tile.tileIndex % tilesPerRow) * tileSize;
+    final int regionTop = (tile.tileIndex / tilesPerRow) * tileSize;
+    final Rect region = new Rect(
+      regionLeft,
+      regionTop,
+      Math.min(decoder.getWidth(), regionLeft + tileSize),
+      Math.min(decoder.getHeight(), regionTop + tileSize)
+    );
+    Bitmap bitmap = null;
+    int sampleSize = tile.requestedSampleSize;
+    if (!region.isEmpty()) {
+      for (int attemptNo = 0; attemptNo < 3 && bitmap == null; attemptNo++) {
+        try {
+          BitmapFactory.Options opts = new BitmapFactory.Options();
+          opts.inSampleSize = sampleSize;
+          opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+          bitmap = decoder.decodeRegion(region, opts);
+        } catch (Throwable t) {
+          Log.e(Log.TAG_EMOJI, "Cannot decode emoji tile, section: %d, page: %d, tile: %d", t, tile.section, tile.page, tile.tileIndex);
+        }
+        if (bitmap == null) {
+          sampleSize *= 2;
+        }
+      }
+    }
+    scheduleIdleCheck();
+    final Bitmap result = bitmap;
+    final int resultSampleSize = sampleSize;
+    UI.post(() -> onTileLoaded(tile, result, regionLeft, regionTop, resultSampleSize, false));
+  }
+
+  private void loadFullPage (Tile tile) {
     Bitmap result = null;
+    int sampleSize = 1;
     int attemptNo = 0;
     do {
-      if (!BuildConfig.EMOJI_BUILTIN_ID.equals(identifier)) {
-        File file = new File(new File(Emoji.getEmojiPackDirectory(), identifier), fileSuffix);
+      File file = getPackFile(tile.section, tile.page);
+      if (file != null) {
         result = loadAsset(file.getPath(), false, sampleSize);
       }
       if (result == null) {
-        result = loadAsset(String.format(Locale.US, "emoji/v%d_%s", (12 + BuildConfig.EMOJI_VERSION), fileSuffix), true, sampleSize);
+        result = loadAsset(getAssetPath(tile.section, tile.page), true, sampleSize);
       }
       if (U.isValidBitmap(result)) {
         break;
@@ -197,14 +457,41 @@ class EmojiBitmaps {
     } while (attemptNo < 3);
     final Bitmap resultFinal = result;
     final int sampleSizeFinal = sampleSize;
-    UI.post(() -> {
-      if (recycled) {
-        if (resultFinal != null)
-          resultFinal.recycle();
-      } else {
-        bitmaps[section][page].setBitmap(resultFinal, sampleSizeFinal);
-      }
-      TGLegacyManager.instance().notifyEmojiChanged(false);
-    });
+    UI.post(() -> onTileLoaded(tile, resultFinal, 0, 0, sampleSizeFinal, false));
+  }
+
+  private static Bitmap loadAsset (String filePath, boolean isAsset, int sampleSize) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && Config.MODERN_IMAGE_DECODER_ENABLED) {
+      try {
+        android.graphics.ImageDecoder.Source source;
+        if (isAsset) {
+          source = android.graphics.ImageDecoder.createSource(UI.getAppContext().getAssets(), filePath);
+        } else {
+          source = android.graphics.ImageDecoder.createSource(new File(filePath));
+        }
+        return android.graphics.ImageDecoder.decodeBitmap(source, new android.graphics.ImageDecoder.OnHeaderDecodedListener() {
+          @Override
+          public void onHeaderDecoded (@NonNull android.graphics.ImageDecoder decoder, @NonNull android.graphics.ImageDecoder.ImageInfo info, @NonNull android.graphics.ImageDecoder.Source source) {
+            if (sampleSize != 1)
+              decoder.setTargetSampleSize(sampleSize);
+            if (Config.FORCE_SOFTWARE_IMAGE_DECODER) {
+              decoder.setAllocator(android.graphics.ImageDecoder.ALLOCATOR_SOFTWARE);
+            }
+          }
+        });
+      } catch (Throwable t) {
+        Log.e("Cannot load emoji bitmap (Pie)", t);
+      }
+    } else {
+      try (InputStream is = isAsset ? UI.getAppContext().getAssets().open(filePath) : U.openInputStream(filePath)) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sampleSize;
+        return BitmapFactory.decodeStream(is, null, opts);
+      } catch (Throwable t) {
+        Log.e("Cannot load emoji bitmap", t);
+      }
+    }
+    return null;
   }
 }
@@ -0,0 +1,178 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 18:40
+ */
+package org.thunderdog.challegram.emoji;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Immutable UTF-16 trie over known emoji codes.
+ *
+ * Nodes are stored in breadth-first order, so children of each node occupy a contiguous sorted range
+ * of {@link #edgeChars}. Lookups walk the input in place and never allocate.
+ */
+final class EmojiTrie {
+  private final int[] childStart; // childStart[node] .. childStart[node + 1] is the range of node's edges
+  private final char[] edgeChars;
+  private final int[] edgeTargets;
+  private final EmojiInfo[] infos;
+
+  private EmojiTrie (int[] childStart, char[] edgeChars, int[] edgeTargets, EmojiInfo[] infos) {
+    this.childStart = childStart;
+    this.edgeChars = edgeChars;
+    this.edgeTargets = edgeTargets;
+    this.infos = infos;
+  }
+
+  public int getNodeCount () {
+    return infos.length;
+  }
+
+  private int child (int node, char c) {
+    int low = childStart[node];
+    int high = childStart[node + 1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midChar = edgeChars[mid];
+      if (midChar < c) {
+        low = mid + 1;
+      } else if (midChar > c) {
+        high = mid - 1;
+      } else {
+        return edgeTargets[mid];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return Emoji exactly matching {@code cs[start..end)}, or {@code null}
+   */
+  @Nullable
+  public EmojiInfo find (CharSequence cs, int start, int end) {
+    if (start >= end) {
+      return null;
+    }
+    int node = 0;
+    for (int i = start; i < end; i++) {
+      node = child(node, cs.charAt(i));
+      if (node == -1) {
+        return null;
+      }
+    }
+    return infos[node];
+  }
+
+  /**
+   * @return Length of the longest known emoji starting at {@code start} and ending no later than {@code end}, or 0
+   */
+  public int findLongestPrefix (CharSequence cs, int start, int end) {
+    int node = 0;
+    int matchLength = 0;
+    for (int i = start; i < end; i++) {
+      node = child(node, cs.charAt(i));
+      if (node == -1) {
+        break;
+      }
+      if (infos[node] != null) {
+        matchLength = i - start + 1;
+      }
+    }
+    return matchLength;
+  }
+
+  static final class Builder {
+    private static final class Node {
+      private char[] chars = new char[0];
+      private Node[] children = new Node[0];
+      private EmojiInfo info;
+
+      Node getOrCreateChild (char c) {
+        int index = Arrays.binarySearch(chars, c);
+        if (index >= 0) {
+          return children[index];
+        }
+        index = -index - 1;
+        Node child = new Node();
+        char[] newChars = new char[chars.length + 1];
+        Node[] newChildren = new Node[children.length + 1];
+        System.arraycopy(chars, 0, newChars, 0, index);
+        System.arraycopy(children, 0, newChildren, 0, index);
+        newChars[index] = c;
+        newChildren[index] = child;
+        System.arraycopy(chars, index, newChars, index + 1, chars.length - index);
+        System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+        chars = newChars;
+        children = newChildren;
+        return child;
+      }
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @param overwrite Whether {@code info} should replace emoji already known by this code
+     */
+    public Builder put (CharSequence code, EmojiInfo info, boolean overwrite) {
+      if (code.length() == 0) {
+        throw new IllegalArgumentException();
+      }
+      Node node = root;
+      for (int i = 0; i < code.length(); i++) {
+        node = node.getOrCreateChild(code.charAt(i));
+      }
+      if (node.info == null || overwrite) {
+        node.info = info;
+      }
+      return this;
+    }
+
+    public EmojiTrie build () {
+      // Breadth-first numbering keeps children of every node next to each other
+      ArrayDeque<Node> queue = new ArrayDeque<>();
+      ArrayList<Node> order = new ArrayList<>();
+      queue.add(root);
+      while (!queue.isEmpty()) {
+        Node node = queue.poll();
+        order.add(node);
+        for (Node child : node.children) {
+          queue.add(child);
+        }
+      }
+      final int nodeCount = order.size();
+      final int[] childStart = new int[nodeCount + 1];
+      final char[] edgeChars = new char[nodeCount - 1];
+      final int[] edgeTargets = new int[nodeCount - 1];
+      final EmojiInfo[] infos = new EmojiInfo[nodeCount];
+      int edgeIndex = 0;
+      int nextNodeId = 1;
+      for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+        Node node = order.get(nodeId);
+        infos[nodeId] = node.info;
+        childStart[nodeId] = edgeIndex;
+        for (char c : node.chars) {
+          edgeChars[edgeIndex] = c;
+          edgeTargets[edgeIndex] = nextNodeId++;
+          edgeIndex++;
+        }
+      }
+      childStart[nodeCount] = edgeIndex;
+      return new EmojiTrie(childStart, edgeChars, edgeTargets, infos);
+    }
+  }
+}
@@ -161,7 +161,7 @@ public class ComplexReceiver implements Destroyable {
   }
 
   public DoubleImageReceiver getPreviewReceiver (long key) {
-    return getReceiver(previews, view, updateListener, isAttached, animationsDisabled, key, TYPE_DOUBLE);
+    return getReceiver(previews, view, updateListener, isAttached, animationsDisabled, decodePriority, key, TYPE_DOUBLE);
   }
 
   private static final int TYPE_DOUBLE = 1;
@@ -170,7 +170,7 @@ public class ComplexReceiver implements Destroyable {
   private static final int TYPE_AVATAR = 4;
 
   @SuppressWarnings("unchecked")
-  private static <T extends Receiver> T getReceiver (LongSparseArray<T> target, View view, @Nullable ComplexReceiverUpdateListener updateListener, boolean isAttached, boolean animationsDisabled, long key, int type) {
+  private static <T extends Receiver> T getReceiver (LongSparseArray<T> target, View view, @Nullable ComplexReceiverUpdateListener updateListener, boolean isAttached, boolean animationsDisabled, int decodePriority, long key, int type) {
     int i = target.indexOfKey(key);
     if (i >= 0) {
       return target.valueAt(i);
@@ -198,6 +198,9 @@ public class ComplexReceiver implements Destroyable {
     if (animationsDisabled) {
       receiver.setAnimationDisabled(animationsDisabled);
     }
+    if (decodePriority != ImageDecodeScheduler.PRIORITY_VISIBLE) {
+      receiver.setDecodePriority(decodePriority);
+    }
     if (updateListener != null) {
       receiver.setUpdateListener((r) ->
         updateListener.onRequestInvalidate(r, key)
@@ -215,15 +218,15 @@ public class ComplexReceiver implements Destroyable {
   }
 
   public ImageReceiver getImageReceiver (long key) {
-    return getReceiver(imageReceivers, view, updateListener, isAttached, animationsDisabled, key, TYPE_IMAGE);
+    return getReceiver(imageReceivers, view, updateListener, isAttached, animationsDisabled, decodePriority, key, TYPE_IMAGE);
   }
 
   public GifReceiver getGifReceiver (long key) {
-    return getReceiver(gifReceivers, view, updateListener, isAttached, animationsDisabled, key, TYPE_GIF);
+    return getReceiver(gifReceivers, view, updateListener, isAttached, animationsDisabled, decodePriority, key, TYPE_GIF);
   }
 
   public AvatarReceiver getAvatarReceiver (long key) {
-    return getReceiver(avatarReceivers, view, updateListener, isAttached, animationsDisabled, key, TYPE_AVATAR);
+    return getReceiver(avatarReceivers, view, updateListener, isAttached, animationsDisabled, decodePriority, key, TYPE_AVATAR);
   }
 
   private boolean isAttached = true;
@@ -239,6 +242,17 @@ public class ComplexReceiver implements Destroyable {
     }
   }
 
+  private int decodePriority = ImageDecodeScheduler.PRIORITY_VISIBLE;
+
+  public void setDecodePriority (@ImageDecodeScheduler.Priority int decodePriority) {
+    if (this.decodePriority != decodePriority) {
+      this.decodePriority = decodePriority;
+      iterate(receiver ->
+        receiver.setDecodePriority(decodePriority)
+      );
+    }
+  }
+
   private void iterate (RunnableData<Receiver> callback) {
     iterate(imageReceivers, callback);
     iterate(avatarReceivers, callback);
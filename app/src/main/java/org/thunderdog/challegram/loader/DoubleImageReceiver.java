@@ -46,6 +46,12 @@ public class DoubleImageReceiver implements Receiver {
     return this;
   }
 
+  @Override
+  public void setDecodePriority (@ImageDecodeScheduler.Priority int priority) {
+    this.preview.setDecodePriority(priority);
+    this.receiver.setDecodePriority(priority);
+  }
+
   public void setAnimationDisabled (boolean disabled) {
     this.preview.setAnimationDisabled(disabled);
     this.receiver.setAnimationDisabled(disabled);
@@ -34,12 +34,21 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
 
   private volatile boolean isCancelled;
 
-  public ImageActor (ImageFile file) {
+  public ImageActor (ImageFile file, @ImageDecodeScheduler.Priority int decodePriority) {
     this.file = file;
+    this.decodePriority = decodePriority;
   }
 
   public void cancel () {
     this.isCancelled = true;
+    ImageDecodeScheduler.Task pendingDecode;
+    synchronized (this) {
+      pendingDecode = this.pendingDecode;
+      this.pendingDecode = null;
+    }
+    if (pendingDecode != null) {
+      ImageReader.instance().scheduler().cancel(pendingDecode);
+    }
     if (cancellationSignal != null)
       cancellationSignal.cancel();
     if (file instanceof ImageApicFile) {
@@ -52,6 +61,44 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
     return isCancelled;
   }
 
+  // Decode queue
+
+  private ImageDecodeScheduler.Task pendingDecode;
+  private int decodePriority;
+
+  @ImageDecodeScheduler.Priority
+  public synchronized int getDecodePriority () {
+    return decodePriority;
+  }
+
+  synchronized boolean onDecodeScheduled (ImageDecodeScheduler.Task task) {
+    if (isCancelled) {
+      return false;
+    }
+    this.pendingDecode = task;
+    return true;
+  }
+
+  synchronized void onDecodeStarted (ImageDecodeScheduler.Task task) {
+    if (this.pendingDecode == task) {
+      this.pendingDecode = null;
+    }
+  }
+
+  public void raisePriority (@ImageDecodeScheduler.Priority int priority) {
+    ImageDecodeScheduler.Task pendingDecode;
+    synchronized (this) {
+      if (priority >= this.decodePriority) {
+        return;
+      }
+      this.decodePriority = priority;
+      pendingDecode = this.pendingDecode;
+    }
+    if (pendingDecode != null) {
+      ImageReader.instance().scheduler().raisePriority(pendingDecode, priority);
+    }
+  }
+
   private CancellationSignal cancellationSignal;
 
   public CancellationSignal getCancellationSignal () {
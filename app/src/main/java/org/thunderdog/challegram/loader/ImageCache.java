@@ -18,7 +18,7 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Build;
-import android.util.LruCache;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -29,8 +29,11 @@ import org.thunderdog.challegram.tool.UI;
 
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.vkryl.core.unit.ByteUnit;
 
@@ -39,63 +42,72 @@ public class ImageCache {
 
   public static ImageCache instance () {
     if (instance == null) {
-      instance = new ImageCache();
+      synchronized (ImageCache.class) {
+        if (instance == null) {
+          instance = new ImageCache();
+        }
+      }
     }
     return instance;
   }
 
-  public static HashMap<String, AtomicInteger> getReferenceCounters () {
-    return instance().getCounters();
+  private static final Object referenceLock = new Object();
+
+  /**
+   * Lock used by receivers to swap their references atomically.
+   *
+   * Cache itself doesn't use it, so holding it doesn't block decoding threads.
+   */
+  public static Object getReferenceLock () {
+    return referenceLock;
   }
 
-  private final HashMap<String, AtomicInteger> counters;
-  private final HashMap<String, Integer> rotations;
-  private final HashMap<String, WeakReference<Bitmap>> references;
-  private class BitmapLruCache extends LruCache<String, Bitmap> {
-    public BitmapLruCache (int maxSize) {
-      super(maxSize);
-    }
+  private static final boolean ALLOW_REFERENCES = true;
+  private static final int SEGMENT_COUNT = 8; // Must be a power of two
+  private static final long FRESH_ENTRY_TIMEOUT_MS = 1000; // Time for ImageLoader to deliver the bitmap and pin it
 
-    @Override
-    protected int sizeOf (String key, Bitmap value) {
-      if (value == null || value.isRecycled())
-        return 1;
-      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
-        return value.getRowBytes() * value.getHeight();
-      } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
-        return value.getByteCount();
-      } else {
-        return value.getAllocationByteCount();
-      }
-    }
+  private static class Entry {
+    final Bitmap bitmap;
+    final int size;
+    final long insertTime;
+    long accessStamp; // Guarded by segment lock
 
-    @Override
-    protected void entryRemoved (boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
-      if (!counters.containsKey(key)) {
-        if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-          Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in entryRemoved", key);
-        }
-        U.recycle(oldValue);
-      }
+    Entry (Bitmap bitmap, int size, long accessStamp) {
+      this.bitmap = bitmap;
+      this.size = size;
+      this.insertTime = SystemClock.uptimeMillis();
+      this.accessStamp = accessStamp;
     }
   }
 
-  private final BitmapLruCache memcache;
+  private static class Segment {
+    final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(16, .75f, true);
+    final HashMap<String, AtomicInteger> pinned = new HashMap<>();
+    final HashMap<String, Integer> rotations = new HashMap<>();
+    final HashMap<String, WeakReference<Bitmap>> references = new HashMap<>();
+  }
 
-  private static final boolean ALLOW_REFERENCES = true;
+  private final Segment[] segments;
+  private final long maxSize;
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong(), missCount = new AtomicLong(), evictionCount = new AtomicLong();
+  private final AtomicLong accessClock = new AtomicLong();
 
   private ImageCache () {
-    counters = new HashMap<>();
-    rotations = new HashMap<>();
-    memcache = new BitmapLruCache(getMemcacheSize());
-    references = new HashMap<>();
+    this.segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+    this.maxSize = getMemcacheSize();
   }
 
-  private boolean hasInMemcache (String key) {
-    return memcache.get(key) != null;
+  private Segment segmentFor (String key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[hash & (SEGMENT_COUNT - 1)];
   }
 
-  private int getMemcacheSize () {
+  private static int getMemcacheSize () {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
       int mib = Math.min(15, ((ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass() / 7);
       return (int) ByteUnit.MIB.toBytes(mib);
@@ -104,19 +116,99 @@ public class ImageCache {
     }
   }
 
-  public HashMap<String, AtomicInteger> getCounters () {
-    return counters;
+  private static int sizeOf (Bitmap value) {
+    if (value == null || value.isRecycled())
+      return 1;
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
+      return value.getRowBytes() * value.getHeight();
+    } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      return value.getByteCount();
+    } else {
+      return value.getAllocationByteCount();
+    }
+  }
+
+  // Must be called with segment lock held
+
+  private void onEntryRemoved (Segment segment, String key, Entry entry, boolean evicted) {
+    size.addAndGet(-entry.size);
+    if (evicted) {
+      evictionCount.incrementAndGet();
+    }
+    if (!segment.pinned.containsKey(key)) {
+      if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+        Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in entryRemoved", key);
+      }
+      U.recycle(entry.bitmap);
+    }
+  }
+
+  // Must be called with segment lock held
+
+  @Nullable
+  private static Map.Entry<String, Entry> findEldest (Segment segment, @Nullable String excludeKey, long now) {
+    for (Map.Entry<String, Entry> entry : segment.lru.entrySet()) {
+      final String key = entry.getKey();
+      if (excludeKey != null && excludeKey.equals(key)) {
+        continue;
+      }
+      if (now - entry.getValue().insertTime < FRESH_ENTRY_TIMEOUT_MS && !segment.pinned.containsKey(key)) {
+        // Just put by another decoding thread and not yet pinned by receivers, evicting it would recycle bitmap they are about to draw
+        continue;
+      }
+      return entry;
+    }
+    return null;
+  }
+
+  /**
+   * Evicts globally least recently used entries until cache fits {@link #maxSize}.
+   *
+   * Each segment is access-ordered, so its eldest entry has its lowest stamp,
+   * and the victim is the eldest entry with the lowest stamp across all segments.
+   *
+   * @param insertedKey Key that has just been put. It is never evicted, because caller hasn't pinned it yet.
+   */
+  private void trimToSize (@Nullable String insertedKey) {
+    final long now = SystemClock.uptimeMillis();
+    while (size.get() > maxSize) {
+      Segment victimSegment = null;
+      Entry victim = null;
+      long victimStamp = 0;
+      for (Segment segment : segments) {
+        synchronized (segment) {
+          Map.Entry<String, Entry> eldest = findEldest(segment, insertedKey, now);
+          if (eldest != null && (victim == null || eldest.getValue().accessStamp < victimStamp)) {
+            victimSegment = segment;
+            victim = eldest.getValue();
+            victimStamp = victim.accessStamp;
+          }
+        }
+      }
+      if (victim == null) {
+        break;
+      }
+      synchronized (victimSegment) {
+        Map.Entry<String, Entry> eldest = findEldest(victimSegment, insertedKey, now);
+        // Otherwise victim got accessed or replaced meanwhile, pick again
+        if (eldest != null && eldest.getValue() == victim && victim.accessStamp == victimStamp) {
+          victimSegment.lru.remove(eldest.getKey());
+          onEntryRemoved(victimSegment, eldest.getKey(), victim, true);
+        }
+      }
+    }
   }
 
   public void addReference (ImageFile file, Bitmap bitmap) {
     if (file != null && bitmap != null) {
-      synchronized (counters) {
-        final String key = file.toString();
-        AtomicInteger count = counters.get(key);
+      final String key = file.toString();
+      final Segment segment = segmentFor(key);
+      synchronized (segment) {
+        AtomicInteger count = segment.pinned.get(key);
         if (count != null) {
           count.incrementAndGet();
         } else {
-          counters.put(key, count = new AtomicInteger(1));
+          segment.pinned.put(key, count = new AtomicInteger(1));
         }
         if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
           Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference++: %d", key, count.get());
@@ -131,10 +223,10 @@ public class ImageCache {
 
   public void removeReference (ImageFile file, Bitmap bitmap) {
     if (file != null && bitmap != null) {
-      synchronized (counters) {
-        String key = file.toString();
-
-        AtomicInteger count = counters.get(key);
+      final String key = file.toString();
+      final Segment segment = segmentFor(key);
+      synchronized (segment) {
+        AtomicInteger count = segment.pinned.get(key);
         if (count != null) {
           int result = count.decrementAndGet();
           if (result < 0)
@@ -143,15 +235,15 @@ public class ImageCache {
             Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference--: %d", key, result);
           }
           if (result == 0) {
-            counters.remove(key);
-            if (!hasInMemcache(key)) {
+            segment.pinned.remove(key);
+            if (!segment.lru.containsKey(key)) {
               if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
                 Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in removeReference", key);
               }
               U.recycle(bitmap);
             }
             if (ALLOW_REFERENCES) {
-              references.remove(key);
+              segment.references.remove(key);
             }
           }
         }
@@ -169,70 +261,134 @@ public class ImageCache {
 
   public void putBitmap (ImageFile file, Bitmap bitmap) {
     final String key = file.toString();
-    memcache.put(key, bitmap);
-    if (file.getRotation() != 0) {
-      rotations.put(key, file.getRotation());
-    }
-    if (ALLOW_REFERENCES) {
-      synchronized (counters) {
-        references.put(key, new WeakReference<>(bitmap));
+    final Segment segment = segmentFor(key);
+    final Entry entry = new Entry(bitmap, sizeOf(bitmap), accessClock.incrementAndGet());
+    synchronized (segment) {
+      size.addAndGet(entry.size);
+      Entry previous = segment.lru.put(key, entry);
+      if (previous != null && previous.bitmap != bitmap) {
+        onEntryRemoved(segment, key, previous, false);
+      } else if (previous != null) {
+        size.addAndGet(-previous.size);
+      }
+      if (file.getRotation() != 0) {
+        segment.rotations.put(key, file.getRotation());
+      }
+      if (ALLOW_REFERENCES) {
+        segment.references.put(key, new WeakReference<>(bitmap));
       }
     }
+    trimToSize(key);
   }
 
   public Bitmap getBitmap (ImageFile file) {
     final String key = file.toString();
-    final Bitmap cached = memcache.get(key);
-    if (cached != null) {
-      Integer rotation = rotations.get(key);
-      if (rotation != null) {
-        file.setRotation(rotation);
+    final Segment segment = segmentFor(key);
+    synchronized (segment) {
+      final Entry cached = segment.lru.get(key);
+      if (cached != null) {
+        cached.accessStamp = accessClock.incrementAndGet();
+        hitCount.incrementAndGet();
+        Integer rotation = segment.rotations.get(key);
+        if (rotation != null) {
+          file.setRotation(rotation);
+        }
+        return cached.bitmap;
       }
-    }
-    if (ALLOW_REFERENCES && cached == null) {
-      synchronized (counters) {
-        final WeakReference<Bitmap> reference = references.get(key);
+      if (ALLOW_REFERENCES) {
+        final WeakReference<Bitmap> reference = segment.references.get(key);
         final Bitmap referenced = reference != null ? reference.get() : null;
         if (referenced == null || referenced.isRecycled()) {
-          references.remove(key);
+          segment.references.remove(key);
         } else {
+          hitCount.incrementAndGet();
           return referenced;
         }
       }
     }
-    return cached;
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  public long hitCount () {
+    return hitCount.get();
+  }
+
+  public long missCount () {
+    return missCount.get();
+  }
+
+  public long evictionCount () {
+    return evictionCount.get();
+  }
+
+  public long size () {
+    return size.get();
+  }
+
+  public long maxSize () {
+    return maxSize;
+  }
+
+  public int referenceCount () {
+    int count = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        count += segment.pinned.size();
+      }
+    }
+    return count;
+  }
+
+  public int entryCount () {
+    int count = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        count += segment.lru.size();
+      }
+    }
+    return count;
   }
 
   @Override
   @NonNull
   public String toString () {
-    return "ImageCache { counters = " + counters.size() + ", memcache = " + memcache.size() + " }";
+    return "ImageCache { counters = " + referenceCount() + ", memcache = " + size() + "/" + maxSize + ", entries = " + entryCount() + ", hits = " + hitCount() + ", misses = " + missCount() + ", evictions = " + evictionCount() + " }";
   }
 
   public void clear (boolean withMemcache) {
-    synchronized (counters) {
-      if (withMemcache) {
-        counters.clear();
-      }
+    if (!withMemcache) {
+      return;
     }
-    if (withMemcache) {
-      memcache.evictAll();
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.pinned.clear();
+        evictAll(segment, null);
+      }
     }
   }
 
   public void clearForAccount (int accountId) {
-    synchronized (counters) {
-      final String prefix = "account" + accountId + "_";
-      /*U.removeByPrefix(counters, prefix);
-      U.removeByPrefix(rotations, prefix);
-      if (ALLOW_REFERENCES) {
-        U.removeByPrefix(references, prefix);
-      }*/
-      Set<String> snapshot = memcache.snapshot().keySet();
-      for (String key : snapshot) {
-        if (key.startsWith(prefix)) {
-          memcache.remove(key);
-        }
+    final String prefix = "account" + accountId + "_";
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        evictAll(segment, prefix);
+      }
+    }
+  }
+
+  // Must be called with segment lock held
+
+  private void evictAll (Segment segment, @Nullable String prefix) {
+    if (segment.lru.isEmpty()) {
+      return;
+    }
+    Iterator<Map.Entry<String, Entry>> itr = segment.lru.entrySet().iterator();
+    while (itr.hasNext()) {
+      Map.Entry<String, Entry> entry = itr.next();
+      if (prefix == null || entry.getKey().startsWith(prefix)) {
+        itr.remove();
+        onEntryRemoved(segment, entry.getKey(), entry.getValue(), false);
       }
     }
   }
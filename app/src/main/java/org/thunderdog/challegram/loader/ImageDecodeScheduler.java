@@ -0,0 +1,210 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 10:12
+ */
+package org.thunderdog.challegram.loader;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import org.thunderdog.challegram.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of decoding threads shared by all {@link ImageActor}s.
+ *
+ * Work is ordered by priority class first, then by estimated cost, then by arrival,
+ * so a burst of large photos doesn't keep avatars and thumbnails waiting.
+ */
+public class ImageDecodeScheduler {
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef({
+    PRIORITY_VISIBLE,
+    PRIORITY_PREFETCH,
+    PRIORITY_BACKGROUND
+  })
+  public @interface Priority { }
+
+  public static final int PRIORITY_VISIBLE = 0;
+  public static final int PRIORITY_PREFETCH = 1;
+  public static final int PRIORITY_BACKGROUND = 2;
+
+  private static final int PRIORITY_COUNT = 3;
+
+  static final class Task implements Runnable, Comparable<Task> {
+    private final ImageDecodeScheduler scheduler;
+    private final ImageActor actor;
+    private final Runnable act;
+    private final int cost;
+    private final long order;
+    private final long enqueueTime;
+    private volatile int priority;
+
+    private Task (ImageDecodeScheduler scheduler, ImageActor actor, int priority, int cost, Runnable act) {
+      this.scheduler = scheduler;
+      this.actor = actor;
+      this.priority = priority;
+      this.cost = cost;
+      this.act = act;
+      this.order = scheduler.counter.incrementAndGet();
+      this.enqueueTime = SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public int compareTo (Task other) {
+      if (priority != other.priority)
+        return Integer.compare(priority, other.priority);
+      if (cost != other.cost)
+        return Integer.compare(cost, other.cost);
+      return Long.compare(order, other.order);
+    }
+
+    @Override
+    public void run () {
+      actor.onDecodeStarted(this);
+      if (actor.isCancelled()) {
+        scheduler.droppedCount.incrementAndGet();
+        return;
+      }
+      final int priority = this.priority;
+      final long startTime = SystemClock.uptimeMillis();
+      try {
+        act.run();
+      } finally {
+        long endTime = SystemClock.uptimeMillis();
+        scheduler.stats[priority].add(startTime - enqueueTime, endTime - startTime);
+      }
+    }
+  }
+
+  /**
+   * Latency samples for a single priority class, kept in a fixed ring buffer.
+   */
+  public static final class Stats {
+    private static final int SAMPLE_COUNT = 256;
+
+    private final long[] waitTimes = new long[SAMPLE_COUNT];
+    private final long[] decodeTimes = new long[SAMPLE_COUNT];
+    private long count;
+
+    private synchronized void add (long waitTime, long decodeTime) {
+      int index = (int) (count % SAMPLE_COUNT);
+      waitTimes[index] = waitTime;
+      decodeTimes[index] = decodeTime;
+      count++;
+    }
+
+    public synchronized long getCount () {
+      return count;
+    }
+
+    /**
+     * @param percentile Value between 0 and 100.
+     * @param includeWait Whether time spent in queue should be included.
+     * @return Latency in milliseconds, or -1 if nothing was decoded yet.
+     */
+    public synchronized long getLatency (int percentile, boolean includeWait) {
+      int sampleCount = (int) Math.min(count, SAMPLE_COUNT);
+      if (sampleCount == 0)
+        return -1;
+      long[] samples = new long[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        samples[i] = decodeTimes[i] + (includeWait ? waitTimes[i] : 0);
+      }
+      Arrays.sort(samples);
+      int index = Math.min(sampleCount - 1, (int) Math.ceil(percentile / 100.0 * sampleCount) - 1);
+      return samples[Math.max(0, index)];
+    }
+
+    @NonNull
+    @Override
+    public String toString () {
+      return "count=" + getCount() + " p50=" + getLatency(50, true) + "ms p90=" + getLatency(90, true) + "ms p99=" + getLatency(99, true) + "ms";
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong counter = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final Stats[] stats;
+
+  ImageDecodeScheduler () {
+    int poolSize = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        r.run();
+      }, "ImageDecoder#" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.allowCoreThreadTimeOut(true);
+    this.stats = new Stats[PRIORITY_COUNT];
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = new Stats();
+    }
+  }
+
+  void schedule (ImageActor actor, @Priority int priority, int cost, Runnable act) {
+    Task task = new Task(this, actor, priority, cost, act);
+    if (actor.onDecodeScheduled(task)) {
+      executor.execute(task);
+    }
+  }
+
+  void cancel (Task task) {
+    if (executor.remove(task)) {
+      droppedCount.incrementAndGet();
+      if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+        Log.v(Log.TAG_IMAGE_LOADER, "dropped queued decode, priority: %d", task.priority);
+      }
+    }
+  }
+
+  void raisePriority (Task task, @Priority int priority) {
+    if (priority < task.priority && executor.remove(task)) {
+      task.priority = priority;
+      executor.execute(task);
+    }
+  }
+
+  public int getQueueSize () {
+    return executor.getQueue().size();
+  }
+
+  public long getDroppedCount () {
+    return droppedCount.get();
+  }
+
+  public Stats getStats (@Priority int priority) {
+    return stats[priority];
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    return "ImageDecodeScheduler { queued = " + getQueueSize() + ", dropped = " + getDroppedCount() + ", visible = " + stats[PRIORITY_VISIBLE] + ", prefetch = " + stats[PRIORITY_PREFETCH] + ", background = " + stats[PRIORITY_BACKGROUND] + " }";
+  }
+}
@@ -88,7 +88,7 @@ public class ImageLoader {
     }
 
     if (record == null) {
-      ImageActor actor = new ImageActor(file);
+      ImageActor actor = new ImageActor(file, reference.getDecodePriority());
       record = new ImageWatchers(file, actor, reference);
       synchronized (watchers) {
         watchers.put(file.toString(), record);
@@ -147,6 +147,7 @@ public class ImageLoader {
         }
         record.addWatcher(reference);
       }
+      record.getActor().raisePriority(reference.getDecodePriority());
     }
   }
 
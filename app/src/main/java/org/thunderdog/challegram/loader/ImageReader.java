@@ -58,33 +58,53 @@ public class ImageReader {
     return instance;
   }
 
-  private static byte[] bytesThumb;
+  private static final ThreadLocal<byte[]> bytesThumb = new ThreadLocal<>();
 
-  private final ImageReaderThread imageThread, videoThread, memThread;
+  private final ImageReaderThread thread;
+  private final ImageDecodeScheduler scheduler;
 
   private ImageReader () {
-    imageThread = new ImageReaderThread();
-    videoThread = new ImageReaderThread();
-    memThread = new ImageReaderThread();
+    thread = new ImageReaderThread();
+    scheduler = new ImageDecodeScheduler();
+  }
+
+  public ImageDecodeScheduler scheduler () {
+    return scheduler;
   }
 
   public void post (Runnable r) {
-    imageThread.post(r, 0);
+    thread.post(r, 0);
   }
 
   public void postVideo (Runnable r) {
-    videoThread.post(r, 0);
+    thread.post(r, 0);
   }
 
-  @SuppressWarnings (value={"SpellCheckingInspection", "deprecation"})
-  public void readImage (final ImageActor actor, final ImageFile file, final String path, final Listener listener) {
-    ImageReaderThread thread = file.getBytes() != null ? memThread : file instanceof ImageVideoThumbFile || file instanceof ImageMp3File || (file instanceof ImageGalleryFile && ((ImageGalleryFile) file).isVideo()) ? videoThread : imageThread;
+  private static final int UNKNOWN_SIZE_DECODE_COST = 4096;
 
-    if (Thread.currentThread() != thread) {
-      thread.readImage(actor, file, path, listener);
-      return;
+  private static int estimateDecodeCost (ImageFile file) {
+    if (file.getBytes() != null) {
+      return 0;
+    }
+    int size = file.getSize();
+    if (size <= 0) {
+      size = UNKNOWN_SIZE_DECODE_COST;
     }
+    if (file instanceof ImageVideoThumbFile || file instanceof ImageMp3File || (file instanceof ImageGalleryFile && ((ImageGalleryFile) file).isVideo())) {
+      // Seeking for a video frame is much more expensive than decoding an image of the same size
+      size *= 2;
+    }
+    return size;
+  }
 
+  public void readImage (final ImageActor actor, final ImageFile file, final String path, final Listener listener) {
+    scheduler.schedule(actor, actor.getDecodePriority(), estimateDecodeCost(file), () ->
+      decodeImage(actor, file, path, listener)
+    );
+  }
+
+  @SuppressWarnings (value={"SpellCheckingInspection", "deprecation"})
+  private void decodeImage (final ImageActor actor, final ImageFile file, final String path, final Listener listener) {
     if (actor.isCancelled()) {
       return;
     }
@@ -311,9 +331,9 @@ public class ImageReader {
             bitmap = null;
           } else {
             int len = (int) f.length();
-            byte[] data = bytesThumb != null && bytesThumb.length >= len ? bytesThumb : null;
-            if (data == null) {
-              bytesThumb = data = new byte[len];
+            byte[] data = bytesThumb.get();
+            if (data == null || data.length < len) {
+              bytesThumb.set(data = new byte[len]);
             }
             f.readFully(data, 0, len);
             bitmap = BitmapFactory.decodeByteArray(data, 0, len, opts);
@@ -677,6 +677,11 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
     }
   }
 
+  @Override
+  public void setDecodePriority (@ImageDecodeScheduler.Priority int priority) {
+    reference.setDecodePriority(priority);
+  }
+
   public void setNeedProgress () {
     this.needProgress = true;
   }
@@ -807,7 +812,7 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
       final ImageFile oldFile = this.file;
 
       if (oldBitmap != bitmap) {
-        synchronized (ImageCache.getReferenceCounters()) {
+        synchronized (ImageCache.getReferenceLock()) {
           if (needRefs1 && oldBitmap != null) {
             ImageCache.instance().removeReference(oldFile, oldBitmap);
           }
@@ -826,7 +831,7 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
       ImageFile oldFile = this.file;
       Bitmap oldBitmap = this.bitmap;
 
-      synchronized (ImageCache.getReferenceCounters()) {
+      synchronized (ImageCache.getReferenceLock()) {
         this.file = file;
         setBitmap(bitmap);
 
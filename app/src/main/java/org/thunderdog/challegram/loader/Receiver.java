@@ -50,6 +50,10 @@ public interface Receiver extends TooltipOverlayView.LocationProvider {
   void setTag (Object tag);
   Object getTag ();
 
+  default void setDecodePriority (@ImageDecodeScheduler.Priority int priority) {
+    // Override in receivers that decode through ImageReader
+  }
+
   default int getWidth () {
     return getRight() - getLeft();
   }
@@ -21,11 +21,21 @@ import java.lang.ref.WeakReference;
 
 public class WatcherReference {
   private Reference<Watcher> reference;
+  private volatile int decodePriority = ImageDecodeScheduler.PRIORITY_VISIBLE;
 
   public WatcherReference (Watcher watcher) {
     this.reference = new WeakReference<>(watcher);
   }
 
+  public void setDecodePriority (@ImageDecodeScheduler.Priority int priority) {
+    this.decodePriority = priority;
+  }
+
+  @ImageDecodeScheduler.Priority
+  public int getDecodePriority () {
+    return decodePriority;
+  }
+
   public void imageLoaded (ImageFile file, boolean success, Bitmap bitmap) {
     Watcher watcher = reference.get();
     if (watcher != null) {
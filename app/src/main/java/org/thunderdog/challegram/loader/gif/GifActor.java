@@ -73,7 +73,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
   private @Nullable GifState gif;
   private final int[] metadata;
   private final double[] lottieMetadata;
-  private final GifThread thread;
+  private final GifFrameScheduler.Lane lane;
   private final boolean isLottie;
   private int lottieCacheState = LOTTIE_CACHE_NONE;
 
@@ -88,15 +88,15 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
 
   private final boolean isPlayOnce;
 
-  public GifActor (final GifFile file, GifThread thread) {
+  public GifActor (final GifFile file, GifFrameScheduler scheduler) {
     this.isPlayOnce = file.isPlayOnce();
     file.setVibrationPattern(Emoji.VIBRATION_PATTERN_NONE);
     this.maxFrameRate = file.hasOptimizations() || Settings.instance().getNewSetting(Settings.SETTING_FLAG_LIMIT_STICKERS_FPS) ? REDUCED_MAX_FRAME_RATE : DEFAULT_MAX_FRAME_RATE;
     this.isLottie = file.getGifType() == GifFile.TYPE_TG_LOTTIE;
     this.metadata = new int[4];
     this.lottieMetadata = new double[3];
-    this.thread = thread;
     this.file = file;
+    this.lane = scheduler.newLane(this, file);
     this.isPlaybackFrozen = isFrozen(file);
 
     this.remoteFileHandler = new Client.ResultHandler() {
@@ -208,7 +208,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
         file.tdlib().client().send(new TdApi.CancelDownloadFile(file.getFileId(), false), fileLoadHandler);
         flags &= ~FLAG_LOADING_FILE;
       } else {
-        thread.onDestroy(this);
+        lane.onDestroy();
       }
     }
   }
@@ -240,7 +240,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     Td.copyTo(file, localFile);
 
     if ((flags & FLAG_CANCELLED) == 0) {
-      thread.startDecoding(this, file.local.path);
+      lane.startDecoding(file.local.path);
     }
   }
 
@@ -417,7 +417,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       this.gif = gif;
     }
     if (!isPlaybackFrozen) {
-      thread.prepareNextFrame(this);
+      lane.prepareNextFrame();
       scheduleNext(false);
     } else {
       GifBridge.instance().dispatchGifFrameChanged(file, gif, false);
@@ -449,7 +449,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     }
     boolean res = N.seekVideoToStart(nativePtr);
     if (res) {
-      prepareNextFrame();
+      prepareNextFrame(0);
     }
   }
 
@@ -470,15 +470,22 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     int OK = 0, NEED_CREATE = 1, ERROR = 2, CANCELED = 3;
   }
 
-  // Decoder thread
-  public void prepareNextFrame () {
+  /**
+   * Decoder thread.
+   *
+   * @param maxSkippedFrameCount Number of frames that may be skipped, when decoding falls behind.
+   * Only Lottie animations can skip frames, and never across their end.
+   * @return Number of actually skipped frames.
+   */
+  public int prepareNextFrame (int maxSkippedFrameCount) {
     GifState gif;
     synchronized (gifLock) {
       gif = this.gif;
     }
     if (gif == null) {
-      return;
+      return 0;
     }
+    int skippedFrameCount = 0;
     boolean gifRestarted = false;
     boolean success = false;
     boolean async = false;
@@ -488,6 +495,10 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       if (isLottie) {
         double frameDelta = frameDelta();
         desiredNextFrameNo = lastFrameNo + frameDelta;
+        while (skippedFrameCount < maxSkippedFrameCount && (long) (desiredNextFrameNo + frameDelta) < totalFrameCount) {
+          desiredNextFrameNo += frameDelta;
+          skippedFrameCount++;
+        }
         if ((long) desiredNextFrameNo >= totalFrameCount) {
           file.onLoop();
           desiredNextFrameNo = 0;
@@ -618,11 +629,12 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       }
     }
     if (isCancelled()) {
-      return;
+      return skippedFrameCount;
     }
     if (success) {
       GifBridge.instance().nextFrameReady(this, gifRestarted);
     }
+    return skippedFrameCount;
   }
 
   // GifStage thread
@@ -652,6 +664,17 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     return maxFrameRate;
   }
 
+  // Any thread
+  long getFrameDuration () {
+    final double avgFrameRate;
+    if (isLottie) {
+      avgFrameRate = Math.min(maxFrameRate(), frameRate);
+    } else {
+      avgFrameRate = metadata[2] != 0 ? (double) metadata[2] / 1000.0 : 25.0;
+    }
+    return avgFrameRate > 0 ? (long) (1000.0 / avgFrameRate) : 40;
+  }
+
   // GifStage thread
   private void scheduleNext (boolean force) {
     final double frameDelay;
@@ -785,7 +808,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
         }
         if (isPlayingRoundVideo) {
           if (TdlibManager.instance().player().isPlayingMessage(file.getChatId(), file.getMessageId())) {
-            thread.prepareStartFrame(this);
+            lane.prepareStartFrame();
             if (lastTimeStamp != 0) {
               scheduleNext(true);
             }
@@ -793,7 +816,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
           return false;
         }
         if (GifBridge.instance().canScheduleNextFrame(this, file.getFileId())) {
-          thread.prepareNextFrame(this);
+          lane.prepareNextFrame();
           scheduleNext(false);
           return true;
         }
@@ -43,59 +43,25 @@ public class GifBridge {
     return instance;
   }
 
-  private static final int THREAD_POOL_SIZE = 2;
   private final GifBridgeThread thread;
+  private final GifFrameScheduler frameScheduler;
   private final HashMap<String, GifRecord> records = new HashMap<>();
   private final HashMap<Integer, ArrayList<GifRecord>> fileIdToRecordList = new HashMap<>();
   private final ArrayList<GifRecord> playingRoundVideos = new ArrayList<>();
-  // TODO: rework to executors
-  private int lastUsedThread, lastUsedEmojiThread;
-  private final GifThread[] threads, emojiThreads;
-  private final GifThread[] lottieThreads;
 
   private GifBridge () {
     thread = new GifBridgeThread();
-    // TODO: rework to executors
-    threads = new GifThread[THREAD_POOL_SIZE];
-    for (int i = 0; i < threads.length; i++) {
-      threads[i] = new GifThread(i);
-    }
-    emojiThreads = new GifThread[THREAD_POOL_SIZE];
-    for (int i = 0; i < emojiThreads.length; i++) {
-      emojiThreads[i] = new GifThread(i);
-    }
-    lottieThreads = new GifThread[5];
-    for (int i = 0; i < lottieThreads.length; i++) {
-      lottieThreads[i] = new GifThread(i);
-    }
-  }
-
-  private GifThread obtainFrameThread (GifFile file) {
-    if (file.getGifType() == GifFile.TYPE_TG_LOTTIE) {
-      if (file.isHighPriorityForDecode()) {
-        return lottieThreads[lottieThreads.length - 1];
-      }
-      return lottieThreads[file.getOptimizationMode()];
-    } else {
-      // TODO rework to executors
-      if (file.getOptimizationMode() == GifFile.OptimizationMode.EMOJI) {
-        if (++lastUsedEmojiThread == THREAD_POOL_SIZE) {
-          lastUsedEmojiThread = 0;
-        }
-        return emojiThreads[lastUsedEmojiThread];
-      } else {
-        if (++lastUsedThread == THREAD_POOL_SIZE) {
-          lastUsedThread = 0;
-        }
-        return threads[lastUsedThread];
-      }
-    }
+    frameScheduler = new GifFrameScheduler();
   }
 
   public GifBridgeThread getBaseThread () {
     return thread;
   }
 
+  public GifFrameScheduler getFrameScheduler () {
+    return frameScheduler;
+  }
+
   @Keep
   private final Set<GifWatcher> tempWatchers = new ArraySet<>();
 
@@ -124,7 +90,7 @@ public class GifBridge {
     GifRecord record = records.get(key);
 
     if (record == null) {
-      GifActor actor = new GifActor(file, obtainFrameThread(file));
+      GifActor actor = new GifActor(file, frameScheduler);
       record = new GifRecord(file, actor, reference);
       synchronized (records) {
         records.put(key, record);
@@ -0,0 +1,310 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 12:20
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import org.thunderdog.challegram.Log;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of decoder threads for all {@link GifActor}s.
+ *
+ * Each actor owns a {@link Lane}: work for the same actor always runs serially,
+ * because native decoders are not thread-safe, but lanes of different actors are picked up
+ * by whichever worker becomes free first. Ready lanes are ordered by priority class and
+ * by the latest moment their frame can start decoding and still meet its deadline.
+ *
+ * Frame requests of a lane are served in FIFO order, one per run, since each of them fills one frame of the buffer.
+ * When a lane falls behind, i.e. the frame is already late and more requests are waiting,
+ * the actor is allowed to skip the frames it has missed, so that the animation keeps up with the wall clock.
+ */
+public class GifFrameScheduler {
+  private static final int PRIORITY_HIGH = 0;
+  private static final int PRIORITY_DEFAULT = 1;
+  private static final int PRIORITY_OPTIMIZED = 2;
+
+  private static final int OP_START_DECODING = 1;
+  private static final int OP_PREPARE_START_FRAME = 1 << 1;
+  private static final int OP_PREPARE_NEXT_FRAME = 1 << 2;
+  private static final int OP_DESTROY = 1 << 3;
+
+  final class Lane implements Runnable, Comparable<Lane> {
+    private final GifActor actor;
+    private final GifFile file;
+    private final int priority;
+
+    // Guarded by this
+    private int pendingOps; // OP_START_DECODING and OP_DESTROY
+    private long[] frameRequests = new long[4]; // Ring buffer of (deadline << 1) | (1 if seek to start)
+    private int frameRequestHead, frameRequestCount;
+    private boolean isDestroyed;
+    private String path;
+    private boolean isQueued, isRunning;
+    private long deadline, latestStartTime, order;
+
+    // Accessed only by the worker currently running this lane
+    private long avgDecodeTime;
+
+    // Stats
+    private final AtomicLong decodedFrameCount = new AtomicLong(), totalDecodeTime = new AtomicLong();
+    private final AtomicLong droppedFrameCount = new AtomicLong(), lateFrameCount = new AtomicLong();
+
+    private Lane (GifActor actor, GifFile file) {
+      this.actor = actor;
+      this.file = file;
+      if (file.isHighPriorityForDecode()) {
+        this.priority = PRIORITY_HIGH;
+      } else if (file.getOptimizationMode() != GifFile.OptimizationMode.NONE) {
+        this.priority = PRIORITY_OPTIMIZED;
+      } else {
+        this.priority = PRIORITY_DEFAULT;
+      }
+    }
+
+    // GifBridge thread
+
+    public void startDecoding (String path) {
+      synchronized (this) {
+        this.path = path;
+      }
+      post(OP_START_DECODING, 0);
+    }
+
+    // GifBridge or UI thread
+
+    public void prepareStartFrame () {
+      post(OP_PREPARE_START_FRAME, actor.getFrameDuration());
+    }
+
+    public void prepareNextFrame () {
+      post(OP_PREPARE_NEXT_FRAME, actor.getFrameDuration());
+    }
+
+    public void onDestroy () {
+      post(OP_DESTROY, 0);
+    }
+
+    private void post (int op, long deadlineDelay) {
+      final boolean needEnqueue;
+      synchronized (this) {
+        if (isDestroyed) {
+          return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        switch (op) {
+          case OP_PREPARE_START_FRAME:
+          case OP_PREPARE_NEXT_FRAME:
+            addFrameRequest(now + deadlineDelay, op == OP_PREPARE_START_FRAME);
+            break;
+          case OP_DESTROY:
+            isDestroyed = true;
+            pendingOps |= op;
+            break;
+          default:
+            pendingOps |= op;
+            break;
+        }
+        needEnqueue = !isQueued && !isRunning;
+        if (needEnqueue) {
+          prepareEnqueue(now);
+        }
+      }
+      if (needEnqueue) {
+        executor.execute(this);
+      }
+    }
+
+    // Must be called with lock held
+    private void addFrameRequest (long deadline, boolean seekToStart) {
+      if (frameRequestCount == frameRequests.length) {
+        long[] requests = new long[frameRequests.length * 2];
+        for (int i = 0; i < frameRequestCount; i++) {
+          requests[i] = frameRequests[(frameRequestHead + i) % frameRequests.length];
+        }
+        frameRequests = requests;
+        frameRequestHead = 0;
+      }
+      frameRequests[(frameRequestHead + frameRequestCount) % frameRequests.length] = (deadline << 1) | (seekToStart ? 1 : 0);
+      frameRequestCount++;
+    }
+
+    // Must be called with lock held
+    private long pollFrameRequest () {
+      long request = frameRequests[frameRequestHead];
+      frameRequestHead = (frameRequestHead + 1) % frameRequests.length;
+      frameRequestCount--;
+      return request;
+    }
+
+    // Must be called with lock held
+    private void prepareEnqueue (long now) {
+      // Other operations are due immediately, frames by the deadline of the oldest request
+      this.deadline = pendingOps != 0 || frameRequestCount == 0 ? now : frameRequests[frameRequestHead] >> 1;
+      this.latestStartTime = deadline - avgDecodeTime;
+      this.order = counter.incrementAndGet();
+      this.isQueued = true;
+    }
+
+    @Override
+    public int compareTo (Lane other) {
+      if (priority != other.priority)
+        return Integer.compare(priority, other.priority);
+      if (latestStartTime != other.latestStartTime)
+        return Long.compare(latestStartTime, other.latestStartTime);
+      return Long.compare(order, other.order);
+    }
+
+    @Override
+    public void run () {
+      final int ops;
+      final String path;
+      long deadline = 0;
+      int frameOp = 0;
+      boolean isBehind = false;
+      synchronized (this) {
+        ops = pendingOps;
+        path = this.path;
+        pendingOps = 0;
+        this.path = null;
+        if ((ops & OP_DESTROY) != 0) {
+          // Nobody is waiting for these frames anymore
+          frameRequestCount = 0;
+        } else if (frameRequestCount > 0) {
+          // One frame per run, so that other lanes get their turn in between
+          final long request = pollFrameRequest();
+          deadline = request >> 1;
+          frameOp = (request & 1) != 0 ? OP_PREPARE_START_FRAME : OP_PREPARE_NEXT_FRAME;
+          isBehind = frameRequestCount > 0;
+        }
+        isQueued = false;
+        isRunning = true;
+      }
+
+      if ((ops & OP_DESTROY) != 0) {
+        actor.onDestroy();
+        if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+          Log.i(Log.TAG_GIF_LOADER, "#%s: decoder destroyed, %s", file.toString(), this);
+        }
+        // Lane is never enqueued again, as post() ignores everything once isDestroyed is set
+        return;
+      }
+
+      if ((ops & OP_START_DECODING) != 0) {
+        actor.startDecoding(path);
+      }
+      if (frameOp != 0) {
+        final long startTime = SystemClock.uptimeMillis();
+        if (frameOp == OP_PREPARE_START_FRAME) {
+          actor.prepareStartFrame();
+        } else {
+          int maxSkippedFrameCount = 0;
+          if (isBehind && startTime > deadline) {
+            maxSkippedFrameCount = (int) ((startTime - deadline) / Math.max(1, actor.getFrameDuration()));
+          }
+          final int skippedFrameCount = actor.prepareNextFrame(maxSkippedFrameCount);
+          if (skippedFrameCount > 0) {
+            droppedFrameCount.addAndGet(skippedFrameCount);
+            totalDroppedFrameCount.addAndGet(skippedFrameCount);
+          }
+        }
+        final long endTime = SystemClock.uptimeMillis();
+        final long decodeTime = endTime - startTime;
+        avgDecodeTime = avgDecodeTime == 0 ? decodeTime : (avgDecodeTime * 7 + decodeTime) / 8;
+        decodedFrameCount.incrementAndGet();
+        totalDecodeTime.addAndGet(decodeTime);
+        totalDecodedFrameCount.incrementAndGet();
+        GifFrameScheduler.this.totalDecodeTime.addAndGet(decodeTime);
+        if (endTime > deadline) {
+          lateFrameCount.incrementAndGet();
+          totalLateFrameCount.incrementAndGet();
+        }
+      }
+
+      final boolean needEnqueue;
+      synchronized (this) {
+        isRunning = false;
+        needEnqueue = pendingOps != 0 || frameRequestCount > 0;
+        if (needEnqueue) {
+          prepareEnqueue(SystemClock.uptimeMillis());
+        }
+      }
+      if (needEnqueue) {
+        executor.execute(this);
+      }
+    }
+
+    public long getAverageDecodeTime () {
+      long count = decodedFrameCount.get();
+      return count != 0 ? totalDecodeTime.get() / count : 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString () {
+      return "decoded=" + decodedFrameCount.get() + " avg=" + getAverageDecodeTime() + "ms dropped=" + droppedFrameCount.get() + " late=" + lateFrameCount.get();
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong counter = new AtomicLong();
+  private final AtomicLong totalDecodedFrameCount = new AtomicLong(), totalDecodeTime = new AtomicLong();
+  private final AtomicLong totalDroppedFrameCount = new AtomicLong(), totalLateFrameCount = new AtomicLong();
+
+  GifFrameScheduler () {
+    int poolSize = Math.max(3, Math.min(6, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "GifThread#" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  Lane newLane (GifActor actor, GifFile file) {
+    return new Lane(actor, file);
+  }
+
+  public long getDecodedFrameCount () {
+    return totalDecodedFrameCount.get();
+  }
+
+  public long getAverageDecodeTime () {
+    long count = totalDecodedFrameCount.get();
+    return count != 0 ? totalDecodeTime.get() / count : 0;
+  }
+
+  public long getDroppedFrameCount () {
+    return totalDroppedFrameCount.get();
+  }
+
+  public long getLateFrameCount () {
+    return totalLateFrameCount.get();
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    return "GifFrameScheduler { queued = " + executor.getQueue().size() + ", decoded = " + getDecodedFrameCount() + ", avg = " + getAverageDecodeTime() + "ms, dropped = " + getDroppedFrameCount() + ", late = " + getLateFrameCount() + " }";
+  }
+}
@@ -14,7 +14,6 @@
  */
 package org.thunderdog.challegram.loader.gif;
 
-import android.content.SharedPreferences;
 import android.os.SystemClock;
 
 import org.thunderdog.challegram.Log;
@@ -25,11 +24,11 @@ import org.thunderdog.challegram.unsorted.Settings;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import me.vkryl.core.FileUtils;
 import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
 import me.vkryl.leveldb.LevelDB;
 
 @Deprecated
@@ -47,15 +46,21 @@ public class LottieCache {
     return instance;
   }
 
+  private static final long MAX_ACCOUNT_CACHE_SIZE = ByteUnit.MIB.toBytes(64);
+
   private final BaseThread gcThread = new BaseThread("LottieCacheGcThread");
   private final BaseThread[] threadPool = new BaseThread[4];
+  private final LottieCacheIndex index = new LottieCacheIndex(new File(getCacheDir(), "journal"));
 
   private LottieCache () { }
 
   public boolean clear () {
     if (FileUtils.delete(LottieCache.getCacheDir(), true)) {
       Settings.instance().pmc().removeByPrefix(LOTTIE_KEY_PREFIX);
-      cancelScheduledGc();
+      gcThread.post(() -> {
+        index.clear();
+        cancelScheduledGc();
+      }, 0);
       return true;
     }
     return false;
@@ -63,107 +68,59 @@ public class LottieCache {
 
   private long scheduledAt;
 
-  private static class Entry implements Comparable<Entry> {
-    public final String key;
-    public final long time;
-
-    public final int accountId;
-    public final String directory, fileName;
+  // GC thread
 
-    public Entry (String key, long time) {
-      this.key = key;
-      this.time = time;
-      String[] fileData = key.substring(LOTTIE_KEY_PREFIX.length()).split("/", 3);
-      if (fileData.length != 3)
-        throw new IllegalArgumentException(key);
-      this.accountId = StringUtils.parseInt(fileData[0], -1);
-      if (accountId == -1)
-        throw new IllegalArgumentException(key);
-      this.directory = fileData[1];
-      this.fileName = fileData[2];
-      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName))
-        throw new IllegalArgumentException(key);
+  private LottieCacheIndex index () {
+    if (index.load()) {
+      importLegacyEntries();
     }
+    return index;
+  }
 
-    public static boolean validateKey (String key) {
-      String[] fileData = key.substring(LOTTIE_KEY_PREFIX.length()).split("/", 3);
-      if (fileData.length != 3)
-        return false;
-      /*int accountId = StringUtils.parseInt(fileData[0], -1);
-      if (accountId == -1)
-        return false;*/
-      String directory = fileData[1];
-      String fileName = fileData[2];
-      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName))
-        return false;
-      return true;
+  private void importLegacyEntries () {
+    final LevelDB db = Settings.instance().pmc();
+    int importedCount = 0;
+    for (LevelDB.Entry entry : db.find(LOTTIE_KEY_PREFIX)) {
+      try {
+        index.touch(entry.key().substring(LOTTIE_KEY_PREFIX.length()), entry.asLong());
+        importedCount++;
+      } catch (IllegalArgumentException t) {
+        Log.e("Bad lottie cache key: %s", t);
+      }
     }
-
-    @Override
-    public int compareTo (Entry o) {
-      return Long.compare(time, o.time);
+    db.removeByPrefix(LOTTIE_KEY_PREFIX);
+    if (importedCount > 0) {
+      Log.i(Log.TAG_GIF_LOADER, "Imported %d lottie cache entries", importedCount);
     }
+  }
 
-    public File toFile (File cacheDir) {
-      return new File(new File(new File(cacheDir, Integer.toString(accountId)), directory), fileName);
+  private void delete (File cacheDir, LottieCacheIndex.Entry entry) {
+    File file = entry.toFile(cacheDir);
+    if (!file.exists() || file.delete()) {
+      index.remove(entry.key);
     }
   }
 
-  private void limitFileCount (int count, String key) {
-    gcThread.post(() -> {
-      final LevelDB db = Settings.instance().pmc();
+  private void limitCacheSize (int accountId, int maxCount, String keepKey) {
+    List<LottieCacheIndex.Entry> evictable = index().findEvictable(accountId, maxCount, MAX_ACCOUNT_CACHE_SIZE, keepKey);
+    if (evictable != null) {
       final File cacheDir = getCacheDir();
-      List<Entry> entries = new ArrayList<>();
-      List<String> brokenKeys = null;
-      for (LevelDB.Entry entry : db.find(LOTTIE_KEY_PREFIX)) {
-        Entry e;
-        try {
-          e = new Entry(entry.key(), entry.asLong());
-        } catch (IllegalArgumentException t) {
-          Log.e("Bad lottie cache key: %s", t);
-          if (brokenKeys == null)
-            brokenKeys = new ArrayList<>();
-          brokenKeys.add(entry.key());
-          continue;
-        }
-        entries.add(e);
-      }
-      if (brokenKeys != null) {
-        db.edit();
-        for (String brokenKey : brokenKeys) {
-          db.remove(brokenKey);
-        }
-        db.apply();
+      for (LottieCacheIndex.Entry entry : evictable) {
+        delete(cacheDir, entry);
       }
-      Collections.sort(entries);
-      int extraCount = (entries.size() - count);
-      int index = 0;
-      SharedPreferences.Editor editor = null;
-      while (extraCount > 0 && index < entries.size()) {
-        Entry entry = entries.get(index++);
-        if (!entry.key.equals(key)) {
-          if (editor == null)
-            editor = db.edit();
-          delete(cacheDir, entry, editor);
-          extraCount--;
-        }
-      }
-      if (editor != null) {
-        editor.apply();
-      }
-    }, 0);
+    }
   }
 
-  private static void delete (File cacheDir, Entry entry, SharedPreferences.Editor editor) {
-    File file = entry.toFile(cacheDir);
-    if (!file.exists() || file.delete()) {
-      editor.remove(entry.key);
-    }
+  private void touch (String key, int accountId, long keepAliveMs, int maxCount) {
+    gcThread.post(() -> {
+      index().touch(key, System.currentTimeMillis() + keepAliveMs);
+      limitCacheSize(accountId, maxCount, key);
+      scheduleGc(keepAliveMs, false);
+    }, 0);
   }
 
   public void gc () {
     gcThread.post(() -> {
-      long nextTime = -1;
       final File cacheDir = getCacheDir();
 
       File[] accountDirs = cacheDir.listFiles();
@@ -179,30 +136,11 @@ public class LottieCache {
       }
 
       long now = System.currentTimeMillis();
-      final LevelDB db = Settings.instance().pmc();
-      SharedPreferences.Editor editor = null;
-      List<String> brokenKeys = null;
-      for (LevelDB.Entry entry : db.find(LOTTIE_KEY_PREFIX)) {
-        Entry e;
-        try {
-          e = new Entry(entry.key(), entry.asLong());
-        } catch (IllegalArgumentException t) {
-          Log.e("Bad lottie cache key: %s", t);
-          if (brokenKeys == null)
-            brokenKeys = new ArrayList<>();
-          brokenKeys.add(entry.key());
-          continue;
-        }
-        if (now >= e.time) {
-          if (editor == null)
-            editor = db.edit();
-          delete(cacheDir, e, editor);
-        } else {
-          nextTime = nextTime == -1 ? e.time : Math.min(nextTime, e.time);
-        }
+      List<LottieCacheIndex.Entry> expired = new ArrayList<>();
+      long nextTime = index().findExpired(now, expired);
+      for (LottieCacheIndex.Entry entry : expired) {
+        delete(cacheDir, entry);
       }
-      if (editor != null)
-        editor.apply();
       if (nextTime != -1) {
         scheduleGc(nextTime - now, true);
       } else {
@@ -251,6 +189,7 @@ public class LottieCache {
     return threadPool[optimizationLevel];
   }
 
+  // Legacy keys in Settings.pmc(), imported into the journal on the first launch
   private static final String LOTTIE_KEY_PREFIX = "lottie_";
 
   public static File getCacheFile (GifFile file, boolean optimize, int size, int fitzpatrickType, long keepAliveMs, int maxCount) {
@@ -265,17 +204,14 @@ public class LottieCache {
     File originalFile = new File(file.getFilePath());
     if (keepAliveMs > 0) {
       String key = getCacheFileKey(accountId, optimize, size, colorKey, originalFile.getName());
-      Settings.instance().pmc().putLong(key, System.currentTimeMillis() + keepAliveMs);
-      instance().limitFileCount(maxCount, key);
-      instance().scheduleGc(keepAliveMs, false);
+      instance().touch(key, accountId, keepAliveMs, maxCount);
     }
     return new File(cacheDir, originalFile.getName());
   }
 
   public static String getCacheFileKey (int accountId, boolean optimize, int size, String colorKey, String originalFileName) {
-    String cacheKey = LOTTIE_KEY_PREFIX + accountId + "/" + (optimize ? "thumbs" + size : size) + (!StringUtils.isEmpty(colorKey) ? "_" + colorKey : "") + "/" + originalFileName;
-    if (!Entry.validateKey(cacheKey))
-      throw new IllegalArgumentException(cacheKey);
+    String cacheKey = accountId + "/" + (optimize ? "thumbs" + size : size) + (!StringUtils.isEmpty(colorKey) ? "_" + colorKey : "") + "/" + originalFileName;
+    new LottieCacheIndex.Entry(cacheKey); // Throws IllegalArgumentException, if key is invalid
     return cacheKey;
   }
 
@@ -285,12 +221,16 @@ public class LottieCache {
         cacheFile.delete();
       } else {
         String colorKey = fitzpatrickType != 0 ? Integer.toString(fitzpatrickType) : null;
-        String key = getCacheFileKey(file.tdlib != null ? file.tdlib.accountId() : TdlibAccount.NO_ID, optimize, size, colorKey, new File(file.getFilePath()).getName());
-        long time = Settings.instance().getLong(key, 0);
-        if (time == 0 || System.currentTimeMillis() >= time) {
+        int accountId = file.tdlib != null ? file.tdlib.accountId() : TdlibAccount.NO_ID;
+        String key = getCacheFileKey(accountId, optimize, size, colorKey, new File(file.getFilePath()).getName());
+        LottieCacheIndex.Entry entry = index().get(key);
+        if (entry == null || System.currentTimeMillis() >= entry.expiresAt) {
           cacheFile.delete();
-          Settings.instance().remove(key);
+          index.remove(key);
           gc();
+        } else {
+          index.setSize(key, cacheFile.length());
+          limitCacheSize(accountId, Integer.MAX_VALUE, key);
         }
       }
     }, 0);
@@ -0,0 +1,303 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 13:05
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Append-only journal of Lottie cache files with per-account LRU order.
+ *
+ * Journal consists of text records, one per line:
+ * {@code T <key> <expiresAt> <size>} when file is created or used, and {@code R <key>} when it is removed.
+ * Unreadable trailing records (e.g. after a crash in the middle of write) are ignored.
+ * Journal is compacted once it contains much more records than there are live entries.
+ *
+ * Not thread-safe: must be accessed only from {@link LottieCache} GC thread.
+ */
+class LottieCacheIndex {
+  private static final String RECORD_TOUCH = "T";
+  private static final String RECORD_REMOVE = "R";
+  private static final String SEPARATOR = "\t";
+
+  private static final int MIN_COMPACT_RECORD_COUNT = 256;
+
+  static class Entry {
+    final String key;
+    final int accountId;
+    final String directory, fileName;
+    long expiresAt;
+    long size;
+
+    Entry (String key) {
+      this.key = key;
+      String[] fileData = key.split("/", 3);
+      if (fileData.length != 3)
+        throw new IllegalArgumentException(key);
+      // TdlibAccount.NO_ID (-1) is a valid account for files that don't belong to any account
+      this.accountId = StringUtils.parseInt(fileData[0], Integer.MIN_VALUE);
+      if (accountId == Integer.MIN_VALUE)
+        throw new IllegalArgumentException(key);
+      this.directory = fileData[1];
+      this.fileName = fileData[2];
+      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName) || key.contains(SEPARATOR) || key.contains("\n"))
+        throw new IllegalArgumentException(key);
+    }
+
+    File toFile (File cacheDir) {
+      return new File(new File(new File(cacheDir, Integer.toString(accountId)), directory), fileName);
+    }
+  }
+
+  private static class Account {
+    final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    long totalSize;
+  }
+
+  private final File journalFile;
+  private final HashMap<Integer, Account> accounts = new HashMap<>();
+  private final HashMap<String, Entry> entries = new HashMap<>();
+
+  private boolean isLoaded;
+  private BufferedWriter journal;
+  private int journalRecordCount;
+
+  LottieCacheIndex (File journalFile) {
+    this.journalFile = journalFile;
+  }
+
+  /**
+   * @return True if journal didn't exist yet and entries should be imported from the legacy storage.
+   */
+  boolean load () {
+    if (isLoaded) {
+      return false;
+    }
+    isLoaded = true;
+    if (!journalFile.exists()) {
+      return true;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        journalRecordCount++;
+        String[] record = line.split(SEPARATOR);
+        try {
+          if (RECORD_TOUCH.equals(record[0]) && record.length == 4) {
+            putEntry(record[1], Long.parseLong(record[2]), Long.parseLong(record[3]));
+          } else if (RECORD_REMOVE.equals(record[0]) && record.length == 2) {
+            removeEntry(record[1]);
+          }
+        } catch (IllegalArgumentException e) {
+          Log.w(Log.TAG_GIF_LOADER, "Bad lottie cache journal record: %s", line);
+        }
+      }
+    } catch (IOException e) {
+      Log.e(Log.TAG_GIF_LOADER, "Cannot read lottie cache journal", e);
+    }
+    compactIfNeeded();
+    return false;
+  }
+
+  @Nullable
+  Entry get (String key) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      Account account = accounts.get(entry.accountId);
+      if (account != null) {
+        account.entries.get(key); // Move to the end of LRU
+      }
+    }
+    return entry;
+  }
+
+  int size () {
+    return entries.size();
+  }
+
+  void touch (String key, long expiresAt) {
+    Entry entry = entries.get(key);
+    putEntry(key, expiresAt, entry != null ? entry.size : 0);
+    appendRecord(RECORD_TOUCH + SEPARATOR + key + SEPARATOR + expiresAt + SEPARATOR + (entry != null ? entry.size : 0));
+  }
+
+  void setSize (String key, long size) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.size != size) {
+      putEntry(key, entry.expiresAt, size);
+      appendRecord(RECORD_TOUCH + SEPARATOR + key + SEPARATOR + entry.expiresAt + SEPARATOR + size);
+    }
+  }
+
+  void remove (String key) {
+    if (removeEntry(key) != null) {
+      appendRecord(RECORD_REMOVE + SEPARATOR + key);
+    }
+  }
+
+  /**
+   * @return Least recently used entries of the account exceeding given quota, excluding {@code keepKey}.
+   */
+  List<Entry> findEvictable (int accountId, int maxCount, long maxSize, @Nullable String keepKey) {
+    Account account = accounts.get(accountId);
+    if (account == null) {
+      return null;
+    }
+    int extraCount = account.entries.size() - maxCount;
+    long extraSize = account.totalSize - maxSize;
+    List<Entry> result = null;
+    Iterator<Entry> itr = account.entries.values().iterator();
+    while ((extraCount > 0 || extraSize > 0) && itr.hasNext()) {
+      Entry entry = itr.next();
+      if (entry.key.equals(keepKey)) {
+        continue;
+      }
+      if (result == null) {
+        result = new ArrayList<>();
+      }
+      result.add(entry);
+      extraCount--;
+      extraSize -= entry.size;
+    }
+    return result;
+  }
+
+  /**
+   * @return Time of the earliest expiration among remaining entries, or -1 if there are none.
+   */
+  long findExpired (long now, List<Entry> out) {
+    long nextTime = -1;
+    for (Entry entry : entries.values()) {
+      if (now >= entry.expiresAt) {
+        out.add(entry);
+      } else {
+        nextTime = nextTime == -1 ? entry.expiresAt : Math.min(nextTime, entry.expiresAt);
+      }
+    }
+    return nextTime;
+  }
+
+  void clear () {
+    closeJournal();
+    entries.clear();
+    accounts.clear();
+    journalRecordCount = 0;
+    if (journalFile.exists() && !journalFile.delete()) {
+      Log.w(Log.TAG_GIF_LOADER, "Cannot delete lottie cache journal");
+    }
+  }
+
+  private void putEntry (String key, long expiresAt, long size) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key);
+      entries.put(key, entry);
+    }
+    Account account = accounts.get(entry.accountId);
+    if (account == null) {
+      account = new Account();
+      accounts.put(entry.accountId, account);
+    }
+    account.totalSize += size - entry.size;
+    entry.expiresAt = expiresAt;
+    entry.size = size;
+    account.entries.put(key, entry);
+  }
+
+  private Entry removeEntry (String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      Account account = accounts.get(entry.accountId);
+      if (account != null) {
+        account.entries.remove(key);
+        account.totalSize -= entry.size;
+        if (account.entries.isEmpty()) {
+          accounts.remove(entry.accountId);
+        }
+      }
+    }
+    return entry;
+  }
+
+  private void appendRecord (String record) {
+    try {
+      if (journal == null) {
+        File parentDir = journalFile.getParentFile();
+        if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+          return;
+        }
+        journal = new BufferedWriter(new FileWriter(journalFile, true));
+      }
+      journal.write(record);
+      journal.write('\n');
+      journal.flush();
+      journalRecordCount++;
+    } catch (IOException e) {
+      Log.e(Log.TAG_GIF_LOADER, "Cannot write lottie cache journal", e);
+      closeJournal();
+    }
+    compactIfNeeded();
+  }
+
+  private void compactIfNeeded () {
+    if (journalRecordCount < MIN_COMPACT_RECORD_COUNT || journalRecordCount < entries.size() * 2) {
+      return;
+    }
+    closeJournal();
+    File tempFile = new File(journalFile.getPath() + ".tmp");
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile, false))) {
+      for (Account account : accounts.values()) {
+        // Write in LRU order, so replay restores it
+        for (Entry entry : account.entries.values()) {
+          writer.write(RECORD_TOUCH + SEPARATOR + entry.key + SEPARATOR + entry.expiresAt + SEPARATOR + entry.size);
+          writer.write('\n');
+        }
+      }
+    } catch (IOException e) {
+      Log.e(Log.TAG_GIF_LOADER, "Cannot compact lottie cache journal", e);
+      tempFile.delete();
+      return;
+    }
+    if (tempFile.renameTo(journalFile)) {
+      journalRecordCount = entries.size();
+    } else {
+      tempFile.delete();
+    }
+  }
+
+  private void closeJournal () {
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException ignored) { }
+      journal = null;
+    }
+  }
+}
@@ -49,6 +49,7 @@ import org.thunderdog.challegram.mediaview.crop.CropEffectFactory;
 import org.thunderdog.challegram.mediaview.crop.CropState;
 import org.thunderdog.challegram.mediaview.crop.CroppedLayout;
 import org.thunderdog.challegram.mediaview.data.MediaItem;
+import org.thunderdog.challegram.player.PlayerLoadControl;
 import org.thunderdog.challegram.telegram.CallManager;
 import org.thunderdog.challegram.telegram.Tdlib;
 import org.thunderdog.challegram.telegram.TdlibManager;
@@ -74,8 +75,8 @@ public class VideoPlayerView implements Player.Listener, CallManager.CurrentCall
   private final Context context;
   private final SeekHandler seekHandler;
   // private final TrackSelector selector;
-  // private final LoadControl loadControl;
   private @Nullable ExoPlayer player;
+  private @PlayerLoadControl.Profile int playerProfile;
   private String appliedEffectsId;
   private TextureView renderView;
   private CroppedLayout croppedLayout;
@@ -171,22 +172,26 @@ public class VideoPlayerView implements Player.Listener, CallManager.CurrentCall
 
     // String path;
     MediaSource source;
+    @PlayerLoadControl.Profile int profile;
 
     boolean forcePlay = false;
 
     switch (mediaItem.getType()) {
       case MediaItem.TYPE_VIDEO: {
         source = U.newMediaSource(mediaItem.tdlib().id(), mediaItem.getTargetFile());
+        profile = PlayerLoadControl.Profile.VIDEO;
         break;
       }
       case MediaItem.TYPE_GIF: {
         source = new LoopingMediaSource(U.newMediaSource(mediaItem.tdlib().id(), mediaItem.getTargetFile()));
+        profile = PlayerLoadControl.Profile.INLINE;
         forcePlay = true;
         break;
       }
       case MediaItem.TYPE_GALLERY_VIDEO: {
         String path = mediaItem.getSourceGalleryFile().getFilePath();
         source = U.newMediaSource(new File(path));
+        profile = PlayerLoadControl.Profile.LOCAL;
         break;
       }
       default: {
@@ -195,8 +200,17 @@ public class VideoPlayerView implements Player.Listener, CallManager.CurrentCall
       }
     }
 
+    if (player != null && playerProfile != profile) {
+      // Load control can't be changed on an existing player
+      player.setVideoTextureView(null);
+      Views.removeFromParent(targetView);
+      player.release();
+      player = null;
+    }
+
     if (player == null) {
-      this.player = U.newExoPlayer(context, preferExtensions);
+      this.player = U.newExoPlayer(context, preferExtensions, profile);
+      this.playerProfile = profile;
       this.player.addListener(this);
       checkMuted();
       this.player.setVideoTextureView(renderView);
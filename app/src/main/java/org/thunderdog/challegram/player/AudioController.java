@@ -102,6 +102,7 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
   private ArrayList<TdApi.Message> playList;
   private boolean isPlaying;
   private int playIndex = -1;
+  private final PlaylistPreloader preloader = new PlaylistPreloader();
 
   private float volume = 1.0f;
   private boolean reduceVolume;
@@ -198,6 +199,7 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
         break;
       }
       case PLAYBACK_MODE_EXOPLAYER_LIST: {
+        preloader.cancel();
         if (playList != null) {
           playList.clear();
           playIndex = -1;
@@ -268,6 +270,7 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
       case PLAYBACK_MODE_EXOPLAYER_LIST: {
         if (exoPlayer != null) {
           exoPlayer.setPlayWhenReady(this.isPlaying = isPlaying);
+          checkPreload();
         }
         break;
       }
@@ -365,7 +368,7 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
       exoPlayer = null;
     }
 
-    ExoPlayer exoPlayer = this.exoPlayer = U.newExoPlayer(UI.getAppContext(), true);
+    ExoPlayer exoPlayer = this.exoPlayer = U.newExoPlayer(UI.getAppContext(), true, Td.isVoiceNote(currentTrack.content) ? PlayerLoadControl.Profile.VOICE : PlayerLoadControl.Profile.MUSIC);
     exoPlayer.addListener(this);
     setExoPlayerParameters();
     exoPlayer.setVolume(volume);
@@ -730,6 +733,7 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
   @Override
   public void onTimelineChanged (@NonNull Timeline timeline, int reason) {
     Log.d(Log.TAG_PLAYER, "[state] onTimeLineChanged reason:%d", reason);
+    checkPreload();
   }
 
   private static ApicFrame findApic (@NonNull Tracks tracks) {
@@ -801,6 +805,39 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
     }
   }
 
+  // Preloading of upcoming tracks
+
+  private void checkPreload () {
+    if (playbackMode != PLAYBACK_MODE_EXOPLAYER_LIST || exoPlayer == null || playList == null || tdlib == null || !isPlaying) {
+      return;
+    }
+    final int totalSize = playList.size();
+    if (playIndex < 0 || playIndex >= totalSize) {
+      return;
+    }
+    final Timeline timeline = exoPlayer.getCurrentTimeline();
+    if (timeline.getWindowCount() != totalSize) {
+      // Play list and timeline are out of sync, wait for the next timeline change
+      return;
+    }
+    final int repeatMode = exoPlayer.getRepeatMode();
+    final boolean shuffleModeEnabled = exoPlayer.getShuffleModeEnabled();
+    final boolean reverse = inReverseMode();
+    final int currentWindowIndex = exoPlayer.getCurrentMediaItemIndex();
+    List<TdApi.Message> upcomingTracks = new ArrayList<>(PlaylistPreloader.MAX_ITEM_COUNT);
+    if (repeatMode != Player.REPEAT_MODE_ONE) {
+      int windowIndex = currentWindowIndex;
+      while (upcomingTracks.size() < PlaylistPreloader.MAX_ITEM_COUNT) {
+        windowIndex = timeline.getNextWindowIndex(windowIndex, repeatMode, shuffleModeEnabled);
+        if (windowIndex == C.INDEX_UNSET || windowIndex == currentWindowIndex) {
+          break;
+        }
+        upcomingTracks.add(playList.get(reversePosition(windowIndex, totalSize, reverse)));
+      }
+    }
+    preloader.update(tdlib, playList.get(playIndex), upcomingTracks);
+  }
+
   @Override
   public void onPlayerStateChanged (boolean playWhenReady, int playbackState) {
     setInProgressLoop(playbackState == Player.STATE_READY);
@@ -849,10 +886,14 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
   }
 
   @Override
-  public void onRepeatModeChanged (int repeatMode) { }
+  public void onRepeatModeChanged (int repeatMode) {
+    checkPreload();
+  }
 
   @Override
-  public void onShuffleModeEnabledChanged (boolean shuffleModeEnabled) { }
+  public void onShuffleModeEnabledChanged (boolean shuffleModeEnabled) {
+    checkPreload();
+  }
 
   @Override
   public void onPositionDiscontinuity (@NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
@@ -861,6 +902,7 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
     }
     Log.d(Log.TAG_PLAYER, "[state] onPositionDiscontinuity mode:%d, reason:%d", playbackMode, reason);
     checkPlayerPosition();
+    checkPreload();
     // findApic(exoPlayer.getCurrentTrackGroups());
   }
 
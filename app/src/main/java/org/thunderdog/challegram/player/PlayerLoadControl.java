@@ -0,0 +1,277 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:05
+ */
+package org.thunderdog.challegram.player;
+
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.Player;
+import androidx.media3.exoplayer.DefaultLoadControl;
+import androidx.media3.exoplayer.LoadControl;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.core.WatchDog;
+import org.thunderdog.challegram.telegram.TdlibManager;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Buffering policies of {@link androidx.media3.exoplayer.ExoPlayer} instances, chosen by what is played and on which network.
+ *
+ * Inline clips keep small buffers, as several of them may be alive at once and they loop over a few seconds anyway,
+ * while music keeps a deep one, so playback survives network switches when the screen is off.
+ * On metered networks buffers are kept shorter, so less data is wasted when playback is abandoned.
+ *
+ * {@link #getStats(int)} reports rebuffering and allocator memory of released players for each profile.
+ */
+public final class PlayerLoadControl {
+  @IntDef({
+    Profile.DEFAULT, Profile.VIDEO, Profile.INLINE, Profile.ROUND, Profile.MUSIC, Profile.VOICE, Profile.LOCAL
+  })
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface Profile {
+    int DEFAULT = 0, VIDEO = 1, INLINE = 2, ROUND = 3, MUSIC = 4, VOICE = 5, LOCAL = 6;
+  }
+
+  private static final int PROFILE_COUNT = 7;
+
+  private PlayerLoadControl () { }
+
+  // Profiles
+
+  private static final class Policy {
+    final int minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs;
+    final int targetBufferBytes;
+    final int backBufferMs;
+
+    Policy (int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int targetBufferBytes, int backBufferMs) {
+      this.minBufferMs = minBufferMs;
+      this.maxBufferMs = maxBufferMs;
+      this.bufferForPlaybackMs = bufferForPlaybackMs;
+      this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+      this.targetBufferBytes = targetBufferBytes;
+      this.backBufferMs = backBufferMs;
+    }
+  }
+
+  private static final int MB = 1024 * 1024;
+
+  private static Policy getPolicy (@Profile int profile, boolean isMetered) {
+    switch (profile) {
+      case Profile.VIDEO:
+        return isMetered ?
+          new Policy(10_000, 20_000, 1_500, 3_000, 16 * MB, 0) :
+          new Policy(15_000, 50_000, 1_500, 3_000, C.LENGTH_UNSET, 0);
+      case Profile.INLINE:
+        return new Policy(2_500, 10_000, 500, 1_000, (isMetered ? 2 : 4) * MB, 0);
+      case Profile.ROUND:
+        return new Policy(5_000, 30_000, 1_000, 2_000, (isMetered ? 4 : 8) * MB, 0);
+      case Profile.MUSIC:
+        return isMetered ?
+          new Policy(30_000, 60_000, 1_000, 2_500, 4 * MB, 10_000) :
+          new Policy(60_000, 180_000, 1_000, 2_500, 16 * MB, 10_000);
+      case Profile.VOICE:
+        return new Policy(5_000, 60_000, 500, 1_500, 2 * MB, 5_000);
+      case Profile.LOCAL:
+        return new Policy(2_500, 10_000, 250, 500, 8 * MB, 0);
+      case Profile.DEFAULT:
+      default:
+        return null;
+    }
+  }
+
+  static boolean isMeteredNetwork () {
+    WatchDog watchDog = TdlibManager.instance().watchDog();
+    return watchDog.isMobile() || watchDog.isRoaming() || watchDog.isSystemDataSaverEnabled();
+  }
+
+  /**
+   * Creates {@link LoadControl} for a new player and {@link Tracker} that has to be added as its analytics listener.
+   */
+  public static Tracker newTracker (@Profile int profile) {
+    final boolean isMetered = profile != Profile.LOCAL && isMeteredNetwork();
+    final DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    final DefaultLoadControl.Builder builder = new DefaultLoadControl.Builder().setAllocator(allocator);
+    final Policy policy = getPolicy(profile, isMetered);
+    if (policy != null) {
+      builder
+        .setBufferDurationsMs(policy.minBufferMs, policy.maxBufferMs, policy.bufferForPlaybackMs, policy.bufferForPlaybackAfterRebufferMs)
+        .setTargetBufferBytes(policy.targetBufferBytes)
+        .setPrioritizeTimeOverSizeThresholds(policy.targetBufferBytes == C.LENGTH_UNSET)
+        .setBackBuffer(policy.backBufferMs, false);
+    }
+    return new Tracker(profile, isMetered, builder.build(), allocator);
+  }
+
+  // Measurement
+
+  /**
+   * Totals over players released with the given profile.
+   */
+  public static final class Stats {
+    public final int playerCount;
+    public final int rebufferCount;
+    public final long rebufferTimeMs;
+    public final long playTimeMs;
+    public final long peakAllocatedBytes;
+    public final long peakAllocatedBytesSum;
+
+    private Stats (int playerCount, int rebufferCount, long rebufferTimeMs, long playTimeMs, long peakAllocatedBytes, long peakAllocatedBytesSum) {
+      this.playerCount = playerCount;
+      this.rebufferCount = rebufferCount;
+      this.rebufferTimeMs = rebufferTimeMs;
+      this.playTimeMs = playTimeMs;
+      this.peakAllocatedBytes = peakAllocatedBytes;
+      this.peakAllocatedBytesSum = peakAllocatedBytesSum;
+    }
+
+    /**
+     * @return Share of playback time spent rebuffering.
+     */
+    public float getRebufferRatio () {
+      long totalTimeMs = playTimeMs + rebufferTimeMs;
+      return totalTimeMs > 0 ? (float) rebufferTimeMs / (float) totalTimeMs : 0f;
+    }
+
+    public long getAveragePeakAllocatedBytes () {
+      return playerCount > 0 ? peakAllocatedBytesSum / playerCount : 0;
+    }
+
+    @Override
+    @NonNull
+    public String toString () {
+      return "players:" + playerCount + ", rebuffers:" + rebufferCount + " (" + rebufferTimeMs + "ms of " + (playTimeMs + rebufferTimeMs) + "ms), peak:" + peakAllocatedBytes + ", avgPeak:" + getAveragePeakAllocatedBytes();
+    }
+  }
+
+  private static final int[] playerCounts = new int[PROFILE_COUNT];
+  private static final int[] rebufferCounts = new int[PROFILE_COUNT];
+  private static final long[] rebufferTimes = new long[PROFILE_COUNT];
+  private static final long[] playTimes = new long[PROFILE_COUNT];
+  private static final long[] peakAllocations = new long[PROFILE_COUNT];
+  private static final long[] peakAllocationSums = new long[PROFILE_COUNT];
+
+  public static Stats getStats (@Profile int profile) {
+    synchronized (playerCounts) {
+      return new Stats(playerCounts[profile], rebufferCounts[profile], rebufferTimes[profile], playTimes[profile], peakAllocations[profile], peakAllocationSums[profile]);
+    }
+  }
+
+  /**
+   * Counts rebuffers and samples allocator memory of a single player.
+   *
+   * A rebuffer is a switch from {@link Player#STATE_READY} to {@link Player#STATE_BUFFERING} while the player
+   * is supposed to play, not caused by a seek. Startup buffering is not counted.
+   */
+  public static final class Tracker implements AnalyticsListener {
+    @Profile
+    public final int profile;
+    public final boolean isMetered;
+    public final LoadControl loadControl;
+    private final DefaultAllocator allocator;
+
+    private boolean playWhenReady, hasBeenReady, isSeeking, isReleased;
+    private @Player.State int playbackState = Player.STATE_IDLE;
+    private long rebufferStartTime, playStartTime;
+
+    private int rebufferCount;
+    private long rebufferTimeMs, playTimeMs, peakAllocatedBytes;
+
+    private Tracker (@Profile int profile, boolean isMetered, LoadControl loadControl, DefaultAllocator allocator) {
+      this.profile = profile;
+      this.isMetered = isMetered;
+      this.loadControl = loadControl;
+      this.allocator = allocator;
+    }
+
+    private void sampleAllocation () {
+      peakAllocatedBytes = Math.max(peakAllocatedBytes, allocator.getTotalBytesAllocated());
+    }
+
+    private void updateState (long now, @Player.State int playbackState, boolean playWhenReady) {
+      final boolean wasPlaying = this.playbackState == Player.STATE_READY && this.playWhenReady;
+      final boolean isPlaying = playbackState == Player.STATE_READY && playWhenReady;
+      if (wasPlaying && !isPlaying) {
+        playTimeMs += now - playStartTime;
+      } else if (!wasPlaying && isPlaying) {
+        playStartTime = now;
+      }
+      if (rebufferStartTime != 0 && (playbackState != Player.STATE_BUFFERING || !playWhenReady)) {
+        rebufferTimeMs += now - rebufferStartTime;
+        rebufferStartTime = 0;
+      }
+      if (playbackState == Player.STATE_BUFFERING && this.playbackState == Player.STATE_READY && playWhenReady && hasBeenReady && !isSeeking) {
+        rebufferCount++;
+        rebufferStartTime = now;
+      }
+      if (playbackState == Player.STATE_READY) {
+        hasBeenReady = true;
+        isSeeking = false;
+      }
+      this.playbackState = playbackState;
+      this.playWhenReady = playWhenReady;
+    }
+
+    @Override
+    public void onPlaybackStateChanged (@NonNull EventTime eventTime, @Player.State int state) {
+      sampleAllocation();
+      updateState(SystemClock.uptimeMillis(), state, playWhenReady);
+    }
+
+    @Override
+    public void onPlayWhenReadyChanged (@NonNull EventTime eventTime, boolean playWhenReady, @Player.PlayWhenReadyChangeReason int reason) {
+      updateState(SystemClock.uptimeMillis(), playbackState, playWhenReady);
+    }
+
+    @Override
+    public void onPositionDiscontinuity (@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, @Player.DiscontinuityReason int reason) {
+      if (reason == Player.DISCONTINUITY_REASON_SEEK || reason == Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT) {
+        isSeeking = true;
+      }
+    }
+
+    @Override
+    public void onLoadCompleted (@NonNull EventTime eventTime, @NonNull LoadEventInfo loadEventInfo, @NonNull MediaLoadData mediaLoadData) {
+      sampleAllocation();
+    }
+
+    @Override
+    public void onPlayerReleased (@NonNull EventTime eventTime) {
+      if (isReleased) {
+        return;
+      }
+      isReleased = true;
+      updateState(SystemClock.uptimeMillis(), Player.STATE_IDLE, false);
+      synchronized (playerCounts) {
+        playerCounts[profile]++;
+        rebufferCounts[profile] += rebufferCount;
+        rebufferTimes[profile] += rebufferTimeMs;
+        playTimes[profile] += playTimeMs;
+        peakAllocations[profile] = Math.max(peakAllocations[profile], peakAllocatedBytes);
+        peakAllocationSums[profile] += peakAllocatedBytes;
+      }
+      if (Log.isEnabled(Log.TAG_PLAYER)) {
+        Log.i(Log.TAG_PLAYER, "Player released, profile:%d, metered:%b, rebuffers:%d (%dms), played:%dms, peakAllocated:%d", profile, isMetered, rebufferCount, rebufferTimeMs, playTimeMs, peakAllocatedBytes);
+      }
+    }
+  }
+}
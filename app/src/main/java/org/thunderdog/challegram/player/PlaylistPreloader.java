@@ -0,0 +1,135 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 15:12
+ */
+package org.thunderdog.challegram.player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.telegram.Tdlib;
+import org.thunderdog.challegram.telegram.TdlibFilesManager;
+
+import java.util.List;
+
+import me.vkryl.core.collection.IntSet;
+import me.vkryl.core.unit.ByteUnit;
+import me.vkryl.td.Td;
+
+/**
+ * Downloads files of the tracks that follow the current one in the play list,
+ * so switching to them doesn't have to wait for the network.
+ *
+ * Tracks are preloaded strictly in playback order and only while their remaining size fits the budget,
+ * which is lower on metered networks. Downloads started here are cancelled once their tracks are no longer upcoming.
+ */
+final class PlaylistPreloader {
+  public static final int MAX_ITEM_COUNT = 5;
+
+  private static final int PRELOAD_PRIORITY = TdlibFilesManager.DEFAULT_DOWNLOAD_PRIORITY;
+
+  private static final long BUDGET_BYTES = ByteUnit.MIB.toBytes(48);
+  private static final long BUDGET_BYTES_METERED = ByteUnit.MIB.toBytes(12);
+
+  private Tdlib tdlib;
+  private final IntSet startedFileIds = new IntSet();
+
+  private static int getMaxItemCount (boolean isVoice, boolean isMetered) {
+    if (isVoice) {
+      return isMetered ? 3 : MAX_ITEM_COUNT;
+    } else {
+      return isMetered ? 1 : 2;
+    }
+  }
+
+  /**
+   * @param currentTrack Track that is currently playing. Its download, if started here, is handed over to playback.
+   * @param upcomingTracks Tracks that will be played next, in playback order.
+   */
+  @UiThread
+  public void update (@NonNull Tdlib tdlib, @NonNull TdApi.Message currentTrack, @NonNull List<TdApi.Message> upcomingTracks) {
+    if (this.tdlib != tdlib) {
+      cancel();
+      this.tdlib = tdlib;
+    }
+
+    TdApi.File currentFile = TD.getFile(currentTrack);
+    if (currentFile != null) {
+      startedFileIds.remove(currentFile.id);
+    }
+
+    final boolean isMetered = PlayerLoadControl.isMeteredNetwork();
+    final int maxItemCount = getMaxItemCount(Td.isVoiceNote(currentTrack.content), isMetered);
+    long remainingBudget = isMetered ? BUDGET_BYTES_METERED : BUDGET_BYTES;
+
+    IntSet upcomingFileIds = new IntSet();
+    int itemCount = 0;
+    for (TdApi.Message track : upcomingTracks) {
+      if (itemCount == maxItemCount) {
+        break;
+      }
+      TdApi.File file = TD.getFile(track);
+      if (file == null || (currentFile != null && file.id == currentFile.id)) {
+        continue;
+      }
+      itemCount++;
+      if (TD.isFileLoaded(file)) {
+        continue;
+      }
+      long remainingSize = Math.max(0, Math.max(file.size, file.expectedSize) - file.local.downloadedSize);
+      if (remainingSize > remainingBudget) {
+        // Don't jump over a track that doesn't fit, otherwise it would be the one to stall
+        break;
+      }
+      remainingBudget -= remainingSize;
+      upcomingFileIds.add(file.id);
+      if (!startedFileIds.has(file.id) && !tdlib.files().hasPendingOperation(file.id)) {
+        Log.i(Log.TAG_PLAYER, "Preloading upcoming track, fileId:%d, remaining:%d, metered:%b", file.id, remainingSize, isMetered);
+        startedFileIds.add(file.id);
+        tdlib.files().downloadFile(file, PRELOAD_PRIORITY, 0, 0, null);
+      }
+    }
+
+    if (!startedFileIds.isEmpty()) {
+      for (int fileId : startedFileIds.toArray()) {
+        if (!upcomingFileIds.has(fileId)) {
+          startedFileIds.remove(fileId);
+          cancelDownload(fileId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancels all downloads started by this preloader, e.g. when playback stops.
+   */
+  @UiThread
+  public void cancel () {
+    if (!startedFileIds.isEmpty()) {
+      for (int fileId : startedFileIds.toArray()) {
+        startedFileIds.remove(fileId);
+        cancelDownload(fileId);
+      }
+    }
+    tdlib = null;
+  }
+
+  private void cancelDownload (int fileId) {
+    if (tdlib != null && tdlib.files().cancelDownloadOrUploadFile(fileId, false, false)) {
+      Log.i(Log.TAG_PLAYER, "Cancelled preload of track that is no longer upcoming, fileId:%d", fileId);
+    }
+  }
+}
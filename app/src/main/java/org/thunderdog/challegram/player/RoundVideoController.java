@@ -387,7 +387,7 @@ public class RoundVideoController extends BasePlaybackController implements
     }
 
     if (exoPlayer == null) {
-      this.exoPlayer = U.newExoPlayer(context, true);
+      this.exoPlayer = U.newExoPlayer(context, true, PlayerLoadControl.Profile.ROUND);
       setExoPlayerParameters();
       this.exoPlayer.addListener(this);
       this.exoPlayer.setVolume(volume);
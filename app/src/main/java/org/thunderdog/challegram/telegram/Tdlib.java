@@ -76,6 +76,7 @@ import org.thunderdog.challegram.unsorted.Passcode;
 import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.util.ChangeLogList;
 import org.thunderdog.challegram.util.DrawableProvider;
+import org.thunderdog.challegram.util.LongObjectMap;
 import org.thunderdog.challegram.util.UserProvider;
 import org.thunderdog.challegram.util.WrapperProvider;
 import org.thunderdog.challegram.util.text.Letters;
@@ -251,9 +252,10 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     }
   };
 
-  private static final class ClientHolder implements Client.ResultHandler, Client.ExceptionHandler {
+  private static final class ClientHolder implements Client.ResultHandler, Client.ExceptionHandler, TdlibUpdateCoalescer.Callback {
     private final Tdlib tdlib;
     private final Client client;
+    private final TdlibUpdateCoalescer updateCoalescer = new TdlibUpdateCoalescer(this);
 
     private final TdlibResourceManager resources, updates;
     private boolean running = true;
@@ -302,6 +304,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
 
     public void runOnTdlibThread (Runnable after, double timeout, @Nullable CancellationSignal cancellationSignal) {
       client.send(new TdApi.SetAlarm(timeout), ignored -> {
+        updateCoalescer.flush();
         if (cancellationSignal == null || !cancellationSignal.isCanceled()) {
           after.run();
         }
@@ -316,6 +319,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       StackTraceElement[] stackTrace = new RuntimeException().getStackTrace();
       final CancellationSignal openTimeoutSignal = new CancellationSignal();
       client.send(tdlib.parameters, result -> {
+        updateCoalescer.flush();
         long elapsed = SystemClock.uptimeMillis() - time;
         TDLib.Tag.td_init("SetTdlibParameters response in %dms, accountId:%d, ok:%b", elapsed, tdlib.accountId, result.getConstructor() == TdApi.Ok.CONSTRUCTOR);
         if (result.getConstructor() == TdApi.Error.CONSTRUCTOR) {
@@ -334,6 +338,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
         startup = new TdApi.SetAlarm(0);
       }
       client.send(startup, (result) -> {
+        updateCoalescer.flush();
         if (result.getConstructor() == TdApi.Proxies.CONSTRUCTOR) {
           TdApi.Proxy[] proxies = ((TdApi.Proxies) result).proxies;
           boolean foundEnabledProxy = false;
@@ -366,8 +371,41 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       client.send(new TdApi.GetApplicationConfig(), tdlib.configHandler);
     }
 
+    /**
+     * TDLib delivers all updates sent before a response ahead of that response,
+     * so updates held by {@link TdlibUpdateCoalescer} are dispatched right before the result is handled.
+     * The flush is done in the adapter every {@link Tdlib.ResultHandler} needs anyway, so it costs no extra objects.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends TdApi.Object> Client.ResultHandler toClientHandler (ResultHandler<T> handler) {
+      return result -> {
+        updateCoalescer.flush();
+        if (result.getConstructor() == TdApi.Error.CONSTRUCTOR) {
+          handler.onResult(null, (TdApi.Error) result);
+        } else {
+          handler.onResult((T) result, null);
+        }
+      };
+    }
+
     public void sendFakeUpdate (TdApi.Update update) {
-      runOnTdlibThread(() -> tdlib.processUpdate(this, update));
+      runOnTdlibThread(() -> updateCoalescer.onUpdate(update));
+    }
+
+    @Override
+    public void dispatchUpdate (TdApi.Update update) {
+      if (running) {
+        tdlib.processUpdate(this, update);
+      }
+    }
+
+    @Override
+    public void scheduleFlush (Runnable flush, long delayMs) {
+      runOnTdlibThread(() -> {
+        if (running) {
+          flush.run();
+        }
+      }, (double) delayMs / 1000.0);
     }
 
     @Override
@@ -384,7 +422,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       if (running) {
         long ms = SystemClock.uptimeMillis();
         if (object instanceof TdApi.Update) {
-          tdlib.processUpdate(this, (TdApi.Update) object);
+          updateCoalescer.onUpdate((TdApi.Update) object);
         } else {
           Log.e("Invalid update type: %s", object);
         }
@@ -410,6 +448,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       // Nothing to do anymore?
       // client.close();
       Log.i(Log.TAG_ACCOUNTS, "client.close() done in %dms, accountId:%d, accountsNum:%d", SystemClock.uptimeMillis() - ms, tdlib.accountId, runningClients.decrementAndGet());
+      Log.i(Log.TAG_ACCOUNTS, "Coalesced %d updates out of %d, accountId:%d", updateCoalescer.getMergedCount(), updateCoalescer.getReceivedCount(), tdlib.accountId);
     }
 
     public long timeSinceInitializationMs () {
@@ -434,8 +473,8 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
 
   private final Object clientLock = new Object();
   private final Object dataLock = new Object();
-  private final HashMap<Long, TdApi.Chat> chats = new HashMap<>();
-  private final HashMap<Long, TdApi.ChatActiveStories> activeStories = new HashMap<>();
+  private final LongObjectMap<TdApi.Chat> chats = new LongObjectMap<>();
+  private final LongObjectMap<TdApi.ChatActiveStories> activeStories = new LongObjectMap<>();
   private final SparseIntArray storyListChatCount = new SparseIntArray();
   private final SparseArrayCompat<StoryList> storyLists = new SparseArrayCompat<>();
   private final HashMap<String, TdApi.ForumTopicInfo> forumTopicInfos = new HashMap<>();
@@ -1748,11 +1787,12 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   }
 
   public <T extends TdApi.Object> void send (TdApi.Function<T> function, ResultHandler<T> handler) {
-    send(client(), function, handler);
+    ClientHolder holder = clientHolder();
+    send(holder.client, function, holder.toClientHandler(handler));
   }
 
   public <T extends TdApi.Object> void sendAll (TdApi.Function<T>[] functions, @NonNull ResultHandler<T> handler, @Nullable Runnable after) {
-    sendAll(functions, ResultHandler.toTdlibHandler(handler), after);
+    sendAll(functions, clientHolder().toClientHandler(handler), after);
   }
 
   public static <T extends TdApi.Object> void send (Client client, TdApi.Function<T> function, ResultHandler<T> handler) {
@@ -6494,7 +6534,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     client().send(new TdApi.SetChatClientData(chatId, data), object -> {
       switch (object.getConstructor()) {
         case TdApi.Ok.CONSTRUCTOR: {
-          listeners.updateChatClientDataChanged(chatId, data);
+          listeners.updateChatClientDataChanged(chat, data);
           break;
         }
         case TdApi.Error.CONSTRUCTOR: {
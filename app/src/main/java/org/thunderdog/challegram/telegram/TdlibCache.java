@@ -42,6 +42,7 @@ import org.thunderdog.challegram.tool.Strings;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.util.AppUpdater;
 import org.thunderdog.challegram.util.DrawableProvider;
+import org.thunderdog.challegram.util.LongObjectMap;
 import org.thunderdog.challegram.util.text.Letters;
 import org.thunderdog.challegram.voip.annotation.CallState;
 import org.thunderdog.challegram.voip.gui.CallSettings;
@@ -50,8 +51,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 
 import me.vkryl.android.AppInstallationUtil;
 import me.vkryl.core.ArrayUtils;
@@ -112,8 +113,8 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   private final Tdlib tdlib;
   private volatile long myUserId;
 
-  private final HashMap<Long, TdApi.User> users = new HashMap<>();
-  private final HashMap<Long, TdApi.UserFullInfo> userFulls = new HashMap<>();
+  private final LongObjectMap<TdApi.User> users = new LongObjectMap<>();
+  private final LongObjectMap<TdApi.UserFullInfo> userFulls = new LongObjectMap<>();
   private final ReferenceLongMap<UserDataChangeListener> userListeners = new ReferenceLongMap<>(true);
 
   private final ReferenceMap.FullnessListener<Long, UserStatusChangeListener> statusFullnessListener = (list, isFull) -> setRefreshNeeded(isFull);
@@ -121,13 +122,13 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   private final ReferenceLongMap<UserStatusChangeListener> simpleStatusListeners = new ReferenceLongMap<>(true, null);
   private final ReferenceList<MyUserDataChangeListener> myUserListeners = new ReferenceList<>(true);
 
-  private final HashMap<Long, TdApi.BasicGroup> basicGroup = new HashMap<>();
-  private final HashMap<Long, TdApi.BasicGroupFullInfo> basicGroupFull = new HashMap<>();
+  private final LongObjectMap<TdApi.BasicGroup> basicGroup = new LongObjectMap<>();
+  private final LongObjectMap<TdApi.BasicGroupFullInfo> basicGroupFull = new LongObjectMap<>();
   private final ReferenceList<BasicGroupDataChangeListener> groupsGlobalListeners = new ReferenceList<>(true);
   private final ReferenceLongMap<BasicGroupDataChangeListener> groupListeners = new ReferenceLongMap<>(true);
 
-  private final HashMap<Long, TdApi.Supergroup> supergroups = new HashMap<>();
-  private final HashMap<Long, TdApi.SupergroupFullInfo> supergroupsFulls = new HashMap<>();
+  private final LongObjectMap<TdApi.Supergroup> supergroups = new LongObjectMap<>();
+  private final LongObjectMap<TdApi.SupergroupFullInfo> supergroupsFulls = new LongObjectMap<>();
   private final LongSparseLongArray supergroupsFullsLastUpdateTime = new LongSparseLongArray();
   private final ReferenceList<SupergroupDataChangeListener> supergroupsGlobalListeners = new ReferenceList<>();
   private final ReferenceLongMap<SupergroupDataChangeListener> supergroupListeners = new ReferenceLongMap<>();
@@ -164,7 +165,26 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
     }
   };
 
-  private final Object dataLock = new Object();
+  // Entities are written by the TDLib thread (calls by the UI thread) and read from everywhere,
+  // so lookups by id try an optimistic read first and take the shared lock only when racing with a write.
+  private final StampedLock dataLock = new StampedLock();
+
+  @Nullable
+  private <T> T getOptimistic (LongObjectMap<T> map, long id) {
+    final long optimisticStamp = dataLock.tryOptimisticRead();
+    if (optimisticStamp != 0) {
+      T value = map.getOptimistic(id);
+      if (dataLock.validate(optimisticStamp)) {
+        return value;
+      }
+    }
+    final long stamp = dataLock.readLock();
+    try {
+      return map.get(id);
+    } finally {
+      dataLock.unlockRead(stamp);
+    }
+  }
 
   private TdApi.HttpUrl downloadUrl;
 
@@ -341,15 +361,20 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   // Clear
 
   public void clear () {
-    users.clear();
-    userFulls.clear();
-    basicGroup.clear();
-    basicGroupFull.clear();
-    supergroups.clear();
-    supergroupsFulls.clear();
-    secretChats.clear();
-    calls.clear();
-    callSettings.clear();
+    final long stamp = dataLock.writeLock();
+    try {
+      users.clear();
+      userFulls.clear();
+      basicGroup.clear();
+      basicGroupFull.clear();
+      supergroups.clear();
+      supergroupsFulls.clear();
+      secretChats.clear();
+      calls.clear();
+      callSettings.clear();
+    } finally {
+      dataLock.unlockWrite(stamp);
+    }
     replaceOutputLocationList(null);
     myUserId = 0;
     downloadUrl = null;
@@ -384,7 +409,7 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
       for (int i = size - 1; i >= 0; i--) {
         final long userId = pendingStatusRefresh.keyAt(i);
         final int wasOnline = pendingStatusRefresh.valueAt(i);
-        final TdApi.User user = users.get(userId);
+        final TdApi.User user = getOptimistic(users, userId);
         if (user != null) {
           checkUserStatus(user, user.status, true);
         }
@@ -415,12 +440,15 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   @TdlibThread
   void onUpdateMyUserId (long userId) {
     TdApi.User myUser;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       if (this.myUserId == userId) {
         return;
       }
       this.myUserId = userId;
       myUser = userId != 0 ? users.get(userId) : null;
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
 
     if (userId != 0) {
@@ -448,7 +476,8 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
     final boolean isContactChanged;
     final boolean isContact;
     TdApi.User newUser = update.user;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       TdApi.User oldUser = users.get(newUser.id);
       hadUser = oldUser != null;
       isContact = newUser.isContact;
@@ -464,6 +493,8 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
         statusChanged = isContactChanged = false;
         users.put(newUser.id, newUser);
       }
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
 
     notifyUserListeners(newUser);
@@ -498,8 +529,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   @TdlibThread
   void onUpdateUserFull (final TdApi.UpdateUserFullInfo update) {
     boolean updated;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       updated = putUserFull(update.userId, update.userFullInfo);
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     if (updated) {
       notifyUserFullListeners(update.userId, update.userFullInfo);
@@ -548,7 +582,8 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @TdlibThread
   void onUpdateUserStatus (final TdApi.UpdateUserStatus update) {
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       TdApi.User user = users.get(update.userId);
       if (user == null) {
         return;
@@ -556,18 +591,17 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
       synchronized (onlineMutex) {
         user.status = update.status;
       }
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     tdlib.dispatchUserStatus(update, false);
   }
 
   @UiThread
   void onUpdateUserStatusInternal (TdApi.UpdateUserStatus update, boolean uiOnly) {
-    TdApi.User user;
-    synchronized (dataLock) {
-      user = users.get(update.userId);
-      if (user == null) {
-        return;
-      }
+    TdApi.User user = getOptimistic(users, update.userId);
+    if (user == null) {
+      return;
     }
     notifyUserStatusChanged(update.userId, user.status, uiOnly);
     synchronized (onlineMutex) {
@@ -581,12 +615,15 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   void onUpdateBasicGroup (TdApi.UpdateBasicGroup update) {
     boolean updated;
     long migratedToSupergroupId;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       TdApi.BasicGroup group = update.basicGroup;
       TdApi.BasicGroup oldGroup = basicGroup.get(group.id);
       basicGroup.put(group.id, group);
       updated = oldGroup != null;
       migratedToSupergroupId = updated && oldGroup.upgradedToSupergroupId == 0 ? group.upgradedToSupergroupId : 0;
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     if (updated) {
       notifyListeners(groupsGlobalListeners.iterator(), update.basicGroup, migratedToSupergroupId != 0);
@@ -597,8 +634,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   @TdlibThread
   void onUpdateBasicGroupFull (TdApi.UpdateBasicGroupFullInfo update) {
     boolean updated;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       updated = putGroupFull(update.basicGroupId, update.basicGroupFullInfo);
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     if (updated) {
       notifyListeners(groupsGlobalListeners.iterator(), update.basicGroupId, update.basicGroupFullInfo);
@@ -610,8 +650,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   void onUpdateSupergroup (TdApi.UpdateSupergroup update, @Nullable TdApi.Chat chat) {
     final TdApi.Supergroup supergroup = update.supergroup;
     int updateMode;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       updateMode = putSupergroup(supergroup);
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     if (updateMode != UPDATE_MODE_NONE) {
       notifyListeners(supergroupsGlobalListeners.iterator(), supergroup);
@@ -637,8 +680,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
     final long supergroupId = update.supergroupId;
     final TdApi.SupergroupFullInfo supergroupFullInfo = update.supergroupFullInfo;
     boolean updated;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       updated = putSupergroupFull(supergroupId, supergroupFullInfo);
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     if (updated) {
       notifyListeners(supergroupsGlobalListeners.iterator(), supergroupId, supergroupFullInfo);
@@ -650,8 +696,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   public void onUpdateSecretChat (TdApi.UpdateSecretChat update) {
     final TdApi.SecretChat secretChat = update.secretChat;
     boolean updated;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       updated = putSecretChat(secretChat);
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     if (updated) {
       notifyListeners(secretChatsGlobalListeners.iterator(), secretChat);
@@ -676,13 +725,17 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   }
 
   public CallSettings getCallSettings (int callId) {
-    synchronized (dataLock) {
+    final long stamp = dataLock.readLock();
+    try {
       return callSettings.get(callId);
+    } finally {
+      dataLock.unlockRead(stamp);
     }
   }
 
   public TdApi.Call getPendingCall () {
-    synchronized (dataLock) {
+    final long stamp = dataLock.readLock();
+    try {
       final int size = calls.size();
       for (int i = size - 1; i >= 0; i--) {
         TdApi.Call call = calls.valueAt(i);
@@ -690,13 +743,18 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
           return call;
         }
       }
+    } finally {
+      dataLock.unlockRead(stamp);
     }
     return null;
   }
 
   public TdApi.Call getCall (int callId) {
-    synchronized (dataLock) {
+    final long stamp = dataLock.readLock();
+    try {
       return calls.get(callId);
+    } finally {
+      dataLock.unlockRead(stamp);
     }
   }
 
@@ -704,12 +762,15 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   public void onUpdateCall (TdApi.UpdateCall update) {
     final TdApi.Call call = update.call;
     int delta;
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       TdApi.Call oldCall = calls.get(call.id);
       boolean wasActive = !TD.isFinished(oldCall);
       calls.put(call.id, call);
       boolean nowActive = !TD.isFinished(call);
       delta = wasActive != nowActive ? (nowActive ? 1 : -1) : 0;
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     notifyListeners(callsGlobalListeners.iterator(), call);
     notifyListeners(callListeners.iterator(call.id), call);
@@ -723,8 +784,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @UiThread
   public void onUpdateCallSettings (int callId, CallSettings settings) {
-    synchronized (dataLock) {
+    final long stamp = dataLock.writeLock();
+    try {
       callSettings.put(callId, settings);
+    } finally {
+      dataLock.unlockWrite(stamp);
     }
     notifyListeners(callsGlobalListeners.iterator(), callId, settings);
     notifyListeners(callListeners.iterator(callId), callId, settings);
@@ -885,8 +949,29 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   }
 
   public int users (long[] userIds, ArrayList<TdApi.User> out) {
+    final int startSize = out.size();
+    final long optimisticStamp = dataLock.tryOptimisticRead();
+    if (optimisticStamp != 0) {
+      boolean missing = false;
+      for (long userId : userIds) {
+        if (userId != 0) {
+          TdApi.User user = users.getOptimistic(userId);
+          if (user != null) {
+            out.add(user);
+          } else {
+            missing = true;
+          }
+        }
+      }
+      if (dataLock.validate(optimisticStamp) && !missing) {
+        return out.size() - startSize;
+      }
+      // Raced with an update, or there's something to report: redo under the lock
+      out.subList(startSize, out.size()).clear();
+    }
     int addedCount = 0;
-    synchronized (dataLock) {
+    final long stamp = dataLock.readLock();
+    try {
       for (long userId : userIds) {
         if (userId != 0) {
           TdApi.User user = users.get(userId);
@@ -898,6 +983,8 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
           }
         }
       }
+    } finally {
+      dataLock.unlockRead(stamp);
     }
     return addedCount;
   }
@@ -907,34 +994,33 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
       Log.bug("getUser for userId=0");
       return null;
     }
-    synchronized (dataLock) {
-      TdApi.User user = users.get(userId);
-      if (user == null)
-        Log.bug("updateUser missing for userId:%d", userId);
-      return user;
-    }
+    TdApi.User user = getOptimistic(users, userId);
+    if (user == null)
+      Log.bug("updateUser missing for userId:%d", userId);
+    return user;
   }
 
   @NonNull
   public TdApi.User userStrict (long userId) {
     if (userId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.User user = users.get(userId);
-      if (user == null)
-        throw new IllegalStateException("id" + userId);
-      return user;
-    }
+    TdApi.User user = getOptimistic(users, userId);
+    if (user == null)
+      throw new IllegalStateException("id" + userId);
+    return user;
   }
 
   public boolean userLastSeenAvailable (long userId) {
     if (userId == 0)
       return false;
-    synchronized (dataLock) {
-      TdApi.User user = users.get(userId);
-      TdApi.UserStatus status = user != null ? user.status : null;
-      return status != null && status.getConstructor() == TdApi.UserStatusOffline.CONSTRUCTOR && ((TdApi.UserStatusOffline) status).wasOnline != 0;
+    TdApi.User user = getOptimistic(users, userId);
+    if (user == null)
+      return false;
+    TdApi.UserStatus status;
+    synchronized (onlineMutex) {
+      status = user.status;
     }
+    return status != null && status.getConstructor() == TdApi.UserStatusOffline.CONSTRUCTOR && ((TdApi.UserStatusOffline) status).wasOnline != 0;
   }
 
   public boolean userGeneral (long userId) {
@@ -1103,17 +1189,13 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   public TdApi.UserFullInfo userFull (long userId, boolean allowRequest) {
-    TdApi.UserFullInfo userFull;
-    synchronized (dataLock) {
-      Long key = userId;
-      userFull = userFulls.get(key);
-      if (userFull == null || allowRequest) {
-        TdApi.User user = users.get(key);
-        if (user != null) {
-          tdlib.client().send(new TdApi.GetUserFullInfo(userId), dataHandler);
-        } else {
-          tdlib.client().send(new TdApi.GetUser(userId), ignored -> tdlib.client().send(new TdApi.GetUserFullInfo(userId), dataHandler));
-        }
+    TdApi.UserFullInfo userFull = getOptimistic(userFulls, userId);
+    if (userFull == null || allowRequest) {
+      TdApi.User user = getOptimistic(users, userId);
+      if (user != null) {
+        tdlib.client().send(new TdApi.GetUserFullInfo(userId), dataHandler);
+      } else {
+        tdlib.client().send(new TdApi.GetUser(userId), ignored -> tdlib.client().send(new TdApi.GetUserFullInfo(userId), dataHandler));
       }
     }
     return userFull;
@@ -1152,36 +1234,33 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   public @Nullable TdApi.User searchUser (String username, boolean allowDisabled) {
     TdApi.User result = null;
-    synchronized (dataLock) {
-      final Set<HashMap.Entry<Long, TdApi.User>> entries = users.entrySet();
-      for (HashMap.Entry<Long, TdApi.User> entry : entries) {
-        TdApi.User user = entry.getValue();
+    final long stamp = dataLock.readLock();
+    try {
+      for (TdApi.User user : users.values()) {
         if (Td.findUsername(user, username, allowDisabled)) {
           result = user;
           break;
         }
       }
+    } finally {
+      dataLock.unlockRead(stamp);
     }
     return result;
   }
 
   @Nullable
   public TdApi.BasicGroup basicGroup (long basicGroupId) {
-    synchronized (dataLock) {
-      return basicGroup.get(basicGroupId);
-    }
+    return getOptimistic(basicGroup, basicGroupId);
   }
 
   @NonNull
   public TdApi.BasicGroup basicGroupStrict (long basicGroupId) {
     if (basicGroupId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.BasicGroup group = basicGroup.get(basicGroupId);
-      if (group == null)
-        throw new IllegalStateException("id:" + basicGroupId);
-      return group;
-    }
+    TdApi.BasicGroup group = getOptimistic(basicGroup, basicGroupId);
+    if (group == null)
+      throw new IllegalStateException("id:" + basicGroupId);
+    return group;
   }
 
   public boolean basicGroupActive (long basicGroupId) {
@@ -1196,18 +1275,9 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   public TdApi.BasicGroupFullInfo basicGroupFull (long basicGroupId, boolean allowRequest) {
-    synchronized (dataLock) {
-      return basicGroupFullUnsafe(basicGroupId, allowRequest);
-    }
-  }
-
-  @Nullable
-  private TdApi.BasicGroupFullInfo basicGroupFullUnsafe (long basicGroupId, boolean allowRequest) {
-    Long key = basicGroupId;
-    TdApi.BasicGroupFullInfo groupFull;
-    groupFull = basicGroupFull.get(key);
+    TdApi.BasicGroupFullInfo groupFull = getOptimistic(basicGroupFull, basicGroupId);
     if (groupFull == null || allowRequest) {
-      TdApi.BasicGroup basicGroup = this.basicGroup.get(key);
+      TdApi.BasicGroup basicGroup = getOptimistic(this.basicGroup, basicGroupId);
       if (basicGroup != null) {
         tdlib.client().send(new TdApi.GetBasicGroupFullInfo(basicGroupId), dataHandler);
       } else {
@@ -1246,21 +1316,17 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   public TdApi.Supergroup supergroup (long supergroupId) {
-    synchronized (dataLock) {
-      return supergroups.get(supergroupId);
-    }
+    return getOptimistic(supergroups, supergroupId);
   }
 
   @NonNull
   public TdApi.Supergroup supergroupStrict (long supergroupId) {
     if (supergroupId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.Supergroup supergroup = supergroups.get(supergroupId);
-      if (supergroup == null)
-        throw new IllegalStateException("id:" + supergroupId);
-      return supergroup;
-    }
+    TdApi.Supergroup supergroup = getOptimistic(supergroups, supergroupId);
+    if (supergroup == null)
+      throw new IllegalStateException("id:" + supergroupId);
+    return supergroup;
   }
 
   @Nullable
@@ -1276,30 +1342,29 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   public TdApi.SupergroupFullInfo supergroupFull (long supergroupId, boolean allowRequest) {
-    TdApi.SupergroupFullInfo result;
-    synchronized (dataLock) {
-      Long key = supergroupId;
-      result = supergroupsFulls.get(key);
-      if (result == null || allowRequest) {
-        TdApi.Supergroup supergroup = supergroups.get(key);
-        if (supergroup != null) {
-          tdlib.client().send(new TdApi.GetSupergroupFullInfo(supergroupId), dataHandler);
-        } else {
-          tdlib.client().send(new TdApi.GetSupergroup(supergroupId), ignored -> tdlib.client().send(new TdApi.GetSupergroupFullInfo(supergroupId), dataHandler));
-        }
+    TdApi.SupergroupFullInfo result = getOptimistic(supergroupsFulls, supergroupId);
+    if (result == null || allowRequest) {
+      TdApi.Supergroup supergroup = getOptimistic(supergroups, supergroupId);
+      if (supergroup != null) {
+        tdlib.client().send(new TdApi.GetSupergroupFullInfo(supergroupId), dataHandler);
+      } else {
+        tdlib.client().send(new TdApi.GetSupergroup(supergroupId), ignored -> tdlib.client().send(new TdApi.GetSupergroupFullInfo(supergroupId), dataHandler));
       }
     }
     return result;
   }
 
   public long getSlowModeDelayExpiresIn (long supergroupId, TimeUnit timeUnit) {
-    synchronized (dataLock) {
+    final long stamp = dataLock.readLock();
+    try {
       final long lastUpdateTime = supergroupsFullsLastUpdateTime.get(supergroupId, 0);
       final TdApi.SupergroupFullInfo supergroupFullInfo = supergroupsFulls.get(supergroupId);
       if (supergroupFullInfo != null) {
         final long delayExpiresInMillis = TimeUnit.SECONDS.toMillis((long) supergroupFullInfo.slowModeDelayExpiresIn);
         return timeUnit.convert(Math.max(0, delayExpiresInMillis - (SystemClock.uptimeMillis() - lastUpdateTime)), TimeUnit.MILLISECONDS);
       }
+    } finally {
+      dataLock.unlockRead(stamp);
     }
 
     return 0;
@@ -1333,8 +1398,11 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   }
 
   public @Nullable TdApi.SecretChat secretChat (int secretChatId) {
-    synchronized (dataLock) {
+    final long stamp = dataLock.readLock();
+    try {
       return secretChats.get(secretChatId);
+    } finally {
+      dataLock.unlockRead(stamp);
     }
   }
 
@@ -1342,12 +1410,10 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   public TdApi.SecretChat secretChatStrict (int secretChatId) {
     if (secretChatId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.SecretChat secretChat = secretChats.get(secretChatId);
-      if (secretChat == null)
-        throw new IllegalStateException("id:" + secretChatId);
-      return secretChat;
-    }
+    TdApi.SecretChat secretChat = secretChat(secretChatId);
+    if (secretChat == null)
+      throw new IllegalStateException("id:" + secretChatId);
+    return secretChat;
   }
 
   /*pacakge*/ long myUserId () {
@@ -1359,11 +1425,8 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   }
 
   public @Nullable TdApi.User myUser () {
-    TdApi.User result;
-    synchronized (dataLock) {
-      result = myUserId != 0 ? users.get(myUserId) : null;
-    }
-    return result;
+    final long myUserId = this.myUserId;
+    return myUserId != 0 ? getOptimistic(users, myUserId) : null;
   }
 
   public boolean isOnline (long userId) {
@@ -1376,15 +1439,13 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
     if (tdlib.isServiceNotificationsChat(ChatId.fromUserId(userId))) {
       return false;
     }
-    boolean isOnline;
-    synchronized (dataLock) {
-      if (userId != myUserId) {
-        isOnline = TD.isOnline(users.get(userId));
-      } else {
-        isOnline = true;
-      }
+    TdApi.User user = getOptimistic(users, userId);
+    if (user == null) {
+      return false;
+    }
+    synchronized (onlineMutex) {
+      return TD.isOnline(user);
     }
-    return isOnline;
   }
 
   /*public int secondsTillOffline (long userId) {
@@ -19,11 +19,12 @@ import androidx.annotation.Nullable;
 
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.util.LongObjectMap;
+import org.thunderdog.challegram.util.OrderStatisticTree;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -76,7 +77,8 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
 
   private final Tdlib tdlib;
   private final TdApi.ChatList chatList;
-  private final ArrayList<Entry> list = new ArrayList<>();
+  private final OrderStatisticTree<Entry> list = new OrderStatisticTree<>(this);
+  private final LongObjectMap<Entry> entries = new LongObjectMap<>();
   private final List<Runnable> onLoadMore = new ArrayList<>();
   private final List<RunnableData<TdApi.Chat>> perChatCallbacks = new ArrayList<>();
 
@@ -332,15 +334,14 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
     return o1.compareTo(o2);
   }
 
-  private int indexOfEntry (long chatId) {
-    int index = 0;
-    for (Entry entry : list) {
-      if (entry.chat.id == chatId) {
-        return index;
-      }
-      index++;
+  /**
+   * @return Position of the chat in this list, or -1 if it's not there
+   */
+  public int indexOfChat (long chatId) {
+    synchronized (list) {
+      Entry entry = entries.get(chatId);
+      return entry != null ? list.indexOf(entry) : -1;
     }
-    return -1;
   }
 
   // Updates handling
@@ -358,32 +359,29 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
   @TdlibThread
   void onUpdateChatPosition (TdApi.Chat chat, Tdlib.ChatChange changeInfo) {
     TdApi.ChatPosition position = changeInfo.position;
-    int prevIndex = indexOfEntry(chat.id);
-    if (prevIndex == -1) {
+    // No need to sync, as all changes are made on tdlib thread
+    final Entry existingEntry = entries.get(chat.id);
+    if (existingEntry == null) {
       if (position.order != 0) {
         addChatToList(new Entry(chat, chatList(), position), changeInfo);
       }
     } else if (position.order == 0) {
-      removeChatFromList(prevIndex, changeInfo);
+      removeChatFromList(existingEntry, changeInfo);
     } else {
-      final Entry existingEntry;
+      final int prevIndex;
       if (changeInfo.orderChanged()) {
         int newIndex;
         synchronized (list) {
-          existingEntry = list.remove(prevIndex);
+          prevIndex = list.remove(existingEntry);
           Td.copyTo(position, existingEntry.effectivePosition);
-          newIndex = Collections.binarySearch(this.list, existingEntry, this);
-          if (newIndex >= 0)
-            throw new IllegalStateException();
-          newIndex = newIndex * -1 - 1;
-          list.add(newIndex, existingEntry);
+          newIndex = list.add(existingEntry);
         }
         if (newIndex != prevIndex) {
           tdlib.listeners().updateChatMoved(this, existingEntry.chat, prevIndex, newIndex, changeInfo);
           return;
         }
       } else {
-        existingEntry = list.get(prevIndex);
+        prevIndex = list.indexOf(existingEntry);
       }
       if (changeInfo.metadataChanged()) {
         tdlib.listeners().updateChatChanged(this, existingEntry.chat, prevIndex, changeInfo);
@@ -396,11 +394,8 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
   private void addChatToList (Entry entry, Tdlib.ChatChange changeInfo) {
     int atIndex;
     synchronized (list) {
-      atIndex = Collections.binarySearch(this.list, entry, this);
-      if (atIndex >= 0)
-        throw new IllegalStateException();
-      atIndex = atIndex * -1 - 1;
-      list.add(atIndex, entry);
+      atIndex = list.add(entry);
+      entries.put(entry.chat.id, entry);
     }
     for (RunnableData<TdApi.Chat> perChatCallback : perChatCallbacks) {
       perChatCallback.runWithData(entry.chat);
@@ -408,10 +403,11 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
     tdlib.listeners().updateChatAdded(this, entry.chat, atIndex, changeInfo);
   }
 
-  private void removeChatFromList (int fromIndex, Tdlib.ChatChange changeInfo) {
-    Entry entry;
+  private void removeChatFromList (Entry entry, Tdlib.ChatChange changeInfo) {
+    int fromIndex;
     synchronized (list) {
-      entry = list.remove(fromIndex);
+      fromIndex = list.remove(entry);
+      entries.remove(entry.chat.id);
     }
     tdlib.listeners().updateChatRemoved(this, entry.chat, fromIndex, changeInfo);
   }
@@ -53,6 +53,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import me.vkryl.core.ArrayUtils;
 import me.vkryl.core.DateUtils;
@@ -107,8 +108,11 @@ public class TdlibContactManager implements CleanupStartupDelegate {
 
   private int state;
 
-  private long maxModificationDate;
-  private long lastRetrievedContactCount;
+  private static final int IMPORT_BATCH_SIZE = 500;
+  private static final long FULL_IMPORT_INTERVAL = TimeUnit.DAYS.toMillis(7);
+  private static final long ROBOTS_CONTACT_ID = -1;
+
+  private final TdlibContactSnapshot snapshot;
 
   private List<Reference<Object>> avatarExpectors;
 
@@ -120,6 +124,7 @@ public class TdlibContactManager implements CleanupStartupDelegate {
 
   TdlibContactManager (Tdlib tdlib) {
     this.tdlib = tdlib;
+    this.snapshot = new TdlibContactSnapshot(tdlib, key("sync_snapshot"));
     this.checkLimiter = new RateLimiter(() -> {
       tdlib.searchContacts(null, 5, newHandler());
     }, 200L, null);
@@ -200,6 +205,7 @@ public class TdlibContactManager implements CleanupStartupDelegate {
   }
 
   public void deleteContacts () {
+    snapshot.clear();
     tdlib.client().send(new TdApi.ClearImportedContacts(), new Client.ResultHandler() {
       @Override
       public void onResult (TdApi.Object clearImportResult) {
@@ -247,7 +253,7 @@ public class TdlibContactManager implements CleanupStartupDelegate {
     setStatus(STATUS_INACTIVE);
     setState(STATE_NOT_STARTED);
     setRegisteredContactsImpl(null, 0, false);
-    maxModificationDate = 0;
+    snapshot.clear();
     if (includeServer) {
       tdlib.client().send(new TdApi.ClearImportedContacts(), tdlib.okHandler());
       tdlib.client().send(new TdApi.ChangeImportedContacts(new TdApi.Contact[0]), object -> {
@@ -834,25 +840,26 @@ public class TdlibContactManager implements CleanupStartupDelegate {
 
   private void importContactsImpl (CancellableRunnable cancellationSignal, boolean ignoreIfNoChanges) {
     Cursor c = null;
-    int count;
     Context context = UI.getAppContext();
-    TdApi.Contact[] result = null;
-    long maxModificationDate = 0;
+    TdlibContactSnapshot.Delta delta = null;
+    final long now = System.currentTimeMillis();
     try {
       ContentResolver resolver = context.getContentResolver();
 
-      if (ignoreIfNoChanges) {
+      if (ignoreIfNoChanges && !snapshot.isEmpty()) {
+        final long knownModificationDate = snapshot.getMaxModificationDate();
+        final long knownContactCount = snapshot.getContactCount();
         boolean ok = false;
         try {
           if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            if (this.maxModificationDate == 0) {
+            if (knownModificationDate == 0) {
               ok = true;
             } else {
               c = resolver.query(ContactsContract.Contacts.CONTENT_URI,
                 new String[]{
                   ContactsContract.Contacts._ID
                 },
-                ContactsContract.Contacts.HAS_PHONE_NUMBER + "<>0 AND " + ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > " + this.maxModificationDate,
+                ContactsContract.Contacts.HAS_PHONE_NUMBER + "<>0 AND " + ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > " + knownModificationDate,
                 null,
                 ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " DESC LIMIT 1"
               );
@@ -877,9 +884,9 @@ public class TdlibContactManager implements CleanupStartupDelegate {
               );
             if (c != null) {
               long totalContactCount = c.getCount();
-              ok = totalContactCount != lastRetrievedContactCount;
+              ok = totalContactCount != knownContactCount;
               if (ok) {
-                Log.i(Log.TAG_CONTACT, "Contact list size changed, starting sync process: prev_size:%d, new_size: %d", lastRetrievedContactCount, totalContactCount);
+                Log.i(Log.TAG_CONTACT, "Contact list size changed, starting sync process: prev_size:%d, new_size: %d", knownContactCount, totalContactCount);
               }
             }
             U.closeCursor(c); c = null;
@@ -887,8 +894,11 @@ public class TdlibContactManager implements CleanupStartupDelegate {
         } catch (Throwable t) {
           Log.critical(Log.TAG_CONTACT, "Contact changes check failed", t);
         }
-        if (!ok) {
+        if (!ok && !snapshot.needFullImport(now, FULL_IMPORT_INTERVAL)) {
           Log.i(Log.TAG_CONTACT, "No contact changes has been found, aborting.");
+          if (snapshot.consumeNeedPublish() && cancellationSignal.isPending()) {
+            publishUnregisteredContacts();
+          }
           setState(STATE_FINISHED);
 
           U.closeCursor(c); c = null;
@@ -914,151 +924,244 @@ public class TdlibContactManager implements CleanupStartupDelegate {
         projection,
         ContactsContract.Contacts.HAS_PHONE_NUMBER + "<>0",
         null,
-        null
+        ContactsContract.Contacts._ID
       );
       if (c == null) {
         throw new NullPointerException("Contacts.CONTENT_URI query failed");
       }
 
-      count = c.getCount();
-      lastRetrievedContactCount = count;
-      ArrayList<ContactData> contacts = new ArrayList<>(count);
-
-      while (c.moveToNext()) {
+      // Phone numbers and names are read per batch of contacts,
+      // so memory use doesn't grow with the size of the phonebook
+      final TdlibContactSnapshot.Delta scan = snapshot.newDelta(snapshot.needFullImport(now, FULL_IMPORT_INTERVAL));
+      final ArrayList<ContactData> batch = new ArrayList<>(Math.min(c.getCount(), IMPORT_BATCH_SIZE));
+      final ArrayList<TdApi.Contact> converted = new ArrayList<>();
+      long contactCount = 0;
+      long maxModificationDate = 0;
+      while (c.moveToNext() && cancellationSignal.isPending()) {
         long _id = c.getLong(0);
         String displayName = StringUtils.trim(c.getString(1));
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
           maxModificationDate = Math.max(maxModificationDate, c.getLong(2));
         }
-        contacts.add(new ContactData(_id, displayName));
+        batch.add(new ContactData(_id, displayName));
+        contactCount++;
+        if (batch.size() == IMPORT_BATCH_SIZE) {
+          processContactBatch(resolver, batch, scan, converted);
+          batch.clear();
+        }
       }
       U.closeCursor(c); c = null;
+      if (!batch.isEmpty()) {
+        processContactBatch(resolver, batch, scan, converted);
+        batch.clear();
+      }
+      if (UI.inTestMode()) {
+        converted.clear();
+        addRobots(converted);
+        scan.add(new TdlibContactSnapshot.Entry(ROBOTS_CONTACT_ID, converted));
+      }
+      scan.maxModificationDate = maxModificationDate;
+      scan.contactCount = contactCount;
+      scan.finish();
+      delta = scan;
+    } catch (Throwable t) {
+      U.closeCursor(c);
+      Log.critical(Log.TAG_CONTACT, "Contacts synchronization failed", t);
+    }
 
-      if (!contacts.isEmpty()) {
-        final HashMap<Long, ContactData> contactMap = new HashMap<>(contacts.size());
-        for (ContactData contactData : contacts) {
-          contactMap.put(contactData.contactId, contactData);
-        }
-        c = resolver.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
-          new String[] {
-            ContactsContract.Data._ID,
-            ContactsContract.Data.CONTACT_ID,
-            ContactsContract.CommonDataKinds.Phone.NUMBER
-          },
-          null,
-          null,
-          null);
-        if (c == null) {
-          throw new NullPointerException("Phone.CONTENT_URI query failed");
-        }
+    if (cancellationSignal.isPending()) {
+      if (delta != null) {
+        importContacts(cancellationSignal, delta, now);
+      } else {
+        setState(STATE_NOT_STARTED);
+      }
+    }
+  }
 
-        int validContactCount = 0;
-        ArrayList<String[]> unknownPhoneNumbers = null;
-        while (c.moveToNext()) {
-          long _id = c.getLong(0);
-          long contactId = c.getLong(1);
-          String rawPhoneNumber = c.getString(2);
-          String phoneNumber = cleanPhoneNumber(rawPhoneNumber);
-          if (!StringUtils.isEmpty(phoneNumber)) {
-            ContactData data = contactMap.get(contactId);
-            if (data != null) {
-              if (!data.phoneNumbers.contains(phoneNumber)) {
-                data.phoneNumbers.add(phoneNumber);
-                data.rawPhoneNumbers.add(phoneNumber);
-                validContactCount++;
-              }
-            } else {
-              if (unknownPhoneNumbers == null) {
-                unknownPhoneNumbers = new ArrayList<>();
-              }
-              unknownPhoneNumbers.add(new String[] {phoneNumber, rawPhoneNumber});
-            }
+  private static void processContactBatch (ContentResolver resolver, List<ContactData> contacts, TdlibContactSnapshot.Delta delta, ArrayList<TdApi.Contact> converted) {
+    final HashMap<Long, ContactData> contactMap = new HashMap<>(contacts.size());
+    StringBuilder contactIds = new StringBuilder(ContactsContract.Data.CONTACT_ID).append(" IN (");
+    for (ContactData contactData : contacts) {
+      if (!contactMap.isEmpty()) {
+        contactIds.append(',');
+      }
+      contactMap.put(contactData.contactId, contactData);
+      contactIds.append(contactData.contactId);
+    }
+    contactIds.append(')');
+
+    Cursor c = resolver.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+      new String[] {
+        ContactsContract.Data._ID,
+        ContactsContract.Data.CONTACT_ID,
+        ContactsContract.CommonDataKinds.Phone.NUMBER
+      },
+      contactIds.toString(),
+      null,
+      null);
+    if (c == null) {
+      throw new NullPointerException("Phone.CONTENT_URI query failed");
+    }
+    try {
+      while (c.moveToNext()) {
+        long contactId = c.getLong(1);
+        String rawPhoneNumber = c.getString(2);
+        String phoneNumber = cleanPhoneNumber(rawPhoneNumber);
+        if (!StringUtils.isEmpty(phoneNumber)) {
+          ContactData data = contactMap.get(contactId);
+          if (data != null && !data.phoneNumbers.contains(phoneNumber)) {
+            data.phoneNumbers.add(phoneNumber);
+            data.rawPhoneNumbers.add(phoneNumber);
           }
         }
-        U.closeCursor(c); c = null;
-        if (unknownPhoneNumbers != null) {
-          Log.w(Log.TAG_CONTACT, "%d phone numbers do not belong to any known contact_id", unknownPhoneNumbers.size());
-          // TODO ?
-        }
+      }
+    } finally {
+      U.closeCursor(c);
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && USE_FULL_NAME_STYLES) {
-          projection = new String[] {
-            ContactsContract.Data._ID,
-            ContactsContract.Data.CONTACT_ID,
-            ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME,
-            ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME,
-            ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME,
-            ContactsContract.CommonDataKinds.StructuredName.FULL_NAME_STYLE
-          };
-        } else {
-          projection = new String[] {
-            ContactsContract.Data._ID,
-            ContactsContract.Data.CONTACT_ID,
-            ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME,
-            ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME,
-            ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME,
-          };
-        }
-        c = resolver.query(ContactsContract.Data.CONTENT_URI,
-          projection,
-          ContactsContract.Data.MIMETYPE + "=?",
-          new String[] {
-            ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE
-          },
-          null
-        );
-        if (c == null) {
-          throw new NullPointerException("Data.CONTENT_URI query failed");
+    String[] projection;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && USE_FULL_NAME_STYLES) {
+      projection = new String[] {
+        ContactsContract.Data._ID,
+        ContactsContract.Data.CONTACT_ID,
+        ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME,
+        ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME,
+        ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME,
+        ContactsContract.CommonDataKinds.StructuredName.FULL_NAME_STYLE
+      };
+    } else {
+      projection = new String[] {
+        ContactsContract.Data._ID,
+        ContactsContract.Data.CONTACT_ID,
+        ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME,
+        ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME,
+        ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME,
+      };
+    }
+    c = resolver.query(ContactsContract.Data.CONTENT_URI,
+      projection,
+      ContactsContract.Data.MIMETYPE + "=? AND " + contactIds,
+      new String[] {
+        ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE
+      },
+      null
+    );
+    if (c == null) {
+      throw new NullPointerException("Data.CONTENT_URI query failed");
+    }
+    try {
+      while (c.moveToNext()) {
+        long contactId = c.getLong(1);
+        ContactData contact = contactMap.get(contactId);
+        if (contact == null) {
+          continue;
         }
-        while (c.moveToNext()) {
-          long _id = c.getLong(0);
-          long contactId = c.getLong(1);
-          ContactData contact = contactMap.get(contactId);
-          if (contact == null) {
-            continue;
-          }
-          String firstName = StringUtils.trim(c.getString(2));
-          String lastName = StringUtils.trim(c.getString(3));
-          String middleName = StringUtils.trim(c.getString(4));
-          long fullNameStyle = -1;
-          if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && USE_FULL_NAME_STYLES) {
-            fullNameStyle = c.getLong(5);
-            if (!StringUtils.isEmpty(middleName)) {
-              if (StringUtils.isEmpty(lastName)) {
-                lastName = middleName;
-              } else {
-                lastName = middleName + ' ' + lastName;
-              }
+        String firstName = StringUtils.trim(c.getString(2));
+        String lastName = StringUtils.trim(c.getString(3));
+        String middleName = StringUtils.trim(c.getString(4));
+        long fullNameStyle = -1;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && USE_FULL_NAME_STYLES) {
+          fullNameStyle = c.getLong(5);
+          if (!StringUtils.isEmpty(middleName)) {
+            if (StringUtils.isEmpty(lastName)) {
+              lastName = middleName;
+            } else {
+              lastName = middleName + ' ' + lastName;
             }
           }
-          contact.addVariation(new NameVariation(contact.phoneNumbers, firstName, lastName, middleName, fullNameStyle));
-        }
-        U.closeCursor(c); c = null;
-        ArrayList<TdApi.Contact> futureResult = new ArrayList<>(validContactCount);
-        for (ContactData contact : contacts) {
-          contact.convertToContact(futureResult);
         }
-        if (UI.inTestMode()) {
-          addRobots(futureResult);
-        }
-        result = new TdApi.Contact[futureResult.size()];
-        futureResult.toArray(result);
-      } else {
-        result = new TdApi.Contact[0];
+        contact.addVariation(new NameVariation(contact.phoneNumbers, firstName, lastName, middleName, fullNameStyle));
       }
-    } catch (Throwable t) {
+    } finally {
       U.closeCursor(c);
-      Log.critical(Log.TAG_CONTACT, "Contacts synchronization failed", t);
     }
 
-    if (cancellationSignal.isPending()) {
-      if (result != null) {
-        this.maxModificationDate = maxModificationDate;
-        importContacts(cancellationSignal, result);
+    for (ContactData contact : contacts) {
+      converted.clear();
+      contact.convertToContact(converted);
+      delta.add(new TdlibContactSnapshot.Entry(contact.contactId, converted));
+    }
+  }
+
+  private void importContacts (final CancellableRunnable cancellationSignal, final TdlibContactSnapshot.Delta delta, final long now) {
+    if (delta.isEmpty() && !delta.needForceImport()) {
+      Log.i(Log.TAG_CONTACT, "Contacts haven't changed since the last import, contactCount:%d", delta.contactCount);
+      if (snapshot.commitUnchanged(delta) && cancellationSignal.isPending()) {
+        publishUnregisteredContacts();
+      }
+      setState(STATE_FINISHED);
+      return;
+    }
+    final List<TdlibContactSnapshot.Entry> entries = delta.getEntriesToImport();
+    ArrayList<TdApi.Contact> contactList = new ArrayList<>();
+    for (TdlibContactSnapshot.Entry entry : entries) {
+      Collections.addAll(contactList, entry.contacts);
+    }
+    final TdApi.Contact[] contacts = contactList.toArray(new TdApi.Contact[0]);
+    if (Log.isEnabled(Log.TAG_CONTACT)) {
+      if (Log.checkLogLevel(Log.LEVEL_VERBOSE)) {
+        Log.v(Log.TAG_CONTACT, "Importing %d contacts (%s)...\n%s", contacts.length, delta, TextUtils.join("\n", contacts));
       } else {
-        setState(STATE_NOT_STARTED);
+        Log.i(Log.TAG_CONTACT, "Found %d contacts to import (%s), importing...", contacts.length, delta);
       }
     }
+    // Always send the whole phonebook: TDLib diffs it against the previously imported list itself,
+    // and removes contacts that are gone, which ImportContacts would never do
+    tdlib.client().send(new TdApi.ChangeImportedContacts(contacts), object -> {
+      switch (object.getConstructor()) {
+        case TdApi.ImportedContacts.CONSTRUCTOR: {
+          snapshot.commit(delta, entries, (TdApi.ImportedContacts) object, now);
+          if (cancellationSignal.isPending()) {
+            publishUnregisteredContacts();
+            checkRegisteredCount();
+          }
+          break;
+        }
+        case TdApi.Error.CONSTRUCTOR: {
+          Log.e(Log.TAG_CONTACT, "changeImportedContacts: %s", TD.toErrorString(object));
+          break;
+        }
+      }
+      setState(STATE_FINISHED);
+    });
+  }
+
+  private void publishUnregisteredContacts () {
+    ArrayList<TdApi.Contact> contacts = new ArrayList<>();
+    ArrayList<Integer> importerCounts = new ArrayList<>();
+    snapshot.getUnregisteredContacts(contacts, importerCounts);
+    ArrayList<UnregisteredContact> unregisteredContacts = null;
+    for (int i = 0; i < contacts.size(); i++) {
+      TdApi.Contact contact = contacts.get(i);
+      if (unregisteredContacts == null) {
+        unregisteredContacts = new ArrayList<>(contacts.size());
+      }
+      unregisteredContacts.add(new UnregisteredContact(contact, formatPhoneNumber(contact.phoneNumber), importerCounts.get(i)));
+    }
+    setUnregisteredContactsSorted(unregisteredContacts);
+  }
+
+  private void setUnregisteredContactsSorted (@Nullable ArrayList<UnregisteredContact> unregisteredContacts) {
+    if (unregisteredContacts != null) {
+      unregisteredContacts.trimToSize();
+      Collections.sort(unregisteredContacts, (o1, o2) -> {
+        int c;
+        c = Integer.compare(o2.importerCount, o1.importerCount);
+        if (c != 0) {
+          return c;
+        }
+        String n1 = TD.getUserName(o1.contact.firstName, o1.contact.lastName).toLowerCase();
+        String n2 = TD.getUserName(o2.contact.firstName, o2.contact.lastName).toLowerCase();
+        c = n1.compareTo(n2);
+        if (c != 0) {
+          return c;
+        }
+        return o1.contact.phoneNumber.compareTo(o2.contact.phoneNumber);
+      });
+      setUnregisteredContacts(unregisteredContacts);
+    } else {
+      setUnregisteredContacts(null);
+    }
   }
 
   private void importContacts (final CancellableRunnable cancellationSingal, final TdApi.Contact[] contacts) {
@@ -1069,6 +1172,8 @@ public class TdlibContactManager implements CleanupStartupDelegate {
         Log.i(Log.TAG_CONTACT, "Found %d contacts, importing...", contacts.length);
       }
     }
+    // Replaces everything imported before, so the snapshot no longer describes server state
+    snapshot.clear();
     tdlib.client().send(new TdApi.ChangeImportedContacts(contacts), object -> {
       switch (object.getConstructor()) {
         case TdApi.ImportedContacts.CONSTRUCTOR: {
@@ -1087,26 +1192,7 @@ public class TdlibContactManager implements CleanupStartupDelegate {
             i++;
           }
           if (cancellationSingal.isPending()) {
-            if (unregisteredContacts != null) {
-              unregisteredContacts.trimToSize();
-              Collections.sort(unregisteredContacts, (o1, o2) -> {
-                int c;
-                c = Integer.compare(o2.importerCount, o1.importerCount);
-                if (c != 0) {
-                  return c;
-                }
-                String n1 = TD.getUserName(o1.contact.firstName, o1.contact.lastName).toLowerCase();
-                String n2 = TD.getUserName(o2.contact.firstName, o2.contact.lastName).toLowerCase();
-                c = n1.compareTo(n2);
-                if (c != 0) {
-                  return c;
-                }
-                return o1.contact.phoneNumber.compareTo(o2.contact.phoneNumber);
-              });
-              setUnregisteredContacts(unregisteredContacts);
-            } else {
-              setUnregisteredContacts(null);
-            }
+            setUnregisteredContactsSorted(unregisteredContacts);
             checkRegisteredCount();
           }
           break;
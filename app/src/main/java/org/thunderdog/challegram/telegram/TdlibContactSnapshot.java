@@ -0,0 +1,361 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 15:12
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.unsorted.Settings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import me.vkryl.core.StringUtils;
+import me.vkryl.core.collection.LongSet;
+import me.vkryl.core.util.Blob;
+
+/**
+ * Last phonebook state imported to TDLib, stored per account.
+ *
+ * Each phonebook contact is kept as the list of {@link TdApi.Contact} it was converted to,
+ * together with a hash of that list and the import result (user id and importer count) of each item.
+ * {@link Delta} compares a fresh phonebook scan against it, so unchanged phonebooks don't have to be sent at all.
+ *
+ * Thread-safe.
+ */
+final class TdlibContactSnapshot {
+  private static final int VERSION = 1;
+
+  static final class Entry {
+    final long contactId;
+    final long hash;
+    final TdApi.Contact[] contacts;
+    final long[] userIds;
+    final int[] importerCounts;
+
+    Entry (long contactId, List<TdApi.Contact> contacts) {
+      this(contactId, hashOf(contacts), contacts.toArray(new TdApi.Contact[0]));
+    }
+
+    private Entry (long contactId, long hash, TdApi.Contact[] contacts) {
+      this.contactId = contactId;
+      this.hash = hash;
+      this.contacts = contacts;
+      this.userIds = new long[contacts.length];
+      this.importerCounts = new int[contacts.length];
+    }
+  }
+
+  private static long hashOf (List<TdApi.Contact> contacts) {
+    long hash = 0xcbf29ce484222325L; // FNV-1a
+    for (TdApi.Contact contact : contacts) {
+      hash = hashOf(hash, contact.phoneNumber);
+      hash = hashOf(hash, contact.firstName);
+      hash = hashOf(hash, contact.lastName);
+    }
+    return hash;
+  }
+
+  private static long hashOf (long hash, @Nullable String str) {
+    if (str != null) {
+      final int length = str.length();
+      for (int i = 0; i < length; i++) {
+        hash = (hash ^ str.charAt(i)) * 0x100000001b3L;
+      }
+    }
+    // Separator, so that ("ab", "c") and ("a", "bc") differ
+    return (hash ^ 0xffff) * 0x100000001b3L;
+  }
+
+  /**
+   * Result of comparing a phonebook scan against the snapshot.
+   *
+   * Filled by {@link #add(Entry)} from a background thread while the phonebook is being read,
+   * and applied to the snapshot with {@link #commit} once TDLib accepted the changes.
+   */
+  final class Delta {
+    private final LongSet seenContactIds = new LongSet();
+    private final ArrayList<Entry> updatedEntries = new ArrayList<>();
+    private final LongSet removedContactIds = new LongSet();
+    private boolean forceImport;
+    private int addedCount, changedCount;
+
+    long maxModificationDate;
+    long contactCount;
+
+    private Delta () { }
+
+    void add (Entry entry) {
+      seenContactIds.add(entry.contactId);
+      Entry existing = get(entry.contactId);
+      if (existing == null) {
+        if (entry.contacts.length > 0) {
+          updatedEntries.add(entry);
+          addedCount++;
+        }
+      } else if (existing.hash != entry.hash) {
+        updatedEntries.add(entry);
+        changedCount++;
+      }
+    }
+
+    void finish () {
+      synchronized (TdlibContactSnapshot.this) {
+        for (Entry entry : entries.values()) {
+          if (!seenContactIds.has(entry.contactId)) {
+            removedContactIds.add(entry.contactId);
+          }
+        }
+      }
+      seenContactIds.clear();
+    }
+
+    boolean isEmpty () {
+      return updatedEntries.isEmpty() && removedContactIds.isEmpty();
+    }
+
+    boolean needForceImport () {
+      return forceImport;
+    }
+
+    /**
+     * @return Entries of the whole phonebook, in the order their contacts are sent to TDLib.
+     */
+    List<Entry> getEntriesToImport () {
+      synchronized (TdlibContactSnapshot.this) {
+        HashMap<Long, Entry> result = new HashMap<>(entries);
+        for (long contactId : removedContactIds.toArray()) {
+          result.remove(contactId);
+        }
+        for (Entry entry : updatedEntries) {
+          result.put(entry.contactId, entry);
+        }
+        return new ArrayList<>(result.values());
+      }
+    }
+
+    @Override
+    @NonNull
+    public String toString () {
+      return "added:" + addedCount + ", changed:" + changedCount + ", removed:" + removedContactIds.size() + ", force:" + forceImport;
+    }
+  }
+
+  private final Tdlib tdlib;
+  private final String storageKey;
+
+  private HashMap<Long, Entry> entries;
+  private long ownerUserId;
+  private long maxModificationDate;
+  private long contactCount;
+  private long lastFullImportDate;
+  private boolean needPublish;
+
+  TdlibContactSnapshot (Tdlib tdlib, String storageKey) {
+    this.tdlib = tdlib;
+    this.storageKey = storageKey;
+  }
+
+  private void loadIfNeeded () {
+    if (entries != null) {
+      return;
+    }
+    entries = new HashMap<>();
+    byte[] data = Settings.instance().pmc().getByteArray(storageKey);
+    if (data == null || data.length == 0) {
+      return;
+    }
+    try {
+      Blob blob = new Blob(data);
+      if (blob.readVarint() != VERSION) {
+        return;
+      }
+      ownerUserId = blob.readLong();
+      maxModificationDate = blob.readLong();
+      contactCount = blob.readLong();
+      lastFullImportDate = blob.readLong();
+      int entryCount = blob.readVarint();
+      for (int i = 0; i < entryCount; i++) {
+        long contactId = blob.readLong();
+        long hash = blob.readLong();
+        TdApi.Contact[] contacts = new TdApi.Contact[blob.readVarint()];
+        Entry entry = new Entry(contactId, hash, contacts);
+        for (int j = 0; j < contacts.length; j++) {
+          String phoneNumber = blob.readString();
+          String firstName = blob.readString();
+          String lastName = blob.readString();
+          contacts[j] = new TdApi.Contact(phoneNumber, firstName, StringUtils.isEmpty(lastName) ? null : lastName, null, 0);
+          entry.userIds[j] = blob.readLong();
+          entry.importerCounts[j] = blob.readVarint();
+        }
+        entries.put(contactId, entry);
+      }
+      long myUserId = tdlib.myUserId();
+      if (myUserId != 0 && myUserId != ownerUserId) {
+        Log.i(Log.TAG_CONTACT, "Contacts snapshot belongs to another user, ignoring");
+        clearImpl();
+        return;
+      }
+      needPublish = !entries.isEmpty();
+      Log.i(Log.TAG_CONTACT, "Restored contacts snapshot, entryCount:%d", entries.size());
+    } catch (Throwable t) {
+      Log.e(Log.TAG_CONTACT, "Unable to read contacts snapshot", t);
+      clearImpl();
+    }
+  }
+
+  private void save () {
+    int estimatedSize = 64;
+    for (Entry entry : entries.values()) {
+      estimatedSize += 8 + 8 + 1;
+      for (TdApi.Contact contact : entry.contacts) {
+        estimatedSize += StringUtils.length(contact.phoneNumber) + StringUtils.length(contact.firstName) + StringUtils.length(contact.lastName) + 3 + 8 + 4;
+      }
+    }
+    Blob blob = new Blob(estimatedSize);
+    blob.writeVarint(VERSION);
+    blob.writeLong(ownerUserId);
+    blob.writeLong(maxModificationDate);
+    blob.writeLong(contactCount);
+    blob.writeLong(lastFullImportDate);
+    blob.writeVarint(entries.size());
+    for (Entry entry : entries.values()) {
+      blob.writeLong(entry.contactId);
+      blob.writeLong(entry.hash);
+      blob.writeVarint(entry.contacts.length);
+      for (int i = 0; i < entry.contacts.length; i++) {
+        TdApi.Contact contact = entry.contacts[i];
+        blob.writeString(contact.phoneNumber);
+        blob.writeString(contact.firstName != null ? contact.firstName : "");
+        blob.writeString(contact.lastName != null ? contact.lastName : "");
+        blob.writeLong(entry.userIds[i]);
+        blob.writeVarint(entry.importerCounts[i]);
+      }
+    }
+    Settings.instance().pmc().putByteArray(storageKey, blob.toByteArray());
+  }
+
+  private void clearImpl () {
+    entries.clear();
+    ownerUserId = maxModificationDate = contactCount = lastFullImportDate = 0;
+    needPublish = false;
+  }
+
+  synchronized void clear () {
+    if (entries != null) {
+      clearImpl();
+    } else {
+      entries = new HashMap<>();
+    }
+    Settings.instance().remove(storageKey);
+  }
+
+  synchronized boolean isEmpty () {
+    loadIfNeeded();
+    return entries.isEmpty() && contactCount == 0;
+  }
+
+  synchronized long getMaxModificationDate () {
+    loadIfNeeded();
+    return maxModificationDate;
+  }
+
+  synchronized long getContactCount () {
+    loadIfNeeded();
+    return contactCount;
+  }
+
+  synchronized boolean needFullImport (long now, long interval) {
+    loadIfNeeded();
+    return lastFullImportDate == 0 || now < lastFullImportDate || now - lastFullImportDate >= interval;
+  }
+
+  @Nullable
+  synchronized Entry get (long contactId) {
+    loadIfNeeded();
+    return entries.get(contactId);
+  }
+
+  Delta newDelta (boolean forceImport) {
+    Delta delta = new Delta();
+    delta.forceImport = forceImport;
+    return delta;
+  }
+
+  /**
+   * Saves phonebook scan counters, when nothing has to be sent to TDLib.
+   *
+   * @return Whether unregistered contacts restored from disk still have to be shown.
+   */
+  synchronized boolean commitUnchanged (Delta delta) {
+    loadIfNeeded();
+    if (maxModificationDate != delta.maxModificationDate || contactCount != delta.contactCount) {
+      maxModificationDate = delta.maxModificationDate;
+      contactCount = delta.contactCount;
+      save();
+    }
+    return consumeNeedPublish();
+  }
+
+  /**
+   * Applies {@code delta} after TDLib returned {@code imported} for contacts of {@code importedEntries}.
+   */
+  synchronized void commit (Delta delta, List<Entry> importedEntries, TdApi.ImportedContacts imported, long now) {
+    loadIfNeeded();
+    int index = 0;
+    for (Entry entry : importedEntries) {
+      for (int i = 0; i < entry.contacts.length && index < imported.userIds.length; i++, index++) {
+        entry.userIds[i] = imported.userIds[index];
+        entry.importerCounts[i] = imported.importerCount[index];
+      }
+    }
+    for (long contactId : delta.removedContactIds.toArray()) {
+      entries.remove(contactId);
+    }
+    for (Entry entry : delta.updatedEntries) {
+      entries.put(entry.contactId, entry);
+    }
+    lastFullImportDate = now;
+    ownerUserId = tdlib.myUserId();
+    maxModificationDate = delta.maxModificationDate;
+    contactCount = delta.contactCount;
+    needPublish = false;
+    save();
+  }
+
+  synchronized boolean consumeNeedPublish () {
+    boolean needPublish = this.needPublish;
+    this.needPublish = false;
+    return needPublish;
+  }
+
+  /**
+   * @param out Receives imported contacts that aren't Telegram users yet, paired with their importer counts.
+   */
+  synchronized void getUnregisteredContacts (List<TdApi.Contact> out, List<Integer> outImporterCounts) {
+    loadIfNeeded();
+    for (Entry entry : entries.values()) {
+      for (int i = 0; i < entry.contacts.length; i++) {
+        if (entry.userIds[i] == 0) {
+          out.add(entry.contacts[i]);
+          outImporterCounts.add(entry.importerCounts[i]);
+        }
+      }
+    }
+  }
+}
@@ -14,25 +14,31 @@
  */
 package org.thunderdog.challegram.telegram;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 
 import org.drinkless.tdlib.TdApi;
-import org.thunderdog.challegram.util.BatchOperationHandler;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.tool.UI;
+import org.thunderdog.challegram.unsorted.Settings;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import me.vkryl.core.lambda.RunnableData;
 import me.vkryl.core.reference.ReferenceList;
 import me.vkryl.core.reference.ReferenceMap;
+import me.vkryl.core.util.Blob;
 
 abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends TdlibDataManager.AbstractEntry<Key, Value>> implements CleanupStartupDelegate {
   protected static abstract class AbstractEntry<K, V extends TdApi.Object> {
@@ -53,35 +59,254 @@ abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends
     void onEntryLoaded (TdlibDataManager<Key, Value, Result> context, Result entry);
   }
 
+  /**
+   * Serializes keys of loaded entries, so they can be requested right after the next launch.
+   */
+  protected interface SnapshotCodec<Key> {
+    void writeKey (Blob blob, Key key);
+    Key readKey (Blob blob);
+  }
+
+  public static final class Metrics {
+    /** Number of requests passed to {@link TdlibDataManager#requestData(int, Collection)}. */
+    public final int requestCount;
+    /** Total number of keys in those requests. */
+    public final int requestedKeyCount;
+    /** Largest number of keys in a single request. */
+    public final int maxBatchSize;
+    /** Total time between the moment the oldest key of a batch got postponed and delivery of the first entry of that batch. */
+    public final long firstRenderTimeMs;
+    /** Longest such time. */
+    public final long maxFirstRenderTimeMs;
+
+    private Metrics (int requestCount, int requestedKeyCount, int maxBatchSize, long firstRenderTimeMs, long maxFirstRenderTimeMs) {
+      this.requestCount = requestCount;
+      this.requestedKeyCount = requestedKeyCount;
+      this.maxBatchSize = maxBatchSize;
+      this.firstRenderTimeMs = firstRenderTimeMs;
+      this.maxFirstRenderTimeMs = maxFirstRenderTimeMs;
+    }
+
+    public float getAverageBatchSize () {
+      return requestCount > 0 ? (float) requestedKeyCount / (float) requestCount : 0;
+    }
+
+    public long getAverageFirstRenderTimeMs () {
+      return requestCount > 0 ? firstRenderTimeMs / requestCount : 0;
+    }
+
+    @Override
+    @NonNull
+    public String toString () {
+      return "requests:" + requestCount + ", keys:" + requestedKeyCount + ", batch:" + getAverageBatchSize() + " (max " + maxBatchSize + "), firstRender:" + getAverageFirstRenderTimeMs() + "ms (max " + maxFirstRenderTimeMs + "ms)";
+    }
+  }
+
+  private static final class Batch {
+    public final boolean isPipelined;
+    public final long postponedTime;
+    public int remainingKeyCount;
+    public boolean hasLoadedEntries;
+
+    public Batch (boolean isPipelined, long postponedTime, int keyCount) {
+      this.isPipelined = isPipelined;
+      this.postponedTime = postponedTime;
+      this.remainingKeyCount = keyCount;
+    }
+  }
+
   protected abstract Result newEntry (@NonNull Key key, @Nullable Value value, @Nullable TdApi.Error error);
 
+  private static final int MAX_IN_FLIGHT_BATCH_COUNT = 3;
+  private static final long MIN_BATCH_DELAY_MS = 4;
+  private static final long MAX_BATCH_DELAY_MS = 32;
+
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final double SNAPSHOT_SAVE_DELAY_SECONDS = 5.0;
+
   protected final Tdlib tdlib;
 
   private final Object dataLock = new Object();
-  private final Map<Key, Result> entries = new HashMap<>();
-  private final Set<Key> postponedKeys = new HashSet<>();
-  private final Set<Key> loadingKeys = new HashSet<>();
+  private final LinkedHashMap<Key, Result> entries; // Access order, eldest entry gets evicted first
+  private final Map<Key, Long> postponedKeys = new LinkedHashMap<>(); // Key -> time when it got postponed
+  private final Map<Key, Batch> loadingKeys = new HashMap<>();
   private final ReferenceMap<Key, Watcher<Key, Value, Result>> watcherReferences = new ReferenceMap<>(true);
   private final Map<Key, List<Watcher<Key, Value, Result>>> watchers = new LinkedHashMap<>();
 
   private int contextId;
 
-  protected TdlibDataManager (Tdlib tdlib) {
+  private final int maxBatchSize;
+  private final Handler batchHandler;
+  private int inFlightBatchCount;
+  private long batchDelayMs;
+  private boolean flushScheduled;
+
+  private int requestCount, requestedKeyCount, maxRequestedBatchSize;
+  private long firstRenderTimeMs, maxFirstRenderTimeMs;
+
+  private final @Nullable String snapshotKey;
+  private final @Nullable SnapshotCodec<Key> snapshotCodec;
+  private final int maxSnapshotSize;
+  private int restoredContextId = -1;
+  private boolean snapshotSaveScheduled;
+
+  protected TdlibDataManager (Tdlib tdlib, int maxEntryCount, int maxBatchSize) {
+    this(tdlib, maxEntryCount, maxBatchSize, null, null, 0);
+  }
+
+  /**
+   * @param maxEntryCount Maximum number of entries kept in memory. Least recently used ones get evicted and re-requested on demand.
+   * @param maxBatchSize Maximum number of keys passed to a single {@link #requestData(int, Collection)} call.
+   * @param snapshotName Name of the per-account snapshot of recently used keys, which get requested as soon as account is ready.
+   * @param maxSnapshotSize Maximum number of keys in the snapshot.
+   */
+  protected TdlibDataManager (Tdlib tdlib, int maxEntryCount, int maxBatchSize, @Nullable String snapshotName, @Nullable SnapshotCodec<Key> snapshotCodec, int maxSnapshotSize) {
     this.tdlib = tdlib;
+    this.maxBatchSize = maxBatchSize;
+    this.batchHandler = new Handler(Looper.getMainLooper(), msg -> {
+      flushPostponedRequests();
+      return true;
+    });
+    this.entries = new LinkedHashMap<Key, Result>(16, .75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<Key, Result> eldest) {
+        return size() > maxEntryCount;
+      }
+    };
+    if (snapshotName != null && snapshotCodec != null && maxSnapshotSize > 0) {
+      this.snapshotKey = tdlib.id() != 0 ? snapshotName + "_" + tdlib.id() : snapshotName;
+      this.snapshotCodec = snapshotCodec;
+      this.maxSnapshotSize = maxSnapshotSize;
+    } else {
+      this.snapshotKey = null;
+      this.snapshotCodec = null;
+      this.maxSnapshotSize = 0;
+    }
     tdlib.listeners().addCleanupListener(this);
   }
 
   // Listeners
 
+  @Override
+  public final void onPerformStartup (boolean isAfterRestart) {
+    restoreSnapshot();
+  }
+
+  @Override
+  public final void onPerformUserCleanup () {
+    if (snapshotKey != null) {
+      synchronized (dataLock) {
+        restoredContextId = -1;
+      }
+      Settings.instance().remove(snapshotKey);
+    }
+  }
+
   @Override
   public final void onPerformRestart () {
     synchronized (dataLock) {
       contextId++;
       entries.clear();
+      // Responses to requests sent before the restart are ignored, so keys have to be requested again
+      loadingKeys.clear();
+      inFlightBatchCount = 0;
+      batchDelayMs = 0;
       // TODO cancel all pending requests
     }
   }
 
+  // Snapshot
+
+  private void restoreSnapshot () {
+    if (snapshotKey == null || snapshotCodec == null) {
+      return;
+    }
+    final int contextId;
+    synchronized (dataLock) {
+      if (restoredContextId == this.contextId) {
+        return;
+      }
+      contextId = restoredContextId = this.contextId;
+    }
+    byte[] data = Settings.instance().pmc().getByteArray(snapshotKey);
+    if (data == null || data.length == 0) {
+      return;
+    }
+    final List<Key> keys;
+    try {
+      Blob blob = new Blob(data);
+      if (blob.readVarint() != SNAPSHOT_VERSION) {
+        Settings.instance().remove(snapshotKey);
+        return;
+      }
+      int keyCount = Math.min(blob.readVarint(), maxSnapshotSize);
+      keys = new ArrayList<>(keyCount);
+      for (int i = 0; i < keyCount; i++) {
+        keys.add(snapshotCodec.readKey(blob));
+      }
+    } catch (Throwable t) {
+      Log.e("Unable to read data snapshot, key:%s", t, snapshotKey);
+      Settings.instance().remove(snapshotKey);
+      return;
+    }
+    if (keys.isEmpty()) {
+      return;
+    }
+    Log.i("Restoring data snapshot, key:%s, keyCount:%d", snapshotKey, keys.size());
+    tdlib.ui().post(() -> {
+      synchronized (dataLock) {
+        if (this.contextId != contextId) {
+          return;
+        }
+        for (Key key : keys) {
+          if (!entries.containsKey(key) && !loadingKeys.containsKey(key) && !postponedKeys.containsKey(key)) {
+            postponedKeys.put(key, SystemClock.uptimeMillis());
+          }
+        }
+      }
+      performPostponedRequests();
+    });
+  }
+
+  private void scheduleSnapshotSave () {
+    synchronized (dataLock) {
+      if (snapshotSaveScheduled) {
+        return;
+      }
+      snapshotSaveScheduled = true;
+    }
+    tdlib.runOnTdlibThread(this::saveSnapshot, SNAPSHOT_SAVE_DELAY_SECONDS, false);
+  }
+
+  private void saveSnapshot () {
+    if (snapshotKey == null || snapshotCodec == null) {
+      return;
+    }
+    final List<Key> keys;
+    synchronized (dataLock) {
+      snapshotSaveScheduled = false;
+      keys = new ArrayList<>(Math.min(entries.size(), maxSnapshotSize));
+      int skipCount = entries.size() - maxSnapshotSize;
+      for (Result entry : entries.values()) {
+        // Least recently used entries go first, so the ones that were used last survive
+        if (skipCount > 0) {
+          skipCount--;
+          continue;
+        }
+        if (entry.value != null) {
+          keys.add(entry.key);
+        }
+      }
+    }
+    Blob blob = new Blob(8 + keys.size() * 9);
+    blob.writeVarint(SNAPSHOT_VERSION);
+    blob.writeVarint(keys.size());
+    for (Key key : keys) {
+      snapshotCodec.writeKey(blob, key);
+    }
+    Settings.instance().pmc().putByteArray(snapshotKey, blob.toByteArray());
+  }
+
   // Impl
 
   @UiThread
@@ -123,8 +348,8 @@ abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends
       if (entry != null) {
         return entry;
       }
-      if (!loadingKeys.contains(key)) {
-        postponedKeys.add(key);
+      if (!loadingKeys.containsKey(key) && !postponedKeys.containsKey(key)) {
+        postponedKeys.put(key, SystemClock.uptimeMillis());
       }
       if (watcher != null) {
         if (strongReference) {
@@ -152,40 +377,143 @@ abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends
     watcherReferences.remove(key, watcher);
   }
 
-  private final BatchOperationHandler delayedHandler = new BatchOperationHandler(this::performPostponedRequests, 10);
+  // Batching
+
+  public final Metrics getMetrics () {
+    synchronized (dataLock) {
+      return new Metrics(requestCount, requestedKeyCount, maxRequestedBatchSize, firstRenderTimeMs, maxFirstRenderTimeMs);
+    }
+  }
 
   @UiThread
   public void performPostponedRequest (Key key) {
     int contextId;
     synchronized (dataLock) {
-      if (postponedKeys.isEmpty() || !postponedKeys.remove(key)) {
+      Long postponedTime = postponedKeys.isEmpty() ? null : postponedKeys.remove(key);
+      if (postponedTime == null) {
         return;
       }
-      loadingKeys.add(key);
+      loadingKeys.put(key, new Batch(false, postponedTime, 1));
+      trackRequest(1);
       contextId = this.contextId;
     }
-    requestData(contextId, Set.of(key));
+    requestData(contextId, List.of(key));
   }
 
+  /**
+   * Requests postponed keys on the next loop iteration, or joins them to the batch that is already being collected.
+   */
   @UiThread
   public void performPostponedRequestsDelayed () {
-    delayedHandler.performOperation();
+    schedulePostponedRequests(false);
   }
 
+  /**
+   * Requests postponed keys right away when there are no requests in flight.
+   * Otherwise keys get collected into the next batch for a short window, which grows while new keys keep arriving.
+   */
   @UiThread
   public void performPostponedRequests () {
-    final Set<Key> keysToRequest;
-    int contextId;
+    schedulePostponedRequests(UI.inUiThread());
+  }
+
+  private void schedulePostponedRequests (boolean allowImmediate) {
+    boolean flushNow = false;
     synchronized (dataLock) {
-      if (postponedKeys.isEmpty()) {
+      if (postponedKeys.isEmpty() || inFlightBatchCount >= MAX_IN_FLIGHT_BATCH_COUNT) {
+        // Pending keys will be requested once any of in-flight batches is complete
         return;
       }
-      loadingKeys.addAll(postponedKeys);
-      keysToRequest = new HashSet<>(postponedKeys);
-      postponedKeys.clear();
+      long delayMs;
+      if (inFlightBatchCount == 0 && !flushScheduled) {
+        // Idle: don't make the first visible item wait
+        batchDelayMs = 0;
+        delayMs = 0;
+      } else if (postponedKeys.size() >= maxBatchSize) {
+        // Batch is full, no reason to wait for more keys
+        delayMs = 0;
+      } else if (!flushScheduled) {
+        batchDelayMs = Math.max(MIN_BATCH_DELAY_MS, Math.min(MAX_BATCH_DELAY_MS, batchDelayMs * 2));
+        delayMs = batchDelayMs;
+      } else {
+        return;
+      }
+      if (delayMs == 0 && allowImmediate) {
+        if (flushScheduled) {
+          batchHandler.removeMessages(0);
+          flushScheduled = false;
+        }
+        flushNow = true;
+      } else {
+        if (flushScheduled) {
+          batchHandler.removeMessages(0);
+        }
+        flushScheduled = true;
+        batchHandler.sendEmptyMessageDelayed(0, delayMs);
+      }
+    }
+    if (flushNow) {
+      flushPostponedRequests();
+    }
+  }
+
+  @UiThread
+  private void flushPostponedRequests () {
+    final List<List<Key>> batches = new ArrayList<>();
+    final int contextId, inFlightBatchCount;
+    synchronized (dataLock) {
+      flushScheduled = false;
       contextId = this.contextId;
+      while (!postponedKeys.isEmpty() && this.inFlightBatchCount < MAX_IN_FLIGHT_BATCH_COUNT) {
+        final int batchSize = Math.min(postponedKeys.size(), maxBatchSize);
+        final List<Key> keys = new ArrayList<>(batchSize);
+        long postponedTime = Long.MAX_VALUE;
+        Iterator<Map.Entry<Key, Long>> itr = postponedKeys.entrySet().iterator();
+        while (keys.size() < batchSize) {
+          Map.Entry<Key, Long> postponedKey = itr.next();
+          itr.remove();
+          keys.add(postponedKey.getKey());
+          postponedTime = Math.min(postponedTime, postponedKey.getValue());
+        }
+        Batch batch = new Batch(true, postponedTime, batchSize);
+        for (Key key : keys) {
+          loadingKeys.put(key, batch);
+        }
+        this.inFlightBatchCount++;
+        trackRequest(batchSize);
+        batches.add(keys);
+      }
+      inFlightBatchCount = this.inFlightBatchCount;
+    }
+    if (Log.isEnabled(Log.TAG_EMOJI) && !batches.isEmpty()) {
+      Log.v(Log.TAG_EMOJI, "%s: sending %d batches, first:%d keys, inFlight:%d", getClass().getSimpleName(), batches.size(), batches.get(0).size(), inFlightBatchCount);
+    }
+    for (List<Key> keys : batches) {
+      requestData(contextId, keys);
+    }
+  }
+
+  private void trackRequest (int keyCount) {
+    requestCount++;
+    requestedKeyCount += keyCount;
+    maxRequestedBatchSize = Math.max(maxRequestedBatchSize, keyCount);
+  }
+
+  /**
+   * @return true if there are postponed keys that were waiting for this batch to finish
+   */
+  private boolean onBatchEntryLoaded (Batch batch) {
+    if (!batch.hasLoadedEntries) {
+      batch.hasLoadedEntries = true;
+      long timeMs = SystemClock.uptimeMillis() - batch.postponedTime;
+      firstRenderTimeMs += timeMs;
+      maxFirstRenderTimeMs = Math.max(maxFirstRenderTimeMs, timeMs);
+    }
+    if (--batch.remainingKeyCount == 0 && batch.isPipelined) {
+      inFlightBatchCount--;
+      return !postponedKeys.isEmpty();
     }
-    requestData(contextId, keysToRequest);
+    return false;
   }
 
   protected final boolean isCancelled (int contextId) {
@@ -220,6 +548,9 @@ abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends
       entries.put(entry.key, entry);
       watcherList = watchers.remove(entry.key);
     }
+    if (snapshotKey != null && entry.value != null) {
+      scheduleSnapshotSave();
+    }
     ReferenceList<Watcher<Key, Value, Result>> referenceList = watcherReferences.removeAll(entry.key);
     if (referenceList != null) {
       for (Watcher<Key, Value, Result> watcher : referenceList) {
@@ -232,10 +563,17 @@ abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends
         watcher.onEntryLoaded(this, entry);
       }
     }
+    boolean needFlush = false;
     synchronized (dataLock) {
       if (this.contextId != contextId)
         return;
-      loadingKeys.remove(entry.key);
+      Batch batch = loadingKeys.remove(entry.key);
+      if (batch != null) {
+        needFlush = onBatchEntryLoaded(batch);
+      }
+    }
+    if (needFlush) {
+      schedulePostponedRequests(false);
     }
   }
 
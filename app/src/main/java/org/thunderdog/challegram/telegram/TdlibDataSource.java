@@ -13,6 +13,7 @@
 package org.thunderdog.challegram.telegram;
 
 import android.net.Uri;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -22,16 +23,20 @@ import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.DataSpec;
 
 import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.U;
 import org.thunderdog.challegram.data.TD;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
 import me.vkryl.td.Td;
 
 public final class TdlibDataSource extends BaseDataSource {
@@ -91,16 +96,149 @@ public final class TdlibDataSource extends BaseDataSource {
     }
   }
 
+  // Metrics
+
+  /**
+   * Streaming metrics accumulated over all {@link TdlibDataSource} sessions since process start.
+   */
+  public static final class Metrics {
+    /** Number of opened data sources that returned at least one byte. */
+    public final int sessionCount;
+    /** Total time between {@link #open(DataSpec)} and the first returned byte. */
+    public final long startupTimeMs;
+    /** Number of reads that had to wait for TDLib after the first byte has been returned. */
+    public final int rebufferCount;
+    /** Total time spent in such waits. */
+    public final long rebufferTimeMs;
+    /** Bytes downloaded ahead of the read position, that were abandoned because of a seek or close. */
+    public final long wastedBytes;
+    /** Bytes returned to the player. */
+    public final long readBytes;
+
+    private Metrics (int sessionCount, long startupTimeMs, int rebufferCount, long rebufferTimeMs, long wastedBytes, long readBytes) {
+      this.sessionCount = sessionCount;
+      this.startupTimeMs = startupTimeMs;
+      this.rebufferCount = rebufferCount;
+      this.rebufferTimeMs = rebufferTimeMs;
+      this.wastedBytes = wastedBytes;
+      this.readBytes = readBytes;
+    }
+
+    public long getAverageStartupTimeMs () {
+      return sessionCount > 0 ? startupTimeMs / sessionCount : 0;
+    }
+
+    @Override
+    @NonNull
+    public String toString () {
+      return "sessions:" + sessionCount + ", startup:" + getAverageStartupTimeMs() + "ms, rebuffers:" + rebufferCount + " (" + rebufferTimeMs + "ms), wasted:" + wastedBytes + ", read:" + readBytes;
+    }
+  }
+
+  private static final Object metricsLock = new Object();
+  private static int totalSessionCount, totalRebufferCount;
+  private static long totalStartupTimeMs, totalRebufferTimeMs, totalWastedBytes, totalReadBytes;
+
+  public static Metrics getMetrics () {
+    synchronized (metricsLock) {
+      return new Metrics(totalSessionCount, totalStartupTimeMs, totalRebufferCount, totalRebufferTimeMs, totalWastedBytes, totalReadBytes);
+    }
+  }
+
+  // Read-ahead
+
+  private static final long MIN_READ_AHEAD = ByteUnit.KIB.toBytes(512);
+  private static final long DEFAULT_READ_AHEAD = ByteUnit.MIB.toBytes(2);
+  private static final long MAX_READ_AHEAD = ByteUnit.MIB.toBytes(16);
+  private static final long READ_AHEAD_DURATION_MS = 10_000;
+  private static final long RATE_SAMPLE_DURATION_MS = 1_000;
+  private static final int PRIORITY_URGENT = 32;
+
+  /**
+   * Keeps TDLib downloading a window of bytes right after the read position.
+   *
+   * The window is sized by the rate at which the player consumes bytes,
+   * which over wall time approaches the media bitrate once the player buffer is full.
+   * It is moved when the player seeks, and extended once half of it has been read,
+   * so TDLib neither downloads far beyond what is played nor falls behind.
+   */
+  private static final class ReadAhead {
+    private long requestedOffset = -1, requestedEnd;
+    private boolean requestedUrgent;
+
+    private double bytesPerSecond;
+    private long sampleStartTime, sampleBytes;
+
+    void onBytesRead (long now, int count) {
+      if (sampleStartTime == 0) {
+        sampleStartTime = now;
+      }
+      sampleBytes += count;
+      long elapsed = now - sampleStartTime;
+      if (elapsed >= RATE_SAMPLE_DURATION_MS) {
+        double rate = (double) sampleBytes * 1000.0 / (double) elapsed;
+        bytesPerSecond = bytesPerSecond == 0 ? rate : bytesPerSecond * .7 + rate * .3;
+        sampleStartTime = now;
+        sampleBytes = 0;
+      }
+    }
+
+    long getWindowSize () {
+      if (bytesPerSecond == 0) {
+        return DEFAULT_READ_AHEAD;
+      }
+      return Math.max(MIN_READ_AHEAD, Math.min(MAX_READ_AHEAD, (long) (bytesPerSecond * READ_AHEAD_DURATION_MS / 1000.0)));
+    }
+
+    boolean isWithinWindow (long offset) {
+      return requestedOffset != -1 && offset >= requestedOffset && offset < requestedEnd;
+    }
+
+    /**
+     * @return Whether a new range has to be requested for a read at {@code offset}.
+     */
+    boolean needRequest (long offset, long fileSize, boolean urgent) {
+      if (!isWithinWindow(offset)) {
+        return true;
+      }
+      if (urgent && !requestedUrgent) {
+        return true;
+      }
+      if (fileSize != 0 && requestedEnd >= fileSize) {
+        return false;
+      }
+      return requestedEnd - offset < (requestedEnd - requestedOffset) / 2;
+    }
+
+    void onRequested (long offset, long limit, boolean urgent) {
+      requestedOffset = offset;
+      requestedEnd = offset + limit;
+      requestedUrgent = urgent;
+    }
+
+    void reset () {
+      requestedOffset = -1;
+      requestedEnd = 0;
+      requestedUrgent = false;
+    }
+  }
+
   private Uri uri;
   private long bytesRead;
   private Tdlib tdlib;
   private final Object fileLock = new Object();
   private TdApi.File file;
+  private int fileVersion;
 
   private final FileUpdateListener listener = this::processUpdate;
 
   private boolean referenceAcquired;
 
+  private final ReadAhead readAhead = new ReadAhead();
+  private long openTime, firstByteTime;
+  private int rebufferCount;
+  private long rebufferTimeMs, wastedBytes, sessionReadBytes;
+
   public TdlibDataSource () {
     super(true);
   }
@@ -125,6 +263,12 @@ public final class TdlibDataSource extends BaseDataSource {
     this.uri = uri;
     this.bytesRead = dataSpec.position;
     this.tdlib = TdlibManager.getTdlib(accountId);
+    this.openTime = SystemClock.uptimeMillis();
+    this.firstByteTime = 0;
+    this.rebufferCount = 0;
+    this.rebufferTimeMs = this.wastedBytes = this.sessionReadBytes = 0;
+    this.availableStart = this.availableEnd = 0;
+    this.readAhead.reset();
 
     final TdApi.Function<?> function = !StringUtils.isEmpty(remoteId) ? new TdApi.GetRemoteFile(remoteId, null) : new TdApi.GetFile(fileId);
 
@@ -171,18 +315,22 @@ public final class TdlibDataSource extends BaseDataSource {
 
   @TdlibThread
   private void processUpdate (TdApi.UpdateFile file) {
-    TdApi.File currentFile;
     synchronized (fileLock) {
-      currentFile = this.file;
-      boolean notify = currentFile != null && currentFile.id == file.file.id && Td.copyTo(file.file, currentFile);
-      if (notify && this.latch != null) {
-        this.latch.countDown();
-        this.latch = null;
+      TdApi.File currentFile = this.file;
+      if (currentFile != null && currentFile.id == file.file.id && Td.copyTo(file.file, currentFile)) {
+        fileVersion++;
+        fileLock.notifyAll();
       }
     }
   }
 
+  // Range [availableStart, availableEnd) known to be on disk, so reads inside it don't query TDLib
+  private long availableStart, availableEnd;
+
   private long getAvailableSize (TdApi.File file, long offset, int length) {
+    if (offset >= availableStart && offset < availableEnd) {
+      return Math.min(length, availableEnd - offset);
+    }
     long available;
     if (file.local.isDownloadingCompleted) {
       available = file.local.downloadedSize - offset;
@@ -196,12 +344,18 @@ public final class TdlibDataSource extends BaseDataSource {
         return 0;
       }
     }
+    if (available > 0) {
+      availableStart = offset;
+      availableEnd = offset + available;
+    }
     return Math.max(0, Math.min(length, available));
   }
 
   private final TdApi.File localFile = new TdApi.File(0, 0, 0, new TdApi.LocalFile(), new TdApi.RemoteFile());
-  private CountDownLatch latch;
   private RandomAccessFile openFile;
+  private FileChannel openChannel;
+  private String openPath;
+  private ByteBuffer wrappedBuffer;
 
   private boolean acquireReference (TdApi.File file, long offset) {
     if (!referenceAcquired && file.local.canBeDownloaded) {
@@ -219,32 +373,90 @@ public final class TdlibDataSource extends BaseDataSource {
   private void releaseReference (TdApi.File file) {
     if (referenceAcquired) {
       tdlib.files().removeCloudReference(file, listener);
+      referenceAcquired = false;
+      readAhead.reset();
     }
   }
 
+  private static long getDownloadedAhead (TdApi.File file, long offset) {
+    long prefixEnd = file.local.downloadOffset + file.local.downloadedPrefixSize;
+    if (file.local.isDownloadingCompleted || offset < file.local.downloadOffset || offset >= prefixEnd) {
+      return 0;
+    }
+    return prefixEnd - offset;
+  }
+
+  private void requestReadAhead (TdApi.File file, long offset, boolean urgent) {
+    if (!referenceAcquired || file.local.isDownloadingCompleted || !readAhead.needRequest(offset, file.size, urgent)) {
+      return;
+    }
+    if (!readAhead.isWithinWindow(offset) && readAhead.requestedOffset != -1) {
+      // Seek: bytes downloaded beyond the last read position won't be read
+      wastedBytes += getDownloadedAhead(file, bytesReadBeforeSeek(offset));
+    }
+    long limit = readAhead.getWindowSize();
+    if (file.size != 0) {
+      limit = Math.min(limit, file.size - offset);
+    }
+    if (limit <= 0) {
+      return;
+    }
+    if (tdlib.files().prioritizeCloudReference(file, listener, offset, limit, urgent ? PRIORITY_URGENT : TdlibFilesManager.CLOUD_PRIORITY)) {
+      readAhead.onRequested(offset, limit, urgent);
+    }
+  }
+
+  private long lastReadEnd = -1;
+
+  private long bytesReadBeforeSeek (long offset) {
+    return lastReadEnd != -1 ? lastReadEnd : offset;
+  }
+
+  private int readFromDisk (TdApi.File file, byte[] buffer, int bufferOffset, long offset, int length) throws IOException {
+    synchronized (fileLock) {
+      if (openFile == null || !StringUtils.equalsOrBothEmpty(openPath, file.local.path)) {
+        U.closeFile(openFile);
+        openFile = null;
+        openChannel = null;
+        openFile = new RandomAccessFile(file.local.path, "r");
+        openChannel = openFile.getChannel();
+        openPath = file.local.path;
+      }
+    }
+    if (wrappedBuffer == null || wrappedBuffer.array() != buffer) {
+      wrappedBuffer = ByteBuffer.wrap(buffer);
+    }
+    wrappedBuffer.clear();
+    wrappedBuffer.position(bufferOffset);
+    wrappedBuffer.limit(bufferOffset + length);
+    // Positional read, so the channel doesn't keep its own offset in sync with bytesRead
+    int readCount = openChannel.read(wrappedBuffer, offset);
+    if (readCount <= 0) {
+      throw new IOException("No bytes at " + offset + ", path: " + file.local.path);
+    }
+    return readCount;
+  }
+
   @Override
   public int read (@NonNull byte[] buffer, int bufferOffset, int readLength) throws TdlibDataSourceException {
     if (readLength == 0) {
       return 0;
     }
+    long waitStartTime = 0;
     try {
       boolean first = true;
       do {
         final TdApi.File file;
-        final CountDownLatch latch;
+        final int version;
         synchronized (fileLock) {
           if (this.file != null) {
             Td.copyTo(this.file, localFile);
             this.localFile.id = this.file.id;
             file = localFile;
-            if (this.latch != null) {
-              latch = this.latch;
-            } else {
-              this.latch = latch = new CountDownLatch(1);
-            }
+            version = fileVersion;
           } else {
             file = null;
-            latch = null;
+            version = 0;
           }
         }
         if (file == null)
@@ -262,28 +474,27 @@ public final class TdlibDataSource extends BaseDataSource {
           }
         }
         long available = getAvailableSize(file, offset, readLength);
+        requestReadAhead(file, offset, available == 0);
         if (available == 0) {
-          latch.await();
+          if (waitStartTime == 0) {
+            waitStartTime = SystemClock.uptimeMillis();
+          }
+          awaitUpdate(version);
           continue;
         }
         try {
-          boolean opened = false;
-          synchronized (fileLock) {
-            if (openFile == null) {
-              openFile = new RandomAccessFile(file.local.path, "r");
-              opened = true;
-            }
-          }
-          if (opened && offset > 0) {
-            openFile.seek(offset);
-          }
-          int readCount = openFile.read(buffer, bufferOffset, available > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) available);
+          int readCount = readFromDisk(file, buffer, bufferOffset, offset, available > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) available);
+          onBytesRead(offset, readCount, waitStartTime);
           bytesTransferred(readCount);
           bytesRead += readCount;
           return readCount;
         } catch (IOException e) {
+          availableStart = availableEnd = 0;
           if (acquireReference(file, offset)) {
-            latch.await();
+            if (waitStartTime == 0) {
+              waitStartTime = SystemClock.uptimeMillis();
+            }
+            awaitUpdate(version);
           } else {
             throw new TdlibDataSourceException(e);
           }
@@ -294,6 +505,27 @@ public final class TdlibDataSource extends BaseDataSource {
     }
   }
 
+  private void awaitUpdate (int version) throws InterruptedException {
+    synchronized (fileLock) {
+      while (this.file != null && fileVersion == version) {
+        fileLock.wait();
+      }
+    }
+  }
+
+  private void onBytesRead (long offset, int readCount, long waitStartTime) {
+    final long now = SystemClock.uptimeMillis();
+    if (firstByteTime == 0) {
+      firstByteTime = now;
+    } else if (waitStartTime != 0) {
+      rebufferCount++;
+      rebufferTimeMs += now - waitStartTime;
+    }
+    sessionReadBytes += readCount;
+    lastReadEnd = offset + readCount;
+    readAhead.onBytesRead(now, readCount);
+  }
+
   @Nullable
   @Override
   public Uri getUri () {
@@ -307,23 +539,44 @@ public final class TdlibDataSource extends BaseDataSource {
     synchronized (fileLock) {
       file = this.file;
       this.file = null;
-      if (this.latch != null) {
-        this.latch.countDown();
-        this.latch = null;
-      }
+      fileLock.notifyAll();
       if (this.openFile != null) {
         U.closeFile(this.openFile);
         this.openFile = null;
+        this.openChannel = null;
+        this.openPath = null;
       }
     }
     if (tdlib != null && file != null) {
       if (referenceAcquired) {
+        wastedBytes += getDownloadedAhead(file, bytesReadBeforeSeek(bytesRead));
         tdlib.files().removeCloudReference(file, listener);
         referenceAcquired = false;
       }
       tdlib.listeners().removeFileListener(file.id, listener);
       transferEnded();
+      onSessionEnded(file);
     }
+    readAhead.reset();
+    lastReadEnd = -1;
     tdlib = null;
   }
+
+  private void onSessionEnded (TdApi.File file) {
+    if (firstByteTime == 0) {
+      return;
+    }
+    final long startupTimeMs = firstByteTime - openTime;
+    synchronized (metricsLock) {
+      totalSessionCount++;
+      totalStartupTimeMs += startupTimeMs;
+      totalRebufferCount += rebufferCount;
+      totalRebufferTimeMs += rebufferTimeMs;
+      totalWastedBytes += wastedBytes;
+      totalReadBytes += sessionReadBytes;
+    }
+    if (Log.isEnabled(Log.TAG_PLAYER)) {
+      Log.i(Log.TAG_PLAYER, "TdlibDataSource closed, fileId:%d, startup:%dms, rebuffers:%d (%dms), wasted:%d, read:%d", file.id, startupTimeMs, rebufferCount, rebufferTimeMs, wastedBytes, sessionReadBytes);
+    }
+  }
 }
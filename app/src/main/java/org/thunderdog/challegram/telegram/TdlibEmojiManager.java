@@ -22,6 +22,7 @@ import org.drinkless.tdlib.TdApi;
 import java.util.Collection;
 
 import me.vkryl.core.collection.LongSet;
+import me.vkryl.core.util.Blob;
 import me.vkryl.td.Td;
 import me.vkryl.td.TdConstants;
 
@@ -56,8 +57,23 @@ public final class TdlibEmojiManager extends TdlibDataManager<Long, TdApi.Sticke
     }
   }
 
+  private static final int MAX_ENTRY_COUNT = 4096;
+  private static final int MAX_SNAPSHOT_SIZE = 600;
+
+  private static final SnapshotCodec<Long> SNAPSHOT_CODEC = new SnapshotCodec<Long>() {
+    @Override
+    public void writeKey (Blob blob, Long customEmojiId) {
+      blob.writeLong(customEmojiId);
+    }
+
+    @Override
+    public Long readKey (Blob blob) {
+      return blob.readLong();
+    }
+  };
+
   public TdlibEmojiManager (Tdlib tdlib) {
-    super(tdlib);
+    super(tdlib, MAX_ENTRY_COUNT, TdConstants.MAX_CUSTOM_EMOJI_COUNT_PER_REQUEST, "custom_emoji_snapshot", SNAPSHOT_CODEC, MAX_SNAPSHOT_SIZE);
   }
 
   @Override
@@ -30,8 +30,11 @@ public final class TdlibEmojiReactionsManager extends TdlibDataManager<String, T
 
   public interface Watcher extends TdlibDataManager.Watcher<String, TdApi.EmojiReaction, TdlibEmojiReactionsManager.Entry> { }
 
+  private static final int MAX_ENTRY_COUNT = 256;
+  private static final int MAX_BATCH_SIZE = 20;
+
   public TdlibEmojiReactionsManager (Tdlib tdlib) {
-    super(tdlib);
+    super(tdlib, MAX_ENTRY_COUNT, MAX_BATCH_SIZE);
   }
 
   @Override
@@ -260,7 +260,7 @@ public class TdlibFilesManager implements GlobalConnectionListener {
           TdApi.File file = (TdApi.File) object;
           synchronized (activeCloudReferences) {
             int status = downloadingCloudFiles.get(file.id);
-            if (status == 1) {
+            if (status != CLOUD_DOWNLOAD_NONE) {
               List<FileUpdateListener> references = activeCloudReferences.get(file.id);
               if (references != null) {
                 final int size = references.size();
@@ -285,6 +285,12 @@ public class TdlibFilesManager implements GlobalConnectionListener {
 
   public static final int CLOUD_PRIORITY = 3;
 
+  // downloadingCloudFiles values
+  private static final int CLOUD_DOWNLOAD_NONE = 0;
+  private static final int CLOUD_DOWNLOAD_STARTED = 1; // Started by a cloud reference, can be range-limited
+  private static final int CLOUD_DOWNLOAD_REQUESTED_IN_FULL = 2; // Started by a cloud reference, then requested by user
+  private static final int CLOUD_DOWNLOAD_CANCELLED = 3; // Started by a cloud reference, then cancelled by user or system
+
   public void seekCloudReference (TdApi.File file, FileUpdateListener source, long offset) {
     synchronized (activeCloudReferences) {
       if (TD.withinDistance(file, offset)) {
@@ -306,6 +312,46 @@ public class TdlibFilesManager implements GlobalConnectionListener {
     }
   }
 
+  /**
+   * Moves download of a file referenced by {@code source} to the range that is about to be read.
+   *
+   * {@code limit} is ignored when the download wasn't started by a cloud reference,
+   * or when the file has other readers, so that they still receive the whole file.
+   *
+   * @return Whether the request has been sent.
+   */
+  public boolean prioritizeCloudReference (TdApi.File file, FileUpdateListener source, long offset, long limit, int priority) {
+    synchronized (activeCloudReferences) {
+      List<FileUpdateListener> references = activeCloudReferences.get(file.id);
+      if (references == null || !references.contains(source)) {
+        return false;
+      }
+      synchronized (this) {
+        final int pendingOperation = pendingOperations.get(file.id);
+        int cloudDownload = downloadingCloudFiles.get(file.id);
+        if (pendingOperation != OPERATION_DOWNLOAD && !(pendingOperation == OPERATION_NONE && cloudDownload != CLOUD_DOWNLOAD_NONE && !manuallyCancelledFiles.contains(file.id))) {
+          return false;
+        }
+        if (pendingOperation == OPERATION_NONE && cloudDownload == CLOUD_DOWNLOAD_CANCELLED) {
+          // Download has been cancelled, but not by user, e.g. by Data Saver
+          cloudDownload = CLOUD_DOWNLOAD_STARTED;
+          downloadingCloudFiles.put(file.id, cloudDownload);
+        }
+        if (cloudDownload != CLOUD_DOWNLOAD_STARTED || references.size() > 1) {
+          limit = 0;
+        }
+        if (pendingOperation == OPERATION_NONE) {
+          downloadFileInternal(file.id, priority, offset, limit, null);
+          return true;
+        }
+      }
+      if (!Config.DEBUG_DISABLE_DOWNLOAD) {
+        tdlib.client().send(new TdApi.DownloadFile(file.id, priority, offset, limit, false), filesHandler);
+      }
+      return true;
+    }
+  }
+
   public void addCloudReference (TdApi.File file, FileUpdateListener source, boolean allowDuplicates) {
     addCloudReference(file, 0, source, allowDuplicates, false);
   }
@@ -330,7 +376,7 @@ public class TdlibFilesManager implements GlobalConnectionListener {
         synchronized (this) {
           int pendingOperation = pendingOperations.get(file.id);
           if (pendingOperation == OPERATION_NONE) {
-            downloadingCloudFiles.put(file.id, 1);
+            downloadingCloudFiles.put(file.id, CLOUD_DOWNLOAD_STARTED);
             downloadFileInternal(file.id, CLOUD_PRIORITY, offset, 0, null);
           }
         }
@@ -357,13 +403,16 @@ public class TdlibFilesManager implements GlobalConnectionListener {
         activeCloudReferences.removeAt(index);
         synchronized (this) {
           int i = downloadingCloudFiles.indexOfKey(file.id);
-          boolean hasStartedDownloadByCloud = i >= 0;
-          if (hasStartedDownloadByCloud) {
+          boolean hasStartedDownloadByCloud = i >= 0 && downloadingCloudFiles.valueAt(i) == CLOUD_DOWNLOAD_STARTED;
+          if (i >= 0) {
             downloadingCloudFiles.removeAt(i);
           }
           int pendingOperation = pendingOperations.get(file.id);
           if (pendingOperation != OPERATION_NONE && hasStartedDownloadByCloud) {
             tdlib.client().send(new TdApi.CancelDownloadFile(file.id, false), filesHandler);
+            // Download may have already stopped at the end of the last requested range without being reported
+            removePendingOperation(file.id);
+            notifyFileState(file.id, STATE_PAUSED, null);
           }
         }
       }
@@ -501,6 +550,11 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   private void cancelDownloadOrUploadFileInternal (int fileId, int pendingOperation, boolean weak) {
     switch (pendingOperation) {
       case OPERATION_DOWNLOAD: {
+        int i = downloadingCloudFiles.indexOfKey(fileId);
+        if (i >= 0 && downloadingCloudFiles.valueAt(i) == CLOUD_DOWNLOAD_STARTED) {
+          // So that the stop is reported
+          downloadingCloudFiles.setValueAt(i, CLOUD_DOWNLOAD_CANCELLED);
+        }
         if (Log.isEnabled(Log.TAG_TDLIB_FILES)) {
           Log.i(Log.TAG_TDLIB_FILES, "cancelDownloadFile id=%d", fileId);
         }
@@ -521,6 +575,21 @@ public class TdlibFilesManager implements GlobalConnectionListener {
     synchronized (this) {
       manuallyCancelledFiles.remove(file.id);
       if (!TD.isFileLoaded(file)) {
+        final int cloudDownload = downloadingCloudFiles.get(file.id);
+        if (cloudDownload == CLOUD_DOWNLOAD_STARTED || cloudDownload == CLOUD_DOWNLOAD_CANCELLED) {
+          // Take over the streaming download, so it is no longer limited to the range being read
+          // and isn't cancelled once reading stops
+          downloadingCloudFiles.put(file.id, CLOUD_DOWNLOAD_REQUESTED_IN_FULL);
+          if (pendingOperations.get(file.id) == OPERATION_DOWNLOAD) {
+            if (!Config.DEBUG_DISABLE_DOWNLOAD) {
+              tdlib.client().send(new TdApi.DownloadFile(file.id, priority, offset, limit, false), handler != null ? object -> {
+                filesHandler.onResult(object);
+                handler.onResult(object);
+              } : filesHandler);
+            }
+            return;
+          }
+        }
         downloadFileInternal(file.id, priority, offset, limit, handler);
       } else if (handler != null) {
         tdlib.client().send(new TdApi.DownloadFile(file.id, priority, offset, limit, false), handler);
@@ -616,8 +685,12 @@ public class TdlibFilesManager implements GlobalConnectionListener {
 
       if (pendingOperation != OPERATION_NONE) {
         if (!update.file.remote.isUploadingActive && !update.file.local.isDownloadingActive && !update.file.remote.isUploadingCompleted && !update.file.local.isDownloadingCompleted) {
-          removePendingOperation(update.file.id);
-          notifyFileState(update.file.id, STATE_PAUSED, null);
+          if (downloadingCloudFiles.get(update.file.id) != CLOUD_DOWNLOAD_STARTED) {
+            removePendingOperation(update.file.id);
+            notifyFileState(update.file.id, STATE_PAUSED, null);
+          }
+          // Otherwise only the range requested by streaming reader has been downloaded.
+          // It is still in progress: reader resumes the download once it needs more, or cancels it when it's closed.
         }
       } else if (update.file.local.isDownloadingActive) {
         pendingOperations.put(update.file.id, OPERATION_DOWNLOAD);
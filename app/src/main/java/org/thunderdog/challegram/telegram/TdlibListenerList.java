@@ -0,0 +1,134 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:20
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Weakly referenced listeners, dispatched through an immutable snapshot array.
+ *
+ * The snapshot is rebuilt only when listeners are added or removed, which also drops references cleared by GC.
+ * Reading it takes no lock, and iterating over {@link #snapshot()} with a plain for-each loop allocates nothing.
+ *
+ * Thread-safe.
+ */
+class TdlibListenerList<T> {
+  @SuppressWarnings("rawtypes")
+  private static final WeakReference[] EMPTY = new WeakReference[0];
+
+  private final @Nullable ReferenceQueue<T> queue;
+  private volatile WeakReference<T>[] snapshot;
+
+  TdlibListenerList () {
+    this(null);
+  }
+
+  /**
+   * @param queue Queue cleared references are enqueued to, so that the owner knows when to {@link #prune()}.
+   */
+  @SuppressWarnings("unchecked")
+  TdlibListenerList (@Nullable ReferenceQueue<T> queue) {
+    this.queue = queue;
+    this.snapshot = (WeakReference<T>[]) EMPTY;
+  }
+
+  /**
+   * @return Current listeners. References may be already cleared, in which case they must be skipped.
+   */
+  @NonNull
+  public WeakReference<T>[] snapshot () {
+    return snapshot;
+  }
+
+  public boolean isEmpty () {
+    return snapshot.length == 0;
+  }
+
+  public synchronized boolean add (@NonNull T listener) {
+    final WeakReference<T>[] current = this.snapshot;
+    for (WeakReference<T> reference : current) {
+      if (reference.get() == listener) {
+        return false;
+      }
+    }
+    this.snapshot = copyAlive(current, null, new WeakReference<>(listener, queue));
+    return true;
+  }
+
+  public synchronized boolean remove (@NonNull T listener) {
+    final WeakReference<T>[] current = this.snapshot;
+    WeakReference<T> removed = null;
+    for (WeakReference<T> reference : current) {
+      if (reference.get() == listener) {
+        removed = reference;
+        break;
+      }
+    }
+    if (removed == null) {
+      return false;
+    }
+    removed.clear();
+    this.snapshot = copyAlive(current, removed, null);
+    return true;
+  }
+
+  public synchronized void clear () {
+    for (WeakReference<T> reference : snapshot) {
+      reference.clear();
+    }
+    //noinspection unchecked
+    this.snapshot = (WeakReference<T>[]) EMPTY;
+  }
+
+  /**
+   * Drops all cleared references.
+   *
+   * @return true if list is empty afterwards
+   */
+  synchronized boolean prune () {
+    final WeakReference<T>[] current = this.snapshot;
+    for (WeakReference<T> reference : current) {
+      if (reference.get() == null) {
+        WeakReference<T>[] updated = copyAlive(current, null, null);
+        this.snapshot = updated;
+        return updated.length == 0;
+      }
+    }
+    return current.length == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> WeakReference<T>[] copyAlive (WeakReference<T>[] source, @Nullable WeakReference<T> exclude, @Nullable WeakReference<T> append) {
+    WeakReference<T>[] result = (WeakReference<T>[]) new WeakReference[source.length + (append != null ? 1 : 0)];
+    int count = 0;
+    for (WeakReference<T> reference : source) {
+      if (reference != exclude && reference.get() != null) {
+        result[count++] = reference;
+      }
+    }
+    if (append != null) {
+      result[count++] = append;
+    }
+    if (count == 0) {
+      return (WeakReference<T>[]) EMPTY;
+    }
+    return count == result.length ? result : Arrays.copyOf(result, count);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:20
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.util.LongObjectMap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Per-id buckets of {@link TdlibListenerList}, e.g. listeners of a specific chat.
+ *
+ * Buckets are looked up in an immutable map that is replaced only when a bucket is created or dropped,
+ * so {@link #snapshot(long)} and {@link #has(long)} take no lock.
+ * All buckets share a single {@link ReferenceQueue}: once GC clears any listener,
+ * the next modification prunes all buckets at once and drops the ones that became empty.
+ *
+ * Thread-safe.
+ */
+final class TdlibListenerLongMap<T> {
+  private static final class Bucket<T> extends TdlibListenerList<T> {
+    private final long key;
+
+    Bucket (long key, ReferenceQueue<T> queue) {
+      super(queue);
+      this.key = key;
+    }
+  }
+
+  private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+  private volatile LongObjectMap<Bucket<T>> buckets = new LongObjectMap<>();
+
+  public synchronized void add (long key, @NonNull T listener) {
+    pruneIfNeeded();
+    Bucket<T> bucket = buckets.get(key);
+    if (bucket == null) {
+      bucket = new Bucket<>(key, queue);
+      bucket.add(listener);
+      buckets = copy(buckets, bucket);
+    } else {
+      bucket.add(listener);
+    }
+  }
+
+  public synchronized void remove (long key, @NonNull T listener) {
+    pruneIfNeeded();
+    Bucket<T> bucket = buckets.get(key);
+    if (bucket != null && bucket.remove(listener) && bucket.isEmpty()) {
+      LongObjectMap<Bucket<T>> updated = copy(buckets, null);
+      updated.remove(key);
+      buckets = updated;
+    }
+  }
+
+  public boolean has (long key) {
+    Bucket<T> bucket = buckets.get(key);
+    return bucket != null && !bucket.isEmpty();
+  }
+
+  /**
+   * @return Listeners registered for the given key, or null if there are none.
+   * References may be already cleared, in which case they must be skipped.
+   */
+  @Nullable
+  public WeakReference<T>[] snapshot (long key) {
+    Bucket<T> bucket = buckets.get(key);
+    return bucket != null ? bucket.snapshot() : null;
+  }
+
+  private void pruneIfNeeded () {
+    if (queue.poll() == null) {
+      return;
+    }
+    //noinspection StatementWithEmptyBody
+    while (queue.poll() != null);
+    final LongObjectMap<Bucket<T>> current = buckets;
+    LongObjectMap<Bucket<T>> updated = null;
+    for (Bucket<T> bucket : current.values()) {
+      if (bucket.prune()) {
+        if (updated == null) {
+          updated = copy(current, null);
+        }
+        updated.remove(bucket.key);
+      }
+    }
+    if (updated != null) {
+      buckets = updated;
+    }
+  }
+
+  private static <T> LongObjectMap<Bucket<T>> copy (LongObjectMap<Bucket<T>> source, @Nullable Bucket<T> addedBucket) {
+    LongObjectMap<Bucket<T>> result = new LongObjectMap<>(source.size() + 1);
+    for (Bucket<T> bucket : source.values()) {
+      result.put(bucket.key, bucket);
+    }
+    if (addedBucket != null) {
+      result.put(addedBucket.key, addedBucket);
+    }
+    return result;
+  }
+}
@@ -21,6 +21,7 @@ import androidx.annotation.Nullable;
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.data.TD;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -37,9 +38,9 @@ import me.vkryl.td.Td;
 public class TdlibListeners {
   private final Tdlib tdlib;
 
-  final ReferenceList<MessageListener> messageListeners;
-  final ReferenceList<MessageEditListener> messageEditListeners;
-  final ReferenceList<ChatListener> chatListeners;
+  final TdlibListenerList<MessageListener> messageListeners;
+  final TdlibListenerList<MessageEditListener> messageEditListeners;
+  final TdlibListenerList<ChatListener> chatListeners;
   final ReferenceList<ChatFoldersListener> chatFoldersListeners;
   final ReferenceIntMap<ChatFolderListener> chatFolderListeners;
   final ReferenceMap<String, ChatListListener> chatListListeners;
@@ -63,9 +64,9 @@ public class TdlibListeners {
 
   final ReferenceList<AnimatedEmojiListener> animatedEmojiListeners;
 
-  final ReferenceLongMap<MessageListener> messageChatListeners;
-  final ReferenceLongMap<MessageEditListener> messageEditChatListeners;
-  final ReferenceLongMap<ChatListener> specificChatListeners;
+  final TdlibListenerLongMap<MessageListener> messageChatListeners;
+  final TdlibListenerLongMap<MessageEditListener> messageEditChatListeners;
+  final TdlibListenerLongMap<ChatListener> specificChatListeners;
   final ReferenceMap<String, StoryListener> specificStoryListeners;
   final ReferenceMap<String, ForumTopicInfoListener> specificForumTopicListeners;
   final ReferenceLongMap<NotificationSettingsListener> chatSettingsListeners;
@@ -79,9 +80,9 @@ public class TdlibListeners {
   public TdlibListeners (Tdlib tdlib) {
     this.tdlib = tdlib;
 
-    this.messageListeners = new ReferenceList<>();
-    this.messageEditListeners = new ReferenceList<>();
-    this.chatListeners = new ReferenceList<>();
+    this.messageListeners = new TdlibListenerList<>();
+    this.messageEditListeners = new TdlibListenerList<>();
+    this.chatListeners = new TdlibListenerList<>();
     this.storyListeners = new ReferenceList<>();
     this.chatListListeners = new ReferenceMap<>(true);
     this.chatFoldersListeners = new ReferenceList<>(true);
@@ -107,9 +108,9 @@ public class TdlibListeners {
 
     this.reactionLoadListeners = new ReferenceMap<>(true);
 
-    this.messageChatListeners = new ReferenceLongMap<>();
-    this.messageEditChatListeners = new ReferenceLongMap<>();
-    this.specificChatListeners = new ReferenceLongMap<>();
+    this.messageChatListeners = new TdlibListenerLongMap<>();
+    this.messageEditChatListeners = new TdlibListenerLongMap<>();
+    this.specificChatListeners = new TdlibListenerLongMap<>();
     this.specificStoryListeners = new ReferenceMap<>();
     this.specificForumTopicListeners = new ReferenceMap<>(true);
     this.chatSettingsListeners = new ReferenceLongMap<>(true);
@@ -575,36 +576,110 @@ public class TdlibListeners {
     }
   }
 
-  private void runChatUpdate (long chatId, RunnableData<ChatListener> act) {
-    runUpdate(chatListeners.iterator(), act);
-    runUpdate(specificChatListeners.iterator(chatId), act);
+  private static <T> void runUpdate (@Nullable WeakReference<T>[] list, RunnableData<T> act) {
+    if (list != null) {
+      for (WeakReference<T> reference : list) {
+        T listener = reference.get();
+        if (listener != null) {
+          act.runWithData(listener);
+        }
+      }
+    }
   }
 
-  // updateNewMessage
+  // Actions receive everything they need as arguments, so that they capture nothing
+  // and dispatching an update allocates no lambda
+
+  private interface UpdateAction<T, U> {
+    void run (T listener, U update);
+  }
+
+  private interface UpdateArgAction<T, U, A> {
+    void run (T listener, U update, A arg);
+  }
 
-  private static void updateNewMessage (TdApi.UpdateNewMessage update, @Nullable Iterator<MessageListener> list) {
+  private interface ValueAction<T> {
+    void run (T listener, long id, long value, boolean flag);
+  }
+
+  private static <T, U> void runUpdate (@Nullable WeakReference<T>[] list, U update, UpdateAction<T, U> act) {
     if (list != null) {
-      while (list.hasNext()) {
-        list.next().onNewMessage(update.message);
+      for (WeakReference<T> reference : list) {
+        T listener = reference.get();
+        if (listener != null) {
+          act.run(listener, update);
+        }
       }
     }
   }
 
-  void updateNewMessage (TdApi.UpdateNewMessage update) {
-    updateNewMessage(update, messageListeners.iterator());
-    updateNewMessage(update, messageChatListeners.iterator(update.message.chatId));
+  private static <T, U, A> void runUpdate (@Nullable WeakReference<T>[] list, U update, A arg, UpdateArgAction<T, U, A> act) {
+    if (list != null) {
+      for (WeakReference<T> reference : list) {
+        T listener = reference.get();
+        if (listener != null) {
+          act.run(listener, update, arg);
+        }
+      }
+    }
   }
 
-  // updateMessageSendSucceeded
-
-  private static void updateMessageSendSucceeded (TdApi.UpdateMessageSendSucceeded update, @Nullable Iterator<MessageListener> list) {
+  private static <T> void runUpdate (@Nullable WeakReference<T>[] list, long id, long value, boolean flag, ValueAction<T> act) {
     if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageSendSucceeded(update.message, update.oldMessageId);
+      for (WeakReference<T> reference : list) {
+        T listener = reference.get();
+        if (listener != null) {
+          act.run(listener, id, value, flag);
+        }
       }
     }
   }
 
+  private static <T, U> void runUpdate (TdlibListenerList<T> list, TdlibListenerLongMap<T> specificList, long id, U update, UpdateAction<T, U> act) {
+    runUpdate(list.snapshot(), update, act);
+    runUpdate(specificList.snapshot(id), update, act);
+  }
+
+  private static <T, U, A> void runUpdate (TdlibListenerList<T> list, TdlibListenerLongMap<T> specificList, long id, U update, A arg, UpdateArgAction<T, U, A> act) {
+    runUpdate(list.snapshot(), update, arg, act);
+    runUpdate(specificList.snapshot(id), update, arg, act);
+  }
+
+  private static <T> void runUpdate (TdlibListenerList<T> list, TdlibListenerLongMap<T> specificList, long id, long value, boolean flag, ValueAction<T> act) {
+    runUpdate(list.snapshot(), id, value, flag, act);
+    runUpdate(specificList.snapshot(id), id, value, flag, act);
+  }
+
+  private <U> void runChatUpdate (long chatId, U update, UpdateAction<ChatListener, U> act) {
+    runUpdate(chatListeners, specificChatListeners, chatId, update, act);
+  }
+
+  private <U, A> void runChatUpdate (long chatId, U update, A arg, UpdateArgAction<ChatListener, U, A> act) {
+    runUpdate(chatListeners, specificChatListeners, chatId, update, arg, act);
+  }
+
+  private void runChatUpdate (long chatId, long value, boolean flag, ValueAction<ChatListener> act) {
+    runUpdate(chatListeners, specificChatListeners, chatId, value, flag, act);
+  }
+
+  private void runMessageEditUpdate (long chatId, long value, ValueAction<MessageEditListener> act) {
+    runUpdate(messageEditListeners, messageEditChatListeners, chatId, value, false, act);
+  }
+
+  private <U> void runMessageUpdate (long chatId, U update, UpdateAction<MessageListener, U> act) {
+    runUpdate(messageListeners, messageChatListeners, chatId, update, act);
+  }
+
+  // updateNewMessage
+
+  void updateNewMessage (TdApi.UpdateNewMessage update) {
+    runMessageUpdate(update.message.chatId, update, (listener, data) ->
+      listener.onNewMessage(data.message)
+    );
+  }
+
+  // updateMessageSendSucceeded
+
   private void replaceMessage (long oldMessageId, TdApi.Message message) {
     List<TdApi.Message> messagesToUpdate = pendingMessages.remove(message.chatId + "_" + oldMessageId);
     if (messagesToUpdate != null && !messagesToUpdate.isEmpty()) {
@@ -617,51 +692,30 @@ public class TdlibListeners {
 
   void updateMessageSendSucceeded (TdApi.UpdateMessageSendSucceeded update) {
     replaceMessage(update.oldMessageId, update.message);
-    updateMessageSendSucceeded(update, messageListeners.iterator());
-    updateMessageSendSucceeded(update, messageChatListeners.iterator(update.message.chatId));
+    runMessageUpdate(update.message.chatId, update, (listener, data) ->
+      listener.onMessageSendSucceeded(data.message, data.oldMessageId)
+    );
   }
 
   // updateMessageSendFailed
 
-  private static void updateMessageSendFailed (TdApi.UpdateMessageSendFailed update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageSendFailed(update.message, update.oldMessageId, update.error);
-      }
-    }
-  }
-
   void updateMessageSendFailed (TdApi.UpdateMessageSendFailed update) {
     replaceMessage(update.oldMessageId, update.message);
-    updateMessageSendFailed(update, messageListeners.iterator());
-    updateMessageSendFailed(update, messageChatListeners.iterator(update.message.chatId));
+    runMessageUpdate(update.message.chatId, update, (listener, data) ->
+      listener.onMessageSendFailed(data.message, data.oldMessageId, data.error)
+    );
   }
 
   // updateMessageSendAcknowledged
 
-  private static void updateMessageSendAcknowledged (TdApi.UpdateMessageSendAcknowledged update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageSendAcknowledged(update.chatId, update.messageId);
-      }
-    }
-  }
-
   void updateMessageSendAcknowledged (TdApi.UpdateMessageSendAcknowledged update) {
-    updateMessageSendAcknowledged(update, messageListeners.iterator());
-    updateMessageSendAcknowledged(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageSendAcknowledged(data.chatId, data.messageId)
+    );
   }
 
   // updateMessageContent
 
-  private static void updateMessageContent (TdApi.UpdateMessageContent update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageContentChanged(update.chatId, update.messageId, update.newContent);
-      }
-    }
-  }
-
   void updateMessageContent (TdApi.UpdateMessageContent update) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -669,8 +723,9 @@ public class TdlibListeners {
         message.content = update.newContent;
       }
     }
-    updateMessageContent(update, messageListeners.iterator());
-    updateMessageContent(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageContentChanged(data.chatId, data.messageId, data.newContent)
+    );
   }
 
   // updatePoll (fake via updateMessageContent)
@@ -694,14 +749,6 @@ public class TdlibListeners {
 
   // updateMessageEdited
 
-  private static void updateMessageEdited (TdApi.UpdateMessageEdited update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageEdited(update.chatId, update.messageId, update.editDate, update.replyMarkup);
-      }
-    }
-  }
-
   void updateMessageEdited (TdApi.UpdateMessageEdited update) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -710,20 +757,13 @@ public class TdlibListeners {
         message.replyMarkup = update.replyMarkup;
       }
     }
-    updateMessageEdited(update, messageListeners.iterator());
-    updateMessageEdited(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageEdited(data.chatId, data.messageId, data.editDate, data.replyMarkup)
+    );
   }
 
   // updateMessageContentOpened
 
-  private static void updateMessageContentOpened (TdApi.UpdateMessageContentOpened update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageOpened(update.chatId, update.messageId);
-      }
-    }
-  }
-
   void updateMessageContentOpened (TdApi.UpdateMessageContentOpened update) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -731,35 +771,21 @@ public class TdlibListeners {
         TD.setMessageOpened(message);
       }
     }
-    updateMessageContentOpened(update, messageListeners.iterator());
-    updateMessageContentOpened(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageOpened(data.chatId, data.messageId)
+    );
   }
 
   // updateAnimatedEmojiMessageClicked
 
-  private static void updateAnimatedEmojiMessageClicked (TdApi.UpdateAnimatedEmojiMessageClicked update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onAnimatedEmojiMessageClicked(update.chatId, update.messageId, update.sticker);
-      }
-    }
-  }
-
   void updateAnimatedEmojiMessageClicked (TdApi.UpdateAnimatedEmojiMessageClicked update) {
-    updateAnimatedEmojiMessageClicked(update, messageListeners.iterator());
-    updateAnimatedEmojiMessageClicked(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onAnimatedEmojiMessageClicked(data.chatId, data.messageId, data.sticker)
+    );
   }
 
   // updateMessageIsPinned
 
-  private static void updateMessageIsPinned (TdApi.UpdateMessageIsPinned update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessagePinned(update.chatId, update.messageId, update.isPinned);
-      }
-    }
-  }
-
   void updateMessageIsPinned (TdApi.UpdateMessageIsPinned update) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -767,50 +793,29 @@ public class TdlibListeners {
         message.isPinned = update.isPinned;
       }
     }
-    updateMessageIsPinned(update, messageListeners.iterator());
-    updateMessageIsPinned(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessagePinned(data.chatId, data.messageId, data.isPinned)
+    );
   }
 
   // updateMessagePendingContentUpdated
 
-  private static void updateMessagePendingContentChanged (long chatId, long messageId, @Nullable Iterator<MessageEditListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessagePendingContentChanged(chatId, messageId);
-      }
-    }
-  }
-
   void updateMessagePendingContentChanged (long chatId, long messageId) {
-    updateMessagePendingContentChanged(chatId, messageId, messageEditListeners.iterator());
-    updateMessagePendingContentChanged(chatId, messageId, messageEditChatListeners.iterator(chatId));
+    runMessageEditUpdate(chatId, messageId, (listener, id, value, flag) ->
+      listener.onMessagePendingContentChanged(id, value)
+    );
   }
 
   // updateMessageLiveLocationViewed
 
-  private static void updateMessageLiveLocationViewed (TdApi.UpdateMessageLiveLocationViewed update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageLiveLocationViewed(update.chatId, update.messageId);
-      }
-    }
-  }
-
   void updateMessageLiveLocationViewed (TdApi.UpdateMessageLiveLocationViewed update) {
-    updateMessageLiveLocationViewed(update, messageListeners.iterator());
-    updateMessageLiveLocationViewed(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageLiveLocationViewed(data.chatId, data.messageId)
+    );
   }
 
   // updateMessageMentionRead
 
-  private static void updateMessageMentionRead (TdApi.UpdateMessageMentionRead update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageMentionRead(update.chatId, update.messageId);
-      }
-    }
-  }
-
   void updateMessageMentionRead (TdApi.UpdateMessageMentionRead update, boolean counterChanged, boolean availabilityChanged) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -818,11 +823,11 @@ public class TdlibListeners {
         message.containsUnreadMention = false;
       }
     }
-    updateMessageMentionRead(update, messageListeners.iterator());
-    updateMessageMentionRead(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageMentionRead(data.chatId, data.messageId)
+    );
     if (counterChanged) {
-      updateChatUnreadMentionCount(update.chatId, update.unreadMentionCount, availabilityChanged, chatListeners.iterator());
-      updateChatUnreadMentionCount(update.chatId, update.unreadMentionCount, availabilityChanged, specificChatListeners.iterator(update.chatId));
+      updateChatUnreadMentionCount(update.chatId, update.unreadMentionCount, availabilityChanged);
     }
   }
 
@@ -873,14 +878,6 @@ public class TdlibListeners {
 
   // updateMessageInteractionInfo
 
-  private static void updateMessageInteractionInfo (TdApi.UpdateMessageInteractionInfo update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageInteractionInfoChanged(update.chatId, update.messageId, update.interactionInfo);
-      }
-    }
-  }
-
   void updateMessageInteractionInfo (TdApi.UpdateMessageInteractionInfo update) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -888,20 +885,13 @@ public class TdlibListeners {
         message.interactionInfo = update.interactionInfo;
       }
     }
-    updateMessageInteractionInfo(update, messageListeners.iterator());
-    updateMessageInteractionInfo(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageInteractionInfoChanged(data.chatId, data.messageId, data.interactionInfo)
+    );
   }
 
   // updateMessageUnreadReactions
 
-  private static void updateMessageUnreadReactions (TdApi.UpdateMessageUnreadReactions update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessageUnreadReactionsChanged(update.chatId, update.messageId, update.unreadReactions, update.unreadReactionCount);
-      }
-    }
-  }
-
   void updateMessageUnreadReactions (TdApi.UpdateMessageUnreadReactions update, boolean counterChanged, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists) {
     List<TdApi.Message> messages = pendingMessages.get(update.chatId + "_" + update.messageId);
     if (messages != null) {
@@ -909,15 +899,14 @@ public class TdlibListeners {
         message.unreadReactions = update.unreadReactions;
       }
     }
-    updateMessageUnreadReactions(update, messageListeners.iterator());
-    updateMessageUnreadReactions(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessageUnreadReactionsChanged(data.chatId, data.messageId, data.unreadReactions, data.unreadReactionCount)
+    );
     if (counterChanged) {
-      updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged, chatListeners.iterator());
-      updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged, specificChatListeners.iterator(update.chatId));
+      updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged);
     }
     if (counterChanged) {
-      updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged, chatListeners.iterator());
-      updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged, specificChatListeners.iterator(update.chatId));
+      updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged);
       if (chatLists != null) {
         for (TdlibChatList chatList : chatLists) {
           iterateChatListListeners(chatList, listener ->
@@ -930,47 +919,34 @@ public class TdlibListeners {
 
   // updateDeleteMessages
 
-  private static void updateMessagesDeleted (TdApi.UpdateDeleteMessages update, @Nullable Iterator<MessageListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onMessagesDeleted(update.chatId, update.messageIds);
-      }
-    }
-  }
-
   void updateMessagesDeleted (TdApi.UpdateDeleteMessages update) {
-    updateMessagesDeleted(update, messageListeners.iterator());
-    updateMessagesDeleted(update, messageChatListeners.iterator(update.chatId));
+    runMessageUpdate(update.chatId, update, (listener, data) ->
+      listener.onMessagesDeleted(data.chatId, data.messageIds)
+    );
   }
 
   // updateChatUnreadMentionCount
 
-  private static void updateChatUnreadMentionCount (long chatId, int unreadMentionCount, boolean availabilityChanged, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatUnreadMentionCount(chatId, unreadMentionCount, availabilityChanged);
-      }
-    }
+  private void updateChatUnreadMentionCount (long chatId, int unreadMentionCount, boolean availabilityChanged) {
+    runChatUpdate(chatId, unreadMentionCount, availabilityChanged, (listener, id, value, flag) ->
+      listener.onChatUnreadMentionCount(id, (int) value, flag)
+    );
   }
 
   void updateChatUnreadMentionCount (TdApi.UpdateChatUnreadMentionCount update, boolean availabilityChanged) {
-    updateChatUnreadMentionCount(update.chatId, update.unreadMentionCount, availabilityChanged, chatListeners.iterator());
-    updateChatUnreadMentionCount(update.chatId, update.unreadMentionCount, availabilityChanged, specificChatListeners.iterator(update.chatId));
+    updateChatUnreadMentionCount(update.chatId, update.unreadMentionCount, availabilityChanged);
   }
 
   // updateChatUnreadReactionCount
 
-  private static void updateChatUnreadReactionCount (long chatId, int unreadReactionCount, boolean availabilityChanged, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatUnreadReactionCount(chatId, unreadReactionCount, availabilityChanged);
-      }
-    }
+  private void updateChatUnreadReactionCount (long chatId, int unreadReactionCount, boolean availabilityChanged) {
+    runChatUpdate(chatId, unreadReactionCount, availabilityChanged, (listener, id, value, flag) ->
+      listener.onChatUnreadReactionCount(id, (int) value, flag)
+    );
   }
 
   void updateChatUnreadReactionCount (TdApi.UpdateChatUnreadReactionCount update, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists) {
-    updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged, chatListeners.iterator());
-    updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged, specificChatListeners.iterator(update.chatId));
+    updateChatUnreadReactionCount(update.chatId, update.unreadReactionCount, availabilityChanged);
     if (chatLists != null) {
       for (TdlibChatList chatList : chatLists) {
         iterateChatListListeners(chatList, listener ->
@@ -982,24 +958,20 @@ public class TdlibListeners {
 
   // updateChatLastMessage
 
-  private static void updateChatLastMessage (long chatId, TdApi.Message lastMessage, @Nullable List<Tdlib.ChatListChange> listChanges, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        ChatListener listener = list.next();
-        listener.onChatTopMessageChanged(chatId, lastMessage);
-        if (listChanges != null) {
-          for (Tdlib.ChatListChange listChange : listChanges) {
-            Tdlib.ChatChange positionChange = listChange.change;
-            listener.onChatPositionChanged(chatId, positionChange.position, positionChange.orderChanged(), positionChange.sourceChanged(), positionChange.pinStateChanged());
-          }
-        }
+  private static void notifyChatPositionsChanged (ChatListener listener, long chatId, @Nullable List<Tdlib.ChatListChange> listChanges) {
+    if (listChanges != null) {
+      for (Tdlib.ChatListChange listChange : listChanges) {
+        Tdlib.ChatChange positionChange = listChange.change;
+        listener.onChatPositionChanged(chatId, positionChange.position, positionChange.orderChanged(), positionChange.sourceChanged(), positionChange.pinStateChanged());
       }
     }
   }
 
   void updateChatLastMessage (TdApi.UpdateChatLastMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
-    updateChatLastMessage(update.chatId, update.lastMessage, listChanges, chatListeners.iterator());
-    updateChatLastMessage(update.chatId, update.lastMessage, listChanges, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, listChanges, (listener, data, changes) -> {
+      listener.onChatTopMessageChanged(data.chatId, data.lastMessage);
+      notifyChatPositionsChanged(listener, data.chatId, changes);
+    });
     if (listChanges != null) {
       for (Tdlib.ChatListChange listChange : listChanges) {
         listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
@@ -1012,65 +984,41 @@ public class TdlibListeners {
 
   // updateChatOrder
 
-  private static void updateChatPosition (long chatId, TdApi.ChatPosition position, boolean orderChanged, boolean sourceChanged, boolean pinStateChanged, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatPositionChanged(chatId, position, orderChanged, sourceChanged, pinStateChanged);
-      }
-    }
-  }
-
   void updateChatPosition (TdApi.UpdateChatPosition update, Tdlib.ChatListChange listChange) {
-    boolean orderChanged = listChange.change.orderChanged();
-    boolean sourceChanged = listChange.change.sourceChanged();
-    boolean pinStateChanged = listChange.change.pinStateChanged();
-    updateChatPosition(update.chatId, update.position, orderChanged, sourceChanged, pinStateChanged, chatListeners.iterator());
-    updateChatPosition(update.chatId, update.position, orderChanged, sourceChanged, pinStateChanged, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, listChange.change, (listener, data, change) ->
+      listener.onChatPositionChanged(data.chatId, data.position, change.orderChanged(), change.sourceChanged(), change.pinStateChanged())
+    );
     listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
   }
 
   // updateChatAddedToList, updateChatRemovedFromList
 
   void updateChatAddedToList (TdApi.UpdateChatAddedToList update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatAddedToList(update.chatId, update.chatList)
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatAddedToList(data.chatId, data.chatList)
     );
   }
 
   void updateChatRemovedFromList (TdApi.UpdateChatRemovedFromList update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatRemovedFromList(update.chatId, update.chatList)
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatRemovedFromList(data.chatId, data.chatList)
     );
   }
 
   // updateChatPermissions
 
-  private static void updateChatPermissions (long chatId, TdApi.ChatPermissions permissions, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatPermissionsChanged(chatId, permissions);
-      }
-    }
-  }
-
   void updateChatPermissions (TdApi.UpdateChatPermissions update) {
-    updateChatPermissions(update.chatId, update.permissions, chatListeners.iterator());
-    updateChatPermissions(update.chatId, update.permissions, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatPermissionsChanged(data.chatId, data.permissions)
+    );
   }
 
   // updateChatTitle
 
-  private static void updateChatTitle (TdApi.UpdateChatTitle update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatTitleChanged(update.chatId, update.title);
-      }
-    }
-  }
-
   void updateChatTitle (TdApi.UpdateChatTitle update, TdApi.Chat chat, TdlibChatList[] chatLists) {
-    updateChatTitle(update, chatListeners.iterator());
-    updateChatTitle(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatTitleChanged(data.chatId, data.title)
+    );
     if (chatLists != null) {
       for (TdlibChatList chatList : chatLists) {
         iterateChatListListeners(chatList, listener ->
@@ -1082,17 +1030,10 @@ public class TdlibListeners {
 
   // updateChatTheme
 
-  private static void updateChatTheme (TdApi.UpdateChatTheme update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatThemeChanged(update.chatId, update.themeName);
-      }
-    }
-  }
-
   void updateChatTheme (TdApi.UpdateChatTheme update, TdApi.Chat chat, TdlibChatList[] chatLists) {
-    updateChatTheme(update, chatListeners.iterator());
-    updateChatTheme(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatThemeChanged(data.chatId, data.themeName)
+    );
     if (chatLists != null) {
       for (TdlibChatList chatList : chatLists) {
         iterateChatListListeners(chatList, listener ->
@@ -1104,78 +1045,50 @@ public class TdlibListeners {
 
   // updateChatPhoto
 
-  private static void updateChatPhoto (TdApi.UpdateChatPhoto update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatPhotoChanged(update.chatId, update.photo);
-      }
-    }
-  }
-
   void updateChatPhoto (TdApi.UpdateChatPhoto update) {
-    updateChatPhoto(update, chatListeners.iterator());
-    updateChatPhoto(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatPhotoChanged(data.chatId, data.photo)
+    );
   }
 
   // updateChatActionBar
 
   void updateChatActionBar (TdApi.UpdateChatActionBar update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatActionBarChanged(update.chatId, update.actionBar)
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatActionBarChanged(data.chatId, data.actionBar)
     );
   }
 
   // updateChatBusinessBotManagerBar
 
   void updateChatBusinessBotManageBar (TdApi.UpdateChatBusinessBotManageBar update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatBusinessBotManageBarChanged(update.chatId, update.businessBotManageBar)
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatBusinessBotManageBarChanged(data.chatId, data.businessBotManageBar)
     );
   }
 
   // updateChatHasScheduledMessages
 
-  private static void updateChatHasScheduledMessages (TdApi.UpdateChatHasScheduledMessages update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatHasScheduledMessagesChanged(update.chatId, update.hasScheduledMessages);
-      }
-    }
-  }
-
   void updateChatHasScheduledMessages (TdApi.UpdateChatHasScheduledMessages update) {
-    updateChatHasScheduledMessages(update, chatListeners.iterator());
-    updateChatHasScheduledMessages(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatHasScheduledMessagesChanged(data.chatId, data.hasScheduledMessages)
+    );
   }
 
   // updateChatHasProtectedContent
 
-  private static void updateChatHasProtectedContent (TdApi.UpdateChatHasProtectedContent update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatHasProtectedContentChanged(update.chatId, update.hasProtectedContent);
-      }
-    }
-  }
-
   void updateChatHasProtectedContent (TdApi.UpdateChatHasProtectedContent update) {
-    updateChatHasProtectedContent(update, chatListeners.iterator());
-    updateChatHasProtectedContent(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatHasProtectedContentChanged(data.chatId, data.hasProtectedContent)
+    );
   }
 
   // updateChatReadInbox
 
-  private static void updateChatReadInbox (TdApi.UpdateChatReadInbox update, boolean availabilityChanged, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatReadInbox(update.chatId, update.lastReadInboxMessageId, update.unreadCount, availabilityChanged);
-      }
-    }
-  }
-
   void updateChatReadInbox (TdApi.UpdateChatReadInbox update, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists) {
-    updateChatReadInbox(update, availabilityChanged, chatListeners.iterator());
-    updateChatReadInbox(update, availabilityChanged, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, availabilityChanged, (listener, data, isAvailabilityChanged) ->
+      listener.onChatReadInbox(data.chatId, data.lastReadInboxMessageId, data.unreadCount, isAvailabilityChanged)
+    );
     if (chatLists != null) {
       for (TdlibChatList chatList : chatLists) {
         iterateChatListListeners(chatList, listener ->
@@ -1187,58 +1100,27 @@ public class TdlibListeners {
 
   // updateChatReadOutbox
 
-  private static void updateChatReadOutbox (TdApi.UpdateChatReadOutbox update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatReadOutbox(update.chatId, update.lastReadOutboxMessageId);
-      }
-    }
-  }
-
   void updateChatReadOutbox (TdApi.UpdateChatReadOutbox update) {
-    updateChatReadOutbox(update, chatListeners.iterator());
-    updateChatReadOutbox(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatReadOutbox(data.chatId, data.lastReadOutboxMessageId)
+    );
   }
 
   // updateChatReplyMarkup
 
-  private static void updateChatReplyMarkup (TdApi.UpdateChatReplyMarkup update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatReplyMarkupChanged(update.chatId, update.replyMarkupMessageId);
-      }
-    }
-  }
-
   void updateChatReplyMarkup (TdApi.UpdateChatReplyMarkup update) {
-    updateChatReplyMarkup(update, chatListeners.iterator());
-    updateChatReplyMarkup(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatReplyMarkupChanged(data.chatId, data.replyMarkupMessageId)
+    );
   }
 
   // updateChatDraftMessage
 
-  private static void updateChatDraftMessage (long chatId, @Nullable TdApi.DraftMessage draftMessage, @Nullable List<Tdlib.ChatListChange> listChanges, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        ChatListener listener = list.next();
-        listener.onChatDraftMessageChanged(chatId, draftMessage);
-        if (listChanges != null) {
-          for (Tdlib.ChatListChange listChange : listChanges) {
-            Tdlib.ChatChange positionChange = listChange.change;
-            listener.onChatPositionChanged(chatId, positionChange.position,
-              positionChange.orderChanged(),
-              positionChange.sourceChanged(),
-              positionChange.pinStateChanged()
-            );
-          }
-        }
-      }
-    }
-  }
-
   void updateChatDraftMessage (TdApi.UpdateChatDraftMessage update, List<Tdlib.ChatListChange> listChanges) {
-    updateChatDraftMessage(update.chatId, update.draftMessage, listChanges, chatListeners.iterator());
-    updateChatDraftMessage(update.chatId, update.draftMessage, listChanges, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, listChanges, (listener, data, changes) -> {
+      listener.onChatDraftMessageChanged(data.chatId, data.draftMessage);
+      notifyChatPositionsChanged(listener, data.chatId, changes);
+    });
     if (listChanges != null) {
       for (Tdlib.ChatListChange listChange : listChanges) {
         listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
@@ -1259,17 +1141,10 @@ public class TdlibListeners {
 
   // updateChatAvailableReactions
 
-  private static void updateChatAvailableReactions (TdApi.UpdateChatAvailableReactions update, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatAvailableReactionsUpdated(update.chatId, update.availableReactions);
-      }
-    }
-  }
-
   void updateChatAvailableReactions (TdApi.UpdateChatAvailableReactions update) {
-    updateChatAvailableReactions(update, chatListeners.iterator());
-    updateChatAvailableReactions(update, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatAvailableReactionsUpdated(data.chatId, data.availableReactions)
+    );
   }
 
   // updateCall
@@ -1334,47 +1209,26 @@ public class TdlibListeners {
 
   // updateChatOnlineMemberCount
 
-  private static void updateChatOnlineMemberCount (long chatId, int onlineMemberCount, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatOnlineMemberCountChanged(chatId, onlineMemberCount);
-      }
-    }
-  }
-
   void updateChatOnlineMemberCount (TdApi.UpdateChatOnlineMemberCount update) {
-    updateChatOnlineMemberCount(update.chatId, update.onlineMemberCount, chatListeners.iterator());
-    updateChatOnlineMemberCount(update.chatId, update.onlineMemberCount, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatOnlineMemberCountChanged(data.chatId, data.onlineMemberCount)
+    );
   }
 
   // updateMessageTtlSetting
 
-  private static void updateChatMessageAutoDeleteTime (long chatId, int messageTtlSetting, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatMessageTtlSettingChanged(chatId, messageTtlSetting);
-      }
-    }
-  }
-
   void updateChatMessageAutoDeleteTime (TdApi.UpdateChatMessageAutoDeleteTime update) {
-    updateChatMessageAutoDeleteTime(update.chatId, update.messageAutoDeleteTime, chatListeners.iterator());
-    updateChatMessageAutoDeleteTime(update.chatId, update.messageAutoDeleteTime, specificChatListeners.iterator(update.chatId));
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatMessageTtlSettingChanged(data.chatId, data.messageAutoDeleteTime)
+    );
   }
 
   // updateChatActiveStories
 
-  private static void updateChatActiveStories (TdApi.ChatActiveStories activeStories, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatActiveStoriesChanged(activeStories);
-      }
-    }
-  }
-
   void updateChatActiveStories (TdApi.UpdateChatActiveStories update) {
-    updateChatActiveStories(update.activeStories, chatListeners.iterator());
-    updateChatActiveStories(update.activeStories, specificChatListeners.iterator(update.activeStories.chatId));
+    runChatUpdate(update.activeStories.chatId, update, (listener, data) ->
+      listener.onChatActiveStoriesChanged(data.activeStories)
+    );
   }
 
   // updateStory
@@ -1463,16 +1317,16 @@ public class TdlibListeners {
   // updateChatVoiceChat
 
   void updateChatVideoChat (TdApi.UpdateChatVideoChat update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onChatVideoChatChanged(update.chatId, update.videoChat);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onChatVideoChatChanged(data.chatId, data.videoChat);
     });
   }
 
   // updateForumTopicInfo
 
   void updateForumTopicInfo (TdApi.UpdateForumTopicInfo update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onForumTopicInfoChanged(update.chatId, update.info);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onForumTopicInfoChanged(data.chatId, data.info);
     });
     runUpdate(specificForumTopicListeners.iterator(update.chatId + "_" + update.info.messageThreadId), listener -> {
       listener.onForumTopicInfoChanged(update.chatId, update.info);
@@ -1482,16 +1336,16 @@ public class TdlibListeners {
   // updateChatViewAsTopics
 
   void updateChatViewAsTopics (TdApi.UpdateChatViewAsTopics update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onChatViewAsTopics(update.chatId, update.viewAsTopics);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onChatViewAsTopics(data.chatId, data.viewAsTopics);
     });
   }
 
   // updateChatPendingJoinRequests
 
   void updateChatPendingJoinRequests (TdApi.UpdateChatPendingJoinRequests update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onChatPendingJoinRequestsChanged(update.chatId, update.pendingJoinRequests);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onChatPendingJoinRequestsChanged(data.chatId, data.pendingJoinRequests);
     });
   }
 
@@ -1512,28 +1366,28 @@ public class TdlibListeners {
   // updateChatIsMarkedAsUnread
 
   void updateChatIsMarkedAsUnread (TdApi.UpdateChatIsMarkedAsUnread update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onChatMarkedAsUnread(update.chatId, update.isMarkedAsUnread);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onChatMarkedAsUnread(data.chatId, data.isMarkedAsUnread);
     });
   }
 
   // updateChatBackground
 
   void updateChatBackground (TdApi.UpdateChatBackground update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatBackgroundChanged(update.chatId, update.background)
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatBackgroundChanged(data.chatId, data.background)
     );
   }
 
   // updateChatAccentColors
 
   void updateChatAccentColors (TdApi.UpdateChatAccentColors update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatAccentColorsChanged(update.chatId,
-        update.accentColorId,
-        update.backgroundCustomEmojiId,
-        update.profileAccentColorId,
-        update.profileBackgroundCustomEmojiId
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatAccentColorsChanged(data.chatId,
+        data.accentColorId,
+        data.backgroundCustomEmojiId,
+        data.profileAccentColorId,
+        data.profileBackgroundCustomEmojiId
       )
     );
   }
@@ -1541,9 +1395,9 @@ public class TdlibListeners {
   // updateChatEmojiStatus
 
   void updateChatEmojiStatus (TdApi.UpdateChatEmojiStatus update) {
-    runChatUpdate(update.chatId, listener ->
-      listener.onChatEmojiStatusChanged(update.chatId,
-        update.emojiStatus
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatEmojiStatusChanged(data.chatId,
+        data.emojiStatus
       )
     );
   }
@@ -1551,32 +1405,24 @@ public class TdlibListeners {
   // updateChatIsTranslatable
 
   void updateChatIsTranslatable (TdApi.UpdateChatIsTranslatable update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onChatIsTranslatableChanged(update.chatId, update.isTranslatable);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onChatIsTranslatableChanged(data.chatId, data.isTranslatable);
     });
   }
 
   // updateChatIsBlocked
 
-  private static void updateChatBlockList (long chatId, @Nullable TdApi.BlockList blockList, @Nullable Iterator<ChatListener> list) {
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatBlockListChanged(chatId, blockList);
-      }
-    }
-  }
-
   void updateChatBlockList (TdApi.UpdateChatBlockList update) {
-    runChatUpdate(update.chatId, listener -> {
-      listener.onChatBlockListChanged(update.chatId, update.blockList);
+    runChatUpdate(update.chatId, update, (listener, data) -> {
+      listener.onChatBlockListChanged(data.chatId, data.blockList);
     });
   }
 
   // updateChatClientDataChanged
 
-  void updateChatClientDataChanged (long chatId, String newClientData) {
-    runChatUpdate(chatId, listener -> {
-      listener.onChatClientDataChanged(chatId, newClientData);
+  void updateChatClientDataChanged (TdApi.Chat chat, String newClientData) {
+    runChatUpdate(chat.id, chat, newClientData, (listener, data, clientData) -> {
+      listener.onChatClientDataChanged(data.id, clientData);
     });
   }
 
@@ -1830,29 +1676,17 @@ public class TdlibListeners {
   // updateChatDefaultDisableNotifications
 
   void updateChatDefaultDisableNotifications (TdApi.UpdateChatDefaultDisableNotification update) {
-    for (ChatListener listener : chatListeners) {
-      listener.onChatDefaultDisableNotifications(update.chatId, update.defaultDisableNotification);
-    }
-    Iterator<ChatListener> list = specificChatListeners.iterator(update.chatId);
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatDefaultDisableNotifications(update.chatId, update.defaultDisableNotification);
-      }
-    }
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatDefaultDisableNotifications(data.chatId, data.defaultDisableNotification)
+    );
   }
 
   // updateChatDefaultMessageSenderId
 
   void updateChatDefaultMessageSenderId (TdApi.UpdateChatMessageSender update) {
-    for (ChatListener listener : chatListeners) {
-      listener.onChatDefaultMessageSenderIdChanged(update.chatId, update.messageSenderId);
-    }
-    Iterator<ChatListener> list = specificChatListeners.iterator(update.chatId);
-    if (list != null) {
-      while (list.hasNext()) {
-        list.next().onChatDefaultMessageSenderIdChanged(update.chatId, update.messageSenderId);
-      }
-    }
+    runChatUpdate(update.chatId, update, (listener, data) ->
+      listener.onChatDefaultMessageSenderIdChanged(data.chatId, data.messageSenderId)
+    );
   }
 
   // updateOption
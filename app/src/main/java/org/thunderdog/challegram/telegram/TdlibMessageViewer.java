@@ -23,7 +23,6 @@ import androidx.collection.LongSparseArray;
 
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.BaseActivity;
-import org.thunderdog.challegram.TDLib;
 import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.data.TD;
 import org.thunderdog.challegram.navigation.ViewController;
@@ -644,6 +643,7 @@ public class TdlibMessageViewer {
         }
       }
       context.viewports.remove(this);
+      context.viewMessagesScheduler.flush();
     }
 
     public boolean removeOtherVisibleChats (@Nullable LongSet visibleChatIds) {
@@ -753,16 +753,9 @@ public class TdlibMessageViewer {
       }
     }
 
-    private void viewMessagesImpl (long chatId, long[] messageIds, TdApi.MessageSource messageSource, boolean forceRead, @Nullable RunnableBool after) {
+    private void viewMessagesImpl (long chatId, long[] messageIds, TdApi.MessageSource messageSource, boolean forceRead, boolean allowSkipReported, @Nullable RunnableBool after) {
       if (messageIds.length > 0) {
-        context.tdlib.send(new TdApi.ViewMessages(chatId, messageIds, messageSource, forceRead), (ok, error) -> {
-          if (after != null) {
-            after.runWithBool(error == null);
-          }
-          if (error != null) {
-            TDLib.w("Unable to view %d messages in chat %d, source: %s, error: %s", messageIds.length, chatId, messageSource, TD.toErrorString(error));
-          }
-        });
+        context.viewMessagesScheduler.viewMessages(chatId, messageIds, messageSource, forceRead, allowSkipReported, false, after);
       }
     }
 
@@ -783,7 +776,7 @@ public class TdlibMessageViewer {
           messageSource = new TdApi.MessageSourceHistoryPreview();
           break;
       }
-      viewMessagesImpl(chatId, messageIds, messageSource, false, after);
+      viewMessagesImpl(chatId, messageIds, messageSource, false, false, after);
     }
 
     public boolean isDestroyed () {
@@ -812,7 +805,7 @@ public class TdlibMessageViewer {
         }
         final long chatId = visibleChat.chatId;
         final long[] messageIds = visibleChat.getMessageIds(true, true);
-        viewMessagesImpl(chatId, messageIds, messageSource, forceRead, after);
+        viewMessagesImpl(chatId, messageIds, messageSource, forceRead, true, after);
       }
     }
   }
@@ -822,11 +815,13 @@ public class TdlibMessageViewer {
   }
 
   private final Tdlib tdlib;
+  private final TdlibViewMessagesScheduler viewMessagesScheduler;
   private final Set<Viewport> restrictScreenshotsReasons = new HashSet<>();
   private final ReferenceList<Listener> listeners = new ReferenceList<>(true);
 
   public TdlibMessageViewer (Tdlib tdlib) {
     this.tdlib = tdlib;
+    this.viewMessagesScheduler = new TdlibViewMessagesScheduler(tdlib, TRACK_MESSAGE_TIMEOUT_MS);
   }
 
   public void addListener (Listener listener) {
@@ -956,11 +951,7 @@ public class TdlibMessageViewer {
       for (int i = 0; i < screenshotMessages.size(); i++) {
         long chatId = screenshotMessages.keyAt(i);
         long[] messageIds = screenshotMessages.valueAt(i).toArray();
-        tdlib.send(new TdApi.ViewMessages(chatId, messageIds, new TdApi.MessageSourceScreenshot(), false), (ok, error) -> {
-          if (error != null) {
-            TDLib.w("Error notifying about screenshot of %d messages in chat %d: %s", messageIds.length, chatId, TD.toErrorString(error));
-          }
-        });
+        viewMessagesScheduler.viewMessages(chatId, messageIds, new TdApi.MessageSourceScreenshot(), false, false, true, null);
       }
       screenshotMessages.clear();
     }
@@ -0,0 +1,202 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 15:10
+ */
+package org.thunderdog.challegram.telegram;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import me.vkryl.td.ChatPosition;
+import me.vkryl.td.Td;
+
+/**
+ * Merges bursts of superseding updates before they reach {@link Tdlib}.
+ *
+ * Only updates that carry the complete latest state of their target are coalesced:
+ * {@link TdApi.UpdateChatLastMessage} and {@link TdApi.UpdateChatReadInbox} per chat,
+ * {@link TdApi.UpdateUserStatus} per user and {@link TdApi.UpdateChatAction} per chat, thread and sender.
+ *
+ * The first such update after a quiet period is dispatched right away and opens a window of {@link #WINDOW_MS}.
+ * Until the window ends, further ones are held and merged by key, and are dispatched in the order their latest parts arrived.
+ * Any other update is a barrier: everything held is dispatched first, so ordering-sensitive updates observe the same state
+ * they would without coalescing. For the same reason results of requests sent through {@link Tdlib#send}
+ * and {@link Tdlib#runOnTdlibThread} flush first, as TDLib guarantees that all updates sent before a response are received before it.
+ * Results passed straight to {@link Tdlib#client()} handlers are not ordered against held updates,
+ * so such a handler may observe state at most {@link #WINDOW_MS} old.
+ *
+ * Must be accessed on TDLib thread only.
+ */
+final class TdlibUpdateCoalescer {
+  interface Callback {
+    void dispatchUpdate (TdApi.Update update);
+    void scheduleFlush (Runnable flush, long delayMs);
+  }
+
+  private static final long WINDOW_MS = 40;
+  private static final int MAX_PENDING_COUNT = 500;
+
+  private final Callback callback;
+  private final LinkedHashMap<Key, TdApi.Update> pending = new LinkedHashMap<>();
+  private final Runnable flushAct = this::onFlushTimeout;
+
+  private long windowEndTime;
+  private boolean flushScheduled;
+
+  private long receivedCount, mergedCount;
+
+  TdlibUpdateCoalescer (Callback callback) {
+    this.callback = callback;
+  }
+
+  public void onUpdate (TdApi.Update update) {
+    receivedCount++;
+    final Key key = keyOf(update);
+    if (key == null) {
+      flush();
+      callback.dispatchUpdate(update);
+      return;
+    }
+    final long now = SystemClock.uptimeMillis();
+    if (pending.isEmpty() && now >= windowEndTime) {
+      windowEndTime = now + WINDOW_MS;
+      callback.dispatchUpdate(update);
+      return;
+    }
+    TdApi.Update prevUpdate = pending.remove(key);
+    if (prevUpdate != null) {
+      // Re-insert, so the merged update is emitted at the position of its latest part
+      pending.put(key, merge(prevUpdate, update));
+      mergedCount++;
+    } else {
+      pending.put(key, update);
+      if (pending.size() >= MAX_PENDING_COUNT) {
+        flush();
+        return;
+      }
+    }
+    if (!flushScheduled) {
+      flushScheduled = true;
+      callback.scheduleFlush(flushAct, Math.max(0, windowEndTime - now));
+    }
+  }
+
+  public void flush () {
+    if (pending.isEmpty()) {
+      return;
+    }
+    ArrayList<TdApi.Update> updates = new ArrayList<>(pending.values());
+    pending.clear();
+    for (TdApi.Update update : updates) {
+      callback.dispatchUpdate(update);
+    }
+  }
+
+  private void onFlushTimeout () {
+    flushScheduled = false;
+    if (!pending.isEmpty()) {
+      // Still flooding, keep the next window open
+      windowEndTime = SystemClock.uptimeMillis() + WINDOW_MS;
+      flush();
+    }
+  }
+
+  public long getReceivedCount () {
+    return receivedCount;
+  }
+
+  public long getMergedCount () {
+    return mergedCount;
+  }
+
+  // Keys
+
+  private static final class Key {
+    private final int type;
+    private final long id, threadId, senderId;
+
+    Key (int type, long id, long threadId, long senderId) {
+      this.type = type;
+      this.id = id;
+      this.threadId = threadId;
+      this.senderId = senderId;
+    }
+
+    @Override
+    public boolean equals (@Nullable Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return other.type == type && other.id == id && other.threadId == threadId && other.senderId == senderId;
+    }
+
+    @Override
+    public int hashCode () {
+      int result = type;
+      result = 31 * result + Long.hashCode(id);
+      result = 31 * result + Long.hashCode(threadId);
+      result = 31 * result + Long.hashCode(senderId);
+      return result;
+    }
+  }
+
+  @Nullable
+  private static Key keyOf (TdApi.Update update) {
+    switch (update.getConstructor()) {
+      case TdApi.UpdateChatLastMessage.CONSTRUCTOR:
+        return new Key(update.getConstructor(), ((TdApi.UpdateChatLastMessage) update).chatId, 0, 0);
+      case TdApi.UpdateChatReadInbox.CONSTRUCTOR:
+        return new Key(update.getConstructor(), ((TdApi.UpdateChatReadInbox) update).chatId, 0, 0);
+      case TdApi.UpdateUserStatus.CONSTRUCTOR:
+        return new Key(update.getConstructor(), ((TdApi.UpdateUserStatus) update).userId, 0, 0);
+      case TdApi.UpdateChatAction.CONSTRUCTOR: {
+        TdApi.UpdateChatAction action = (TdApi.UpdateChatAction) update;
+        return new Key(update.getConstructor(), action.chatId, action.messageThreadId, Td.getSenderId(action.senderId));
+      }
+    }
+    return null;
+  }
+
+  private static TdApi.Update merge (TdApi.Update prevUpdate, TdApi.Update update) {
+    if (update.getConstructor() == TdApi.UpdateChatLastMessage.CONSTRUCTOR) {
+      // Positions are applied as a patch, so the ones only present in the older update must survive
+      TdApi.UpdateChatLastMessage prev = (TdApi.UpdateChatLastMessage) prevUpdate;
+      TdApi.UpdateChatLastMessage next = (TdApi.UpdateChatLastMessage) update;
+      TdApi.ChatPosition[] positions = next.positions;
+      int count = positions.length;
+      for (TdApi.ChatPosition position : prev.positions) {
+        if (ChatPosition.indexOf(next.positions, position.list) == -1) {
+          if (positions == next.positions) {
+            positions = Arrays.copyOf(positions, count + prev.positions.length);
+          }
+          positions[count++] = position;
+        }
+      }
+      if (positions != next.positions) {
+        next.positions = count == positions.length ? positions : Arrays.copyOf(positions, count);
+      }
+      return next;
+    }
+    // Other coalesced updates fully replace the previous state
+    return update;
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:47
+ */
+package org.thunderdog.challegram.telegram;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.TDLib;
+import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.tool.UI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import me.vkryl.core.collection.LongSet;
+import me.vkryl.core.lambda.RunnableBool;
+
+/**
+ * Single place where {@link TdApi.ViewMessages} requests are sent from.
+ *
+ * Message identifiers reported by all viewports are merged per chat, message source and {@code forceRead},
+ * so that fast scrolling produces one request per chat instead of one per viewport update.
+ * Pending batches are sent once nothing new arrived for {@link #IDLE_DELAY_MS},
+ * but no later than {@link #MAX_DELAY_MS} after the first identifier, or right away when the app goes to background.
+ *
+ * Identifiers that were reported recently are dropped, unless the caller asks to always report them,
+ * e.g. to refresh interaction info or to notify about a screenshot.
+ *
+ * Must be accessed on UI thread only.
+ */
+final class TdlibViewMessagesScheduler implements UI.StateListener {
+  private static final long IDLE_DELAY_MS = 120;
+  private static final long MAX_DELAY_MS = 500;
+  private static final int MAX_BATCH_SIZE = 100;
+  private static final int MAX_REPORTED_CHAT_COUNT = 32;
+
+  private static final class Key {
+    final long chatId;
+    final int sourceConstructor;
+    final boolean forceRead;
+
+    Key (long chatId, TdApi.MessageSource source, boolean forceRead) {
+      this.chatId = chatId;
+      this.sourceConstructor = source.getConstructor();
+      this.forceRead = forceRead;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return chatId == other.chatId && sourceConstructor == other.sourceConstructor && forceRead == other.forceRead;
+    }
+
+    @Override
+    public int hashCode () {
+      int result = (int) (chatId ^ (chatId >>> 32));
+      result = 31 * result + sourceConstructor;
+      result = 31 * result + (forceRead ? 1 : 0);
+      return result;
+    }
+  }
+
+  private static final class Batch {
+    final Key key;
+    final TdApi.MessageSource source;
+    final LongSet messageIds = new LongSet();
+    @Nullable List<RunnableBool> callbacks;
+
+    Batch (Key key, TdApi.MessageSource source) {
+      this.key = key;
+      this.source = source;
+    }
+  }
+
+  /**
+   * Identifiers sent within the last {@code reportedTtlMs}, kept in two generations
+   * to avoid tracking the time of every single identifier.
+   */
+  private static final class Reported {
+    LongSet current = new LongSet(), previous = new LongSet();
+    long rotateTime;
+
+    boolean has (long messageId) {
+      return current.has(messageId) || previous.has(messageId);
+    }
+  }
+
+  private final Tdlib tdlib;
+  private final long reportedTtlMs;
+  private final LinkedHashMap<Key, Batch> pending = new LinkedHashMap<>();
+  private final HashMap<Key, Reported> reported = new HashMap<>();
+  private final Runnable flushAct = this::onFlushTimeout;
+
+  private long firstPendingTime, lastPendingTime;
+  private boolean flushScheduled;
+
+  private long receivedCount, skippedCount, requestCount;
+
+  TdlibViewMessagesScheduler (Tdlib tdlib, long reportedTtlMs) {
+    this.tdlib = tdlib;
+    this.reportedTtlMs = reportedTtlMs;
+    UI.addStateListener(this);
+  }
+
+  public void viewMessages (long chatId, long[] messageIds, TdApi.MessageSource source, boolean forceRead, boolean allowSkipReported, boolean flushNow, @Nullable RunnableBool after) {
+    if (messageIds.length == 0) {
+      return;
+    }
+    final long now = SystemClock.uptimeMillis();
+    final Key key = new Key(chatId, source, forceRead);
+    final Reported reported = allowSkipReported && !forceRead ? findReported(key, now) : null;
+    receivedCount += messageIds.length;
+
+    Batch batch = pending.get(key);
+    int addedCount = 0;
+    for (long messageId : messageIds) {
+      if (reported != null && reported.has(messageId)) {
+        skippedCount++;
+        continue;
+      }
+      if (batch == null) {
+        batch = new Batch(key, source);
+        pending.put(key, batch);
+      }
+      batch.messageIds.add(messageId);
+      addedCount++;
+    }
+    if (batch == null) {
+      // Everything was reported recently
+      if (after != null) {
+        after.runWithBool(true);
+      }
+      return;
+    }
+    if (after != null) {
+      if (batch.callbacks == null) {
+        batch.callbacks = new ArrayList<>();
+      }
+      batch.callbacks.add(after);
+    }
+    if (addedCount > 0) {
+      if (firstPendingTime == 0) {
+        firstPendingTime = now;
+      }
+      lastPendingTime = now;
+    }
+    if (flushNow || batch.messageIds.size() >= MAX_BATCH_SIZE) {
+      pending.remove(key);
+      send(batch, now);
+      if (pending.isEmpty()) {
+        cancelFlush();
+      }
+    } else {
+      scheduleFlush(now);
+    }
+  }
+
+  public void flush () {
+    cancelFlush();
+    if (pending.isEmpty()) {
+      return;
+    }
+    final long now = SystemClock.uptimeMillis();
+    for (Batch batch : pending.values()) {
+      send(batch, now);
+    }
+    pending.clear();
+    if (Log.isEnabled(Log.TAG_MESSAGES_LOADER)) {
+      Log.v(Log.TAG_MESSAGES_LOADER, "ViewMessages: received %d ids, skipped %d already reported, sent %d requests", receivedCount, skippedCount, requestCount);
+    }
+  }
+
+  @Override
+  public void onUiStateChanged (int newState) {
+    if (newState != UI.State.RESUMED) {
+      flush();
+    }
+  }
+
+  private void onFlushTimeout () {
+    flushScheduled = false;
+    if (pending.isEmpty()) {
+      return;
+    }
+    final long now = SystemClock.uptimeMillis();
+    final long deadline = Math.min(lastPendingTime + IDLE_DELAY_MS, firstPendingTime + MAX_DELAY_MS);
+    if (now >= deadline) {
+      flush();
+    } else {
+      scheduleFlush(now);
+    }
+  }
+
+  private void scheduleFlush (long now) {
+    if (!flushScheduled) {
+      final long deadline = Math.min(lastPendingTime + IDLE_DELAY_MS, firstPendingTime + MAX_DELAY_MS);
+      flushScheduled = true;
+      tdlib.ui().postDelayed(flushAct, Math.max(0, deadline - now));
+    }
+  }
+
+  private void cancelFlush () {
+    if (flushScheduled) {
+      tdlib.ui().removeCallbacks(flushAct);
+      flushScheduled = false;
+    }
+    firstPendingTime = lastPendingTime = 0;
+  }
+
+  private Reported findReported (Key key, long now) {
+    Reported reported = this.reported.get(key);
+    if (reported == null) {
+      reported = new Reported();
+      reported.rotateTime = now + reportedTtlMs / 2;
+      this.reported.put(key, reported);
+    } else if (now >= reported.rotateTime) {
+      LongSet previous = reported.previous;
+      previous.clear();
+      if (now >= reported.rotateTime + reportedTtlMs / 2) {
+        // Both generations expired
+        reported.current.clear();
+      }
+      reported.previous = reported.current;
+      reported.current = previous;
+      reported.rotateTime = now + reportedTtlMs / 2;
+    }
+    return reported;
+  }
+
+  private void trimReported (long now) {
+    Iterator<Reported> itr = reported.values().iterator();
+    while (itr.hasNext()) {
+      Reported reported = itr.next();
+      if (now >= reported.rotateTime + reportedTtlMs / 2) {
+        itr.remove();
+      }
+    }
+  }
+
+  private void send (Batch batch, long now) {
+    final Key key = batch.key;
+    final long[] messageIds = batch.messageIds.toArray();
+    final List<RunnableBool> callbacks = batch.callbacks;
+    if (reported.size() > MAX_REPORTED_CHAT_COUNT) {
+      trimReported(now);
+    }
+    if (!key.forceRead) {
+      Reported reported = findReported(key, now);
+      for (long messageId : messageIds) {
+        reported.current.add(messageId);
+      }
+    }
+    requestCount++;
+    tdlib.send(new TdApi.ViewMessages(key.chatId, messageIds, batch.source, key.forceRead), (ok, error) -> {
+      if (callbacks != null) {
+        for (RunnableBool callback : callbacks) {
+          callback.runWithBool(error == null);
+        }
+      }
+      if (error != null) {
+        TDLib.w("Unable to view %d messages in chat %d, source: %s, error: %s", messageIds.length, key.chatId, batch.source, TD.toErrorString(error));
+      }
+    });
+  }
+}
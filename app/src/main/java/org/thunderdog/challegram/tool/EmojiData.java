@@ -14,8 +14,10 @@
  */
 package org.thunderdog.challegram.tool;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import me.vkryl.core.StringUtils;
@@ -70,14 +72,18 @@ public class EmojiData {
     return count;
   }
 
-  private final HashSet<Character> dataCharsMap;
+  private final long[] dataCharsMap; // Bit per char
   private final Set<String> emojiColoredSet, emojiColored2dMap;
   private final HashMap<String, String> emojiAliasMap;
 
   private EmojiData () {
-    this.dataCharsMap = new HashSet<>(dataChars.length);
+    char maxDataChar = 0;
     for (char dataChar : dataChars) {
-      dataCharsMap.add(dataChar);
+      maxDataChar = (char) Math.max(maxDataChar, dataChar);
+    }
+    this.dataCharsMap = new long[(maxDataChar >> 6) + 1];
+    for (char dataChar : dataChars) {
+      dataCharsMap[dataChar >> 6] |= 1L << (dataChar & 63);
     }
 
     this.emojiColored2dMap = Emojis.colored2dSet();
@@ -115,6 +121,10 @@ public class EmojiData {
     return emojiAliasMap.get(emoji);
   }
 
+  public Map<String, String> getEmojiAliases () {
+    return Collections.unmodifiableMap(emojiAliasMap);
+  }
+
   public static final int STATE_NO_COLORS = 0;
   public static final int STATE_HAS_ONE_COLOR = 1;
   public static final int STATE_HAS_TWO_COLORS = 2;
@@ -130,8 +140,9 @@ public class EmojiData {
     return STATE_NO_COLORS;
   }
 
-  public boolean containsDataChar (Character c) {
-    return dataCharsMap.contains(c);
+  public boolean containsDataChar (char c) {
+    int index = c >> 6;
+    return index < dataCharsMap.length && (dataCharsMap[index] & (1L << (c & 63))) != 0;
   }
 
   public String colorize (String code, String color1, String[] otherColors) {
@@ -50,8 +50,8 @@ import org.drinkmore.Tracer;
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.R;
 import org.thunderdog.challegram.U;
-import org.thunderdog.challegram.core.DiffMatchPatch;
 import org.thunderdog.challegram.core.Lang;
+import org.thunderdog.challegram.core.MyersDiff;
 import org.thunderdog.challegram.navigation.ViewController;
 import org.thunderdog.challegram.support.ViewTranslator;
 import org.thunderdog.challegram.theme.ColorId;
@@ -63,7 +63,6 @@ import org.thunderdog.challegram.widget.AttachDelegate;
 import org.thunderdog.challegram.widget.NoScrollTextView;
 
 import java.lang.reflect.Field;
-import java.util.LinkedList;
 
 import me.vkryl.android.AnimatorUtils;
 import me.vkryl.android.widget.FrameLayoutFix;
@@ -285,21 +284,24 @@ public class Views {
   }
 
   public static void replaceText (Editable editable, String source, String target) {
-    LinkedList<DiffMatchPatch.Diff> diffs = DiffMatchPatch.instance().diff_main(source, target);
-    int index = 0;
-    for (DiffMatchPatch.Diff diff : diffs) {
-      switch (diff.operation) {
-        case DELETE: {
-          editable.delete(index, index + diff.text.length());
+    MyersDiff.Script script = MyersDiff.diff(source, target);
+    int index = 0, targetIndex = 0;
+    for (int i = 0; i < script.size(); i++) {
+      final int length = script.getLength(i);
+      switch (script.getOperation(i)) {
+        case MyersDiff.DELETE: {
+          editable.delete(index, index + length);
           break;
         }
-        case INSERT: {
-          editable.insert(index, diff.text);
-          index += diff.text.length();
+        case MyersDiff.INSERT: {
+          editable.insert(index, target, targetIndex, targetIndex + length);
+          index += length;
+          targetIndex += length;
           break;
         }
-        case EQUAL: {
-          index += diff.text.length();
+        case MyersDiff.EQUAL: {
+          index += length;
+          targetIndex += length;
           break;
         }
       }
@@ -9734,8 +9734,7 @@ public class MessagesController extends ViewController<MessagesController.Argume
             for (int i = sentMessagesCount - 1; i >= 0; i--) {
               tdlib.listeners().unsubscribeFromUpdates(sentMessages.get(i));
             }
-            List<TGMessage> parsedMessages = manager.parseMessages(sentMessages);
-            tdlib.ui().post(() -> {
+            manager.parseMessages(sentMessages, parsedMessages -> {
               if (isSchedule == areScheduled) {
                 manager.addSentMessages(parsedMessages);
               }
@@ -0,0 +1,164 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 17:52
+ */
+package org.thunderdog.challegram.util;
+
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.vkryl.core.lambda.RunnableData;
+
+/**
+ * Small most-recently-used set of layouts built for different available widths,
+ * so that switching back to a recent width (rotation, split-screen, resizing) is a lookup.
+ *
+ * Each entry remembers how long it took to build, which is counted as saved time on a hit.
+ * Not thread-safe.
+ */
+public final class LayoutCache<T> {
+  private final int[] widths;
+  private final long[] buildTimes;
+  private final Object[] values;
+  private int size;
+  private long takenBuildTime;
+
+  public LayoutCache (int capacity) {
+    this.widths = new int[capacity];
+    this.buildTimes = new long[capacity];
+    this.values = new Object[capacity];
+  }
+
+  public boolean isEmpty () {
+    return size == 0;
+  }
+
+  public boolean isFull () {
+    return size == values.length;
+  }
+
+  /**
+   * Removes and returns layout previously built for exactly the given width, if any.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public T take (int width) {
+    for (int i = 0; i < size; i++) {
+      if (widths[i] == width) {
+        T value = (T) values[i];
+        takenBuildTime = buildTimes[i];
+        recordHit(takenBuildTime);
+        removeAt(i);
+        return value;
+      }
+    }
+    recordMiss();
+    return null;
+  }
+
+  /**
+   * Removes and returns the least recently used layout, so it can be rebuilt in place for another width.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public T removeEldest () {
+    if (size == 0) {
+      return null;
+    }
+    T value = (T) values[size - 1];
+    removeAt(size - 1);
+    return value;
+  }
+
+  /**
+   * @return Build time of the layout most recently returned by {@link #take(int)}
+   */
+  public long getTakenBuildTime () {
+    return takenBuildTime;
+  }
+
+  /**
+   * Keeps the layout built for the given width, evicting the least recently used one when full.
+   *
+   * @param buildTimeNanos Time it took to build {@code value}
+   * @param onEvict Called for every layout that no longer fits in the cache
+   */
+  @SuppressWarnings("unchecked")
+  public void put (int width, T value, long buildTimeNanos, @Nullable RunnableData<T> onEvict) {
+    for (int i = 0; i < size; i++) {
+      if (widths[i] == width) {
+        T prevValue = (T) values[i];
+        removeAt(i);
+        if (onEvict != null && prevValue != value) {
+          onEvict.runWithData(prevValue);
+        }
+        break;
+      }
+    }
+    if (size == values.length) {
+      T evictedValue = (T) values[size - 1];
+      removeAt(size - 1);
+      if (onEvict != null) {
+        onEvict.runWithData(evictedValue);
+      }
+    }
+    System.arraycopy(widths, 0, widths, 1, size);
+    System.arraycopy(buildTimes, 0, buildTimes, 1, size);
+    System.arraycopy(values, 0, values, 1, size);
+    widths[0] = width;
+    buildTimes[0] = buildTimeNanos;
+    values[0] = value;
+    size++;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void clear (@Nullable RunnableData<T> onEvict) {
+    for (int i = 0; i < size; i++) {
+      if (onEvict != null) {
+        onEvict.runWithData((T) values[i]);
+      }
+      values[i] = null;
+    }
+    size = 0;
+  }
+
+  private void removeAt (int index) {
+    int moveCount = size - index - 1;
+    if (moveCount > 0) {
+      System.arraycopy(widths, index + 1, widths, index, moveCount);
+      System.arraycopy(buildTimes, index + 1, buildTimes, index, moveCount);
+      System.arraycopy(values, index + 1, values, index, moveCount);
+    }
+    values[--size] = null;
+  }
+
+  // Statistics
+
+  private static final AtomicLong hitCount = new AtomicLong(), missCount = new AtomicLong(), savedNanos = new AtomicLong();
+
+  private static void recordHit (long buildTimeNanos) {
+    long hits = hitCount.incrementAndGet();
+    long saved = savedNanos.addAndGet(buildTimeNanos);
+    if (hits % 100 == 0 && Log.isEnabled(Log.TAG_SPEED_TEXT)) {
+      long misses = missCount.get();
+      Log.i(Log.TAG_SPEED_TEXT, "Layout cache hit rate: %.1f%% (%d/%d), saved %dms", (double) hits / (double) (hits + misses) * 100.0, hits, hits + misses, saved / 1_000_000L);
+    }
+  }
+
+  private static void recordMiss () {
+    missCount.incrementAndGet();
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 13:48
+ */
+package org.thunderdog.challegram.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open-addressing hash map with primitive {@code long} keys.
+ *
+ * Unlike {@code HashMap<Long, V>} it doesn't box keys on lookups and updates,
+ * and unlike {@code LongSparseArray} insertions and removals don't shift arrays.
+ * Uses linear probing with backward-shift deletion, so there are no tombstones.
+ *
+ * {@code null} values are not allowed: {@link #put(long, Object)} with {@code null} removes the key.
+ * Not thread-safe.
+ */
+public final class LongObjectMap<V> {
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private Object[] values; // null marks an empty slot
+  private int size;
+  private int mask;
+  private int resizeThreshold;
+  private int modCount;
+
+  public LongObjectMap () {
+    this(MIN_CAPACITY);
+  }
+
+  public LongObjectMap (int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  private static int capacityFor (int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < expectedSize) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate (int capacity) {
+    this.keys = new long[capacity];
+    this.values = new Object[capacity];
+    this.mask = capacity - 1;
+    this.resizeThreshold = capacity * 3 / 4;
+  }
+
+  private static int hash (long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int indexOf (long key) {
+    int index = hash(key) & mask;
+    while (values[index] != null) {
+      if (keys[index] == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  public int size () {
+    return size;
+  }
+
+  public boolean isEmpty () {
+    return size == 0;
+  }
+
+  public boolean containsKey (long key) {
+    return indexOf(key) != -1;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V get (long key) {
+    int index = indexOf(key);
+    return index != -1 ? (V) values[index] : null;
+  }
+
+  /**
+   * Lookup that may run concurrently with a writer, e.g. inside {@link java.util.concurrent.locks.StampedLock#tryOptimisticRead()}.
+   *
+   * Never throws and never loops forever, even when it observes the map in the middle of
+   * {@link #put}, {@link #remove} or a rehash, but the result is only meaningful once the caller
+   * made sure no write happened meanwhile.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V getOptimistic (long key) {
+    final long[] keys = this.keys;
+    final Object[] values = this.values;
+    final int capacity = Math.min(keys.length, values.length);
+    final int mask = capacity - 1; // Both lengths are powers of two
+    int index = hash(key) & mask;
+    for (int probe = 0; probe < capacity; probe++) {
+      Object value = values[index];
+      if (value == null) {
+        break;
+      }
+      if (keys[index] == key) {
+        return (V) value;
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V put (long key, @Nullable V value) {
+    if (value == null) {
+      return remove(key);
+    }
+    int index = hash(key) & mask;
+    while (values[index] != null) {
+      if (keys[index] == key) {
+        V prevValue = (V) values[index];
+        values[index] = value;
+        return prevValue;
+      }
+      index = (index + 1) & mask;
+    }
+    keys[index] = key;
+    values[index] = value;
+    modCount++;
+    if (++size > resizeThreshold) {
+      rehash(keys.length << 1);
+    }
+    return null;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V remove (long key) {
+    int index = indexOf(key);
+    if (index == -1) {
+      return null;
+    }
+    V prevValue = (V) values[index];
+    values[index] = null;
+    size--;
+    modCount++;
+
+    // Shift following entries of the same cluster back, so lookups don't stop at the hole
+    int hole = index;
+    int next = (index + 1) & mask;
+    while (values[next] != null) {
+      int ideal = hash(keys[next]) & mask;
+      boolean canMove = hole <= next ? (ideal <= hole || ideal > next) : (ideal <= hole && ideal > next);
+      if (canMove) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        values[next] = null;
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    return prevValue;
+  }
+
+  public void clear () {
+    if (size > 0) {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = null;
+      }
+      size = 0;
+      modCount++;
+    }
+  }
+
+  private void rehash (int newCapacity) {
+    long[] oldKeys = this.keys;
+    Object[] oldValues = this.values;
+    allocate(newCapacity);
+    for (int i = 0; i < oldValues.length; i++) {
+      Object value = oldValues[i];
+      if (value != null) {
+        int index = hash(oldKeys[i]) & mask;
+        while (values[index] != null) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = oldKeys[i];
+        values[index] = value;
+      }
+    }
+  }
+
+  /**
+   * @return View over values in unspecified order. Map must not be modified while iterating.
+   */
+  @NonNull
+  public Iterable<V> values () {
+    return () -> new Iterator<V>() {
+      private final int expectedModCount = modCount;
+      private int index = advance(0);
+
+      private int advance (int from) {
+        while (from < values.length && values[from] == null) {
+          from++;
+        }
+        return from;
+      }
+
+      @Override
+      public boolean hasNext () {
+        return index < values.length;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V next () {
+        if (expectedModCount != modCount)
+          throw new ConcurrentModificationException();
+        if (index >= values.length)
+          throw new NoSuchElementException();
+        V value = (V) values[index];
+        index = advance(index + 1);
+        return value;
+      }
+    };
+  }
+}
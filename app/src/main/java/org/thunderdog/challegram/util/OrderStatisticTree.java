@@ -0,0 +1,262 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 15:42
+ */
+package org.thunderdog.challegram.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted collection of distinct elements backed by an AVL tree, where every node knows its subtree size.
+ *
+ * Insertion, removal, lookup of an element's index and lookup by index are all O(log n),
+ * so moving an element equals {@link #remove} + {@link #add} without shifting arrays.
+ *
+ * Elements must not change their ordering while they are in the tree: remove, modify, add back.
+ * Not thread-safe.
+ */
+public final class OrderStatisticTree<E> implements Iterable<E> {
+  private static final class Node<E> {
+    private E value;
+    private Node<E> left, right;
+    private int height = 1, size = 1;
+
+    private Node (E value) {
+      this.value = value;
+    }
+  }
+
+  private final Comparator<? super E> comparator;
+  private Node<E> root;
+  private int modCount;
+  private int lastIndex; // Result of the last recursive add or remove
+
+  public OrderStatisticTree (@NonNull Comparator<? super E> comparator) {
+    this.comparator = comparator;
+  }
+
+  public int size () {
+    return size(root);
+  }
+
+  public boolean isEmpty () {
+    return root == null;
+  }
+
+  public void clear () {
+    root = null;
+    modCount++;
+  }
+
+  /**
+   * @return Index at which element has been inserted
+   * @throws IllegalStateException when an equal element is already present
+   */
+  public int add (@NonNull E value) {
+    root = insert(root, value, 0);
+    modCount++;
+    return lastIndex;
+  }
+
+  /**
+   * @return Index element had before removal, or -1 if it wasn't present
+   */
+  public int remove (@NonNull E value) {
+    root = delete(root, value, 0);
+    if (lastIndex != -1) {
+      modCount++;
+    }
+    return lastIndex;
+  }
+
+  /**
+   * @return Index of the element, or -1 if it is not present
+   */
+  public int indexOf (@NonNull E value) {
+    Node<E> node = root;
+    int offset = 0;
+    while (node != null) {
+      int cmp = comparator.compare(value, node.value);
+      if (cmp < 0) {
+        node = node.left;
+      } else if (cmp > 0) {
+        offset += size(node.left) + 1;
+        node = node.right;
+      } else {
+        return offset + size(node.left);
+      }
+    }
+    return -1;
+  }
+
+  public E get (int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+    }
+    Node<E> node = root;
+    while (true) {
+      int leftSize = size(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index > leftSize) {
+        index -= leftSize + 1;
+        node = node.right;
+      } else {
+        return node.value;
+      }
+    }
+  }
+
+  @NonNull
+  @Override
+  public Iterator<E> iterator () {
+    return new Iterator<E>() {
+      private final ArrayDeque<Node<E>> stack = new ArrayDeque<>();
+      private final int expectedModCount = modCount;
+
+      {
+        pushLeft(root);
+      }
+
+      private void pushLeft (Node<E> node) {
+        while (node != null) {
+          stack.push(node);
+          node = node.left;
+        }
+      }
+
+      @Override
+      public boolean hasNext () {
+        return !stack.isEmpty();
+      }
+
+      @Override
+      public E next () {
+        if (modCount != expectedModCount)
+          throw new ConcurrentModificationException();
+        if (stack.isEmpty())
+          throw new NoSuchElementException();
+        Node<E> node = stack.pop();
+        pushLeft(node.right);
+        return node.value;
+      }
+    };
+  }
+
+  // Internal
+
+  private static int size (Node<?> node) {
+    return node != null ? node.size : 0;
+  }
+
+  private static int height (Node<?> node) {
+    return node != null ? node.height : 0;
+  }
+
+  private static void update (Node<?> node) {
+    node.height = Math.max(height(node.left), height(node.right)) + 1;
+    node.size = size(node.left) + size(node.right) + 1;
+  }
+
+  private Node<E> insert (Node<E> node, E value, int offset) {
+    if (node == null) {
+      lastIndex = offset;
+      return new Node<>(value);
+    }
+    int cmp = comparator.compare(value, node.value);
+    if (cmp < 0) {
+      node.left = insert(node.left, value, offset);
+    } else if (cmp > 0) {
+      node.right = insert(node.right, value, offset + size(node.left) + 1);
+    } else {
+      throw new IllegalStateException();
+    }
+    return rebalance(node);
+  }
+
+  private Node<E> delete (Node<E> node, E value, int offset) {
+    if (node == null) {
+      lastIndex = -1;
+      return null;
+    }
+    int cmp = comparator.compare(value, node.value);
+    if (cmp < 0) {
+      node.left = delete(node.left, value, offset);
+    } else if (cmp > 0) {
+      node.right = delete(node.right, value, offset + size(node.left) + 1);
+    } else {
+      lastIndex = offset + size(node.left);
+      if (node.left == null)
+        return node.right;
+      if (node.right == null)
+        return node.left;
+      Node<E> successor = node.right;
+      while (successor.left != null) {
+        successor = successor.left;
+      }
+      node.value = successor.value;
+      node.right = deleteMin(node.right);
+    }
+    return rebalance(node);
+  }
+
+  private Node<E> deleteMin (Node<E> node) {
+    if (node.left == null) {
+      return node.right;
+    }
+    node.left = deleteMin(node.left);
+    return rebalance(node);
+  }
+
+  private static <E> Node<E> rebalance (Node<E> node) {
+    update(node);
+    int balance = height(node.left) - height(node.right);
+    if (balance > 1) {
+      if (height(node.left.left) < height(node.left.right)) {
+        node.left = rotateLeft(node.left);
+      }
+      return rotateRight(node);
+    }
+    if (balance < -1) {
+      if (height(node.right.right) < height(node.right.left)) {
+        node.right = rotateRight(node.right);
+      }
+      return rotateLeft(node);
+    }
+    return node;
+  }
+
+  private static <E> Node<E> rotateRight (Node<E> node) {
+    Node<E> left = node.left;
+    node.left = left.right;
+    left.right = node;
+    update(node);
+    update(left);
+    return left;
+  }
+
+  private static <E> Node<E> rotateLeft (Node<E> node) {
+    Node<E> right = node.right;
+    node.right = right.left;
+    right.left = node;
+    update(node);
+    update(right);
+    return right;
+  }
+}
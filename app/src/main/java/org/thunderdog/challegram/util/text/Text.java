@@ -43,8 +43,8 @@ import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.BuildConfig;
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.U;
-import org.thunderdog.challegram.core.DiffMatchPatch;
 import org.thunderdog.challegram.core.Lang;
+import org.thunderdog.challegram.core.MyersDiff;
 import org.thunderdog.challegram.data.TD;
 import org.thunderdog.challegram.emoji.Emoji;
 import org.thunderdog.challegram.emoji.EmojiInfo;
@@ -68,7 +68,6 @@ import org.thunderdog.challegram.util.text.bidi.BiDiUtils;
 import java.text.Bidi;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -1006,10 +1005,28 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
       for (TextPart part : parts) {
         debug.append(part.getLine(), part.getStart(), part.getEnd());
       }
-      LinkedList<DiffMatchPatch.Diff> list = DiffMatchPatch.instance().diff_main(in, debug.toString());
-      for (DiffMatchPatch.Diff diff : list) {
-        if (!diff.operation.equals(DiffMatchPatch.Operation.EQUAL) && diff.text.trim().length() > 0) {
-          UI.showToast("TEXT PARSING PROBABLY FAILED:\n" + diff.operation + ": " + diff.text + "\n" + in, Toast.LENGTH_LONG);
+      final String output = debug.toString();
+      MyersDiff.Script script = MyersDiff.diff(in, output);
+      int inIndex = 0, outputIndex = 0;
+      for (int i = 0; i < script.size(); i++) {
+        final int length = script.getLength(i);
+        switch (script.getOperation(i)) {
+          case MyersDiff.EQUAL:
+            inIndex += length;
+            outputIndex += length;
+            break;
+          case MyersDiff.DELETE:
+            if (!isBlank(in, inIndex, inIndex + length)) {
+              UI.showToast("TEXT PARSING PROBABLY FAILED:\nDELETE: " + in.substring(inIndex, inIndex + length) + "\n" + in, Toast.LENGTH_LONG);
+            }
+            inIndex += length;
+            break;
+          case MyersDiff.INSERT:
+            if (!isBlank(output, outputIndex, outputIndex + length)) {
+              UI.showToast("TEXT PARSING PROBABLY FAILED:\nINSERT: " + output.substring(outputIndex, outputIndex + length) + "\n" + in, Toast.LENGTH_LONG);
+            }
+            outputIndex += length;
+            break;
         }
       }
     }
@@ -1025,6 +1042,15 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
     }
   }
 
+  private static boolean isBlank (String in, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (in.charAt(i) > ' ') { // Same as String.trim()
+        return false;
+      }
+    }
+    return true;
+  }
+
   private static int findMoreSpaces (String in, int start) {
     final int length = in.length();
     int c = 0;
@@ -1588,7 +1614,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
       } else if (isChild) {
         fullWidth = childWidth[0];
       } else {
-        fullWidth = BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+        fullWidth = TextAdvanceCache.measureTextRun(bidiEntity, in, start, end, paint);
       }
     }
     futureWidth = fullWidth;
@@ -1646,7 +1672,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
         } else if (newEnd - currentEnd == 1 && lastCodePointWidth != -1 && lastCodePoint == codePoint) {
           charWidth = lastCodePointWidth;
         } else {
-          charWidth = BiDiUtils.measureTextRun(bidiEntity, in, currentEnd, newEnd, paint); //    U.measureText(in, currentEnd, newEnd, paint);
+          charWidth = TextAdvanceCache.measureTextRun(bidiEntity, in, currentEnd, newEnd, paint);
           if (newEnd - currentEnd == 1) {
             lastCodePoint = codePoint;
             lastCodePointWidth = charWidth;
@@ -0,0 +1,294 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 17:05
+ */
+package org.thunderdog.challegram.util.text;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextPaint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.util.text.bidi.BiDiEntity;
+import org.thunderdog.challegram.util.text.bidi.BiDiUtils;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Memoizes advances of single code points and short runs measured by {@link Text},
+ * separately for each distinct paint configuration (typeface, text size, scale, letter spacing, flags, features, locale).
+ *
+ * Tables are direct-mapped and fixed-size, so memory stays bounded: a colliding entry simply replaces the previous one.
+ * Only runs made of characters below Hebrew block are cached, as their advance doesn't depend on the surrounding context,
+ * so a hit always equals what native measuring would return.
+ *
+ * Lookups take no locks, so layout on the UI thread never waits for layout on {@code MessagesLoaderThread}
+ * or for {@link #prewarm(String, TextPaint)}: the list of tables is copy-on-write,
+ * and every slot is published atomically as a single value.
+ *
+ * {@link #prewarm(String, TextPaint)} measures words of text that is about to be laid out
+ * on a background thread, so that layout itself on the calling thread mostly hits the cache.
+ */
+public final class TextAdvanceCache {
+  private static final int MAX_TABLE_COUNT = 24;
+  private static final int CODE_POINT_CAPACITY = 512; // Must be a power of two
+  private static final int RUN_CAPACITY = 1024; // Must be a power of two
+  private static final int MAX_RUN_LENGTH = 24;
+  private static final int MAX_CACHEABLE_CHAR = 0x0590;
+
+  private static final int MODE_PLAIN = 0, MODE_LTR = 1, MODE_RTL = 2;
+
+  private static final class Run {
+    private final int hash;
+    private final int mode;
+    private final char[] chars;
+    private final float advance;
+
+    Run (int hash, int mode, char[] chars, float advance) {
+      this.hash = hash;
+      this.mode = mode;
+      this.chars = chars;
+      this.advance = advance;
+    }
+  }
+
+  private static final class Table {
+    private final Typeface typeface;
+    private final float textSize, textScaleX, letterSpacing;
+    private final int flags;
+    private final @Nullable String fontFeatureSettings;
+    private final @Nullable Locale textLocale;
+
+    // Code point + 1 in high bits, advance bits in low bits, 0 when empty. Three modes
+    private final AtomicLongArray codePoints = new AtomicLongArray(CODE_POINT_CAPACITY * 3);
+    private final AtomicReferenceArray<Run> runs = new AtomicReferenceArray<>(RUN_CAPACITY);
+
+    Table (Paint paint) {
+      this.typeface = paint.getTypeface();
+      this.textSize = paint.getTextSize();
+      this.textScaleX = paint.getTextScaleX();
+      this.letterSpacing = getLetterSpacing(paint);
+      this.flags = paint.getFlags();
+      this.fontFeatureSettings = getFontFeatureSettings(paint);
+      this.textLocale = getTextLocale(paint);
+    }
+
+    boolean matches (Paint paint) {
+      return
+        typeface == paint.getTypeface() &&
+        textSize == paint.getTextSize() &&
+        textScaleX == paint.getTextScaleX() &&
+        flags == paint.getFlags() &&
+        letterSpacing == getLetterSpacing(paint) &&
+        StringUtils.equalsOrBothEmpty(fontFeatureSettings, getFontFeatureSettings(paint)) &&
+        (textLocale != null ? textLocale.equals(getTextLocale(paint)) : getTextLocale(paint) == null);
+    }
+  }
+
+  private static float getLetterSpacing (Paint paint) {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? paint.getLetterSpacing() : 0f;
+  }
+
+  @Nullable
+  private static Locale getTextLocale (Paint paint) {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 ? paint.getTextLocale() : null;
+  }
+
+  @Nullable
+  private static String getFontFeatureSettings (Paint paint) {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? paint.getFontFeatureSettings() : null;
+  }
+
+  private static final Table[] EMPTY = new Table[0];
+
+  private static final Object lock = new Object();
+  private static volatile Table[] tables = EMPTY; // Most recently added first
+
+  /**
+   * Same as {@link BiDiUtils#measureTextRun(int, CharSequence, int, int, Paint)}, but memoized when possible.
+   */
+  public static float measureTextRun (@BiDiEntity int bidiEntity, @NonNull CharSequence in, int start, int end, @NonNull Paint paint) {
+    final int length = end - start;
+    if (length <= 0 || length > MAX_RUN_LENGTH || !isCacheable(in, start, end)) {
+      return BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+    }
+    final Table table = findTable(paint);
+    final int mode = modeOf(bidiEntity);
+    if (length == 1) {
+      final int codePoint = in.charAt(start);
+      final int slot = mode * CODE_POINT_CAPACITY + (codePoint & (CODE_POINT_CAPACITY - 1));
+      final long entry = table.codePoints.get(slot);
+      if ((int) (entry >>> 32) == codePoint + 1) {
+        return Float.intBitsToFloat((int) entry);
+      }
+      final float advance = BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+      table.codePoints.set(slot, ((long) (codePoint + 1) << 32) | (Float.floatToRawIntBits(advance) & 0xffffffffL));
+      return advance;
+    }
+    final int hash = hash(in, start, end, mode);
+    final int slot = hash & (RUN_CAPACITY - 1);
+    final Run run = table.runs.get(slot);
+    if (run != null && run.hash == hash && run.mode == mode && equals(run.chars, in, start, end)) {
+      return run.advance;
+    }
+    final float advance = BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+    final char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = in.charAt(start + i);
+    }
+    table.runs.set(slot, new Run(hash, mode, chars, advance));
+    return advance;
+  }
+
+  public static void clear () {
+    synchronized (lock) {
+      tables = EMPTY;
+    }
+  }
+
+  // Prewarm
+
+  private static ThreadPoolExecutor executor;
+
+  private static ThreadPoolExecutor executor () {
+    synchronized (TextAdvanceCache.class) {
+      if (executor == null) {
+        executor = new ThreadPoolExecutor(1, 1,
+          30, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(64),
+          runnable -> {
+            Thread thread = new Thread(() -> {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }, "TextMeasurer");
+            thread.setDaemon(true);
+            return thread;
+          },
+          new ThreadPoolExecutor.DiscardOldestPolicy() // Older text is likely laid out already
+        );
+        executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+    }
+  }
+
+  /**
+   * Measures words of the text in background with a copy of the given paint,
+   * the same way {@link Text} measures left-to-right text split by spaces.
+   * Results are published into the same tables lookups read, so layout racing with prewarm
+   * at worst measures the same word twice.
+   *
+   * Must be called on the thread that owns {@code paint}.
+   */
+  public static void prewarm (@Nullable String text, @NonNull TextPaint paint) {
+    if (StringUtils.isEmpty(text) || text.length() > 4096 || BiDiUtils.requiresBidi(text, 0, text.length())) {
+      return;
+    }
+    final TextPaint paintCopy = new TextPaint(paint);
+    executor().execute(() -> {
+      final long startTime = Log.isEnabled(Log.TAG_SPEED_TEXT) ? SystemClock.elapsedRealtime() : 0;
+      @BiDiEntity int ltrEntity = BiDiUtils.create(0, 0, 0);
+      final int length = text.length();
+      int wordStart = 0;
+      for (int i = 0; i < length; i++) {
+        if (text.charAt(i) == ' ' && (i + 1 == length || text.charAt(i + 1) != ' ')) {
+          if (i + 1 - wordStart > 1) {
+            measureTextRun(ltrEntity, text, wordStart, i + 1, paintCopy);
+          }
+          wordStart = i + 1;
+        }
+      }
+      if (length - wordStart > 1) {
+        measureTextRun(ltrEntity, text, wordStart, length, paintCopy);
+      }
+      if (startTime != 0) {
+        Log.v(Log.TAG_SPEED_TEXT, "Prewarmed %d chars in %dms", length, SystemClock.elapsedRealtime() - startTime);
+      }
+    });
+  }
+
+  // Internal
+
+  private static int modeOf (@BiDiEntity int bidiEntity) {
+    if (!BiDiUtils.isValid(bidiEntity)) {
+      return MODE_PLAIN;
+    }
+    return BiDiUtils.isRtl(bidiEntity) ? MODE_RTL : MODE_LTR;
+  }
+
+  private static boolean isCacheable (CharSequence in, int start, int end) {
+    for (int i = start; i < end; i++) {
+      final char c = in.charAt(i);
+      if (c >= MAX_CACHEABLE_CHAR || (c >= 0x0300 && c <= 0x036F)) { // Combining marks depend on neighbours
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash (CharSequence in, int start, int end, int mode) {
+    int hash = mode;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + in.charAt(i);
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equals (char[] run, CharSequence in, int start, int end) {
+    if (run.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < run.length; i++) {
+      if (run[i] != in.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Table findTable (Paint paint) {
+    for (Table table : tables) {
+      if (table.matches(paint)) {
+        return table;
+      }
+    }
+    synchronized (lock) {
+      final Table[] current = tables;
+      for (Table table : current) {
+        if (table.matches(paint)) {
+          return table;
+        }
+      }
+      // New configurations go first, the least recently added one is dropped when full
+      final Table table = new Table(paint);
+      final Table[] updated = new Table[Math.min(current.length + 1, MAX_TABLE_COUNT)];
+      updated[0] = table;
+      System.arraycopy(current, 0, updated, 1, updated.length - 1);
+      tables = updated;
+      return table;
+    }
+  }
+}
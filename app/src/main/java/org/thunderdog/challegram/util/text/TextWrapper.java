@@ -28,6 +28,7 @@ import org.thunderdog.challegram.telegram.Tdlib;
 import org.thunderdog.challegram.telegram.TdlibUi;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.unsorted.Settings;
+import org.thunderdog.challegram.util.LayoutCache;
 
 import me.vkryl.android.animator.ListAnimator;
 import me.vkryl.android.util.MultipleViewProvider;
@@ -43,6 +44,10 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
   private final int[] sizes;
   private final int[] textSizes;
   private final Text[] texts;
+  private final long[] buildTimes;
+
+  private static final int MAX_RECENT_TEXT_COUNT = 2;
+  private final LayoutCache<Text>[] recentTexts; // Layouts for other widths per orientation, most recent first
 
   private final String text;
   private final TextStyleProvider textStyleProvider;
@@ -60,6 +65,9 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
     this.sizes = new int[2];
     this.texts = new Text[2];
     this.textSizes = new int[2];
+    this.buildTimes = new long[2];
+    //noinspection unchecked
+    this.recentTexts = new LayoutCache[2];
     this.text = text;
     this.textStyleProvider = textStyleProvider;
     this.colorTheme = colorTheme;
@@ -74,6 +82,7 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
   public TextWrapper (Tdlib tdlib, @NonNull TdApi.FormattedText text, TextStyleProvider styleProvider, @NonNull TextColorSet colorTheme, @Nullable TdlibUi.UrlOpenParameters openParameters, @Nullable TextMediaListener textMediaListener) {
     this(text.text, styleProvider, colorTheme);
     setEntities(TextEntity.valueOf(tdlib, text, openParameters), textMediaListener);
+    TextAdvanceCache.prewarm(text.text, styleProvider.getTextPaint()); // Message text is usually laid out shortly after
   }
 
   public TextWrapper (Tdlib tdlib, String text, TextStyleProvider styleProvider, @NonNull TextColorSet colorTheme, int linkFlags, @Nullable TdlibUi.UrlOpenParameters openParameters, @Nullable TextMediaListener textMediaListener) {
@@ -84,6 +93,7 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
   private TextWrapper setTextFlags (int textFlags) {
     if (this.textFlags != textFlags) {
       this.textFlags = textFlags;
+      clearRecentTexts();
       for (Text text : texts) {
         if (text != null)
           text.setTextFlags(textFlags);
@@ -116,7 +126,10 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
   private Text.LineWidthProvider lineWidthProvider;
 
   public TextWrapper setLineWidthProvider (Text.LineWidthProvider provider) {
-    this.lineWidthProvider = provider;
+    if (this.lineWidthProvider != provider) {
+      this.lineWidthProvider = provider;
+      clearRecentTexts();
+    }
     return this;
   }
 
@@ -134,11 +147,15 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
   public TextWrapper setEntities (TextEntity[] entities, TextMediaListener listener) {
     this.entities = entities;
     this.textMediaListener = listener;
+    clearRecentTexts();
     return this;
   }
 
   public TextWrapper setHighlightText (Highlight highlight) {
-    this.highlightText = highlight;
+    if (this.highlightText != highlight) {
+      this.highlightText = highlight;
+      clearRecentTexts();
+    }
     return this;
   }
 
@@ -229,13 +246,29 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
     }
 
     boolean sizeChanged = textSizes[index] != textSizePx || (texts[index] != null && texts[index].getMaxLineCount() != maxLines);
+    if (sizeChanged) {
+      clearRecentTexts();
+    }
     if (sizeChanged || texts[index] == null || sizes[index] != maxWidth) {
       boolean needBigEmoji = BitwiseUtils.hasFlag(textFlags, Text.FLAG_BIG_EMOJI) && Settings.instance().useBigEmoji();
       final Text oldText = texts[index];
-      Text text = oldText;
-      if (text != null && !sizeChanged && !needBigEmoji) {
+      final LayoutCache<Text> recentTexts = this.recentTexts[index];
+      Text text = null;
+      long buildTime;
+      if (oldText != null && !sizeChanged && recentTexts != null) {
+        // Layout for this width might have been built before the last resize
+        text = recentTexts.take(maxWidth);
+      }
+      if (text != null) {
+        buildTime = recentTexts.getTakenBuildTime();
+      } else if (oldText != null && !sizeChanged && !needBigEmoji && recentTexts != null && recentTexts.isFull()) {
+        // Rebuild the least recently used layout in place instead of allocating a new one
+        final long startTime = System.nanoTime();
+        text = recentTexts.removeEldest();
         text.set(maxWidth, this.text);
+        buildTime = System.nanoTime() - startTime;
       } else {
+        final long startTime = System.nanoTime();
         Text.Builder b = new Text.Builder(this.text, maxWidth, textStyleProvider, colorTheme)
           .maxLineCount(maxLines)
           .entities(entities, this)
@@ -260,11 +293,21 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
             }
           }
         }
-        texts[index] = text;
-        if (oldText != null) {
+        buildTime = System.nanoTime() - startTime;
+      }
+      texts[index] = text;
+      if (oldText != null) {
+        if (sizeChanged) {
           oldText.performDestroy();
+        } else {
+          LayoutCache<Text> cache = recentTexts;
+          if (cache == null) {
+            cache = this.recentTexts[index] = new LayoutCache<>(MAX_RECENT_TEXT_COUNT);
+          }
+          cache.put(sizes[index], oldText, buildTimes[index], Text::performDestroy);
         }
       }
+      buildTimes[index] = buildTime;
       text.setViewProvider(viewProvider);
       sizes[index] = maxWidth;
       textSizes[index] = textSizePx;
@@ -280,6 +323,14 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
 
   private static final int SCALABLE_EMOJI_COUNT = 3;
 
+  private void clearRecentTexts () {
+    for (LayoutCache<Text> recentTexts : recentTexts) {
+      if (recentTexts != null) {
+        recentTexts.clear(Text::performDestroy);
+      }
+    }
+  }
+
   @Override
   public int getWidth () {
     final Text text = getCurrent();
@@ -417,6 +468,7 @@ public class TextWrapper implements ListAnimator.Measurable, Destroyable, Text.T
 
   @Override
   public void performDestroy () {
+    clearRecentTexts();
     for (int i = 0; i < texts.length; i++) {
       Text text = texts[i];
       if (text != null) {
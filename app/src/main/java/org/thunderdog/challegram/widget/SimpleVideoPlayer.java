@@ -24,6 +24,7 @@ import androidx.media3.exoplayer.source.ClippingMediaSource;
 import androidx.media3.exoplayer.source.MediaSource;
 
 import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.player.PlayerLoadControl;
 
 import java.io.File;
 
@@ -70,7 +71,7 @@ public class SimpleVideoPlayer extends TextureView implements Destroyable, Playe
 
   public void preparePlayer () {
     if (player == null) {
-      player = U.newExoPlayer(getContext(), true);
+      player = U.newExoPlayer(getContext(), true, PlayerLoadControl.Profile.LOCAL);
       player.addListener(this);
       player.setVideoTextureView(this);
       updateSettings();